@@ -8,6 +8,7 @@ import uk.gov.pay.ledger.agreement.entity.AgreementEntity;
 import uk.gov.pay.ledger.agreement.resource.AgreementSearchParams;
 import uk.gov.pay.ledger.event.dao.mapper.EventMapper;
 import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
 
 import java.util.List;
 import java.util.Optional;
@@ -111,10 +112,16 @@ public class AgreementDao {
             "ORDER BY results.event_date ASC";
 
     private final Jdbi jdbi;
+    private final ReadReplicaRouter readReplicaRouter;
 
     @Inject
     public AgreementDao(Jdbi jdbi) {
+        this(jdbi, new ReadReplicaRouter(jdbi));
+    }
+
+    public AgreementDao(Jdbi jdbi, ReadReplicaRouter readReplicaRouter) {
         this.jdbi = jdbi;
+        this.readReplicaRouter = readReplicaRouter;
     }
 
     public Optional<AgreementEntity> findByExternalId(String externalId) {
@@ -132,7 +139,7 @@ public class AgreementDao {
     }
 
     public List<AgreementEntity> searchAgreements(AgreementSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams.getFilterTemplates(), SEARCH_AGREEMENT));
             searchParams.getQueryMap().forEach(bindSearchParameter(query));
             query.bind("offset", searchParams.getOffset());
@@ -144,7 +151,7 @@ public class AgreementDao {
     }
 
     public Long getTotalForSearch(AgreementSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams.getFilterTemplates(), COUNT_AGREEMENT));
             searchParams.getQueryMap().forEach(bindSearchParameter(query));
             return query
@@ -13,30 +13,46 @@ import io.dropwizard.jdbi3.bundles.JdbiExceptionsBundle;
 import io.dropwizard.migrations.MigrationsBundle;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.dropwizard.samplebuilder.CustomMappingSampleBuilder;
+import io.prometheus.client.dropwizard.samplebuilder.MapperConfig;
 import io.prometheus.client.servlet.jakarta.exporter.MetricsServlet;
 import org.dhatim.dropwizard.sentry.logging.SentryAppenderFactory;
 import org.jdbi.v3.core.Jdbi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.agreement.resource.AgreementResource;
+import uk.gov.pay.ledger.event.resource.EventDigestSnapshotResource;
 import uk.gov.pay.ledger.event.resource.EventResource;
+import uk.gov.pay.ledger.eventpublisher.BatchingEventPublisher;
 import uk.gov.pay.ledger.exception.BadRequestExceptionMapper;
 import uk.gov.pay.ledger.exception.JerseyViolationExceptionMapper;
 import uk.gov.pay.ledger.expungeorredact.resource.ExpungeOrRedactResource;
 import uk.gov.pay.ledger.filters.LoggingMDCRequestFilter;
 import uk.gov.pay.ledger.filters.LoggingMDCResponseFilter;
+import uk.gov.pay.ledger.filters.ReadReplicaRequestFilter;
 import uk.gov.pay.ledger.healthcheck.DependentResourceWaitCommand;
 import uk.gov.pay.ledger.healthcheck.HealthCheckResource;
 import uk.gov.pay.ledger.healthcheck.SQSHealthCheck;
 import uk.gov.pay.ledger.payout.resource.PayoutResource;
+import uk.gov.pay.ledger.queue.IngestMetrics;
+import uk.gov.pay.ledger.queue.managed.PrefetchingQueueMessageReceiver;
 import uk.gov.pay.ledger.queue.managed.QueueMessageReceiver;
 import uk.gov.pay.ledger.report.resource.PerformanceReportResource;
 import uk.gov.pay.ledger.report.resource.ReportResource;
+import uk.gov.pay.ledger.transaction.resource.TransactionExportResource;
 import uk.gov.pay.ledger.transaction.resource.TransactionResource;
+import uk.gov.pay.ledger.transaction.service.TransactionExportService;
+import uk.gov.pay.ledger.transaction.service.TransactionPartitionMaintainer;
+import uk.gov.pay.ledger.transactionsummary.service.TransactionSummaryDeltaFlusher;
+import uk.gov.pay.ledger.util.dao.ReadReplicaLagMonitor;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
 import uk.gov.service.payments.logging.GovUkPayDropwizardRequestJsonLogLayoutFactory;
 import uk.gov.service.payments.logging.LoggingFilter;
 import uk.gov.service.payments.logging.LogstashConsoleAppenderFactory;
 
+import java.util.List;
+import java.util.Map;
+
 import static java.util.EnumSet.of;
 import static jakarta.servlet.DispatcherType.REQUEST;
 
@@ -72,33 +88,67 @@ public class LedgerApp extends Application<LedgerConfig> {
     @Override
     public void run(LedgerConfig config, Environment environment) {
         CollectorRegistry collectorRegistry = CollectorRegistry.defaultRegistry;
-        collectorRegistry.register(new DropwizardExports(environment.metrics()));
+        // export the ingest stage timers as one metric labelled by stage, resource type and event processor
+        MapperConfig ingestStageMapperConfig = new MapperConfig(IngestMetrics.STAGE_TIMER_PREFIX + ".*.*.*", "ledger_ingest_stage",
+                Map.of("stage", "${0}", "resource_type", "${1}", "event_processor", "${2}"));
+        collectorRegistry.register(new DropwizardExports(environment.metrics(),
+                new CustomMappingSampleBuilder(List.of(ingestStageMapperConfig))));
         environment.admin().addServlet("prometheusMetrics", new MetricsServlet(collectorRegistry)).addMapping("/metrics");
 
         JdbiFactory jdbiFactory = new JdbiFactory();
         final Jdbi jdbi = jdbiFactory.build(environment, config.getDataSourceFactory(), "postgresql");
+        final ReadReplicaRouter readReplicaRouter;
+        if (config.getReadReplicaConfig().isEnabled()) {
+            readReplicaRouter = new ReadReplicaRouter(jdbi, jdbiFactory.build(environment,
+                    config.getReadReplicaConfig().getDataSourceFactory(), "postgresql-read-replica"));
+            // reads fall back to the primary while the replica is behind or down, so it must not fail the health
+            // check: its lag is reported by the read-replica.lag-seconds and read-replica.behind gauges instead
+            environment.healthChecks().unregister("postgresql-read-replica");
+        } else {
+            readReplicaRouter = new ReadReplicaRouter(jdbi);
+        }
 
-        final Injector injector = Guice.createInjector(new LedgerModule(config, environment, jdbi));
+        final Injector injector = Guice.createInjector(new LedgerModule(config, environment, jdbi, readReplicaRouter));
 
         environment.jersey().register(injector.getInstance(EventResource.class));
         environment.jersey().register(injector.getInstance(TransactionResource.class));
+        environment.jersey().register(injector.getInstance(TransactionExportResource.class));
         environment.jersey().register(injector.getInstance(ReportResource.class));
         environment.jersey().register(injector.getInstance(PerformanceReportResource.class));
         environment.jersey().register(injector.getInstance(AgreementResource.class));
         environment.jersey().register(injector.getInstance(HealthCheckResource.class));
         environment.jersey().register(injector.getInstance(ExpungeOrRedactResource.class));
+        environment.jersey().register(injector.getInstance(EventDigestSnapshotResource.class));
 
         environment.servlets().addFilter("LoggingFilter", new LoggingFilter())
                 .addMappingForUrlPatterns(of(REQUEST), true, "/v1/*");
         environment.jersey().register(injector.getInstance(LoggingMDCRequestFilter.class));
         environment.jersey().register(injector.getInstance(LoggingMDCResponseFilter.class));
+        environment.jersey().register(new ReadReplicaRequestFilter());
 
         environment.jersey().register(new BadRequestExceptionMapper());
         environment.jersey().register(new JerseyViolationExceptionMapper());
         environment.healthChecks().register("sqsQueue", injector.getInstance(SQSHealthCheck.class));
 
+        if (config.getReadReplicaConfig().isEnabled()) {
+            environment.lifecycle().manage(injector.getInstance(ReadReplicaLagMonitor.class));
+        }
+
+        environment.lifecycle().manage(injector.getInstance(TransactionExportService.class));
+
+        // managed before the receivers so that they are started before and stopped after them
+        environment.lifecycle().manage(injector.getInstance(TransactionPartitionMaintainer.class));
+        if (config.getSnsConfig().isSnsEnabled() && config.getSnsConfig().isBatchPublishingEnabled()) {
+            environment.lifecycle().manage(injector.getInstance(BatchingEventPublisher.class));
+        }
+        environment.lifecycle().manage(injector.getInstance(TransactionSummaryDeltaFlusher.class));
+
         if(config.getQueueMessageReceiverConfig().isBackgroundProcessingEnabled()) {
-            environment.lifecycle().manage(injector.getInstance(QueueMessageReceiver.class));
+            if (config.getQueueMessageReceiverConfig().isPrefetchEnabled()) {
+                environment.lifecycle().manage(injector.getInstance(PrefetchingQueueMessageReceiver.class));
+            } else {
+                environment.lifecycle().manage(injector.getInstance(QueueMessageReceiver.class));
+            }
         }
 
         environment.jersey().register(injector.getInstance(PayoutResource.class));
@@ -5,9 +5,12 @@ import io.dropwizard.core.Configuration;
 import io.dropwizard.db.DataSourceFactory;
 import uk.gov.pay.ledger.app.config.ExpungeOrRedactHistoricalDataConfig;
 import uk.gov.pay.ledger.app.config.QueueMessageReceiverConfig;
+import uk.gov.pay.ledger.app.config.ReadReplicaConfig;
 import uk.gov.pay.ledger.app.config.ReportingConfig;
 import uk.gov.pay.ledger.app.config.SnsConfig;
 import uk.gov.pay.ledger.app.config.SqsConfig;
+import uk.gov.pay.ledger.app.config.TransactionExportConfig;
+import uk.gov.pay.ledger.app.config.TransactionPartitionConfig;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
@@ -45,6 +48,21 @@ public class LedgerConfig extends Configuration {
     @JsonProperty("reportingConfig")
     private ReportingConfig reportingConfig;
 
+    @Valid
+    @NotNull
+    @JsonProperty("readReplicaConfig")
+    private ReadReplicaConfig readReplicaConfig;
+
+    @Valid
+    @NotNull
+    @JsonProperty("transactionPartitionConfig")
+    private TransactionPartitionConfig transactionPartitionConfig;
+
+    @Valid
+    @NotNull
+    @JsonProperty("transactionExportConfig")
+    private TransactionExportConfig transactionExportConfig;
+
     @JsonProperty("ecsContainerMetadataUriV4")
     private URI ecsContainerMetadataUriV4;
 
@@ -67,6 +85,18 @@ public class LedgerConfig extends Configuration {
         return reportingConfig;
     }
 
+    public ReadReplicaConfig getReadReplicaConfig() {
+        return readReplicaConfig;
+    }
+
+    public TransactionPartitionConfig getTransactionPartitionConfig() {
+        return transactionPartitionConfig;
+    }
+
+    public TransactionExportConfig getTransactionExportConfig() {
+        return transactionExportConfig;
+    }
+
     public Optional<URI> getEcsContainerMetadataUriV4() {
         return Optional.ofNullable(ecsContainerMetadataUriV4);
     }
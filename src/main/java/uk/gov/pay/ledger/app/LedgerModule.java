@@ -1,5 +1,6 @@
 package uk.gov.pay.ledger.app;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
@@ -15,42 +16,79 @@ import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.SqsClientBuilder;
 import uk.gov.pay.ledger.agreement.dao.AgreementDao;
 import uk.gov.pay.ledger.agreement.dao.PaymentInstrumentDao;
+import uk.gov.pay.ledger.app.config.QueueMessageReceiverConfig;
+import uk.gov.pay.ledger.app.config.ReadReplicaConfig;
+import uk.gov.pay.ledger.app.config.ReportingConfig;
+import uk.gov.pay.ledger.app.config.SnsConfig;
+import uk.gov.pay.ledger.app.config.TransactionExportConfig;
+import uk.gov.pay.ledger.app.config.TransactionPartitionConfig;
 import uk.gov.pay.ledger.event.dao.EventDao;
+import uk.gov.pay.ledger.event.dao.EventDigestSnapshotDao;
 import uk.gov.pay.ledger.event.dao.ResourceTypeDao;
+import uk.gov.pay.ledger.event.dao.ResourceTypeIdCache;
+import uk.gov.pay.ledger.eventpublisher.BatchingEventPublisher;
+import uk.gov.pay.ledger.eventpublisher.EventPublisher;
 import uk.gov.pay.ledger.expungeorredact.dao.TransactionRedactionInfoDao;
 import uk.gov.pay.ledger.gatewayaccountmetadata.dao.GatewayAccountMetadataDao;
 import uk.gov.pay.ledger.metadatakey.dao.MetadataKeyDao;
 import uk.gov.pay.ledger.payout.dao.PayoutDao;
+import uk.gov.pay.ledger.queue.EventMessagePrefetchBuffer;
+import uk.gov.pay.ledger.queue.EventQueue;
+import uk.gov.pay.ledger.queue.IngestLaneExecutor;
 import uk.gov.pay.ledger.report.dao.PerformanceReportDao;
 import uk.gov.pay.ledger.report.dao.ReportDao;
 import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.dao.TransactionExportDao;
+import uk.gov.pay.ledger.transaction.dao.TransactionPartitionDao;
+import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
+import uk.gov.pay.ledger.transaction.service.CsvExportPipeline;
+import uk.gov.pay.ledger.transaction.service.CsvService;
+import uk.gov.pay.ledger.transaction.service.TransactionExportService;
+import uk.gov.pay.ledger.transaction.service.TransactionPartitionMaintainer;
+import uk.gov.pay.ledger.transaction.service.TransactionSearchStreamer;
+import uk.gov.pay.ledger.transaction.service.TransactionSearchTotalCache;
 import uk.gov.pay.ledger.transactionmetadata.dao.TransactionMetadataDao;
 import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+import uk.gov.pay.ledger.transactionsummary.service.TransactionSummaryDeltaFlusher;
+import uk.gov.pay.ledger.util.dao.ConcurrentQueryExecutor;
+import uk.gov.pay.ledger.util.dao.ReadReplicaLagMonitor;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
 import uk.gov.service.payments.commons.queue.sqs.SqsQueueService;
 
 import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.InstantSource;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
 
 public class LedgerModule extends AbstractModule {
     private final LedgerConfig configuration;
     private final Environment environment;
     private final Jdbi jdbi;
+    private final ReadReplicaRouter readReplicaRouter;
 
     LedgerModule(
             LedgerConfig config,
             final Environment environment,
-            final Jdbi jdbi
+            final Jdbi jdbi,
+            final ReadReplicaRouter readReplicaRouter
     ) {
         this.configuration = config;
         this.environment = environment;
         this.jdbi = jdbi;
+        this.readReplicaRouter = readReplicaRouter;
     }
 
     @Override
     protected void configure() {
         bind(LedgerConfig.class).toInstance(configuration);
         bind(Environment.class).toInstance(environment);
+        bind(MetricRegistry.class).toInstance(environment.metrics());
         bind(Jdbi.class).toInstance(jdbi);
+        bind(ReadReplicaRouter.class).toInstance(readReplicaRouter);
         bind(InstantSource.class).toInstance(InstantSource.system());
     }
 
@@ -69,16 +107,34 @@ public class LedgerModule extends AbstractModule {
         return jdbi.onDemand(EventDao.class);
     }
 
+    @Provides
+    @Singleton
+    public EventDigestSnapshotDao provideEventDigestSnapshotDao() {
+        return jdbi.onDemand(EventDigestSnapshotDao.class);
+    }
+
     @Provides
     @Singleton
     public ResourceTypeDao provideResourceTypeDao() {
         return jdbi.onDemand(ResourceTypeDao.class);
     }
 
+    @Provides
+    @Singleton
+    public ResourceTypeIdCache provideResourceTypeIdCache(ResourceTypeDao resourceTypeDao) {
+        return new ResourceTypeIdCache(resourceTypeDao);
+    }
+
     @Provides
     @Singleton
     public TransactionDao provideTransactionDao() {
-        return new TransactionDao(jdbi, configuration);
+        return new TransactionDao(jdbi, readReplicaRouter, configuration);
+    }
+
+    @Provides
+    @Singleton
+    public TransactionExportDao provideTransactionExportDao() {
+        return jdbi.onDemand(TransactionExportDao.class);
     }
 
     @Provides
@@ -90,19 +146,19 @@ public class LedgerModule extends AbstractModule {
     @Provides
     @Singleton
     public PerformanceReportDao providePerformanceReportDao() {
-        return new PerformanceReportDao(jdbi);
+        return new PerformanceReportDao(readReplicaRouter);
     }
 
     @Provides
     @Singleton
     public PayoutDao providePayoutDao() {
-        return new PayoutDao(jdbi);
+        return new PayoutDao(jdbi, readReplicaRouter);
     }
 
     @Provides
     @Singleton
     public ReportDao provideReportDao() {
-        return new ReportDao(jdbi);
+        return new ReportDao(readReplicaRouter);
     }
 
     @Provides
@@ -129,10 +185,125 @@ public class LedgerModule extends AbstractModule {
         return new TransactionSummaryDao(jdbi);
     }
 
+    @Provides
+    @Singleton
+    public TransactionSummaryDeltaFlusher provideTransactionSummaryDeltaFlusher(TransactionSummaryDao transactionSummaryDao,
+                                                                                MetricRegistry metricRegistry) {
+        QueueMessageReceiverConfig queueMessageReceiverConfig = configuration.getQueueMessageReceiverConfig();
+        ScheduledExecutorService executorService = environment.lifecycle()
+                .scheduledExecutorService("transaction-summary-flusher-%d")
+                .threads(1)
+                .build();
+        return new TransactionSummaryDeltaFlusher(transactionSummaryDao, executorService, metricRegistry,
+                queueMessageReceiverConfig.isTransactionSummaryWriteBehindEnabled(),
+                Duration.ofMillis(queueMessageReceiverConfig.getTransactionSummaryFlushIntervalInMilliseconds()),
+                queueMessageReceiverConfig.getTransactionSummaryFlushMaximumDeltas());
+    }
+
+    @Provides
+    @Singleton
+    public TransactionPartitionMaintainer provideTransactionPartitionMaintainer(TransactionPartitionDao transactionPartitionDao,
+                                                                              MetricRegistry metricRegistry,
+                                                                              InstantSource instantSource) {
+        TransactionPartitionConfig transactionPartitionConfig = configuration.getTransactionPartitionConfig();
+        ScheduledExecutorService executorService = environment.lifecycle()
+                .scheduledExecutorService("transaction-partition-maintainer-%d")
+                .threads(1)
+                .build();
+        return new TransactionPartitionMaintainer(transactionPartitionDao, executorService, metricRegistry, instantSource,
+                transactionPartitionConfig.getMonthsToCreateAhead(),
+                Duration.ofHours(transactionPartitionConfig.getCheckIntervalInHours()));
+    }
+
+    @Provides
+    @Singleton
+    public TransactionSearchTotalCache provideTransactionSearchTotalCache() {
+        ReportingConfig reportingConfig = configuration.getReportingConfig();
+        return new TransactionSearchTotalCache(Duration.ofSeconds(reportingConfig.getSearchTotalCacheTimeToLiveInSeconds()),
+                reportingConfig.getSearchTotalCacheMaximumSize());
+    }
+
+    @Provides
+    @Singleton
+    public ConcurrentQueryExecutor provideConcurrentQueryExecutor(MetricRegistry metricRegistry) {
+        ReportingConfig reportingConfig = configuration.getReportingConfig();
+        ExecutorService executorService = environment.lifecycle()
+                .executorService("search-query-%d")
+                .minThreads(reportingConfig.getSearchQueryThreads())
+                .maxThreads(reportingConfig.getSearchQueryThreads())
+                .workQueue(new ArrayBlockingQueue<>(reportingConfig.getSearchQueryQueueSize()))
+                .build();
+        return new ConcurrentQueryExecutor(readReplicaRouter, executorService, metricRegistry, "search-query-executor");
+    }
+
+    @Provides
+    @Singleton
+    public CsvExportPipeline provideCsvExportPipeline(TransactionSearchStreamer transactionSearchStreamer,
+                                                      TransactionDao transactionDao,
+                                                      CsvTransactionFactory csvTransactionFactory,
+                                                      MetricRegistry metricRegistry,
+                                                      InstantSource instantSource) {
+        ReportingConfig reportingConfig = configuration.getReportingConfig();
+        ExecutorService executorService = environment.lifecycle()
+                .executorService("csv-export-prefetch-%d")
+                .minThreads(reportingConfig.getStreamingCsvPrefetchThreads())
+                .maxThreads(reportingConfig.getStreamingCsvPrefetchThreads())
+                .workQueue(new SynchronousQueue<>())
+                .build();
+        return new CsvExportPipeline(transactionSearchStreamer, transactionDao, csvTransactionFactory, executorService,
+                metricRegistry, instantSource, reportingConfig.getStreamingCsvPrefetchDepth(),
+                reportingConfig.getStreamingCsvPageSize(),
+                Duration.ofSeconds(reportingConfig.getStreamingCsvMaxDurationInSeconds()));
+    }
+
+    @Provides
+    @Singleton
+    public TransactionExportService provideTransactionExportService(TransactionSearchStreamer transactionSearchStreamer,
+                                                                    TransactionDao transactionDao,
+                                                                    TransactionExportDao transactionExportDao,
+                                                                    CsvService csvService,
+                                                                    MetricRegistry metricRegistry,
+                                                                    InstantSource instantSource) {
+        TransactionExportConfig transactionExportConfig = configuration.getTransactionExportConfig();
+        ExecutorService exportExecutorService = environment.lifecycle()
+                .executorService("transaction-export-%d")
+                .minThreads(transactionExportConfig.getThreads())
+                .maxThreads(transactionExportConfig.getThreads())
+                .workQueue(new ArrayBlockingQueue<>(transactionExportConfig.getQueueSize()))
+                .build();
+        ScheduledExecutorService cleanUpExecutorService = environment.lifecycle()
+                .scheduledExecutorService("transaction-export-clean-up-%d")
+                .threads(1)
+                .build();
+        return new TransactionExportService(transactionSearchStreamer, transactionDao, transactionExportDao, csvService,
+                exportExecutorService, cleanUpExecutorService, metricRegistry, instantSource,
+                Path.of(transactionExportConfig.getDirectory()),
+                Duration.ofMinutes(transactionExportConfig.getTimeToLiveInMinutes()),
+                transactionExportConfig.getDiskQuotaInMegabytes() * 1024 * 1024,
+                Duration.ofMinutes(transactionExportConfig.getCleanUpIntervalInMinutes()),
+                Duration.ofSeconds(transactionExportConfig.getHeartbeatIntervalInSeconds()),
+                Duration.ofMinutes(transactionExportConfig.getDownloadGracePeriodInMinutes()));
+    }
+
+    @Provides
+    @Singleton
+    public ReadReplicaLagMonitor provideReadReplicaLagMonitor(MetricRegistry metricRegistry) {
+        ReadReplicaConfig readReplicaConfig = configuration.getReadReplicaConfig();
+        ScheduledExecutorService executorService = environment.lifecycle()
+                .scheduledExecutorService("read-replica-lag-monitor-%d")
+                .threads(1)
+                .build();
+        return new ReadReplicaLagMonitor(readReplicaRouter,
+                readReplicaRouter.getReplicaJdbi().orElseThrow(() -> new IllegalStateException("Read replica is not enabled")),
+                executorService, metricRegistry,
+                Duration.ofSeconds(readReplicaConfig.getMaximumLagInSeconds()),
+                Duration.ofSeconds(readReplicaConfig.getLagCheckIntervalInSeconds()));
+    }
+
     @Provides
     @Singleton
     public AgreementDao provideAgreementDao() {
-        return new AgreementDao(jdbi);
+        return new AgreementDao(jdbi, readReplicaRouter);
     }
 
     @Provides
@@ -141,6 +312,41 @@ public class LedgerModule extends AbstractModule {
         return new PaymentInstrumentDao(jdbi);
     }
 
+    @Provides
+    @Singleton
+    public IngestLaneExecutor provideIngestLaneExecutor() {
+        int numberOfIngestLanes = configuration.getQueueMessageReceiverConfig().getNumberOfIngestLanes();
+        ExecutorService executorService = environment.lifecycle()
+                .executorService("ingest-lane-%d")
+                .minThreads(numberOfIngestLanes)
+                .maxThreads(numberOfIngestLanes)
+                .build();
+        return new IngestLaneExecutor(numberOfIngestLanes, executorService);
+    }
+
+    @Provides
+    @Singleton
+    public EventMessagePrefetchBuffer provideEventMessagePrefetchBuffer(EventQueue eventQueue, MetricRegistry metricRegistry,
+                                                                        InstantSource instantSource) {
+        // leave at least half of the visibility timeout for processing and acknowledging a batch once it leaves the buffer
+        Duration maximumBufferedTime = Duration.ofSeconds(configuration.getSqsConfig().getMessageVisibilityTimeoutInSeconds()).dividedBy(2);
+        return new EventMessagePrefetchBuffer(eventQueue, metricRegistry, instantSource,
+                configuration.getQueueMessageReceiverConfig().getPrefetchBufferSizeInBatches(), maximumBufferedTime);
+    }
+
+    @Provides
+    @Singleton
+    public BatchingEventPublisher provideBatchingEventPublisher(EventPublisher eventPublisher, MetricRegistry metricRegistry) {
+        SnsConfig snsConfig = configuration.getSnsConfig();
+        ExecutorService executorService = environment.lifecycle()
+                .executorService("sns-publisher-%d")
+                .minThreads(1)
+                .maxThreads(1)
+                .build();
+        return new BatchingEventPublisher(eventPublisher, executorService, metricRegistry, snsConfig.getPublishQueueCapacity(),
+                snsConfig.getPublishMaximumAttempts(), Duration.ofMillis(snsConfig.getPublishRetryDelayInMilliseconds()));
+    }
+
     @Provides
     public SqsClient sqsClient(LedgerConfig ledgerConfig) {
         SqsClientBuilder clientBuilder = SqsClient.builder();
@@ -4,6 +4,7 @@ package uk.gov.pay.ledger.app.config;
 import io.dropwizard.core.Configuration;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
 public class QueueMessageReceiverConfig extends Configuration {
@@ -23,6 +24,32 @@ public class QueueMessageReceiverConfig extends Configuration {
     @NotNull
     private int messageRetryDelayInSeconds;
 
+    @Valid
+    @Min(1)
+    private int numberOfIngestLanes = 1;
+
+    @Valid
+    private boolean prefetchEnabled;
+
+    @Valid
+    @Min(1)
+    private int prefetchBufferSizeInBatches = 2;
+
+    @Valid
+    @Min(1)
+    private int numberOfProcessingThreads = 1;
+
+    @Valid
+    private boolean transactionSummaryWriteBehindEnabled;
+
+    @Valid
+    @Min(1)
+    private int transactionSummaryFlushIntervalInMilliseconds = 1000;
+
+    @Valid
+    @Min(1)
+    private int transactionSummaryFlushMaximumDeltas = 500;
+
     public int getThreadDelayInMilliseconds() {
         return threadDelayInMilliseconds;
     }
@@ -37,4 +64,32 @@ public class QueueMessageReceiverConfig extends Configuration {
 
     public boolean isBackgroundProcessingEnabled() { return backgroundProcessingEnabled; }
 
+    public int getNumberOfIngestLanes() {
+        return numberOfIngestLanes;
+    }
+
+    public boolean isPrefetchEnabled() {
+        return prefetchEnabled;
+    }
+
+    public int getPrefetchBufferSizeInBatches() {
+        return prefetchBufferSizeInBatches;
+    }
+
+    public int getNumberOfProcessingThreads() {
+        return numberOfProcessingThreads;
+    }
+
+    public boolean isTransactionSummaryWriteBehindEnabled() {
+        return transactionSummaryWriteBehindEnabled;
+    }
+
+    public int getTransactionSummaryFlushIntervalInMilliseconds() {
+        return transactionSummaryFlushIntervalInMilliseconds;
+    }
+
+    public int getTransactionSummaryFlushMaximumDeltas() {
+        return transactionSummaryFlushMaximumDeltas;
+    }
+
 }
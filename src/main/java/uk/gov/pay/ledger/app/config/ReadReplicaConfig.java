@@ -0,0 +1,40 @@
+package uk.gov.pay.ledger.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.Configuration;
+import io.dropwizard.db.DataSourceFactory;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+
+public class ReadReplicaConfig extends Configuration {
+
+    @NotNull
+    private boolean enabled;
+
+    @Valid
+    @NotNull
+    @JsonProperty("database")
+    private DataSourceFactory dataSourceFactory = new DataSourceFactory();
+
+    @NotNull
+    private int maximumLagInSeconds;
+
+    @NotNull
+    private int lagCheckIntervalInSeconds;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public DataSourceFactory getDataSourceFactory() {
+        return dataSourceFactory;
+    }
+
+    public int getMaximumLagInSeconds() {
+        return maximumLagInSeconds;
+    }
+
+    public int getLagCheckIntervalInSeconds() {
+        return lagCheckIntervalInSeconds;
+    }
+}
@@ -4,20 +4,87 @@ package uk.gov.pay.ledger.app.config;
 import io.dropwizard.core.Configuration;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
 
 public class ReportingConfig extends Configuration {
 
     @Valid
     private int streamingCsvPageSize;
 
+    @Valid
+    private long streamingCsvFlushThresholdInBytes;
+
+    @Valid
+    private int streamingCsvMaxCursorDurationInSeconds;
+
+    @Valid
+    @Min(1)
+    private int streamingCsvMaxDurationInSeconds;
+
+    @Valid
+    @Min(0)
+    private int streamingCsvPrefetchDepth;
+
+    @Valid
+    @Min(1)
+    private int streamingCsvPrefetchThreads;
+
     @Valid
     private int searchQueryTimeoutInSeconds;
 
+    @Valid
+    private int searchTotalCacheTimeToLiveInSeconds;
+
+    @Valid
+    private long searchTotalCacheMaximumSize;
+
+    @Valid
+    private int searchQueryThreads;
+
+    @Valid
+    private int searchQueryQueueSize;
+
     public int getStreamingCsvPageSize() {
         return streamingCsvPageSize;
     }
 
+    public long getStreamingCsvFlushThresholdInBytes() {
+        return streamingCsvFlushThresholdInBytes;
+    }
+
+    public int getStreamingCsvMaxCursorDurationInSeconds() {
+        return streamingCsvMaxCursorDurationInSeconds;
+    }
+
+    public int getStreamingCsvMaxDurationInSeconds() {
+        return streamingCsvMaxDurationInSeconds;
+    }
+
+    public int getStreamingCsvPrefetchDepth() {
+        return streamingCsvPrefetchDepth;
+    }
+
+    public int getStreamingCsvPrefetchThreads() {
+        return streamingCsvPrefetchThreads;
+    }
+
     public int getSearchQueryTimeoutInSeconds() {
         return searchQueryTimeoutInSeconds;
     }
+
+    public int getSearchTotalCacheTimeToLiveInSeconds() {
+        return searchTotalCacheTimeToLiveInSeconds;
+    }
+
+    public long getSearchTotalCacheMaximumSize() {
+        return searchTotalCacheMaximumSize;
+    }
+
+    public int getSearchQueryThreads() {
+        return searchQueryThreads;
+    }
+
+    public int getSearchQueryQueueSize() {
+        return searchQueryQueueSize;
+    }
 }
\ No newline at end of file
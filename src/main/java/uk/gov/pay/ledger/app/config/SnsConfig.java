@@ -5,6 +5,7 @@ import io.dropwizard.core.Configuration;
 
 import java.net.URI;
 
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
 public class SnsConfig extends Configuration {
@@ -25,6 +26,14 @@ public class SnsConfig extends Configuration {
     private boolean nonStandardServiceEndpoint;
     private URI endpoint;
 
+    private boolean batchPublishingEnabled;
+    @Min(1)
+    private int publishQueueCapacity = 1000;
+    @Min(1)
+    private int publishMaximumAttempts = 3;
+    @Min(0)
+    private int publishRetryDelayInMilliseconds = 100;
+
     public boolean isSnsEnabled() {
         return snsEnabled;
     }
@@ -64,4 +73,20 @@ public class SnsConfig extends Configuration {
     public boolean isPublishCardPaymentDisputeEventsToSns() {
         return publishCardPaymentDisputeEventsToSns;
     }
+
+    public boolean isBatchPublishingEnabled() {
+        return batchPublishingEnabled;
+    }
+
+    public int getPublishQueueCapacity() {
+        return publishQueueCapacity;
+    }
+
+    public int getPublishMaximumAttempts() {
+        return publishMaximumAttempts;
+    }
+
+    public int getPublishRetryDelayInMilliseconds() {
+        return publishRetryDelayInMilliseconds;
+    }
 }
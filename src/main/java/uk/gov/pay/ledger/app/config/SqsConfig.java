@@ -4,6 +4,7 @@ package uk.gov.pay.ledger.app.config;
 import io.dropwizard.core.Configuration;
 
 import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
 public class SqsConfig extends Configuration {
@@ -20,6 +21,8 @@ public class SqsConfig extends Configuration {
     private int messageMaximumWaitTimeInSeconds;
     @Max(10)
     private int messageMaximumBatchSize;
+    @Min(1)
+    private int messageVisibilityTimeoutInSeconds = 30;
 
 
     private boolean nonStandardServiceEndpoint;
@@ -37,6 +40,10 @@ public class SqsConfig extends Configuration {
         return messageMaximumWaitTimeInSeconds;
     }
 
+    public int getMessageVisibilityTimeoutInSeconds() {
+        return messageVisibilityTimeoutInSeconds;
+    }
+
     public String getSecretKey() {
         return secretKey;
     }
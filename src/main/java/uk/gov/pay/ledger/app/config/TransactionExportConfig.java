@@ -0,0 +1,72 @@
+package uk.gov.pay.ledger.app.config;
+
+import io.dropwizard.core.Configuration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+public class TransactionExportConfig extends Configuration {
+
+    @NotEmpty
+    private String directory;
+
+    @NotNull
+    @Min(1)
+    private int threads;
+
+    @NotNull
+    @Min(1)
+    private int queueSize;
+
+    @NotNull
+    @Min(1)
+    private int timeToLiveInMinutes;
+
+    @NotNull
+    @Min(1)
+    private long diskQuotaInMegabytes;
+
+    @NotNull
+    @Min(1)
+    private int cleanUpIntervalInMinutes;
+
+    @NotNull
+    @Min(1)
+    private int heartbeatIntervalInSeconds;
+
+    @NotNull
+    @Min(1)
+    private int downloadGracePeriodInMinutes;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getTimeToLiveInMinutes() {
+        return timeToLiveInMinutes;
+    }
+
+    public long getDiskQuotaInMegabytes() {
+        return diskQuotaInMegabytes;
+    }
+
+    public int getCleanUpIntervalInMinutes() {
+        return cleanUpIntervalInMinutes;
+    }
+
+    public int getHeartbeatIntervalInSeconds() {
+        return heartbeatIntervalInSeconds;
+    }
+
+    public int getDownloadGracePeriodInMinutes() {
+        return downloadGracePeriodInMinutes;
+    }
+}
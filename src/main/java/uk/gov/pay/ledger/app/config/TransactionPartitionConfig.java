@@ -0,0 +1,24 @@
+package uk.gov.pay.ledger.app.config;
+
+import io.dropwizard.core.Configuration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class TransactionPartitionConfig extends Configuration {
+
+    @NotNull
+    @Min(1)
+    private int monthsToCreateAhead;
+
+    @NotNull
+    @Min(1)
+    private int checkIntervalInHours;
+
+    public int getMonthsToCreateAhead() {
+        return monthsToCreateAhead;
+    }
+
+    public int getCheckIntervalInHours() {
+        return checkIntervalInHours;
+    }
+}
@@ -1,6 +1,10 @@
 package uk.gov.pay.ledger.event.dao;
 
+import com.google.common.collect.Lists;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.statement.Query;
 import org.jdbi.v3.sqlobject.CreateSqlObject;
+import org.jdbi.v3.sqlobject.SqlObject;
 import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindBean;
@@ -15,20 +19,31 @@ import uk.gov.pay.ledger.event.dao.mapper.EventMapper;
 import uk.gov.pay.ledger.event.dao.mapper.EventTickerMapper;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.EventTicker;
+import uk.gov.pay.ledger.event.model.ResourceType;
 
+import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.ToIntFunction;
 
 import static uk.gov.pay.ledger.transaction.service.TransactionService.REDACTED_REFERENCE_NUMBER;
 
 @RegisterRowMapper(EventMapper.class)
 @RegisterRowMapper(EventTickerMapper.class)
-public interface EventDao {
+public interface EventDao extends SqlObject {
     @CreateSqlObject
     ResourceTypeDao getResourceTypeDao();
 
+    @CreateSqlObject
+    EventDigestSnapshotDao getEventDigestSnapshotDao();
+
     @SqlQuery("SELECT e.id, e.sqs_message_id, e.service_id, e.live, rt.name AS resource_type_name, e.resource_external_id, e.parent_resource_external_id," +
             " e.event_date, e.event_type, e.event_data" +
             " FROM event e, resource_type rt WHERE e.id = :eventId AND e.resource_type_id = rt.id")
@@ -41,18 +56,20 @@ public interface EventDao {
     @GetGeneratedKeys
     Long insert(@BindBean EventEntity event, @Bind("resourceTypeId") int resourceTypeId);
 
-    @SqlUpdate("INSERT INTO event(sqs_message_id, service_id, live, resource_type_id, resource_external_id, parent_resource_external_id, " +
-            "event_date, event_type, event_data) " +
-            "SELECT :sqsMessageId, :serviceId, :live, :resourceTypeId, :resourceExternalId, :parentResourceExternalId, " +
-            "       :eventDate, :eventType, CAST(:eventData as jsonb) " +
-            "WHERE NOT EXISTS ( " +
-            "    SELECT 1 " +
-            "    FROM event " +
-            "    WHERE resource_type_id = :resourceTypeId AND " +
-            "          resource_external_id = :resourceExternalId AND  " +
-            "          event_date = :eventDate AND   " +
-            "          event_type = :eventType) ")
-    @GetGeneratedKeys
+    String INSERT_EVENT_COLUMNS = "INSERT INTO event(sqs_message_id, service_id, live, resource_type_id, resource_external_id, " +
+            "parent_resource_external_id, event_date, event_type, event_data) ";
+
+    String ON_DUPLICATE_EVENT_DO_NOTHING = " ON CONFLICT (resource_type_id, resource_external_id, event_date, event_type) DO NOTHING";
+
+    int MAXIMUM_EVENTS_PER_INSERT = 1000;
+
+    String INSERT_EVENTS_SAVEPOINT = "insert_events";
+
+    @SqlUpdate(INSERT_EVENT_COLUMNS +
+            "VALUES (:sqsMessageId, :serviceId, :live, :resourceTypeId, :resourceExternalId, :parentResourceExternalId, " +
+            ":eventDate, :eventType, CAST(:eventData as jsonb))" +
+            ON_DUPLICATE_EVENT_DO_NOTHING)
+    @GetGeneratedKeys("id")
     Optional<Long> insertIfDoesNotExist(@BindBean EventEntity event, @Bind("resourceTypeId") int resourceTypeId);
 
     @Transaction
@@ -67,12 +84,82 @@ public interface EventDao {
         return insertIfDoesNotExist(event, resourceTypeId);
     }
 
+    /**
+     * Inserts all events that do not exist yet with one multi-row statement per {@link #MAXIMUM_EVENTS_PER_INSERT}
+     * events. Returns the id of each event that was inserted, or an empty optional for events that already existed,
+     * in the order of the given events. When the same event is given more than once only the first is inserted.
+     *
+     * Inside a transaction the statements run behind a savepoint that is rolled back if one of them fails, so the
+     * transaction can still be used afterwards, for example to insert the events one at a time instead.
+     */
+    default List<Optional<Long>> insertEventsIfDoNotExist(List<EventEntity> events, ToIntFunction<ResourceType> resourceTypeIds) {
+        Handle handle = getHandle();
+        if (!handle.isInTransaction()) {
+            return insertEventBatchesIfDoNotExist(events, resourceTypeIds);
+        }
+        handle.savepoint(INSERT_EVENTS_SAVEPOINT);
+        try {
+            List<Optional<Long>> ids = insertEventBatchesIfDoNotExist(events, resourceTypeIds);
+            handle.releaseSavepoint(INSERT_EVENTS_SAVEPOINT);
+            return ids;
+        } catch (RuntimeException e) {
+            handle.rollbackToSavepoint(INSERT_EVENTS_SAVEPOINT);
+            throw e;
+        }
+    }
+
+    private List<Optional<Long>> insertEventBatchesIfDoNotExist(List<EventEntity> events, ToIntFunction<ResourceType> resourceTypeIds) {
+        List<Optional<Long>> ids = new ArrayList<>(events.size());
+        for (List<EventEntity> batch : Lists.partition(events, MAXIMUM_EVENTS_PER_INSERT)) {
+            var values = new StringJoiner(", ");
+            for (int i = 0; i < batch.size(); i++) {
+                values.add(String.format("(:e%1$d.sqsMessageId, :e%1$d.serviceId, :e%1$d.live, :resourceTypeId%1$d, " +
+                        ":e%1$d.resourceExternalId, :e%1$d.parentResourceExternalId, :e%1$d.eventDate, :e%1$d.eventType, " +
+                        "CAST(:e%1$d.eventData as jsonb))", i));
+            }
+
+            Query query = getHandle().createQuery(INSERT_EVENT_COLUMNS + "VALUES " + values + ON_DUPLICATE_EVENT_DO_NOTHING +
+                    " RETURNING id, resource_type_id, resource_external_id, event_date, event_type");
+            for (int i = 0; i < batch.size(); i++) {
+                EventEntity event = batch.get(i);
+                query.bindBean("e" + i, event)
+                        .bind("resourceTypeId" + i, resourceTypeIds.applyAsInt(event.getResourceType()));
+            }
+
+            Map<String, Long> insertedIds = query.reduceResultSet(new HashMap<>(), (inserted, rs, ctx) -> {
+                inserted.put(insertedEventKey(rs.getInt("resource_type_id"), rs.getString("resource_external_id"),
+                        rs.getTimestamp("event_date").toInstant(), rs.getString("event_type")), rs.getLong("id"));
+                return inserted;
+            });
+
+            for (EventEntity event : batch) {
+                ids.add(Optional.ofNullable(insertedIds.remove(insertedEventKey(resourceTypeIds.applyAsInt(event.getResourceType()),
+                        event.getResourceExternalId(), event.getEventDate().toInstant().truncatedTo(ChronoUnit.MICROS),
+                        event.getEventType()))));
+            }
+        }
+        return ids;
+    }
+
+    private static String insertedEventKey(int resourceTypeId, String resourceExternalId, Instant eventDate, String eventType) {
+        return String.join("|", String.valueOf(resourceTypeId), resourceExternalId, eventDate.toString(), eventType);
+    }
+
     @SqlQuery("SELECT  e.id, e.sqs_message_id, e.service_id, e.live, rt.name AS resource_type_name, e.resource_external_id, " +
             "e.parent_resource_external_id, e.event_date," +
             "e.event_type, e.event_data FROM event e, resource_type rt WHERE e.resource_external_id = :resourceExternalId" +
             " AND e.resource_type_id = rt.id ORDER BY e.event_date DESC")
     List<EventEntity> getEventsByResourceExternalId(@Bind("resourceExternalId") String resourceExternalId);
 
+    /**
+     * Same as {@link #getEventsByResourceExternalId(String)} but leaves event_data out, for callers that only look at
+     * event types and dates.
+     */
+    @SqlQuery("SELECT  e.id, e.sqs_message_id, e.service_id, e.live, rt.name AS resource_type_name, e.resource_external_id, " +
+            "e.parent_resource_external_id, e.event_date," +
+            "e.event_type, NULL AS event_data FROM event e, resource_type rt WHERE e.resource_external_id = :resourceExternalId" +
+            " AND e.resource_type_id = rt.id ORDER BY e.event_date DESC")
+    List<EventEntity> getEventsWithoutDataByResourceExternalId(@Bind("resourceExternalId") String resourceExternalId);
 
     @SqlQuery("SELECT  e.id, e.sqs_message_id, e.service_id, e.live, rt.name AS resource_type_name, e.resource_external_id, " +
             "          e.parent_resource_external_id, e.event_date," +
@@ -103,8 +190,20 @@ public interface EventDao {
 
     @SqlUpdate("UPDATE event SET event_data = jsonb_set(event_data, '{reference}', '\"" + REDACTED_REFERENCE_NUMBER + "\"', false) " +
             "WHERE resource_external_id = :resourceExternalId")
-    void redactReference(@Bind("resourceExternalId") String resourceExternalId);
+    void redactReferenceInEvents(@Bind("resourceExternalId") String resourceExternalId);
+
+    @Transaction
+    default void redactReference(String resourceExternalId) {
+        redactReferenceInEvents(resourceExternalId);
+        getEventDigestSnapshotDao().redactReference(resourceExternalId);
+    }
 
     @SqlUpdate("DELETE from event WHERE resource_external_id IN (<transactionIds>)")
-    int deleteEventsForTransactions(@BindList("transactionIds") List<String> transactionIds);
+    int deleteEvents(@BindList("transactionIds") List<String> transactionIds);
+
+    @Transaction
+    default int deleteEventsForTransactions(List<String> transactionIds) {
+        getEventDigestSnapshotDao().deleteSnapshots(transactionIds);
+        return deleteEvents(transactionIds);
+    }
 }
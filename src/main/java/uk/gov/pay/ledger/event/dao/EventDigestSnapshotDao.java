@@ -0,0 +1,73 @@
+package uk.gov.pay.ledger.event.dao;
+
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+import uk.gov.pay.ledger.event.dao.mapper.EventDigestSnapshotMapper;
+import uk.gov.pay.ledger.event.model.EventDigest;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static uk.gov.pay.ledger.transaction.service.TransactionService.REDACTED_REFERENCE_NUMBER;
+
+@RegisterRowMapper(EventDigestSnapshotMapper.class)
+public interface EventDigestSnapshotDao {
+
+    @SqlQuery("SELECT resource_external_id, resource_type, parent_resource_external_id, service_id, live, event_aggregate," +
+            " event_count, latest_salient_event_type, event_created_date, watermark_event_date" +
+            " FROM event_digest_snapshot WHERE resource_external_id = :resourceExternalId")
+    Optional<EventDigest> findByResourceExternalId(@Bind("resourceExternalId") String resourceExternalId);
+
+    /**
+     * Inserts or replaces the snapshot for a resource. A snapshot folded from more events than the one being written is
+     * kept, so a slower writer projecting an older state cannot roll the snapshot back.
+     *
+     * @return true if the snapshot was written
+     */
+    @SqlUpdate("INSERT INTO event_digest_snapshot AS s(resource_external_id, resource_type, parent_resource_external_id," +
+            " service_id, live, event_aggregate, event_count, latest_salient_event_type, event_created_date," +
+            " watermark_event_date, updated_date)" +
+            " VALUES (:resourceExternalId, :resourceType, :parentResourceExternalId, :serviceId, :live," +
+            " CAST(:eventAggregate as jsonb), :eventCount, :latestSalientEventType, :eventCreatedDate, :watermarkEventDate, now())" +
+            " ON CONFLICT (resource_external_id) DO UPDATE SET" +
+            " resource_type = EXCLUDED.resource_type," +
+            " parent_resource_external_id = EXCLUDED.parent_resource_external_id," +
+            " service_id = EXCLUDED.service_id," +
+            " live = EXCLUDED.live," +
+            " event_aggregate = EXCLUDED.event_aggregate," +
+            " event_count = EXCLUDED.event_count," +
+            " latest_salient_event_type = EXCLUDED.latest_salient_event_type," +
+            " event_created_date = EXCLUDED.event_created_date," +
+            " watermark_event_date = EXCLUDED.watermark_event_date," +
+            " updated_date = EXCLUDED.updated_date" +
+            " WHERE s.event_count <= EXCLUDED.event_count")
+    boolean upsert(@Bind("resourceExternalId") String resourceExternalId,
+                   @Bind("resourceType") String resourceType,
+                   @Bind("parentResourceExternalId") String parentResourceExternalId,
+                   @Bind("serviceId") String serviceId,
+                   @Bind("live") Boolean live,
+                   @Bind("eventAggregate") String eventAggregate,
+                   @Bind("eventCount") int eventCount,
+                   @Bind("latestSalientEventType") String latestSalientEventType,
+                   @Bind("eventCreatedDate") ZonedDateTime eventCreatedDate,
+                   @Bind("watermarkEventDate") ZonedDateTime watermarkEventDate);
+
+    @SqlQuery("SELECT DISTINCT e.resource_external_id FROM event e, resource_type rt" +
+            " WHERE e.resource_type_id = rt.id AND upper(rt.name) = :resourceType" +
+            " AND e.resource_external_id > :afterResourceExternalId" +
+            " ORDER BY e.resource_external_id LIMIT :limit")
+    List<String> findResourceExternalIdsToRebuild(@Bind("resourceType") String resourceType,
+                                                  @Bind("afterResourceExternalId") String afterResourceExternalId,
+                                                  @Bind("limit") int limit);
+
+    @SqlUpdate("UPDATE event_digest_snapshot SET event_aggregate = jsonb_set(event_aggregate, '{reference}', '\"" +
+            REDACTED_REFERENCE_NUMBER + "\"', false), updated_date = now() WHERE resource_external_id = :resourceExternalId")
+    void redactReference(@Bind("resourceExternalId") String resourceExternalId);
+
+    @SqlUpdate("DELETE FROM event_digest_snapshot WHERE resource_external_id IN (<resourceExternalIds>)")
+    int deleteSnapshots(@BindList("resourceExternalIds") List<String> resourceExternalIds);
+}
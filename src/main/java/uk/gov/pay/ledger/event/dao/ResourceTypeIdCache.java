@@ -0,0 +1,25 @@
+package uk.gov.pay.ledger.event.dao;
+
+import uk.gov.pay.ledger.event.model.ResourceType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the ids of the resource_type rows in memory. The rows are only ever added by migrations, so an id never
+ * changes once it has been looked up and inserting an event does not need to look it up again.
+ */
+public class ResourceTypeIdCache {
+
+    private final ResourceTypeDao resourceTypeDao;
+    private final Map<ResourceType, Integer> resourceTypeIds = new ConcurrentHashMap<>();
+
+    public ResourceTypeIdCache(ResourceTypeDao resourceTypeDao) {
+        this.resourceTypeDao = resourceTypeDao;
+    }
+
+    public int getResourceTypeId(ResourceType resourceType) {
+        return resourceTypeIds.computeIfAbsent(resourceType,
+                type -> resourceTypeDao.getResourceTypeIdByName(type.name()));
+    }
+}
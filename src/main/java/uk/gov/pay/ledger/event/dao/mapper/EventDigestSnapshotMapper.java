@@ -0,0 +1,36 @@
+package uk.gov.pay.ledger.event.dao.mapper;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import uk.gov.pay.ledger.event.model.EventDigest;
+import uk.gov.pay.ledger.event.model.ResourceType;
+import uk.gov.pay.ledger.event.model.SalientEventType;
+import uk.gov.pay.ledger.util.JsonParser;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static uk.gov.pay.ledger.util.dao.MapperUtils.getBooleanWithNullCheck;
+
+public class EventDigestSnapshotMapper implements RowMapper<EventDigest> {
+
+    @Override
+    public EventDigest map(ResultSet resultSet, StatementContext statementContext) throws SQLException {
+        String latestSalientEventType = resultSet.getString("latest_salient_event_type");
+
+        return EventDigest.fromSnapshot(
+                resultSet.getString("service_id"),
+                getBooleanWithNullCheck(resultSet, "live"),
+                ZonedDateTime.ofInstant(resultSet.getTimestamp("watermark_event_date").toInstant(), ZoneOffset.UTC),
+                latestSalientEventType == null ? null : SalientEventType.valueOf(latestSalientEventType),
+                ResourceType.valueOf(resultSet.getString("resource_type")),
+                resultSet.getString("resource_external_id"),
+                resultSet.getString("parent_resource_external_id"),
+                resultSet.getInt("event_count"),
+                JsonParser.jsonStringToMap(resultSet.getString("event_aggregate")),
+                ZonedDateTime.ofInstant(resultSet.getTimestamp("event_created_date").toInstant(), ZoneOffset.UTC)
+        );
+    }
+}
@@ -1,13 +1,19 @@
 package uk.gov.pay.ledger.event.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 import uk.gov.pay.ledger.event.model.ResourceType;
 
 import java.time.ZonedDateTime;
+import java.util.Map;
 import java.util.Objects;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
 @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
 public class EventEntity {
 
@@ -23,6 +29,8 @@ public class EventEntity {
     private String eventType;
     private String eventData;
     private boolean reprojectDomainObject;
+    @JsonIgnore
+    private Map<String, Object> eventDataMap;
 
     public EventEntity() {
     }
@@ -105,6 +113,30 @@ public class EventEntity {
         return eventData;
     }
 
+    /**
+     * Event data parsed with the application's object mapper on first use and kept for the lifetime of the entity, so
+     * that the digest, the metadata projection and the event processors share a single parse of the same event. Events
+     * without any event data have an empty map.
+     */
+    public Map<String, Object> getEventDataMap(ObjectMapper objectMapper) {
+        if (eventDataMap == null) {
+            eventDataMap = parseEventData(objectMapper);
+        }
+        return eventDataMap;
+    }
+
+    private Map<String, Object> parseEventData(ObjectMapper objectMapper) {
+        if (isBlank(eventData)) {
+            return Map.of();
+        }
+        try {
+            Map<String, Object> parsedEventData = objectMapper.readValue(eventData, new TypeReference<>() {});
+            return parsedEventData == null ? Map.of() : parsedEventData;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error converting event Json to Map");
+        }
+    }
+
     public boolean isReprojectDomainObject() {
         return reprojectDomainObject;
     }
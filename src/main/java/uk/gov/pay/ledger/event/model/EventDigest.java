@@ -1,20 +1,19 @@
 package uk.gov.pay.ledger.event.model;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.exception.EmptyEventsException;
-import uk.gov.pay.ledger.util.JsonParser;
 
 import java.time.ZonedDateTime;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
 public class EventDigest {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
     private final String serviceId;
     private final Boolean live;
     private final ZonedDateTime mostRecentEventTimestamp;
@@ -52,8 +51,8 @@ public class EventDigest {
         this.latestSalientEventType = latestSalientEventType;
     }
 
-    public static EventDigest fromEventList(List<EventEntity> events) {
-        var eventPayload = buildEventAggregate(events);
+    public static EventDigest fromEventList(List<EventEntity> events, ObjectMapper objectMapper) {
+        var eventPayload = buildEventAggregate(events, objectMapper);
 
         var latestEvent = events.stream()
                 .findFirst()
@@ -95,6 +94,65 @@ public class EventDigest {
         );
     }
 
+    /**
+     * Recreates a digest previously folded from events, as persisted in the event digest snapshot table.
+     */
+    public static EventDigest fromSnapshot(String serviceId,
+                                           Boolean live,
+                                           ZonedDateTime mostRecentEventTimestamp,
+                                           SalientEventType latestSalientEventType,
+                                           ResourceType resourceType,
+                                           String resourceExternalId,
+                                           String parentResourceExternalId,
+                                           Integer eventCount,
+                                           Map<String, Object> eventAggregate,
+                                           ZonedDateTime eventCreatedDate) {
+        return new EventDigest(
+                serviceId,
+                live,
+                mostRecentEventTimestamp,
+                latestSalientEventType,
+                resourceType,
+                resourceExternalId,
+                parentResourceExternalId,
+                eventCount,
+                eventAggregate,
+                eventCreatedDate,
+                latestSalientEventType
+        );
+    }
+
+    /**
+     * Folds an event that is more recent than every event already in this digest into a new digest, giving the same
+     * result as {@link #fromEventList(List, ObjectMapper)} over all the events without re-reading the earlier ones. Callers must
+     * replay all events instead when the event is not more recent than {@link #getMostRecentEventTimestamp()}.
+     */
+    public EventDigest applyEvent(EventEntity event, ObjectMapper objectMapper) {
+        if (!event.getEventDate().isAfter(mostRecentEventTimestamp)) {
+            throw new IllegalArgumentException("Event is not more recent than the events already in the digest");
+        }
+
+        Map<String, Object> aggregate = new HashMap<>(eventAggregate);
+        mergeEventData(aggregate, event, objectMapper);
+
+        SalientEventType salientEventType = SalientEventType.from(event.getEventType())
+                .orElse(latestSalientEventType);
+
+        return new EventDigest(
+                isNotEmpty(event.getServiceId()) ? event.getServiceId() : serviceId,
+                event.getLive() != null ? event.getLive() : live,
+                event.getEventDate(),
+                salientEventType,
+                event.getResourceType(),
+                event.getResourceExternalId(),
+                isNotEmpty(event.getParentResourceExternalId()) ? event.getParentResourceExternalId() : parentResourceExternalId,
+                eventCount + 1,
+                aggregate,
+                eventCreatedDate,
+                salientEventType
+        );
+    }
+
     private static String deriveServiceId(List<EventEntity> events) {
         return events.stream()
                 .filter(event -> isNotEmpty(event.getServiceId()))
@@ -111,12 +169,16 @@ public class EventDigest {
                 .orElse(null);
     }
 
-    private static Map<String, Object> buildEventAggregate(List<EventEntity> events) {
-        return events.stream()
-                .map(EventEntity::getEventData)
-                .map(JsonParser::jsonStringToMap)
-                .flatMap(m -> m.entrySet().stream())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (later, earlier) -> later));
+    private static Map<String, Object> buildEventAggregate(List<EventEntity> events, ObjectMapper objectMapper) {
+        Map<String, Object> aggregate = new HashMap<>();
+        // events are ordered most recent first, so they are merged from the earliest for the most recent to win
+        Lists.reverse(events).forEach(event -> mergeEventData(aggregate, event, objectMapper));
+        return aggregate;
+    }
+
+    // the data of a more recent event replaces the values of the earlier ones, including with JSON nulls
+    private static void mergeEventData(Map<String, Object> aggregate, EventEntity event, ObjectMapper objectMapper) {
+        aggregate.putAll(event.getEventDataMap(objectMapper));
     }
 
     public String getServiceId() {
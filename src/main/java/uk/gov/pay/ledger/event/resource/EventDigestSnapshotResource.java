@@ -0,0 +1,51 @@
+package uk.gov.pay.ledger.event.resource;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.inject.Inject;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.event.service.EventService;
+
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+import java.util.Map;
+
+import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
+import static net.logstash.logback.argument.StructuredArguments.kv;
+import static uk.gov.pay.ledger.event.model.ResourceType.PAYMENT;
+
+@Path("/v1/tasks")
+@Produces(APPLICATION_JSON)
+@Tag(name = "Tasks")
+public class EventDigestSnapshotResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventDigestSnapshotResource.class);
+
+    private final EventService eventService;
+
+    @Inject
+    public EventDigestSnapshotResource(EventService eventService) {
+        this.eventService = eventService;
+    }
+
+    @Path("/rebuild-event-digest-snapshots")
+    @POST
+    @Timed
+    @Operation(
+            operationId = "rebuildEventDigestSnapshots",
+            summary = "Replays the events of every payment and rewrites the persisted event digest snapshots used to project new events incrementally",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK"),
+            }
+    )
+    public Response rebuildEventDigestSnapshots() {
+        int noOfSnapshotsRebuilt = eventService.rebuildEventDigestSnapshots(PAYMENT);
+        LOGGER.info("Completed rebuilding event digest snapshots", kv("no_of_snapshots_rebuilt", noOfSnapshotsRebuilt));
+        return Response.ok(Map.of("snapshots_rebuilt", noOfSnapshotsRebuilt)).build();
+    }
+}
@@ -17,7 +17,6 @@ import uk.gov.pay.ledger.exception.ErrorResponse;
 import uk.gov.pay.ledger.queue.EventMessage;
 import uk.gov.pay.ledger.queue.EventMessageDto;
 import uk.gov.pay.ledger.queue.EventMessageHandler;
-import uk.gov.service.payments.commons.queue.exception.QueueException;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
@@ -61,7 +60,7 @@ public class EventResource {
                     @ApiResponse(responseCode = "500", description = "Invalid parameters or Downstream system error")
             }
     )
-    public Response writeEvent(@Valid List<EventMessageDto> events) throws QueueException {
+    public Response writeEvent(@Valid List<EventMessageDto> events) {
         try {
             eventMessageHandler.processEventBatch(events
                     .stream()
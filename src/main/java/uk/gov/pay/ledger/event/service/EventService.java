@@ -1,50 +1,230 @@
 package uk.gov.pay.ledger.event.service;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.event.dao.EventDao;
+import uk.gov.pay.ledger.event.dao.EventDigestSnapshotDao;
+import uk.gov.pay.ledger.event.dao.ResourceTypeIdCache;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.model.ResourceType;
+import uk.gov.pay.ledger.event.model.SalientEventType;
 import uk.gov.pay.ledger.event.model.response.CreateEventResponse;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
 public class EventService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventService.class);
+    private static final int SNAPSHOT_REBUILD_BATCH_SIZE = 500;
+
     private EventDao eventDao;
+    private EventDigestSnapshotDao eventDigestSnapshotDao;
+    private ObjectMapper objectMapper;
+    private MetricRegistry metricRegistry;
+    private ResourceTypeIdCache resourceTypeIdCache;
 
     @Inject
-    public EventService(EventDao eventDao) {
+    public EventService(EventDao eventDao,
+                        EventDigestSnapshotDao eventDigestSnapshotDao,
+                        ObjectMapper objectMapper,
+                        MetricRegistry metricRegistry,
+                        ResourceTypeIdCache resourceTypeIdCache) {
         this.eventDao = eventDao;
+        this.eventDigestSnapshotDao = eventDigestSnapshotDao;
+        this.objectMapper = objectMapper;
+        this.metricRegistry = metricRegistry;
+        this.resourceTypeIdCache = resourceTypeIdCache;
     }
 
     public EventDigest getEventDigestForResourceAndType(String resourceExternalId, ResourceType resourceType) {
         List<EventEntity> events = getEventsForResource(resourceExternalId)
                 .stream().filter(eventEntity -> resourceType == eventEntity.getResourceType())
                 .collect(Collectors.toList());
-        return EventDigest.fromEventList(events);
+        return EventDigest.fromEventList(events, objectMapper);
     }
 
     public EventDigest getEventDigestForResource(String resourceExternalId) {
         List<EventEntity> events = getEventsForResource(resourceExternalId);
-        return EventDigest.fromEventList(events);
+        return EventDigest.fromEventList(events, objectMapper);
+    }
+
+    /**
+     * Returns the digests of several resources using a single query for all of their events, in the order of the
+     * given external ids. Resources without any events are left out.
+     */
+    public List<EventDigest> getEventDigestsForResources(List<String> resourceExternalIds) {
+        Map<String, List<EventEntity>> eventsByResource = eventDao.findEventsForExternalIds(new HashSet<>(resourceExternalIds))
+                .stream()
+                .collect(Collectors.groupingBy(EventEntity::getResourceExternalId));
+
+        return resourceExternalIds.stream()
+                .distinct()
+                .filter(eventsByResource::containsKey)
+                .map(resourceExternalId -> {
+                    List<EventEntity> events = new ArrayList<>(eventsByResource.get(resourceExternalId));
+                    Collections.reverse(events);
+                    return EventDigest.fromEventList(events, objectMapper);
+                })
+                .collect(Collectors.toList());
     }
 
     public List<EventEntity> getEventsForResource(String resourceExternalId) {
         return eventDao.getEventsByResourceExternalId(resourceExternalId);
     }
 
+    public List<EventEntity> getEventsWithoutDataForResource(String resourceExternalId) {
+        return eventDao.getEventsWithoutDataByResourceExternalId(resourceExternalId);
+    }
+
+    /**
+     * Returns the digest for the resource of an event that has just been written, using the persisted snapshot of the
+     * digest where possible so that the data of earlier events is not read and parsed again.
+     * <p>
+     * The snapshot is used as is when a duplicate event was received and it already covers every event, and a new
+     * event is applied to it as a delta when it is more recent than all the events in the snapshot. In every other
+     * case, such as an event arriving out of order or a snapshot that has missed an event, all events are replayed and
+     * the snapshot is rewritten.
+     *
+     * @param events all events for the resource, most recent first, as returned by
+     *               {@link #getEventsWithoutDataForResource(String)}
+     */
+    public EventDigest getEventDigestForResource(EventEntity event, List<EventEntity> events, boolean isANewEvent) {
+        if (!event.isReprojectDomainObject()) {
+            Optional<EventDigest> mayBeSnapshot = eventDigestSnapshotDao.findByResourceExternalId(event.getResourceExternalId())
+                    .filter(snapshot -> snapshot.getResourceType() == event.getResourceType());
+
+            if (mayBeSnapshot.isPresent()) {
+                EventDigest snapshot = mayBeSnapshot.get();
+
+                if (!isANewEvent && snapshot.getEventCount() == events.size()) {
+                    metricRegistry.counter("event-digest-snapshot.reused").inc();
+                    return snapshot;
+                }
+
+                if (isANewEvent && snapshot.getEventCount() == events.size() - 1
+                        && event.getEventDate().isAfter(snapshot.getMostRecentEventTimestamp())) {
+                    EventDigest eventDigest = snapshot.applyEvent(event, objectMapper);
+                    saveSnapshot(eventDigest);
+                    metricRegistry.counter("event-digest-snapshot.applied").inc();
+                    return eventDigest;
+                }
+            }
+        }
+
+        return replayEventDigest(getEventsForResource(event.getResourceExternalId()));
+    }
+
+    /**
+     * Folds all events for a resource, most recent first, into a digest and rewrites the snapshot of the digest.
+     */
+    public EventDigest replayEventDigest(List<EventEntity> events) {
+        EventDigest eventDigest = EventDigest.fromEventList(events, objectMapper);
+        saveSnapshot(eventDigest);
+        metricRegistry.counter("event-digest-snapshot.replayed").inc();
+        return eventDigest;
+    }
+
+    /**
+     * Replays the events of every resource of the given type and rewrites its digest snapshot, in batches ordered by
+     * resource external id.
+     *
+     * @return the number of snapshots rebuilt
+     */
+    public int rebuildEventDigestSnapshots(ResourceType resourceType) {
+        String lastResourceExternalId = "";
+        int noOfSnapshotsRebuilt = 0;
+
+        List<String> resourceExternalIds;
+        while (!(resourceExternalIds = eventDigestSnapshotDao.findResourceExternalIdsToRebuild(
+                resourceType.name(), lastResourceExternalId, SNAPSHOT_REBUILD_BATCH_SIZE)).isEmpty()) {
+
+            Map<String, List<EventEntity>> eventsByResource = eventDao.findEventsForExternalIds(new HashSet<>(resourceExternalIds))
+                    .stream()
+                    .filter(event -> event.getResourceType() == resourceType)
+                    .collect(Collectors.groupingBy(EventEntity::getResourceExternalId));
+
+            for (List<EventEntity> eventsInAscendingOrder : eventsByResource.values()) {
+                List<EventEntity> events = new ArrayList<>(eventsInAscendingOrder);
+                Collections.reverse(events);
+                saveSnapshot(EventDigest.fromEventList(events, objectMapper));
+                noOfSnapshotsRebuilt++;
+            }
+
+            lastResourceExternalId = resourceExternalIds.get(resourceExternalIds.size() - 1);
+            LOGGER.info("Rebuilt batch of event digest snapshots",
+                    kv("resource_type", resourceType),
+                    kv("no_of_snapshots_rebuilt", noOfSnapshotsRebuilt));
+        }
+
+        return noOfSnapshotsRebuilt;
+    }
+
     public CreateEventResponse createIfDoesNotExist(EventEntity event) {
         try {
-            Optional<Long> status = eventDao.insertEventIfDoesNotExistWithResourceTypeId(event);
+            Optional<Long> status = eventDao.insertIfDoesNotExist(event, resourceTypeIdCache.getResourceTypeId(event.getResourceType()));
             return new CreateEventResponse(status);
         } catch (Exception e) {
             return new CreateEventResponse(e);
         }
     }
 
+    /**
+     * Inserts all events that do not exist yet with a single statement. Returns a response for each event, in the
+     * order of the given events. If the statement fails, the events are inserted one at a time instead, so that only
+     * the events that cannot be inserted get an error response rather than every event of the batch.
+     */
+    public List<CreateEventResponse> createEventsIfDoNotExist(List<EventEntity> events) {
+        if (events.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return eventDao.insertEventsIfDoNotExist(events, resourceTypeIdCache::getResourceTypeId)
+                    .stream()
+                    .map(CreateEventResponse::new)
+                    .collect(Collectors.toList());
+        } catch (Exception e) {
+            metricRegistry.counter("event-service.batch-insert-fallbacks").inc();
+            LOGGER.warn("Failed to insert a batch of events, inserting them one at a time instead",
+                    kv("number_of_events", events.size()),
+                    kv("error", e.getMessage()));
+            return events.stream()
+                    .map(this::createIfDoesNotExist)
+                    .collect(Collectors.toList());
+        }
+    }
+
     public EventDigest getEventDigestForResource(EventEntity event) {
         return getEventDigestForResource(event.getResourceExternalId());
     }
+
+    private void saveSnapshot(EventDigest eventDigest) {
+        try {
+            eventDigestSnapshotDao.upsert(
+                    eventDigest.getResourceExternalId(),
+                    eventDigest.getResourceType().name(),
+                    eventDigest.getParentResourceExternalId(),
+                    eventDigest.getServiceId(),
+                    eventDigest.isLive(),
+                    objectMapper.writeValueAsString(eventDigest.getEventAggregate()),
+                    eventDigest.getEventCount(),
+                    eventDigest.getLatestSalientEventType().map(SalientEventType::name).orElse(null),
+                    eventDigest.getEventCreatedDate(),
+                    eventDigest.getMostRecentEventTimestamp());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error converting event digest aggregate to Json", e);
+        }
+    }
 }
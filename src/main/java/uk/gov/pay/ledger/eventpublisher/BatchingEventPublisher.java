@@ -0,0 +1,190 @@
+package uk.gov.pay.ledger.eventpublisher;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Publishes events to SNS from a background thread instead of the ingest thread, so that SNS latency does not add to
+ * ingest lag. Messages wait in a bounded queue and are sent with PublishBatch, up to 10 per request and topic. Entries
+ * that fail are retried with an exponential backoff.
+ *
+ * Every published message comes with a future that completes once SNS has accepted it, or completes exceptionally once
+ * it has been given up on, so that callers can hold back deleting the SQS message until then. Each message is timed on
+ * the timer it was queued with, with its share of the PublishBatch request that published it.
+ */
+public class BatchingEventPublisher implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingEventPublisher.class);
+    // SNS accepts at most 10 entries in a single batch request
+    private static final int MAXIMUM_BATCH_ENTRIES = 10;
+    private static final int MAXIMUM_MESSAGES_PER_DISPATCH = 100;
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final EventPublisher eventPublisher;
+    private final ExecutorService executorService;
+    private final MetricRegistry metricRegistry;
+    private final BlockingQueue<PendingMessage> pendingMessages;
+    private final int maximumAttempts;
+    private final Duration retryDelay;
+    private volatile boolean running;
+
+    public BatchingEventPublisher(EventPublisher eventPublisher,
+                                  ExecutorService executorService,
+                                  MetricRegistry metricRegistry,
+                                  int queueCapacity,
+                                  int maximumAttempts,
+                                  Duration retryDelay) {
+        this.eventPublisher = eventPublisher;
+        this.executorService = executorService;
+        this.metricRegistry = metricRegistry;
+        this.pendingMessages = new LinkedBlockingQueue<>(queueCapacity);
+        this.maximumAttempts = maximumAttempts;
+        this.retryDelay = retryDelay;
+        metricRegistry.gauge("sns-publisher.queue-depth", () -> (Gauge<Integer>) pendingMessages::size);
+    }
+
+    /**
+     * Queues a message to be published to a topic, blocking while the queue is full.
+     */
+    public CompletableFuture<Void> publish(String message, TopicName topicName, Timer publishTimer) throws InterruptedException {
+        var pendingMessage = new PendingMessage(message, topicName, publishTimer);
+        pendingMessages.put(pendingMessage);
+        return pendingMessage.future;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        executorService.execute(this::dispatch);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        executorService.shutdownNow();
+        List<PendingMessage> unpublishedMessages = new ArrayList<>();
+        pendingMessages.drainTo(unpublishedMessages);
+        // the SQS messages of events that were not published are left for redelivery
+        unpublishedMessages.forEach(pendingMessage ->
+                pendingMessage.future.completeExceptionally(new CancellationException("SNS publisher stopped")));
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                publishQueuedMessages();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("SNS publisher thread exception", e);
+            }
+        }
+    }
+
+    /**
+     * Waits for queued messages and publishes everything that is queued at that point, grouped by topic.
+     */
+    void publishQueuedMessages() throws InterruptedException {
+        PendingMessage firstMessage = pendingMessages.poll(POLL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        if (firstMessage == null) {
+            return;
+        }
+
+        List<PendingMessage> messages = new ArrayList<>(List.of(firstMessage));
+        pendingMessages.drainTo(messages, MAXIMUM_MESSAGES_PER_DISPATCH - 1);
+
+        Map<TopicName, List<PendingMessage>> messagesByTopic = messages.stream()
+                .collect(Collectors.groupingBy(pendingMessage -> pendingMessage.topicName, LinkedHashMap::new, Collectors.toList()));
+
+        for (Map.Entry<TopicName, List<PendingMessage>> topicMessages : messagesByTopic.entrySet()) {
+            for (List<PendingMessage> batch : Lists.partition(topicMessages.getValue(), MAXIMUM_BATCH_ENTRIES)) {
+                try {
+                    publishBatch(topicMessages.getKey(), batch);
+                } catch (InterruptedException e) {
+                    messages.forEach(pendingMessage -> pendingMessage.future.completeExceptionally(e));
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void publishBatch(TopicName topicName, List<PendingMessage> batch) throws InterruptedException {
+        List<PendingMessage> remaining = batch;
+        Exception lastError = null;
+
+        for (int attempt = 1; attempt <= maximumAttempts && !remaining.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                metricRegistry.counter("sns-publisher.retried-entries").inc(remaining.size());
+                Thread.sleep(retryDelay.multipliedBy(1L << (attempt - 2)).toMillis());
+            }
+
+            try {
+                List<String> messages = remaining.stream().map(pendingMessage -> pendingMessage.message).collect(Collectors.toList());
+                long startTime = System.nanoTime();
+                Set<Integer> failedEntries = eventPublisher.publishMessagesToTopic(messages, topicName);
+                long elapsedPerEntry = (System.nanoTime() - startTime) / messages.size();
+                remaining.forEach(pendingMessage -> pendingMessage.publishTimer.update(elapsedPerEntry, TimeUnit.NANOSECONDS));
+                metricRegistry.histogram("sns-publisher.publish-batch.entries-per-call").update(messages.size());
+
+                List<PendingMessage> failed = new ArrayList<>();
+                for (int i = 0; i < remaining.size(); i++) {
+                    if (failedEntries.contains(i)) {
+                        failed.add(remaining.get(i));
+                    } else {
+                        remaining.get(i).future.complete(null);
+                    }
+                }
+                remaining = failed;
+                lastError = failed.isEmpty() ? null : new EventPublisherException("SNS did not accept all entries of the batch", null);
+            } catch (EventPublisherException e) {
+                lastError = e;
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            metricRegistry.counter("sns-publisher.failed-entries").inc(remaining.size());
+            LOGGER.warn("Failed to publish messages to SNS topic",
+                    kv("sns_topic", topicName),
+                    kv("number_of_messages", remaining.size()),
+                    kv("error", lastError.getMessage()));
+            for (PendingMessage pendingMessage : remaining) {
+                pendingMessage.future.completeExceptionally(lastError);
+            }
+        }
+    }
+
+    private static class PendingMessage {
+        private final String message;
+        private final TopicName topicName;
+        private final Timer publishTimer;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(String message, TopicName topicName, Timer publishTimer) {
+            this.message = message;
+            this.topicName = topicName;
+            this.publishTimer = publishTimer;
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package uk.gov.pay.ledger.eventpublisher;
 
 import software.amazon.awssdk.services.sns.SnsClient;
+import software.amazon.awssdk.services.sns.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sns.model.PublishBatchRequest;
+import software.amazon.awssdk.services.sns.model.PublishBatchRequestEntry;
+import software.amazon.awssdk.services.sns.model.PublishBatchResponse;
 import software.amazon.awssdk.services.sns.model.PublishRequest;
 
 import jakarta.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class EventPublisher {
     private final SnsClient snsClient;
@@ -28,4 +36,33 @@ public class EventPublisher {
             throw new EventPublisherException(errorMessage, e);
         }
     }
+
+    /**
+     * Publishes up to 10 messages to a topic with a single PublishBatch request.
+     *
+     * @return the positions in {@code messages} of the entries that SNS did not accept
+     */
+    public Set<Integer> publishMessagesToTopic(List<String> messages, TopicName topicName) throws EventPublisherException {
+        var topicArn = topicNameArnMapper.getArnForTopicName(topicName);
+        try {
+            List<PublishBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < messages.size(); i++) {
+                entries.add(PublishBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .message(messages.get(i))
+                        .build());
+            }
+            PublishBatchResponse response = snsClient.publishBatch(PublishBatchRequest.builder()
+                    .topicArn(topicArn)
+                    .publishBatchRequestEntries(entries)
+                    .build());
+            return response.failed().stream()
+                    .map(BatchResultErrorEntry::id)
+                    .map(Integer::valueOf)
+                    .collect(Collectors.toSet());
+        } catch (Exception e) {
+            var errorMessage = String.format("Failed to publish batch of messages to SNS: %s", e.getMessage());
+            throw new EventPublisherException(errorMessage, e);
+        }
+    }
 }
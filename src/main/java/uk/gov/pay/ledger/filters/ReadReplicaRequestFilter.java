@@ -0,0 +1,22 @@
+package uk.gov.pay.ledger.filters;
+
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
+
+import static uk.gov.pay.ledger.common.consistent.ConsistentKeys.HEADER_PARAM_X_CONSISTENT;
+
+/**
+ * Lets GET requests read from the read replica unless they ask for consistent results with the X-Consistent header.
+ * It is set for every request, as streamed responses are written after the response filters have run, so a thread
+ * never carries it over from the request it served before.
+ */
+public class ReadReplicaRequestFilter implements ContainerRequestFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        ReadReplicaRouter.allowReplicaReads(HttpMethod.GET.equals(requestContext.getMethod())
+                && !Boolean.parseBoolean(requestContext.getHeaderString(HEADER_PARAM_X_CONSISTENT)));
+    }
+}
@@ -7,6 +7,7 @@ import org.jdbi.v3.core.statement.Query;
 import uk.gov.pay.ledger.payout.dao.mapper.PayoutMapper;
 import uk.gov.pay.ledger.payout.entity.PayoutEntity;
 import uk.gov.pay.ledger.payout.search.PayoutSearchParams;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
 
 import java.util.List;
 import java.util.Optional;
@@ -64,10 +65,16 @@ public class PayoutDao {
             "WHERE EXCLUDED.event_count >= payout.event_count";
 
     private Jdbi jdbi;
+    private final ReadReplicaRouter readReplicaRouter;
 
     @Inject
     public PayoutDao(Jdbi jdbi) {
+        this(jdbi, new ReadReplicaRouter(jdbi));
+    }
+
+    public PayoutDao(Jdbi jdbi, ReadReplicaRouter readReplicaRouter) {
         this.jdbi = jdbi;
+        this.readReplicaRouter = readReplicaRouter;
     }
 
     public Optional<PayoutEntity> findByGatewayPayoutId(String gatewayPayoutId) {
@@ -85,7 +92,7 @@ public class PayoutDao {
     }
 
     public List<PayoutEntity> searchPayouts(PayoutSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams.getFilterTemplates(), SEARCH_PAYOUTS));
             searchParams.getQueryMap().forEach(bindSearchParameter(query));
             query.bind("offset", searchParams.getOffset());
@@ -97,7 +104,7 @@ public class PayoutDao {
     }
 
     public Long getTotalForSearch(PayoutSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams.getFilterTemplates(), COUNT_PAYOUTS));
             searchParams.getQueryMap().forEach(bindSearchParameter(query));
             return query
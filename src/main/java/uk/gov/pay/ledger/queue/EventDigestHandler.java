@@ -4,13 +4,18 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.event.model.ResourceType;
 import uk.gov.pay.ledger.queue.eventprocessor.AgreementEventProcessor;
 import uk.gov.pay.ledger.queue.eventprocessor.ChildTransactionEventProcessor;
 import uk.gov.pay.ledger.queue.eventprocessor.EventProcessor;
+import uk.gov.pay.ledger.queue.eventprocessor.IngestedEvent;
 import uk.gov.pay.ledger.queue.eventprocessor.PaymentEventProcessor;
 import uk.gov.pay.ledger.queue.eventprocessor.PaymentInstrumentEventProcessor;
 import uk.gov.pay.ledger.queue.eventprocessor.PayoutEventProcessor;
 
+import java.util.List;
+import java.util.Optional;
+
 public class EventDigestHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EventDigestHandler.class);
@@ -36,29 +41,51 @@ public class EventDigestHandler {
     }
 
     public EventProcessor processorFor(EventEntity event) {
-        switch (event.getResourceType()) {
+        return findProcessorFor(event.getResourceType()).orElseThrow(() -> {
+            String message = String.format("Event digest processing for resource type [%s] is not supported. Event type [%s] and resource external id [%s]",
+                    event.getResourceType(),
+                    event.getEventType(),
+                    event.getResourceExternalId());
+            LOGGER.error(message);
+            return new RuntimeException(message);
+        });
+    }
+
+    /**
+     * Name of the processor that projects events of the resource type of an event, used to tag ingest metrics.
+     */
+    public String processorNameFor(EventEntity event) {
+        return findProcessorFor(event.getResourceType())
+                .map(eventProcessor -> eventProcessor.getClass().getSimpleName())
+                .orElse("none");
+    }
+
+    private Optional<EventProcessor> findProcessorFor(ResourceType resourceType) {
+        switch (resourceType) {
             case PAYMENT:
-                return paymentEventProcessor;
+                return Optional.of(paymentEventProcessor);
             case REFUND:
             case DISPUTE:
-                return childTransactionEventProcessor;
+                return Optional.of(childTransactionEventProcessor);
             case PAYOUT:
-                return payoutEventProcessor;
+                return Optional.of(payoutEventProcessor);
             case AGREEMENT:
-                return agreementEventProcessor;
+                return Optional.of(agreementEventProcessor);
             case PAYMENT_INSTRUMENT:
-                return paymentInstrumentEventProcessor;
+                return Optional.of(paymentInstrumentEventProcessor);
             default:
-                String message = String.format("Event digest processing for resource type [%s] is not supported. Event type [%s] and resource external id [%s]",
-                        event.getResourceType(),
-                        event.getEventType(),
-                        event.getResourceExternalId());
-                LOGGER.error(message);
-                throw new RuntimeException(message);
+                return Optional.empty();
         }
     }
 
     public void processEvent(EventEntity event, boolean isANewEvent) {
         processorFor(event).process(event, isANewEvent);
     }
+
+    /**
+     * Projects a resource once for all of its events ingested in the same batch.
+     */
+    public void processEvents(List<IngestedEvent> ingestedEvents) {
+        processorFor(ingestedEvents.get(0).getEvent()).process(ingestedEvents);
+    }
 }
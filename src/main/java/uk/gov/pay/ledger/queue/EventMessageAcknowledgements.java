@@ -0,0 +1,90 @@
+package uk.gov.pay.ledger.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the outcome of each message in a batch so that the batch can be acknowledged to SQS with batch requests once
+ * every message has been processed. Messages may be recorded concurrently from several ingest lanes.
+ */
+class EventMessageAcknowledgements {
+
+    private final List<EventMessage> processedMessages = Collections.synchronizedList(new ArrayList<>());
+    private final List<EventMessage> messagesToRetry = Collections.synchronizedList(new ArrayList<>());
+    private final List<PendingPublish> pendingPublishes = Collections.synchronizedList(new ArrayList<>());
+
+    void markAsProcessed(EventMessage message) {
+        processedMessages.add(message);
+    }
+
+    void scheduleForRetry(EventMessage message) {
+        messagesToRetry.add(message);
+    }
+
+    /**
+     * Holds back acknowledging a message until its event has been accepted by SNS.
+     */
+    void awaitPublishing(EventMessage message, CompletableFuture<Void> publishing) {
+        pendingPublishes.add(new PendingPublish(message, publishing));
+    }
+
+    boolean hasPendingPublishes() {
+        return !pendingPublishes.isEmpty();
+    }
+
+    /**
+     * Completes without blocking once every pending publish has completed, with the acknowledgements of the processed
+     * messages that were held back for it. Those whose event could not be published are scheduled for retry instead, so
+     * that the event is published again when the message is redelivered.
+     */
+    CompletableFuture<EventMessageAcknowledgements> whenPublished() {
+        List<PendingPublish> publishes = List.copyOf(pendingPublishes);
+        CompletableFuture<?>[] completions = publishes.stream()
+                .map(pendingPublish -> pendingPublish.publishing.handle((ignored, e) -> null))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(completions).thenApply(ignored -> {
+            var published = new EventMessageAcknowledgements();
+            for (PendingPublish pendingPublish : publishes) {
+                if (processedMessages.contains(pendingPublish.message)) {
+                    if (pendingPublish.publishing.isCompletedExceptionally()) {
+                        published.scheduleForRetry(pendingPublish.message);
+                    } else {
+                        published.markAsProcessed(pendingPublish.message);
+                    }
+                }
+            }
+            return published;
+        });
+    }
+
+    /**
+     * The processed messages that can be acknowledged straight away, leaving out those held back until their event has
+     * been accepted by SNS.
+     */
+    List<EventMessage> getProcessedMessages() {
+        List<EventMessage> awaitingPublishing = List.copyOf(pendingPublishes).stream()
+                .map(pendingPublish -> pendingPublish.message)
+                .collect(Collectors.toList());
+        return List.copyOf(processedMessages).stream()
+                .filter(message -> !awaitingPublishing.contains(message))
+                .collect(Collectors.toList());
+    }
+
+    List<EventMessage> getMessagesToRetry() {
+        return List.copyOf(messagesToRetry);
+    }
+
+    private static class PendingPublish {
+        private final EventMessage message;
+        private final CompletableFuture<Void> publishing;
+
+        private PendingPublish(EventMessage message, CompletableFuture<Void> publishing) {
+            this.message = message;
+            this.publishing = publishing;
+        }
+    }
+}
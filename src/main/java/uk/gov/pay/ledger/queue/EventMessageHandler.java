@@ -1,9 +1,9 @@
 package uk.gov.pay.ledger.queue;
 
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.inject.Inject;
 import io.sentry.Sentry;
-import org.jdbi.v3.core.Jdbi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.app.LedgerConfig;
@@ -11,13 +11,25 @@ import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.ResourceType;
 import uk.gov.pay.ledger.event.model.response.CreateEventResponse;
 import uk.gov.pay.ledger.event.service.EventService;
+import uk.gov.pay.ledger.eventpublisher.BatchingEventPublisher;
 import uk.gov.pay.ledger.eventpublisher.EventPublisher;
+import uk.gov.pay.ledger.eventpublisher.TopicName;
+import uk.gov.pay.ledger.queue.eventprocessor.IngestedEvent;
+import uk.gov.pay.ledger.transactionsummary.service.TransactionSummaryDeltaFlusher;
+import uk.gov.pay.ledger.util.dao.UnitOfWork;
 import uk.gov.service.payments.commons.queue.exception.QueueException;
 
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static net.logstash.logback.argument.StructuredArguments.kv;
 import static uk.gov.pay.ledger.event.model.ResourceType.DISPUTE;
@@ -27,6 +39,8 @@ import static uk.gov.pay.ledger.event.model.response.CreateEventResponse.CreateE
 import static uk.gov.pay.ledger.event.model.response.CreateEventResponse.ignoredEventResponse;
 import static uk.gov.pay.ledger.eventpublisher.TopicName.CARD_PAYMENT_DISPUTE_EVENTS;
 import static uk.gov.pay.ledger.eventpublisher.TopicName.CARD_PAYMENT_EVENTS;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.INSERT;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.SNS_PUBLISH;
 import static uk.gov.service.payments.logging.LoggingKeys.LEDGER_EVENT_TYPE;
 import static uk.gov.service.payments.logging.LoggingKeys.RESOURCE_EXTERNAL_ID;
 import static uk.gov.service.payments.logging.LoggingKeys.SQS_MESSAGE_ID;
@@ -39,81 +53,253 @@ public class EventMessageHandler {
     private final EventService eventService;
     private final EventDigestHandler eventDigestHandler;
     private final EventPublisher eventPublisher;
+    private final BatchingEventPublisher batchingEventPublisher;
     private final MetricRegistry metricRegistry;
     private final LedgerConfig ledgerConfig;
-    private final Jdbi jdbi;
+    private final UnitOfWork unitOfWork;
+    private final IngestLaneExecutor ingestLaneExecutor;
+    private final IngestMetrics ingestMetrics;
+    private final TransactionSummaryDeltaFlusher transactionSummaryDeltaFlusher;
 
     @Inject
     public EventMessageHandler(EventQueue eventQueue,
                                EventService eventService,
                                EventDigestHandler eventDigestHandler,
                                EventPublisher eventPublisher,
+                               BatchingEventPublisher batchingEventPublisher,
                                MetricRegistry metricRegistry,
                                LedgerConfig ledgerConfig,
-                               Jdbi jdbi) {
+                               UnitOfWork unitOfWork,
+                               IngestLaneExecutor ingestLaneExecutor,
+                               IngestMetrics ingestMetrics,
+                               TransactionSummaryDeltaFlusher transactionSummaryDeltaFlusher) {
         this.eventQueue = eventQueue;
         this.eventService = eventService;
         this.eventDigestHandler = eventDigestHandler;
         this.eventPublisher = eventPublisher;
+        this.batchingEventPublisher = batchingEventPublisher;
         this.metricRegistry = metricRegistry;
         this.ledgerConfig = ledgerConfig;
-        this.jdbi = jdbi;
+        this.unitOfWork = unitOfWork;
+        this.ingestLaneExecutor = ingestLaneExecutor;
+        this.ingestMetrics = ingestMetrics;
+        this.transactionSummaryDeltaFlusher = transactionSummaryDeltaFlusher;
     }
 
     public void handle() throws QueueException {
-        List<EventMessage> eventMessages = eventQueue.retrieveEvents();
-
-        for (EventMessage message : eventMessages) {
-            try {
-                processSingleMessage(message);
-            } catch (Exception e) {
-                Sentry.captureException(e);
-                LOGGER.warn("Error during handling the event message",
-                        kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
-                        kv(RESOURCE_EXTERNAL_ID, message.getEvent().getResourceExternalId()),
-                        kv(LEDGER_EVENT_TYPE, message.getEvent().getEventType()),
-                        kv("error", e.getMessage())
-                );
-            }
+        handle(eventQueue.retrieveEvents());
+    }
+
+    public void handle(List<EventMessage> eventMessages) {
+        var acknowledgements = new EventMessageAcknowledgements();
+        ingestMetrics.batchSize().update(eventMessages.size());
+
+        if (ingestLaneExecutor.isEnabled()) {
+            ingestLaneExecutor.process(eventMessages, laneMessages -> handleMessages(laneMessages, acknowledgements));
+        } else {
+            handleMessages(eventMessages, acknowledgements);
         }
+
+        acknowledge(acknowledgements);
     }
 
-    // provides a transactional guarantee, if any of the events fail to process, none of the events will be persisted
-    public void processEventBatch(List<EventMessage> messages) throws QueueException {
-        jdbi.useTransaction(handle -> {
-            for (EventMessage message : messages) {
-                processSingleMessage(message);
+    /**
+     * Acknowledges the messages of a batch. Messages held back until their event has been accepted by SNS are
+     * acknowledged from the completion callback of their publishing, so that the next batch is not held up by SNS.
+     */
+    private void acknowledge(EventMessageAcknowledgements acknowledgements) {
+        if (acknowledgements.hasPendingPublishes()) {
+            acknowledgements.whenPublished().thenAccept(published ->
+                    acknowledge(published.getProcessedMessages(), published.getMessagesToRetry()));
+        }
+        acknowledge(acknowledgements.getProcessedMessages(), acknowledgements.getMessagesToRetry());
+    }
+
+    private void acknowledge(List<EventMessage> processedMessages, List<EventMessage> messagesToRetry) {
+        if (!processedMessages.isEmpty()) {
+            eventQueue.markMessagesAsProcessed(processedMessages);
+        }
+        if (!messagesToRetry.isEmpty()) {
+            eventQueue.scheduleMessagesForRetry(messagesToRetry);
+        }
+    }
+
+    /**
+     * Writes the events of all messages first and then projects each resource once for all of its events, so that a
+     * batch holding several events for the same payment reads its events and upserts its transaction only once.
+     *
+     * All messages are handled on one database connection. Each resource is projected in its own transaction, so a
+     * failure leaves none of its projection behind and does not affect the other resources of the batch. Messages are
+     * only acknowledged and published once the projection of their resource has been committed, which is also when the
+     * summary deltas it wrote count towards bringing the next summary flush forward.
+     */
+    private void handleMessages(List<EventMessage> messages, EventMessageAcknowledgements acknowledgements) {
+        unitOfWork.useHandle(() -> {
+            Map<String, List<InsertedMessage>> messagesByResource = new LinkedHashMap<>();
+            List<CreateEventResponse> responses = insertEvents(messages);
+            for (int i = 0; i < messages.size(); i++) {
+                EventMessage message = messages.get(i);
+                try {
+                    recordInsert(message, responses.get(i), acknowledgements, messagesByResource);
+                } catch (Exception e) {
+                    Sentry.captureException(e);
+                    ingestMetrics.failedEvents().inc();
+                    logHandlingError(message, e);
+                }
+            }
+
+            for (List<InsertedMessage> resourceMessages : messagesByResource.values()) {
+                try {
+                    unitOfWork.useTransaction(() -> projectResource(resourceMessages));
+                } catch (Exception e) {
+                    transactionSummaryDeltaFlusher.deltasRolledBack();
+                    Sentry.captureException(e);
+                    ingestMetrics.failedEvents().inc(resourceMessages.size());
+                    resourceMessages.forEach(insertedMessage -> logHandlingError(insertedMessage.message, e));
+                    continue;
+                }
+                transactionSummaryDeltaFlusher.deltasCommitted();
+                completeResource(resourceMessages, acknowledgements);
             }
         });
     }
 
-    private void processSingleMessage(EventMessage message) throws QueueException {
+    // provides a transactional guarantee, if any of the events fail to process, none of the events will be persisted
+    public void processEventBatch(List<EventMessage> messages) {
+        var acknowledgements = new EventMessageAcknowledgements();
+        ingestMetrics.batchSize().update(messages.size());
+        Map<String, List<InsertedMessage>> messagesByResource = new LinkedHashMap<>();
+        try {
+            unitOfWork.useTransaction(() -> {
+                List<CreateEventResponse> responses = insertEvents(messages);
+                for (int i = 0; i < messages.size(); i++) {
+                    recordInsert(messages.get(i), responses.get(i), acknowledgements, messagesByResource);
+                }
+                for (List<InsertedMessage> resourceMessages : messagesByResource.values()) {
+                    projectResource(resourceMessages);
+                }
+            });
+        } catch (RuntimeException e) {
+            transactionSummaryDeltaFlusher.deltasRolledBack();
+            throw e;
+        }
+        transactionSummaryDeltaFlusher.deltasCommitted();
+        for (List<InsertedMessage> resourceMessages : messagesByResource.values()) {
+            completeResource(resourceMessages, acknowledgements);
+        }
+        acknowledge(acknowledgements);
+    }
+
+    private void logHandlingError(EventMessage message, Exception e) {
+        LOGGER.warn("Error during handling the event message",
+                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                kv(RESOURCE_EXTERNAL_ID, message.getEvent().getResourceExternalId()),
+                kv(LEDGER_EVENT_TYPE, message.getEvent().getEventType()),
+                kv("error", e.getMessage())
+        );
+    }
+
+    /**
+     * Writes the events of all messages with one multi-row statement and returns the response for each message, in the
+     * order of the messages.
+     *
+     * We don't persist events created by internal admins for re-projecting domain objects so as to not pollute the
+     * event feed. This also means that any event data on the event will be ignored when processing, and only previous
+     * events will be used when re-projecting the domain object.
+     */
+    private List<CreateEventResponse> insertEvents(List<EventMessage> messages) {
+        List<EventEntity> eventsToInsert = messages.stream()
+                .map(EventMessage::getEvent)
+                .filter(event -> !event.isReprojectDomainObject())
+                .collect(Collectors.toList());
+
+        long startTime = System.nanoTime();
+        Iterator<CreateEventResponse> insertResponses = eventService.createEventsIfDoNotExist(eventsToInsert).iterator();
+        long elapsedPerEvent = eventsToInsert.isEmpty() ? 0 : (System.nanoTime() - startTime) / eventsToInsert.size();
+
+        List<CreateEventResponse> responses = new ArrayList<>(messages.size());
+        for (EventMessage message : messages) {
+            EventEntity event = message.getEvent();
+            if (event.isReprojectDomainObject()) {
+                responses.add(ignoredEventResponse());
+            } else {
+                // each event is timed with its share of the statement that inserted the whole batch
+                ingestMetrics.stageTimer(INSERT, event.getResourceType(), eventDigestHandler.processorNameFor(event))
+                        .update(elapsedPerEvent, TimeUnit.NANOSECONDS);
+                responses.add(insertResponses.next());
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Messages whose event was written or already existed are added to the messages of the resource they belong to, to
+     * be projected once all events of the batch have been written.
+     */
+    private void recordInsert(EventMessage message, CreateEventResponse response, EventMessageAcknowledgements acknowledgements,
+                              Map<String, List<InsertedMessage>> messagesByResource) {
         EventEntity event = message.getEvent();
 
-        CreateEventResponse response;
+        if (response.isSuccessful()) {
+            if (response.getState() == INSERTED) {
+                ingestMetrics.insertedEvents().inc();
+            } else {
+                ingestMetrics.ignoredEvents().inc();
+            }
+            messagesByResource
+                    .computeIfAbsent(event.getResourceType() + ":" + event.getResourceExternalId(), key -> new ArrayList<>())
+                    .add(new InsertedMessage(message, response));
+            return;
+        }
+
+        if (message.getQueueMessageId().isPresent()) {
+            acknowledgements.scheduleForRetry(message);
+            ingestMetrics.retriedEvents().inc();
+            LOGGER.warn("The event message has been scheduled for retry.",
+                    kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                    kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
+                    kv(LEDGER_EVENT_TYPE, event.getEventType()),
+                    kv("state", response.getState()),
+                    kv("error", response.getErrorMessage()));
+        } else {
+            ingestMetrics.failedEvents().inc();
+            LOGGER.warn("Create event response was unsuccessful.",
+                    kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
+                    kv("state", response.getState()),
+                    kv("error", response.getErrorMessage()));
+        }
+
+        publishEventToSNS(message, event, acknowledgements);
+    }
 
-        // We don't persist events created by internal admins for re-projecting domain objects so as to not pollute
-        // the event feed. This also means that any event data on the event will be ignored when processing, and only
-        // previous events will be used when re-projecting the domain object.
-        if (event.isReprojectDomainObject()) {
-            response = ignoredEventResponse();
+    private void projectResource(List<InsertedMessage> resourceMessages) {
+        if (resourceMessages.size() == 1) {
+            InsertedMessage insertedMessage = resourceMessages.get(0);
+            eventDigestHandler.processEvent(insertedMessage.message.getEvent(), insertedMessage.isANewEvent());
         } else {
-            response = eventService.createIfDoesNotExist(event);
+            eventDigestHandler.processEvents(resourceMessages.stream()
+                    .map(insertedMessage -> new IngestedEvent(insertedMessage.message.getEvent(), insertedMessage.isANewEvent()))
+                    .collect(Collectors.toList()));
+            metricRegistry.histogram("event-message-handler.coalesced-events-per-resource").update(resourceMessages.size());
         }
+    }
 
-        final long ingestLag = event.getEventDate().until(ZonedDateTime.now(), ChronoUnit.MICROS);
+    private void completeResource(List<InsertedMessage> resourceMessages, EventMessageAcknowledgements acknowledgements) {
+        for (InsertedMessage insertedMessage : resourceMessages) {
+            EventMessage message = insertedMessage.message;
+            EventEntity event = message.getEvent();
+
+            final long ingestLag = event.getEventDate().until(ZonedDateTime.now(), ChronoUnit.MICROS);
 
-        if (response.isSuccessful()) {
-            eventDigestHandler.processEvent(event, response.getState() == INSERTED);
             if (message.getQueueMessageReceiptHandle().isPresent()) {
-                eventQueue.markMessageAsProcessed(message);
+                acknowledgements.markAsProcessed(message);
             }
             metricRegistry.histogram("event-message-handler.ingest-lag-microseconds").update(ingestLag);
             var loggingArgs = new ArrayList<>(List.of(
                     kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
                     kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
                     kv(LEDGER_EVENT_TYPE, event.getEventType()),
-                    kv("state", response.getState()),
+                    kv("state", insertedMessage.response.getState()),
                     kv("ingest_lag_micro_seconds", ingestLag)));
 
             if (event.isReprojectDomainObject()) {
@@ -121,58 +307,81 @@ public class EventMessageHandler {
             }
 
             LOGGER.info("The event message has been processed.", loggingArgs.toArray());
-        } else {
-            if (message.getQueueMessageId().isPresent()) {
-                eventQueue.scheduleMessageForRetry(message);
-                LOGGER.warn("The event message has been scheduled for retry.",
-                        kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
-                        kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
-                        kv(LEDGER_EVENT_TYPE, event.getEventType()),
-                        kv("state", response.getState()),
-                        kv("error", response.getErrorMessage()));
-            } else {
-                LOGGER.warn("Create event response was unsuccessful.",
-                        kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
-                        kv("state", response.getState()),
-                        kv("error", response.getErrorMessage()));
-            }
-        }
 
-        publishEventToSNS(message, event);
+            publishEventToSNS(message, event, acknowledgements);
+        }
     }
 
-    private void publishEventToSNS(EventMessage message, EventEntity event) {
+    private void publishEventToSNS(EventMessage message, EventEntity event, EventMessageAcknowledgements acknowledgements) {
         if (ledgerConfig.getSnsConfig().isSnsEnabled()) {
-            try {
-                ResourceType resourceType = message.getEvent().getResourceType();
-                if (resourceType == DISPUTE) {
-                    if (ledgerConfig.getSnsConfig().isPublishCardPaymentDisputeEventsToSns()) {
-                        eventPublisher.publishMessageToTopic(message.getRawMessageBody(), CARD_PAYMENT_DISPUTE_EVENTS);
-                        LOGGER.info("Published message to SNS topic",
-                                kv("sns_topic", CARD_PAYMENT_DISPUTE_EVENTS),
-                                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
-                                kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
-                                kv(LEDGER_EVENT_TYPE, event.getEventType()));
-                    }
-                } else {
-                    if ((resourceType == PAYMENT || resourceType == REFUND)
-                            && ledgerConfig.getSnsConfig().isPublishCardPaymentEventsToSns()) {
-
-                        eventPublisher.publishMessageToTopic(message.getRawMessageBody(), CARD_PAYMENT_EVENTS);
-                        LOGGER.info("Published message to SNS topic",
-                                kv("sns_topic", CARD_PAYMENT_EVENTS),
-                                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
-                                kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
-                                kv(LEDGER_EVENT_TYPE, event.getEventType()));
+            topicFor(message.getEvent().getResourceType()).ifPresent(topicName -> {
+                Timer timer = ingestMetrics.stageTimer(SNS_PUBLISH, event.getResourceType(), eventDigestHandler.processorNameFor(event));
+                try {
+                    if (ledgerConfig.getSnsConfig().isBatchPublishingEnabled()) {
+                        // timed by the publisher around the PublishBatch request rather than the time spent queueing
+                        CompletableFuture<Void> publishing = batchingEventPublisher.publish(message.getRawMessageBody(), topicName, timer)
+                                .whenComplete((ignored, e) -> {
+                                    if (e == null) {
+                                        logPublished(message, event, topicName);
+                                    } else {
+                                        logPublishingError(message, event, e);
+                                    }
+                                });
+                        acknowledgements.awaitPublishing(message, publishing);
+                    } else {
+                        try (Timer.Context context = timer.time()) {
+                            eventPublisher.publishMessageToTopic(message.getRawMessageBody(), topicName);
+                        }
+                        logPublished(message, event, topicName);
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logPublishingError(message, event, e);
+                } catch (Exception e) {
+                    logPublishingError(message, event, e);
                 }
-            } catch (Exception e) {
-                LOGGER.warn("Failed to publish event for message",
-                        kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
-                        kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
-                        kv(LEDGER_EVENT_TYPE, event.getEventType()),
-                        kv("error", e.getMessage()));
-            }
+            });
+        }
+    }
+
+    private Optional<TopicName> topicFor(ResourceType resourceType) {
+        if (resourceType == DISPUTE) {
+            return ledgerConfig.getSnsConfig().isPublishCardPaymentDisputeEventsToSns()
+                    ? Optional.of(CARD_PAYMENT_DISPUTE_EVENTS)
+                    : Optional.empty();
+        }
+        return (resourceType == PAYMENT || resourceType == REFUND) && ledgerConfig.getSnsConfig().isPublishCardPaymentEventsToSns()
+                ? Optional.of(CARD_PAYMENT_EVENTS)
+                : Optional.empty();
+    }
+
+    private void logPublished(EventMessage message, EventEntity event, TopicName topicName) {
+        LOGGER.info("Published message to SNS topic",
+                kv("sns_topic", topicName),
+                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
+                kv(LEDGER_EVENT_TYPE, event.getEventType()));
+    }
+
+    private void logPublishingError(EventMessage message, EventEntity event, Throwable e) {
+        LOGGER.warn("Failed to publish event for message",
+                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                kv(RESOURCE_EXTERNAL_ID, event.getResourceExternalId()),
+                kv(LEDGER_EVENT_TYPE, event.getEventType()),
+                kv("error", e.getMessage()));
+    }
+
+    private static class InsertedMessage {
+        private final EventMessage message;
+        private final CreateEventResponse response;
+
+        private InsertedMessage(EventMessage message, CreateEventResponse response) {
+            this.message = message;
+            this.response = response;
+        }
+
+        private boolean isANewEvent() {
+            return response.getState() == INSERTED;
         }
     }
 }
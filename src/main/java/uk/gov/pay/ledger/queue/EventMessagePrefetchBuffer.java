@@ -0,0 +1,117 @@
+package uk.gov.pay.ledger.queue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.service.payments.commons.queue.exception.QueueException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Bounded buffer between the threads long-polling SQS and the threads projecting events, so that waiting on the
+ * network and writing to the database overlap instead of adding up.
+ *
+ * A prefetched batch is only handed out while it is younger than the maximum buffered time, which must be well inside
+ * the SQS visibility timeout. Batches that sat in the buffer for longer are dropped without being acknowledged so they
+ * are redelivered by SQS rather than processed at the same time as their redelivered copy.
+ */
+public class EventMessagePrefetchBuffer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventMessagePrefetchBuffer.class);
+
+    private final EventQueue eventQueue;
+    private final InstantSource instantSource;
+    private final Duration maximumBufferedTime;
+    private final BlockingQueue<PrefetchedBatch> batches;
+    private final AtomicInteger bufferedMessageCount = new AtomicInteger();
+    private final Timer fetchWaitTimer;
+    private final Timer processingWaitTimer;
+    private final MetricRegistry metricRegistry;
+
+    public EventMessagePrefetchBuffer(EventQueue eventQueue,
+                                      MetricRegistry metricRegistry,
+                                      InstantSource instantSource,
+                                      int capacityInBatches,
+                                      Duration maximumBufferedTime) {
+        this.eventQueue = eventQueue;
+        this.metricRegistry = metricRegistry;
+        this.instantSource = instantSource;
+        this.maximumBufferedTime = maximumBufferedTime;
+        this.batches = new LinkedBlockingQueue<>(capacityInBatches);
+        this.fetchWaitTimer = metricRegistry.timer("event-message-prefetch-buffer.fetch-wait");
+        this.processingWaitTimer = metricRegistry.timer("event-message-prefetch-buffer.processing-wait");
+        metricRegistry.gauge("event-message-prefetch-buffer.depth", () -> (Gauge<Integer>) bufferedMessageCount::get);
+    }
+
+    /**
+     * Long-polls SQS for a batch of messages and adds it to the buffer, blocking while the buffer is full.
+     */
+    public void fetch() throws QueueException, InterruptedException {
+        List<EventMessage> messages = eventQueue.retrieveEvents();
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        var batch = new PrefetchedBatch(messages, instantSource.instant());
+        bufferedMessageCount.addAndGet(messages.size());
+        try (Timer.Context ignored = fetchWaitTimer.time()) {
+            batches.put(batch);
+        } catch (InterruptedException e) {
+            bufferedMessageCount.addAndGet(-messages.size());
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the oldest batch that can still be processed within its visibility timeout, waiting up to the given timeout
+     * while the buffer is empty.
+     */
+    public Optional<List<EventMessage>> poll(Duration timeout) throws InterruptedException {
+        while (true) {
+            PrefetchedBatch batch;
+            try (Timer.Context ignored = processingWaitTimer.time()) {
+                batch = batches.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (batch == null) {
+                return Optional.empty();
+            }
+            bufferedMessageCount.addAndGet(-batch.messages.size());
+
+            Duration bufferedTime = Duration.between(batch.receivedAt, instantSource.instant());
+            if (bufferedTime.compareTo(maximumBufferedTime) <= 0) {
+                return Optional.of(batch.messages);
+            }
+
+            metricRegistry.counter("event-message-prefetch-buffer.expired-messages").inc(batch.messages.size());
+            LOGGER.warn("Dropping prefetched messages that have been buffered for too long, they will be redelivered",
+                    kv("number_of_messages", batch.messages.size()),
+                    kv("buffered_time_in_millis", bufferedTime.toMillis()));
+        }
+    }
+
+    public int getBufferedMessageCount() {
+        return bufferedMessageCount.get();
+    }
+
+    private static class PrefetchedBatch {
+        private final List<EventMessage> messages;
+        private final Instant receivedAt;
+
+        private PrefetchedBatch(List<EventMessage> messages, Instant receivedAt) {
+            this.messages = messages;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
@@ -1,34 +1,59 @@
 package uk.gov.pay.ledger.queue;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.service.payments.commons.queue.exception.QueueException;
 import uk.gov.service.payments.commons.queue.model.QueueMessage;
 import uk.gov.service.payments.commons.queue.sqs.SqsQueueService;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import static net.logstash.logback.argument.StructuredArguments.kv;
+import static uk.gov.service.payments.logging.LoggingKeys.SQS_MESSAGE_ID;
+
 public class EventQueue {
 
     private static final String EVENT_MESSAGE_ATTRIBUTE_NAME = "All";
+    // SQS accepts at most 10 entries in a single batch request
+    private static final int MAXIMUM_BATCH_ENTRIES = 10;
     private static final Logger LOGGER = LoggerFactory.getLogger(EventQueue.class);
 
     private SqsQueueService sqsQueueService;
+    private SqsClient sqsClient;
     private final String eventQueueUrl;
     private ObjectMapper objectMapper;
+    private MetricRegistry metricRegistry;
     private int retryDelayInSeconds;
 
     @Inject
-    public EventQueue(SqsQueueService sqsQueueService, LedgerConfig configuration, ObjectMapper objectMapper) {
+    public EventQueue(SqsQueueService sqsQueueService,
+                      SqsClient sqsClient,
+                      LedgerConfig configuration,
+                      ObjectMapper objectMapper,
+                      MetricRegistry metricRegistry) {
         this.sqsQueueService = sqsQueueService;
+        this.sqsClient = sqsClient;
         this.eventQueueUrl = configuration.getSqsConfig().getEventQueueUrl();
         this.objectMapper = objectMapper;
+        this.metricRegistry = metricRegistry;
         this.retryDelayInSeconds = configuration.getQueueMessageReceiverConfig().getMessageRetryDelayInSeconds();
     }
 
@@ -51,6 +76,130 @@ public class EventQueue {
         sqsQueueService.deferMessage(this.eventQueueUrl, message.getQueueMessageReceiptHandle().orElse(null), retryDelayInSeconds);
     }
 
+    /**
+     * Deletes processed messages using DeleteMessageBatch, sending up to 10 receipt handles per request. Entries that
+     * failed on the SQS side are retried individually, while entries SQS rejected, such as an expired receipt handle,
+     * would fail again and are only logged and counted. A request that fails altogether is logged and counted, and the
+     * remaining batches are still sent. Messages that are not deleted are redelivered by SQS.
+     */
+    public void markMessagesAsProcessed(List<EventMessage> messages) {
+        for (List<EventMessage> batch : Lists.partition(withReceiptHandle(messages), MAXIMUM_BATCH_ENTRIES)) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(batch.get(i).getQueueMessageReceiptHandle().get())
+                        .build());
+            }
+
+            DeleteMessageBatchResponse response;
+            try {
+                response = sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                        .queueUrl(eventQueueUrl)
+                        .entries(entries)
+                        .build());
+            } catch (SdkException e) {
+                // the messages of this batch are redelivered once their visibility timeout ends
+                logFailedBatchRequest("delete-message-batch", batch, e);
+                continue;
+            }
+            metricRegistry.histogram("event-queue.delete-message-batch.entries-per-call").update(entries.size());
+
+            for (BatchResultErrorEntry failedEntry : response.failed()) {
+                EventMessage message = batch.get(Integer.parseInt(failedEntry.id()));
+                if (failedEntry.senderFault()) {
+                    logRejectedBatchEntry("delete-message-batch", message, failedEntry);
+                    continue;
+                }
+                logFailedBatchEntry("delete", message, failedEntry);
+                try {
+                    markMessageAsProcessed(message);
+                } catch (QueueException e) {
+                    metricRegistry.counter("event-queue.delete-message-batch.failed-entries").inc();
+                    LOGGER.warn("Failed to delete message after batch delete failure",
+                            kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                            kv("error", e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Defers messages for retry using ChangeMessageVisibilityBatch, sending up to 10 receipt handles per request.
+     * Entries that failed on the SQS side are retried individually, while entries SQS rejected are only logged and
+     * counted. A request that fails altogether is logged and counted, and the remaining batches are still sent.
+     */
+    public void scheduleMessagesForRetry(List<EventMessage> messages) {
+        for (List<EventMessage> batch : Lists.partition(withReceiptHandle(messages), MAXIMUM_BATCH_ENTRIES)) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(batch.get(i).getQueueMessageReceiptHandle().get())
+                        .visibilityTimeout(retryDelayInSeconds)
+                        .build());
+            }
+
+            ChangeMessageVisibilityBatchResponse response;
+            try {
+                response = sqsClient.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                        .queueUrl(eventQueueUrl)
+                        .entries(entries)
+                        .build());
+            } catch (SdkException e) {
+                // the messages of this batch are redelivered with the default visibility timeout instead
+                logFailedBatchRequest("change-message-visibility-batch", batch, e);
+                continue;
+            }
+            metricRegistry.histogram("event-queue.change-message-visibility-batch.entries-per-call").update(entries.size());
+
+            for (BatchResultErrorEntry failedEntry : response.failed()) {
+                EventMessage message = batch.get(Integer.parseInt(failedEntry.id()));
+                if (failedEntry.senderFault()) {
+                    logRejectedBatchEntry("change-message-visibility-batch", message, failedEntry);
+                    continue;
+                }
+                logFailedBatchEntry("change visibility of", message, failedEntry);
+                try {
+                    scheduleMessageForRetry(message);
+                } catch (QueueException e) {
+                    metricRegistry.counter("event-queue.change-message-visibility-batch.failed-entries").inc();
+                    LOGGER.warn("Failed to schedule message for retry after batch change visibility failure",
+                            kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                            kv("error", e.getMessage()));
+                }
+            }
+        }
+    }
+
+    private List<EventMessage> withReceiptHandle(List<EventMessage> messages) {
+        return messages.stream()
+                .filter(message -> message.getQueueMessageReceiptHandle().isPresent())
+                .collect(Collectors.toList());
+    }
+
+    private void logFailedBatchRequest(String request, List<EventMessage> batch, SdkException e) {
+        metricRegistry.counter(String.format("event-queue.%s.failed-calls", request)).inc();
+        LOGGER.warn(String.format("Failed to send %s request, carrying on with the remaining batches", request),
+                kv("number_of_messages", batch.size()),
+                kv("error", e.getMessage()));
+    }
+
+    private void logFailedBatchEntry(String operation, EventMessage message, BatchResultErrorEntry failedEntry) {
+        LOGGER.warn(String.format("Failed to %s message in batch request, retrying individually", operation),
+                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                kv("error_code", failedEntry.code()),
+                kv("error", failedEntry.message()));
+    }
+
+    private void logRejectedBatchEntry(String request, EventMessage message, BatchResultErrorEntry failedEntry) {
+        metricRegistry.counter(String.format("event-queue.%s.rejected-entries", request)).inc();
+        LOGGER.warn(String.format("Entry of %s request rejected by SQS, not retrying", request),
+                kv(SQS_MESSAGE_ID, message.getQueueMessageId()),
+                kv("error_code", failedEntry.code()),
+                kv("error", failedEntry.message()));
+    }
+
     private EventMessage getMessage(QueueMessage queueMessage) {
         try {
             EventMessageDto eventDto = objectMapper.readValue(queueMessage.getMessageBody(), EventMessageDto.class);
@@ -65,4 +214,4 @@ public class EventQueue {
             return null;
         }
     }
-}
\ No newline at end of file
+}
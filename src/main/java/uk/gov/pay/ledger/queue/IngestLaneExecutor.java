@@ -0,0 +1,70 @@
+package uk.gov.pay.ledger.queue;
+
+import uk.gov.pay.ledger.event.model.ResourceType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static uk.gov.pay.ledger.event.model.ResourceType.DISPUTE;
+import static uk.gov.pay.ledger.event.model.ResourceType.REFUND;
+
+/**
+ * Splits a batch of event messages onto a fixed number of ingest lanes and processes the lanes in parallel.
+ *
+ * Messages are assigned to a lane by hashing the external id of the resource they project on to (the parent payment
+ * for refunds and disputes), so all messages for one payment are processed in order on the same lane while unrelated
+ * payments in the same batch do not wait on each other.
+ */
+public class IngestLaneExecutor {
+
+    private final int numberOfLanes;
+    private final ExecutorService executorService;
+
+    public IngestLaneExecutor(int numberOfLanes, ExecutorService executorService) {
+        this.numberOfLanes = numberOfLanes;
+        this.executorService = executorService;
+    }
+
+    public boolean isEnabled() {
+        return numberOfLanes > 1;
+    }
+
+    /**
+     * Passes the messages of each lane, in their original order, to the lane processor.
+     */
+    public void process(List<EventMessage> messages, Consumer<List<EventMessage>> laneProcessor) {
+        Map<Integer, List<EventMessage>> messagesByLane = messages.stream()
+                .collect(groupingBy(this::laneFor, LinkedHashMap::new, toList()));
+
+        if (messagesByLane.size() <= 1) {
+            laneProcessor.accept(messages);
+            return;
+        }
+
+        CompletableFuture<?>[] lanes = messagesByLane.values().stream()
+                .map(laneMessages -> CompletableFuture.runAsync(() -> laneProcessor.accept(laneMessages), executorService))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(lanes).join();
+    }
+
+    int laneFor(EventMessage message) {
+        return Math.floorMod(Objects.hashCode(laneKeyFor(message.getEventDto())), numberOfLanes);
+    }
+
+    static String laneKeyFor(EventMessageDto eventDto) {
+        ResourceType resourceType = eventDto.getResourceType();
+        if ((resourceType == REFUND || resourceType == DISPUTE) && isNotBlank(eventDto.getParentExternalId())) {
+            return eventDto.getParentExternalId();
+        }
+        return eventDto.getExternalId();
+    }
+}
@@ -0,0 +1,80 @@
+package uk.gov.pay.ledger.queue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.inject.Inject;
+import uk.gov.pay.ledger.event.model.ResourceType;
+import uk.gov.pay.ledger.queue.eventprocessor.EventProcessor;
+
+import java.util.Locale;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Timers for each stage an ingested event goes through and counters for the outcome of each event in a batch.
+ *
+ * Stage timers are named {@code ingest-stage.<stage>.<resource type>.<event processor>} so that they are exported to
+ * Prometheus as a single {@code ledger_ingest_stage} metric with stage, resource_type and event_processor labels.
+ */
+public class IngestMetrics {
+
+    public static final String STAGE_TIMER_PREFIX = "ingest-stage";
+
+    public enum Stage {
+        INSERT("insert"),
+        RELOAD("reload"),
+        DIGEST("digest"),
+        UPSERT("upsert"),
+        METADATA("metadata"),
+        TRANSACTION_SUMMARY("transaction-summary"),
+        CHILD_REPROJECTION("child-reprojection"),
+        SNS_PUBLISH("sns-publish");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private final MetricRegistry metricRegistry;
+
+    @Inject
+    public IngestMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    public Timer stageTimer(Stage stage, ResourceType resourceType, EventProcessor eventProcessor) {
+        return stageTimer(stage, resourceType, eventProcessor.getClass().getSimpleName());
+    }
+
+    public Timer stageTimer(Stage stage, ResourceType resourceType, String eventProcessor) {
+        return metricRegistry.timer(String.join(".",
+                STAGE_TIMER_PREFIX,
+                stage.metricName,
+                resourceType == null ? "unknown" : resourceType.name().toLowerCase(Locale.ROOT),
+                isBlank(eventProcessor) ? "none" : eventProcessor));
+    }
+
+    public Counter insertedEvents() {
+        return metricRegistry.counter("ingest-batch.events-inserted");
+    }
+
+    public Counter ignoredEvents() {
+        return metricRegistry.counter("ingest-batch.events-ignored");
+    }
+
+    public Counter retriedEvents() {
+        return metricRegistry.counter("ingest-batch.events-retried");
+    }
+
+    public Counter failedEvents() {
+        return metricRegistry.counter("ingest-batch.events-failed");
+    }
+
+    public Histogram batchSize() {
+        return metricRegistry.histogram("ingest-batch.size");
+    }
+}
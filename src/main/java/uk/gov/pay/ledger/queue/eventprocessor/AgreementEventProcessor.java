@@ -3,20 +3,29 @@ package uk.gov.pay.ledger.queue.eventprocessor;
 import com.google.inject.Inject;
 import uk.gov.pay.ledger.agreement.service.AgreementService;
 import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.service.EventService;
+import uk.gov.pay.ledger.queue.IngestMetrics;
+
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.DIGEST;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.UPSERT;
 
 public class AgreementEventProcessor extends EventProcessor {
     private final EventService eventService;
     private final AgreementService agreementService;
+    private final IngestMetrics ingestMetrics;
 
     @Inject
-    public AgreementEventProcessor(EventService eventService, AgreementService agreementService) {
+    public AgreementEventProcessor(EventService eventService, AgreementService agreementService, IngestMetrics ingestMetrics) {
         this.eventService = eventService;
         this.agreementService = agreementService;
+        this.ingestMetrics = ingestMetrics;
     }
 
     @Override
     public void process(EventEntity event, boolean isNewEvent) {
-        agreementService.upsertAgreementFor(eventService.getEventDigestForResource(event));
+        EventDigest eventDigest = ingestMetrics.stageTimer(DIGEST, event.getResourceType(), this)
+                .timeSupplier(() -> eventService.getEventDigestForResource(event));
+        ingestMetrics.stageTimer(UPSERT, event.getResourceType(), this).time(() -> agreementService.upsertAgreementFor(eventDigest));
     }
 }
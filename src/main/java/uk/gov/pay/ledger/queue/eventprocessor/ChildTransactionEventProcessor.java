@@ -1,58 +1,99 @@
 package uk.gov.pay.ledger.queue.eventprocessor;
 
+import com.codahale.metrics.Timer;
 import com.google.inject.Inject;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.model.TransactionEntityFactory;
 import uk.gov.pay.ledger.event.service.EventService;
 import uk.gov.pay.ledger.exception.EmptyEventsException;
+import uk.gov.pay.ledger.queue.IngestMetrics;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.service.TransactionService;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toMap;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.DIGEST;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.UPSERT;
 
 public class ChildTransactionEventProcessor extends EventProcessor {
 
     private final EventService eventService;
     private final TransactionService transactionService;
     private final TransactionEntityFactory transactionEntityFactory;
+    private final IngestMetrics ingestMetrics;
 
     @Inject
     public ChildTransactionEventProcessor(EventService eventService,
                                           TransactionService transactionService,
-                                          TransactionEntityFactory transactionEntityFactory) {
+                                          TransactionEntityFactory transactionEntityFactory,
+                                          IngestMetrics ingestMetrics) {
 
         this.eventService = eventService;
         this.transactionService = transactionService;
         this.transactionEntityFactory = transactionEntityFactory;
+        this.ingestMetrics = ingestMetrics;
     }
 
     @Override
     public void process(EventEntity event, boolean isANewEvent) {
-        EventDigest childTransactionEventDigest = eventService.getEventDigestForResource(event);
+        Optional<EventDigest> mayBePaymentEventDigest;
+        EventDigest childTransactionEventDigest;
 
-        Optional<EventDigest> mayBePaymentEventDigest = Optional.empty();
+        try (Timer.Context ignored = ingestMetrics.stageTimer(DIGEST, event.getResourceType(), this).time()) {
+            childTransactionEventDigest = eventService.getEventDigestForResource(event);
 
-        if (isNotBlank(childTransactionEventDigest.getParentResourceExternalId())) {
-            mayBePaymentEventDigest = getPaymentEventDigest(childTransactionEventDigest.getParentResourceExternalId());
+            mayBePaymentEventDigest = Optional.empty();
+
+            if (isNotBlank(childTransactionEventDigest.getParentResourceExternalId())) {
+                mayBePaymentEventDigest = getPaymentEventDigest(childTransactionEventDigest.getParentResourceExternalId());
+            }
         }
 
-        mayBePaymentEventDigest.ifPresentOrElse(
-                paymentEventDigest -> projectChildTransactionWithPaymentDetails(childTransactionEventDigest, paymentEventDigest),
-                () -> transactionService.upsertTransactionFor(childTransactionEventDigest));
+        try (Timer.Context ignored = ingestMetrics.stageTimer(UPSERT, event.getResourceType(), this).time()) {
+            mayBePaymentEventDigest.ifPresentOrElse(
+                    paymentEventDigest -> projectChildTransactionWithPaymentDetails(childTransactionEventDigest, paymentEventDigest),
+                    () -> transactionService.upsertTransactionFor(childTransactionEventDigest));
+        }
     }
 
-    public void reprojectChildTransaction(String childTransactionExternalId, EventDigest paymentEventDigest) {
-        EventDigest childTransactionEventDigest = eventService.getEventDigestForResource(childTransactionExternalId);
-        projectChildTransactionWithPaymentDetails(childTransactionEventDigest, paymentEventDigest);
+    /**
+     * Reprojects the child transactions of a payment with the latest payment details. The events of all children are
+     * loaded with a single query, the payment is projected once and all children are written in a single batch.
+     */
+    public void reprojectChildTransactions(List<String> childTransactionExternalIds, EventDigest paymentEventDigest) {
+        if (childTransactionExternalIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> fieldsFromPayment = getPaymentFieldsToProjectOnToChildTransaction(paymentEventDigest);
+        TransactionEntity paymentTransactionEntity = transactionEntityFactory.create(paymentEventDigest);
+
+        List<TransactionEntity> childTransactionEntities = eventService.getEventDigestsForResources(childTransactionExternalIds)
+                .stream()
+                .map(childTransactionEventDigest -> createChildTransactionEntity(childTransactionEventDigest,
+                        fieldsFromPayment, paymentTransactionEntity))
+                .collect(Collectors.toList());
+
+        transactionService.upsertTransactions(childTransactionEntities);
     }
 
     private void projectChildTransactionWithPaymentDetails(EventDigest childTransactionEventDigest, EventDigest paymentEventDigest) {
+        TransactionEntity childTransactionEntity = createChildTransactionEntity(childTransactionEventDigest,
+                getPaymentFieldsToProjectOnToChildTransaction(paymentEventDigest),
+                transactionEntityFactory.create(paymentEventDigest));
+
+        transactionService.upsertTransaction(childTransactionEntity);
+    }
+
+    private TransactionEntity createChildTransactionEntity(EventDigest childTransactionEventDigest,
+                                                           Map<String, Object> fieldsFromPayment,
+                                                           TransactionEntity paymentTransactionEntity) {
         /**
          * Apply shared payment attributes to the refund/dispute digest
          *
@@ -63,14 +104,11 @@ public class ChildTransactionEventProcessor extends EventProcessor {
          * If there is no longer a frontend requirement to display payment information on a refund/dispute, this shared data
          * for the digest can be removed.
          */
-        Map<String, Object> fieldsFromPayment = getPaymentFieldsToProjectOnToChildTransaction(paymentEventDigest);
         childTransactionEventDigest.getEventAggregate().put("payment_details", fieldsFromPayment);
 
         TransactionEntity childTransactionEntity = transactionEntityFactory.create(childTransactionEventDigest);
-        TransactionEntity paymentTransactionEntity = transactionEntityFactory.create(paymentEventDigest);
         childTransactionEntity.setEntityFieldsFromOriginalPayment(paymentTransactionEntity);
-
-        transactionService.upsertTransaction(childTransactionEntity);
+        return childTransactionEntity;
     }
 
     private Optional<EventDigest> getPaymentEventDigest(String paymentExternalId) {
@@ -2,6 +2,19 @@ package uk.gov.pay.ledger.queue.eventprocessor;
 
 import uk.gov.pay.ledger.event.entity.EventEntity;
 
+import java.util.List;
+
 public abstract class EventProcessor {
     public abstract void process(EventEntity event, boolean isANewEvent);
+
+    /**
+     * Processes several events for the same resource that were ingested together, in the order they were received.
+     * Processors project the resource from all of its stored events whichever event they are given, so by default the
+     * resource is projected once for the last event.
+     */
+    public void process(List<IngestedEvent> ingestedEvents) {
+        IngestedEvent lastEvent = ingestedEvents.get(ingestedEvents.size() - 1);
+        boolean anyNewEvent = ingestedEvents.stream().anyMatch(IngestedEvent::isANewEvent);
+        process(lastEvent.getEvent(), anyNewEvent);
+    }
 }
@@ -0,0 +1,25 @@
+package uk.gov.pay.ledger.queue.eventprocessor;
+
+import uk.gov.pay.ledger.event.entity.EventEntity;
+
+/**
+ * An event received from the queue together with whether it was written to the event table for the first time.
+ */
+public class IngestedEvent {
+
+    private final EventEntity event;
+    private final boolean isANewEvent;
+
+    public IngestedEvent(EventEntity event, boolean isANewEvent) {
+        this.event = event;
+        this.isANewEvent = isANewEvent;
+    }
+
+    public EventEntity getEvent() {
+        return event;
+    }
+
+    public boolean isANewEvent() {
+        return isANewEvent;
+    }
+}
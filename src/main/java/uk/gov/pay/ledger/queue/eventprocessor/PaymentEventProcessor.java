@@ -1,21 +1,32 @@
 package uk.gov.pay.ledger.queue.eventprocessor;
 
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.model.SalientEventType;
+import uk.gov.pay.ledger.event.model.TransactionEntityFactory;
 import uk.gov.pay.ledger.event.service.EventService;
+import uk.gov.pay.ledger.queue.IngestMetrics;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.service.TransactionMetadataService;
 import uk.gov.pay.ledger.transaction.service.TransactionService;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
 import uk.gov.pay.ledger.transactionsummary.service.TransactionSummaryService;
-import uk.gov.pay.ledger.util.JsonParser;
 
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.CHILD_REPROJECTION;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.DIGEST;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.METADATA;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.RELOAD;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.TRANSACTION_SUMMARY;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.UPSERT;
 import static uk.gov.pay.ledger.transaction.state.TransactionState.fromEventType;
 
 public class PaymentEventProcessor extends EventProcessor {
@@ -25,54 +36,157 @@ public class PaymentEventProcessor extends EventProcessor {
     private final TransactionMetadataService transactionMetadataService;
     private final ChildTransactionEventProcessor childTransactionEventProcessor;
     private final TransactionSummaryService transactionSummaryService;
+    private final TransactionEntityFactory transactionEntityFactory;
+    private final IngestMetrics ingestMetrics;
+    private final ObjectMapper objectMapper;
 
     @Inject
     public PaymentEventProcessor(EventService eventService,
                                  TransactionService transactionService,
                                  TransactionMetadataService transactionMetadataService,
                                  ChildTransactionEventProcessor childTransactionEventProcessor,
-                                 TransactionSummaryService transactionSummaryService) {
+                                 TransactionSummaryService transactionSummaryService,
+                                 TransactionEntityFactory transactionEntityFactory,
+                                 IngestMetrics ingestMetrics,
+                                 ObjectMapper objectMapper) {
         this.eventService = eventService;
         this.transactionService = transactionService;
         this.transactionMetadataService = transactionMetadataService;
         this.childTransactionEventProcessor = childTransactionEventProcessor;
         this.transactionSummaryService = transactionSummaryService;
+        this.transactionEntityFactory = transactionEntityFactory;
+        this.ingestMetrics = ingestMetrics;
+        this.objectMapper = objectMapper;
     }
 
 
     @Override
     public void process(EventEntity event, boolean isANewEvent) {
-        List<EventEntity> events = eventService.getEventsForResource(event.getResourceExternalId());
-        EventDigest paymentEventDigest = EventDigest.fromEventList(events);
+        List<EventEntity> events = stageTimer(RELOAD, event).timeSupplier(() ->
+                eventService.getEventsWithoutDataForResource(event.getResourceExternalId()));
+        EventDigest paymentEventDigest = stageTimer(DIGEST, event).timeSupplier(() ->
+                eventService.getEventDigestForResource(event, events, isANewEvent));
 
-        TransactionEntity transactionEntity = transactionService.upsertTransactionFor(paymentEventDigest);
+        TransactionEntity transactionEntity = stageTimer(UPSERT, event).timeSupplier(() ->
+                transactionService.upsertTransactionFor(paymentEventDigest));
 
-        if (event.isReprojectDomainObject()) {
-            transactionMetadataService.reprojectFromEventDigest(paymentEventDigest);
-        } else {
-            transactionMetadataService.upsertMetadataFor(event);
+        stageTimer(METADATA, event).time(() -> {
+            if (event.isReprojectDomainObject()) {
+                transactionMetadataService.reprojectFromEventDigest(paymentEventDigest);
+            } else {
+                transactionMetadataService.upsertMetadataFor(event);
+            }
+        });
+
+        if (shouldCheckForRefundsToUpdate(event, events)) {
+            stageTimer(CHILD_REPROJECTION, event).time(() ->
+                    reprojectChildTransactions(event.getResourceExternalId(), paymentEventDigest));
         }
 
-        /**
-         * If the payment has associated refunds, we want to update the payment details that we also store on refunds to
-         * keep these in sync with the payment.
-         * We avoid a database query to get refunds when the payment has not been in a success state, as it is not
-         * possible for refunds to exist in this case. We also avoid this query when the current event contains no data
-         * that needs to be updated on the refund.
-         */
-        Map<String, Object> eventDataMap = JsonParser.jsonStringToMap(event.getEventData());
-        boolean shouldCheckForRefundsToUpdate = !event.getEventType().equals("REFUND_AVAILABILITY_UPDATED") &&
-                !(eventDataMap == null || eventDataMap.isEmpty()) &&
-                hasSuccessEvent(events);
+        if (!event.isReprojectDomainObject() && isANewEvent) {
+            stageTimer(TRANSACTION_SUMMARY, event).time(() ->
+                    transactionSummaryService.projectTransactionSummary(transactionEntity, event, events));
+        }
+    }
 
-        if (shouldCheckForRefundsToUpdate) {
-            transactionService.getChildTransactions(event.getResourceExternalId())
-                    .forEach(refundTransactionEntity -> childTransactionEventProcessor.reprojectChildTransaction(refundTransactionEntity.getExternalId(), paymentEventDigest));
+    /**
+     * Projects the payment once from all of its events after every event in the batch has been written, instead of
+     * once per event. The transaction summary is still projected for each new event, against the payment as it was
+     * when that event was the most recently received one, so that it is counted exactly as if the events had been
+     * processed one at a time.
+     */
+    @Override
+    public void process(List<IngestedEvent> ingestedEvents) {
+        if (ingestedEvents.size() == 1) {
+            process(ingestedEvents.get(0).getEvent(), ingestedEvents.get(0).isANewEvent());
+            return;
         }
 
-        if (!event.isReprojectDomainObject() && isANewEvent) {
-            transactionSummaryService.projectTransactionSummary(transactionEntity, event, events);
+        EventEntity firstEvent = ingestedEvents.get(0).getEvent();
+        String paymentExternalId = firstEvent.getResourceExternalId();
+        List<EventEntity> events = stageTimer(RELOAD, firstEvent).timeSupplier(() ->
+                eventService.getEventsForResource(paymentExternalId));
+        EventDigest paymentEventDigest = stageTimer(DIGEST, firstEvent).timeSupplier(() ->
+                eventService.replayEventDigest(events));
+
+        TransactionEntity transactionEntity = stageTimer(UPSERT, firstEvent).timeSupplier(() ->
+                transactionService.upsertTransactionFor(paymentEventDigest));
+
+        boolean reprojectMetadata = false;
+        boolean checkForRefundsToUpdate = false;
+        try (Timer.Context ignored = stageTimer(METADATA, firstEvent).time()) {
+            for (IngestedEvent ingestedEvent : ingestedEvents) {
+                EventEntity event = ingestedEvent.getEvent();
+                if (event.isReprojectDomainObject()) {
+                    reprojectMetadata = true;
+                } else {
+                    transactionMetadataService.upsertMetadataFor(event);
+                }
+                checkForRefundsToUpdate = checkForRefundsToUpdate || shouldCheckForRefundsToUpdate(event, events);
+            }
+
+            if (reprojectMetadata) {
+                transactionMetadataService.reprojectFromEventDigest(paymentEventDigest);
+            }
         }
+
+        if (checkForRefundsToUpdate) {
+            stageTimer(CHILD_REPROJECTION, firstEvent).time(() ->
+                    reprojectChildTransactions(paymentExternalId, paymentEventDigest));
+        }
+
+        stageTimer(TRANSACTION_SUMMARY, firstEvent).time(() ->
+                projectTransactionSummaries(ingestedEvents, events, transactionEntity));
+    }
+
+    private void projectTransactionSummaries(List<IngestedEvent> ingestedEvents, List<EventEntity> events,
+                                             TransactionEntity transactionEntity) {
+        List<EventEntity> newEvents = ingestedEvents.stream()
+                .filter(IngestedEvent::isANewEvent)
+                .map(IngestedEvent::getEvent)
+                .filter(event -> !event.isReprojectDomainObject())
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < newEvents.size(); i++) {
+            EventEntity event = newEvents.get(i);
+            List<EventEntity> laterNewEvents = newEvents.subList(i + 1, newEvents.size());
+
+            if (laterNewEvents.isEmpty()) {
+                transactionSummaryService.projectTransactionSummary(transactionEntity, event, events);
+            } else {
+                List<EventEntity> eventsReceivedSoFar = events.stream()
+                        .filter(storedEvent -> laterNewEvents.stream().noneMatch(laterEvent -> isSameEvent(storedEvent, laterEvent)))
+                        .collect(Collectors.toList());
+                TransactionEntity transactionSoFar = transactionEntityFactory.create(EventDigest.fromEventList(eventsReceivedSoFar, objectMapper));
+                transactionSummaryService.projectTransactionSummary(transactionSoFar, event, eventsReceivedSoFar);
+            }
+        }
+    }
+
+    /**
+     * If the payment has associated refunds, we want to update the payment details that we also store on refunds to
+     * keep these in sync with the payment.
+     * We avoid a database query to get refunds when the payment has not been in a success state, as it is not
+     * possible for refunds to exist in this case. We also avoid this query when the current event contains no data
+     * that needs to be updated on the refund.
+     */
+    private boolean shouldCheckForRefundsToUpdate(EventEntity event, List<EventEntity> events) {
+        Map<String, Object> eventDataMap = event.getEventDataMap(objectMapper);
+        return !event.getEventType().equals("REFUND_AVAILABILITY_UPDATED") &&
+                !eventDataMap.isEmpty() &&
+                hasSuccessEvent(events);
+    }
+
+    private void reprojectChildTransactions(String paymentExternalId, EventDigest paymentEventDigest) {
+        List<String> childTransactionExternalIds = transactionService.getChildTransactions(paymentExternalId)
+                .stream()
+                .map(TransactionEntity::getExternalId)
+                .collect(Collectors.toList());
+        childTransactionEventProcessor.reprojectChildTransactions(childTransactionExternalIds, paymentEventDigest);
+    }
+
+    private Timer stageTimer(IngestMetrics.Stage stage, EventEntity event) {
+        return ingestMetrics.stageTimer(stage, event.getResourceType(), this);
     }
 
     private boolean hasSuccessEvent(List<EventEntity> events) {
@@ -80,4 +194,11 @@ public class PaymentEventProcessor extends EventProcessor {
                 .flatMap(Optional::stream)
                 .anyMatch(salientEventType -> fromEventType(salientEventType) == TransactionState.SUCCESS);
     }
+
+    // the event table keeps one event per resource, event type and event date
+    private static boolean isSameEvent(EventEntity storedEvent, EventEntity receivedEvent) {
+        return storedEvent.getEventType().equals(receivedEvent.getEventType()) &&
+                storedEvent.getEventDate().truncatedTo(ChronoUnit.MICROS)
+                        .isEqual(receivedEvent.getEventDate().truncatedTo(ChronoUnit.MICROS));
+    }
 }
@@ -5,21 +5,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.agreement.service.AgreementService;
 import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.service.EventService;
+import uk.gov.pay.ledger.queue.IngestMetrics;
+
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.DIGEST;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.UPSERT;
 
 public class PaymentInstrumentEventProcessor extends EventProcessor {
     private EventService eventService;
     private AgreementService agreementService;
+    private IngestMetrics ingestMetrics;
     private static final Logger LOGGER = LoggerFactory.getLogger(PaymentInstrumentEventProcessor.class);
 
     @Inject
-    public PaymentInstrumentEventProcessor(EventService eventService, AgreementService agreementService) {
+    public PaymentInstrumentEventProcessor(EventService eventService, AgreementService agreementService, IngestMetrics ingestMetrics) {
         this.eventService = eventService;
         this.agreementService = agreementService;
+        this.ingestMetrics = ingestMetrics;
     }
 
     @Override
     public void process(EventEntity event, boolean isANewEvent) {
-        agreementService.upsertPaymentInstrumentFor(eventService.getEventDigestForResource(event));
+        EventDigest eventDigest = ingestMetrics.stageTimer(DIGEST, event.getResourceType(), this)
+                .timeSupplier(() -> eventService.getEventDigestForResource(event));
+        ingestMetrics.stageTimer(UPSERT, event.getResourceType(), this).time(() -> agreementService.upsertPaymentInstrumentFor(eventDigest));
     }
 }
@@ -2,21 +2,30 @@ package uk.gov.pay.ledger.queue.eventprocessor;
 
 import com.google.inject.Inject;
 import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.service.EventService;
 import uk.gov.pay.ledger.payout.service.PayoutService;
+import uk.gov.pay.ledger.queue.IngestMetrics;
+
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.DIGEST;
+import static uk.gov.pay.ledger.queue.IngestMetrics.Stage.UPSERT;
 
 public class PayoutEventProcessor extends EventProcessor {
     private EventService eventService;
     private PayoutService payoutService;
+    private IngestMetrics ingestMetrics;
 
     @Inject
-    public PayoutEventProcessor(EventService eventService, PayoutService payoutService) {
+    public PayoutEventProcessor(EventService eventService, PayoutService payoutService, IngestMetrics ingestMetrics) {
         this.eventService = eventService;
         this.payoutService = payoutService;
+        this.ingestMetrics = ingestMetrics;
     }
 
     @Override
     public void process(EventEntity event, boolean isANewEvent) {
-        payoutService.upsertPayoutFor(eventService.getEventDigestForResource(event));
+        EventDigest eventDigest = ingestMetrics.stageTimer(DIGEST, event.getResourceType(), this)
+                .timeSupplier(() -> eventService.getEventDigestForResource(event));
+        ingestMetrics.stageTimer(UPSERT, event.getResourceType(), this).time(() -> payoutService.upsertPayoutFor(eventDigest));
     }
 }
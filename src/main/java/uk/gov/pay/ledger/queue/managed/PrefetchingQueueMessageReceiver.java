@@ -0,0 +1,160 @@
+package uk.gov.pay.ledger.queue.managed;
+
+import com.google.inject.Inject;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.app.LedgerConfig;
+import uk.gov.pay.ledger.queue.EventMessage;
+import uk.gov.pay.ledger.queue.EventMessageHandler;
+import uk.gov.pay.ledger.queue.EventMessagePrefetchBuffer;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alternative to {@link QueueMessageReceiver} that runs polling and processing on separate threads. Fetch threads
+ * long-poll SQS into a bounded {@link EventMessagePrefetchBuffer} while processing threads drain it, so the next batch
+ * is already waiting when the current one has been projected.
+ *
+ * After a failed fetch a fetch thread waits before polling again, twice as long after each further failure up to a
+ * maximum, so that an unavailable queue is not polled in a tight loop.
+ */
+public class PrefetchingQueueMessageReceiver implements Managed {
+
+    private static final String FETCH_THREAD_NAME = "queue-message-prefetch-%d";
+    private static final String PROCESSING_THREAD_NAME = "queue-message-processor-%d";
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchingQueueMessageReceiver.class);
+    private static final Duration INITIAL_FETCH_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAXIMUM_FETCH_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration PROCESSING_POLL_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration PROCESSING_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final EventMessagePrefetchBuffer prefetchBuffer;
+    private final EventMessageHandler eventMessageHandler;
+    private final int numberOfFetchThreads;
+    private final int numberOfProcessingThreads;
+    private final ExecutorService fetchExecutorService;
+    private final ExecutorService processingExecutorService;
+    private final Duration initialFetchBackoff;
+    private final Duration maximumFetchBackoff;
+    private volatile boolean running;
+
+    @Inject
+    public PrefetchingQueueMessageReceiver(Environment environment,
+                                           LedgerConfig configuration,
+                                           EventMessagePrefetchBuffer prefetchBuffer,
+                                           EventMessageHandler eventMessageHandler) {
+        this(prefetchBuffer,
+                eventMessageHandler,
+                configuration.getQueueMessageReceiverConfig().getNumberOfThreads(),
+                configuration.getQueueMessageReceiverConfig().getNumberOfProcessingThreads(),
+                executorService(environment, FETCH_THREAD_NAME, configuration.getQueueMessageReceiverConfig().getNumberOfThreads()),
+                executorService(environment, PROCESSING_THREAD_NAME, configuration.getQueueMessageReceiverConfig().getNumberOfProcessingThreads()),
+                INITIAL_FETCH_BACKOFF,
+                MAXIMUM_FETCH_BACKOFF);
+    }
+
+    PrefetchingQueueMessageReceiver(EventMessagePrefetchBuffer prefetchBuffer,
+                                    EventMessageHandler eventMessageHandler,
+                                    int numberOfFetchThreads,
+                                    int numberOfProcessingThreads,
+                                    ExecutorService fetchExecutorService,
+                                    ExecutorService processingExecutorService,
+                                    Duration initialFetchBackoff,
+                                    Duration maximumFetchBackoff) {
+        this.prefetchBuffer = prefetchBuffer;
+        this.eventMessageHandler = eventMessageHandler;
+        this.numberOfFetchThreads = numberOfFetchThreads;
+        this.numberOfProcessingThreads = numberOfProcessingThreads;
+        this.fetchExecutorService = fetchExecutorService;
+        this.processingExecutorService = processingExecutorService;
+        this.initialFetchBackoff = initialFetchBackoff;
+        this.maximumFetchBackoff = maximumFetchBackoff;
+    }
+
+    private static ExecutorService executorService(Environment environment, String threadName, int numberOfThreads) {
+        return environment.lifecycle()
+                .executorService(threadName)
+                .minThreads(numberOfThreads)
+                .maxThreads(numberOfThreads)
+                .build();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < numberOfFetchThreads; i++) {
+            fetchExecutorService.execute(this::fetch);
+        }
+        for (int i = 0; i < numberOfProcessingThreads; i++) {
+            processingExecutorService.execute(this::process);
+        }
+    }
+
+    private void fetch() {
+        Duration backoff = initialFetchBackoff;
+        while (running) {
+            try {
+                prefetchBuffer.fetch();
+                backoff = initialFetchBackoff;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Queue message prefetch thread exception, polling again after a backoff",
+                        kv("backoff_in_milliseconds", backoff.toMillis()), e);
+                try {
+                    Thread.sleep(backoff.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = backoff.multipliedBy(2).compareTo(maximumFetchBackoff) < 0
+                        ? backoff.multipliedBy(2)
+                        : maximumFetchBackoff;
+            }
+        }
+    }
+
+    private void process() {
+        while (running) {
+            try {
+                Optional<List<EventMessage>> batch = prefetchBuffer.poll(PROCESSING_POLL_TIMEOUT);
+                if (batch.isPresent()) {
+                    eventMessageHandler.handle(batch.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Queue message processing thread exception", e);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        // threads blocked on a long poll are interrupted, buffered messages are redelivered by SQS. Batches being
+        // processed are left to finish, as processing threads only wait on the buffer for the poll timeout
+        fetchExecutorService.shutdownNow();
+        processingExecutorService.shutdown();
+        try {
+            if (!processingExecutorService.awaitTermination(PROCESSING_SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Queue message processing threads did not finish in time, interrupting them",
+                        kv("timeout_in_seconds", PROCESSING_SHUTDOWN_TIMEOUT.toSeconds()));
+                processingExecutorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            processingExecutorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
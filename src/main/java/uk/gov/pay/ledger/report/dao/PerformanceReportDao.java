@@ -5,6 +5,7 @@ import org.jdbi.v3.core.statement.Query;
 import uk.gov.pay.ledger.report.entity.PerformanceReportEntity;
 import uk.gov.pay.ledger.report.mapper.PerformanceReportEntityMapper;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
 
 import jakarta.inject.Inject;
 import java.time.ZonedDateTime;
@@ -20,11 +21,15 @@ public class PerformanceReportDao {
 
     private static final String WITH_DATE_RANGE = " and created_date between :startDate and :toDate";
 
-    private final Jdbi jdbi;
+    private final ReadReplicaRouter readReplicaRouter;
 
     @Inject
     public PerformanceReportDao(Jdbi jdbi) {
-        this.jdbi = jdbi;
+        this(new ReadReplicaRouter(jdbi));
+    }
+
+    public PerformanceReportDao(ReadReplicaRouter readReplicaRouter) {
+        this.readReplicaRouter = readReplicaRouter;
     }
 
     public PerformanceReportEntity performanceReportForPaymentTransactions(String fromDate, String toDate, String state) {
@@ -33,7 +38,7 @@ public class PerformanceReportDao {
         if (fromDate != null && toDate != null) queryString.append(WITH_DATE_RANGE);
         if (state != null) queryString.append(WITH_STATE);
 
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(queryString.toString());
             if (state != null) query.bind("state", TransactionState.from(state).name());
             if (fromDate != null && toDate != null) {
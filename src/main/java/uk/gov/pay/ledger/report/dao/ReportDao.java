@@ -11,6 +11,7 @@ import uk.gov.pay.ledger.report.entity.TransactionsStatisticsResult;
 import uk.gov.pay.ledger.report.mapper.ReportMapper;
 import uk.gov.pay.ledger.transaction.model.TransactionType;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
 
 import jakarta.inject.Inject;
 import java.time.ZonedDateTime;
@@ -30,15 +31,19 @@ public class ReportDao {
             "AND state = :state " +
             ":searchExtraFields ";
 
-    private final Jdbi jdbi;
+    private final ReadReplicaRouter readReplicaRouter;
 
     @Inject
     public ReportDao(Jdbi jdbi) {
-        this.jdbi = jdbi;
+        this(new ReadReplicaRouter(jdbi));
+    }
+
+    public ReportDao(ReadReplicaRouter readReplicaRouter) {
+        this.readReplicaRouter = readReplicaRouter;
     }
 
     public List<PaymentCountByStateResult> getPaymentCountsByState(TransactionStatisticQuery transactionStatisticQuery) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             String template = createSearchTemplate(transactionStatisticQuery.getFilterTemplates(),
                     COUNT_TRANSACTIONS_BY_STATE);
 
@@ -55,7 +60,7 @@ public class ReportDao {
     }
 
     public TransactionsStatisticsResult getTransactionSummaryStatistics(TransactionStatisticQuery transactionStatisticQuery, TransactionType transactionType) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             String template = createSearchTemplate(transactionStatisticQuery.getFilterTemplates(), TRANSACTION_SUMMARY_STATISTICS);
 
             Query query = handle.createQuery(template)
@@ -72,7 +77,7 @@ public class ReportDao {
     }
 
     public List<TimeseriesReportSlice> getTransactionsVolumeByTimeseries(ZonedDateTime fromDate, ZonedDateTime toDate) {
-        return jdbi.withHandle(handle -> handle.createQuery("SELECT " +
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> handle.createQuery("SELECT " +
                     "date_trunc('hour', t.created_date) as timestamp, " +
                     "COUNT(*) as all_payments, " +
                     "COUNT(*) filter (WHERE t.state IN ('ERROR', 'ERROR_GATEWAY')) as errored_payments, " +
@@ -1,19 +1,31 @@
 package uk.gov.pay.ledger.transaction.dao;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.statement.Query;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.pay.ledger.transaction.dao.mapper.TransactionMapper;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.model.TransactionType;
 import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
 
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -21,8 +33,6 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 public class TransactionDao {
     private static final String SEARCH_CLAUSE_TRANSACTION_WITH_PAYOUT = "AND po.gateway_account_id = :gatewayAccountId ";
     private static final String SEARCH_CLAUSE_TRANSACTIONS_WITH_PAYOUT = "AND po.gateway_account_id IN (<account_id>) ";
-    private static final String SEARCH_CLAUSE_JOIN_TRANSACTION_METADATA = " INNER JOIN transaction_metadata tm " +
-            "  on t.id = tm.transaction_id ";
 
     private static final String FIND_TRANSACTION_BY_EXTERNAL_ID =
             "SELECT t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
@@ -30,6 +40,7 @@ public class TransactionDao {
                     "t.gateway_payout_id = po.gateway_payout_id " +
                     ":payoutJoinOnGatewayIdField " +
                     "WHERE t.external_id = :externalId " +
+                    "AND t.created_date = (SELECT created_date FROM transaction_external_id WHERE external_id = :externalId) " +
                     "AND (:gatewayAccountId is NULL OR t.gateway_account_id = :gatewayAccountId)";
 
     private static final String FIND_TRANSACTION_BY_EXTERNAL_ID_AND_GATEWAY_ACCOUNT_ID =
@@ -38,6 +49,7 @@ public class TransactionDao {
                     "t.gateway_payout_id = po.gateway_payout_id " +
                     "AND po.gateway_account_id = :gatewayAccountId " +
                     "WHERE t.external_id = :externalId " +
+                    "AND t.created_date = (SELECT created_date FROM transaction_external_id WHERE external_id = :externalId) " +
                     "AND t.gateway_account_id = :gatewayAccountId " +
                     "AND (:transactionType::transaction_type is NULL OR type = :transactionType::transaction_type) " +
                     "AND (:parentExternalId is NULL OR t.parent_external_id = :parentExternalId)";
@@ -66,8 +78,7 @@ public class TransactionDao {
                     "WHERE t.parent_external_id = :parentExternalId";
 
     private static final String SEARCH_TRANSACTIONS =
-            "SELECT :distinctClauseWhenSearchingByMetadataValue t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
-                    " :transactionMetadataJoin " +
+            "SELECT t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
                     " LEFT OUTER JOIN payout po on " +
                     "t.gateway_payout_id = po.gateway_payout_id " +
                     ":payoutJoinOnGatewayIdField " +
@@ -75,8 +86,7 @@ public class TransactionDao {
                     "ORDER BY t.created_date DESC OFFSET :offset LIMIT :limit";
 
     private static final String SEARCH_TRANSACTIONS_CURSOR =
-            "SELECT :distinctClauseWhenSearchingByMetadataValue t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
-                    " :transactionMetadataJoin " +
+            "SELECT t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
                     "LEFT OUTER JOIN payout po on " +
                     "t.gateway_payout_id = po.gateway_payout_id " +
                     ":payoutJoinOnGatewayIdField " +
@@ -84,34 +94,48 @@ public class TransactionDao {
                     ":cursorFields " +
                     "ORDER BY t.created_date DESC, t.id DESC LIMIT :limit";
 
+    private static final String SEARCH_TRANSACTIONS_STREAM =
+            "SELECT t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
+                    "LEFT OUTER JOIN payout po on " +
+                    "t.gateway_payout_id = po.gateway_payout_id " +
+                    ":payoutJoinOnGatewayIdField " +
+                    ":searchExtraFields " +
+                    ":cursorFields " +
+                    "ORDER BY t.created_date DESC, t.id DESC";
+
+    private static final String SEARCH_TRANSACTIONS_CURSOR_BEFORE =
+            "SELECT t.*, po.paid_out_date AS paid_out_date FROM transaction t " +
+                    "LEFT OUTER JOIN payout po on " +
+                    "t.gateway_payout_id = po.gateway_payout_id " +
+                    ":payoutJoinOnGatewayIdField " +
+                    ":searchExtraFields " +
+                    ":cursorFields " +
+                    "ORDER BY t.created_date ASC, t.id ASC LIMIT :limit";
+
     private static final String SEARCH_TRANSACTIONS_FOR_REDACTION =
             "SELECT t.* FROM transaction t " +
                     " WHERE t.created_date > :dateOfLastProcessedTransaction AND t.created_date <= :redactTransactionsUpToDate  " +
                     "ORDER BY t.created_date ASC LIMIT :limit";
 
-    private static final String COUNT_TRANSACTIONS = "SELECT count(:distinctClauseWhenSearchingByMetadataValue t.id) " +
+    private static final String COUNT_TRANSACTIONS = "SELECT count(t.id) " +
             "FROM transaction t " +
-            " :transactionMetadataJoin " +
             ":searchExtraFields ";
 
-    private static final String COUNT_TRANSACTIONS_WITH_PAIDOUT_DATE = "SELECT count(:distinctClauseWhenSearchingByMetadataValue t.id) " +
+    private static final String COUNT_TRANSACTIONS_WITH_PAIDOUT_DATE = "SELECT count(t.id) " +
             "FROM transaction t " +
-            " :transactionMetadataJoin " +
             "LEFT OUTER JOIN payout po on " +
             "t.gateway_payout_id = po.gateway_payout_id " +
             ":payoutJoinOnGatewayIdField " +
             ":searchExtraFields ";
 
-    private static final String COUNT_TRANSACTIONS_WITH_LIMIT = "SELECT count(*) FROM (SELECT :distinctClauseWhenSearchingByMetadataValue t.id " +
+    private static final String COUNT_TRANSACTIONS_WITH_LIMIT = "SELECT count(*) FROM (SELECT t.id " +
             "FROM transaction t " +
-            " :transactionMetadataJoin " +
             " :searchExtraFields " +
             " OFFSET 0 LIMIT :limit" +
             ") txs";
 
-    private static final String COUNT_TRANSACTIONS_WITH_LIMIT_AND_PAIDOUT_DATE = "SELECT count(*) FROM (SELECT :distinctClauseWhenSearchingByMetadataValue t.id " +
+    private static final String COUNT_TRANSACTIONS_WITH_LIMIT_AND_PAIDOUT_DATE = "SELECT count(*) FROM (SELECT t.id " +
             "FROM transaction t " +
-            " :transactionMetadataJoin " +
             "LEFT OUTER JOIN payout po on " +
             "t.gateway_payout_id = po.gateway_payout_id " +
             ":payoutJoinOnGatewayIdField " +
@@ -180,7 +204,7 @@ public class TransactionDao {
                     ":gatewayPayoutId, " +
                     ":agreementId" +
                     ") " +
-                    "ON CONFLICT (external_id) " +
+                    "ON CONFLICT (external_id, created_date) " +
                     "DO UPDATE SET " +
                     "external_id = EXCLUDED.external_id," +
                     "parent_external_id = EXCLUDED.parent_external_id," +
@@ -213,6 +237,62 @@ public class TransactionDao {
                     "agreement_id = EXCLUDED.agreement_id " +
                     "WHERE EXCLUDED.event_count >= transaction.event_count;";
 
+    // the same update as UPSERT_STRING, for a transaction whose created date has changed and so may move partition,
+    // which ON CONFLICT DO UPDATE cannot do
+    private static final String UPDATE_TRANSACTION_AND_CREATED_DATE =
+            "UPDATE transaction SET " +
+                    "parent_external_id = :parentExternalId," +
+                    "service_id = :serviceId," +
+                    "live = :live," +
+                    "gateway_account_id = :gatewayAccountId," +
+                    "amount = :amount," +
+                    "description = :description," +
+                    "reference = :reference," +
+                    "state = :state," +
+                    "email = :email," +
+                    "cardholder_name = :cardholderName," +
+                    "created_date = :createdDate," +
+                    "transaction_details = CAST(:transactionDetails as jsonb)," +
+                    "event_count = :eventCount," +
+                    "card_brand = :cardBrand," +
+                    "last_digits_card_number = :lastDigitsCardNumber," +
+                    "first_digits_card_number = :firstDigitsCardNumber," +
+                    "net_amount = :netAmount," +
+                    "total_amount = :totalAmount," +
+                    "fee = :fee," +
+                    "type = :transactionType::transaction_type, " +
+                    "refund_amount_available = :refundAmountAvailable, " +
+                    "refund_amount_refunded = :refundAmountRefunded, " +
+                    "refund_status = :refundStatus, " +
+                    "moto = :moto, " +
+                    "gateway_transaction_id = :gatewayTransactionId, " +
+                    "source = :source::source, " +
+                    "gateway_payout_id = :gatewayPayoutId, " +
+                    "agreement_id = :agreementId " +
+                    "WHERE external_id = :externalId " +
+                    "AND created_date = :existingCreatedDate " +
+                    "AND event_count <= :eventCount";
+
+    // locks the external id of the transaction and returns the created date it is stored with
+    private static final String UPSERT_TRANSACTION_EXTERNAL_ID =
+            "INSERT INTO transaction_external_id(external_id, created_date) " +
+                    "VALUES (:externalId, :createdDate) " +
+                    "ON CONFLICT (external_id) DO UPDATE SET external_id = EXCLUDED.external_id " +
+                    "RETURNING created_date";
+
+    private static final String INSERT_TRANSACTION_EXTERNAL_ID =
+            "INSERT INTO transaction_external_id(external_id, created_date) " +
+                    "VALUES (:externalId, :createdDate) " +
+                    "ON CONFLICT (external_id) DO NOTHING";
+
+    private static final String LOCK_TRANSACTION_EXTERNAL_IDS =
+            "SELECT external_id, created_date FROM transaction_external_id " +
+                    "WHERE external_id IN (<externalIds>) " +
+                    "ORDER BY external_id FOR UPDATE";
+
+    private static final String UPDATE_TRANSACTION_EXTERNAL_ID_CREATED_DATE =
+            "UPDATE transaction_external_id SET created_date = :createdDate WHERE external_id = :externalId";
+
     private static final String REDACT_PII_FROM_TRANSACTIONS =
             "UPDATE transaction t " +
                     "set reference = '<DELETED>'," +
@@ -224,7 +304,11 @@ public class TransactionDao {
                     "                              '{address_line2}','\"<DELETED>\"', false" +
                     "                        )" +
                     "                         -'{reference,cardholder_name,email,description}'::text[]" +
-                    " WHERE t.external_id = :externalId";
+                    " WHERE t.external_id = :externalId" +
+                    " AND t.created_date = (SELECT created_date FROM transaction_external_id WHERE external_id = :externalId)";
+
+    private static final String DELETE_EVENT_DIGEST_SNAPSHOT =
+            "DELETE FROM event_digest_snapshot WHERE resource_external_id = :externalId";
 
     private static final String GET_SOURCE_TYPE_ENUM_VALUES =
             "SELECT " +
@@ -236,12 +320,31 @@ public class TransactionDao {
                     "WHERE pg_type.typname = 'source';";
 
 
+    private static final String ESTIMATE_TRANSACTIONS = "EXPLAIN (FORMAT JSON) SELECT t.id " +
+            "FROM transaction t " +
+            ":searchExtraFields ";
+
+    private static final String ESTIMATE_TRANSACTIONS_WITH_PAIDOUT_DATE = "EXPLAIN (FORMAT JSON) SELECT t.id " +
+            "FROM transaction t " +
+            "LEFT OUTER JOIN payout po on " +
+            "t.gateway_payout_id = po.gateway_payout_id " +
+            ":payoutJoinOnGatewayIdField " +
+            ":searchExtraFields ";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
     private final Jdbi jdbi;
+    private final ReadReplicaRouter readReplicaRouter;
     private final LedgerConfig configuration;
 
     @Inject
     public TransactionDao(Jdbi jdbi, LedgerConfig configuration) {
+        this(jdbi, new ReadReplicaRouter(jdbi), configuration);
+    }
+
+    public TransactionDao(Jdbi jdbi, ReadReplicaRouter readReplicaRouter, LedgerConfig configuration) {
         this.jdbi = jdbi;
+        this.readReplicaRouter = readReplicaRouter;
         this.configuration = configuration;
     }
 
@@ -308,7 +411,7 @@ public class TransactionDao {
     }
 
     public List<TransactionEntity> searchTransactions(TransactionSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams, SEARCH_TRANSACTIONS));
             searchParams.getQueryMap().forEach(bindSearchParameter(query));
             query.bind("offset", searchParams.getOffset());
@@ -321,7 +424,7 @@ public class TransactionDao {
     }
 
     public Long getTotalForSearch(TransactionSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams,
                     (isNotBlank(searchParams.getFromSettledDate()) || isNotBlank(searchParams.getToSettledDate())) ?
                             COUNT_TRANSACTIONS_WITH_PAIDOUT_DATE : COUNT_TRANSACTIONS));
@@ -334,7 +437,7 @@ public class TransactionDao {
     }
 
     public Long getTotalWithLimitForSearch(TransactionSearchParams searchParams) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(createSearchTemplate(searchParams,
                     (isNotBlank(searchParams.getFromSettledDate()) || isNotBlank(searchParams.getToSettledDate())) ?
                             COUNT_TRANSACTIONS_WITH_LIMIT_AND_PAIDOUT_DATE : COUNT_TRANSACTIONS_WITH_LIMIT));
@@ -348,37 +451,114 @@ public class TransactionDao {
         });
     }
 
+    /**
+     * Estimates the number of transactions a search finds from the number of rows the query planner expects it to
+     * return, which only plans the search and does not run it. The estimate comes from the table statistics, so it can
+     * be far off for searches the statistics say little about.
+     */
+    public Long getEstimatedTotalForSearch(TransactionSearchParams searchParams) {
+        String plan = readReplicaRouter.getJdbiForReads().withHandle(handle -> {
+            Query query = handle.createQuery(createSearchTemplate(searchParams,
+                    (isNotBlank(searchParams.getFromSettledDate()) || isNotBlank(searchParams.getToSettledDate())) ?
+                            ESTIMATE_TRANSACTIONS_WITH_PAIDOUT_DATE : ESTIMATE_TRANSACTIONS));
+            searchParams.getQueryMap().forEach(bindSearchParameter(query));
+            return query
+                    .setQueryTimeout(configuration.getReportingConfig().getSearchQueryTimeoutInSeconds())
+                    .mapTo(String.class)
+                    .one();
+        });
+        try {
+            return objectMapper.readTree(plan).path(0).path("Plan").path("Plan Rows").asLong();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not read the query plan of a transaction search", e);
+        }
+    }
+
     public List<TransactionEntity> cursorTransactionSearch(TransactionSearchParams searchParams, ZonedDateTime startingAfterCreatedDate, Long startingAfterId) {
         Long cursorPageSize = searchParams.getDisplaySize();
-        String cursorTemplate = "";
-        String searchTemplate = createSearchTemplate(searchParams, SEARCH_TRANSACTIONS_CURSOR);
+        String searchTemplate = createCursorSearchTemplate(searchParams, SEARCH_TRANSACTIONS_CURSOR,
+                startingAfterCreatedDate, startingAfterId);
 
-        if (startingAfterCreatedDate != null && startingAfterId != null) {
-            cursorTemplate = searchParams.getQueryMap().isEmpty() ? "WHERE " : "AND ";
-            cursorTemplate += "t.created_date <= :startingAfterCreatedDate AND NOT (t.created_date = :startingAfterCreatedDate AND t.id >= :startingAfterId) ";
-        }
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
+            Query query = handle.createQuery(searchTemplate);
+            searchParams.getQueryMap().forEach(bindSearchParameter(query));
+            query.bind("startingAfterCreatedDate", startingAfterCreatedDate);
+            query.bind("startingAfterId", startingAfterId);
+            query.bind("limit", cursorPageSize);
 
-        searchTemplate = searchTemplate.replace(":cursorFields", cursorTemplate);
+            return query
+                    .setQueryTimeout(configuration.getReportingConfig().getSearchQueryTimeoutInSeconds())
+                    .map(new TransactionMapper())
+                    .list();
+        });
+    }
 
-        String finalSearchTemplate = searchTemplate;
-        return jdbi.withHandle(handle -> {
-            Query query = handle.createQuery(finalSearchTemplate);
+    /**
+     * Reads the transactions a search finds, newest first, with a single query whose rows are fetched from a cursor
+     * a batch at a time, instead of planning and seeking a new query for every page. Each transaction is passed to
+     * the consumer until it returns false. Returns whether every transaction the search finds was read. The query can
+     * be cancelled from another thread with the statement canceller.
+     */
+    public boolean streamTransactionSearch(TransactionSearchParams searchParams, ZonedDateTime startingAfterCreatedDate,
+                                           Long startingAfterId, StatementCanceller statementCanceller,
+                                           Predicate<TransactionEntity> consumer) {
+        String searchTemplate = createCursorSearchTemplate(searchParams, SEARCH_TRANSACTIONS_STREAM,
+                startingAfterCreatedDate, startingAfterId);
+
+        // the postgres driver only fetches the rows of a query in batches when it is run inside a transaction
+        return readReplicaRouter.getJdbiForReads().inTransaction(handle -> {
+            handle.execute("SET TRANSACTION READ ONLY");
+            Query query = handle.createQuery(searchTemplate);
             searchParams.getQueryMap().forEach(bindSearchParameter(query));
             query.bind("startingAfterCreatedDate", startingAfterCreatedDate);
             query.bind("startingAfterId", startingAfterId);
-            query.bind("limit", cursorPageSize);
+
+            return query
+                    .addCustomizer(statementCanceller)
+                    .setQueryTimeout(configuration.getReportingConfig().getSearchQueryTimeoutInSeconds())
+                    .setFetchSize(configuration.getReportingConfig().getStreamingCsvPageSize())
+                    .map(new TransactionMapper())
+                    .withIterator(transactions -> {
+                        while (transactions.hasNext()) {
+                            if (!consumer.test(transactions.next())) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    });
+        });
+    }
+
+    /**
+     * Finds the page of transactions that ends just before a transaction, seeking backwards from it. The transactions
+     * are returned newest first, in the same order as {@link #cursorTransactionSearch}.
+     */
+    public List<TransactionEntity> cursorTransactionSearchBefore(TransactionSearchParams searchParams, ZonedDateTime endingBeforeCreatedDate, Long endingBeforeId) {
+        String cursorTemplate = searchParams.getQueryMap().isEmpty() ? "WHERE " : "AND ";
+        cursorTemplate += "t.created_date >= :endingBeforeCreatedDate AND NOT (t.created_date = :endingBeforeCreatedDate AND t.id <= :endingBeforeId) ";
+
+        String searchTemplate = createSearchTemplate(searchParams, SEARCH_TRANSACTIONS_CURSOR_BEFORE)
+                .replace(":cursorFields", cursorTemplate);
+
+        List<TransactionEntity> transactions = readReplicaRouter.getJdbiForReads().withHandle(handle -> {
+            Query query = handle.createQuery(searchTemplate);
+            searchParams.getQueryMap().forEach(bindSearchParameter(query));
+            query.bind("endingBeforeCreatedDate", endingBeforeCreatedDate);
+            query.bind("endingBeforeId", endingBeforeId);
+            query.bind("limit", searchParams.getDisplaySize());
 
             return query
                     .setQueryTimeout(configuration.getReportingConfig().getSearchQueryTimeoutInSeconds())
                     .map(new TransactionMapper())
                     .list();
         });
+        return Lists.reverse(transactions);
     }
 
     public List<TransactionEntity> findTransactionsForRedaction(ZonedDateTime dateOfLastProcessedTransaction,
                                                                 ZonedDateTime redactTransactionsUpToDate,
                                                                 int noOfTransactionsToReturn) {
-        return jdbi.withHandle(handle -> {
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> {
             Query query = handle.createQuery(SEARCH_TRANSACTIONS_FOR_REDACTION);
             query.bind("dateOfLastProcessedTransaction", dateOfLastProcessedTransaction);
             query.bind("redactTransactionsUpToDate", redactTransactionsUpToDate);
@@ -390,11 +570,19 @@ public class TransactionDao {
         });
     }
 
+    /**
+     * Also deletes the event digest snapshot of the transaction, as it holds the PII of the events it was folded from.
+     * A snapshot is only written again by replaying whichever events are left.
+     */
     public void redactPIIFromTransaction(String transactionExternalId) {
-        jdbi.withHandle(handle ->
-                handle.createUpdate(REDACT_PII_FROM_TRANSACTIONS)
-                        .bind("externalId", transactionExternalId)
-                        .execute());
+        jdbi.useTransaction(handle -> {
+            handle.createUpdate(REDACT_PII_FROM_TRANSACTIONS)
+                    .bind("externalId", transactionExternalId)
+                    .execute();
+            handle.createUpdate(DELETE_EVENT_DIGEST_SNAPSHOT)
+                    .bind("externalId", transactionExternalId)
+                    .execute();
+        });
     }
 
     private String createSearchTemplate(TransactionSearchParams searchParams, String baseQueryString) {
@@ -407,18 +595,21 @@ public class TransactionDao {
                         (searchParams.getAccountIds() != null && !searchParams.getAccountIds().isEmpty())
                                 ? SEARCH_CLAUSE_TRANSACTIONS_WITH_PAYOUT : "");
 
-        baseQueryString = baseQueryString
-                .replace(":transactionMetadataJoin",
-                        (isNotBlank(searchParams.getMetadataValue())) ? SEARCH_CLAUSE_JOIN_TRANSACTION_METADATA : "");
-
-        baseQueryString = baseQueryString.replace(
-                ":distinctClauseWhenSearchingByMetadataValue", isNotBlank(searchParams.getMetadataValue()) ? " distinct " : "");
-
         return baseQueryString.replace(
                 ":searchExtraFields",
                 searchClauseTemplate);
     }
 
+    private String createCursorSearchTemplate(TransactionSearchParams searchParams, String baseQueryString,
+                                              ZonedDateTime startingAfterCreatedDate, Long startingAfterId) {
+        String cursorTemplate = "";
+        if (startingAfterCreatedDate != null && startingAfterId != null) {
+            cursorTemplate = searchParams.getQueryMap().isEmpty() ? "WHERE " : "AND ";
+            cursorTemplate += "t.created_date <= :startingAfterCreatedDate AND NOT (t.created_date = :startingAfterCreatedDate AND t.id >= :startingAfterId) ";
+        }
+        return createSearchTemplate(searchParams, baseQueryString).replace(":cursorFields", cursorTemplate);
+    }
+
     private BiConsumer<String, Object> bindSearchParameter(Query query) {
         return (searchKey, searchValue) -> {
             if (searchValue instanceof List<?>) {
@@ -429,15 +620,83 @@ public class TransactionDao {
         };
     }
 
+    /**
+     * Inserts the transaction, or updates it if it does not have fewer events than the stored one. The external id is
+     * locked first, in transaction_external_id, as the transaction table is partitioned by created date and can only
+     * keep external ids unique within a partition.
+     */
     public void upsert(TransactionEntity transaction) {
-        jdbi.withHandle(handle ->
-                handle.createUpdate(UPSERT_STRING)
-                        .bindBean(transaction)
-                        .execute());
+        jdbi.useTransaction(handle -> {
+            ZonedDateTime existingCreatedDate = handle.createQuery(UPSERT_TRANSACTION_EXTERNAL_ID)
+                    .bindBean(transaction)
+                    .mapTo(ZonedDateTime.class)
+                    .one();
+            upsert(handle, transaction, existingCreatedDate);
+        });
+    }
+
+    /**
+     * Upserts several transactions with the same rules as {@link #upsert(TransactionEntity)}, in a single JDBC batch
+     * apart from the ones whose created date has changed.
+     */
+    public void upsertAll(List<TransactionEntity> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        jdbi.useTransaction(handle -> {
+            PreparedBatch externalIdBatch = handle.prepareBatch(INSERT_TRANSACTION_EXTERNAL_ID);
+            // in the same order as the locks taken below, so that concurrent batches cannot deadlock
+            transactions.stream()
+                    .sorted(Comparator.comparing(TransactionEntity::getExternalId))
+                    .forEach(transaction -> externalIdBatch.bindBean(transaction).add());
+            externalIdBatch.execute();
+
+            Map<String, ZonedDateTime> existingCreatedDates = handle.createQuery(LOCK_TRANSACTION_EXTERNAL_IDS)
+                    .bindList("externalIds", transactions.stream().map(TransactionEntity::getExternalId).collect(Collectors.toList()))
+                    .map((rs, ctx) -> Map.entry(rs.getString("external_id"),
+                            ZonedDateTime.ofInstant(rs.getTimestamp("created_date").toInstant(), ZoneOffset.UTC)))
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+            PreparedBatch batch = handle.prepareBatch(UPSERT_STRING);
+            List<TransactionEntity> transactionsWithChangedCreatedDate = new ArrayList<>();
+            transactions.forEach(transaction -> {
+                if (transaction.getCreatedDate().isEqual(existingCreatedDates.get(transaction.getExternalId()))) {
+                    batch.bindBean(transaction).add();
+                } else {
+                    transactionsWithChangedCreatedDate.add(transaction);
+                }
+            });
+            if (batch.size() > 0) {
+                batch.execute();
+            }
+            transactionsWithChangedCreatedDate.forEach(transaction -> existingCreatedDates.put(transaction.getExternalId(),
+                    upsert(handle, transaction, existingCreatedDates.get(transaction.getExternalId()))));
+        });
+    }
+
+    private ZonedDateTime upsert(Handle handle, TransactionEntity transaction, ZonedDateTime existingCreatedDate) {
+        if (transaction.getCreatedDate().isEqual(existingCreatedDate)) {
+            handle.createUpdate(UPSERT_STRING)
+                    .bindBean(transaction)
+                    .execute();
+            return existingCreatedDate;
+        }
+
+        int noOfRowsUpdated = handle.createUpdate(UPDATE_TRANSACTION_AND_CREATED_DATE)
+                .bindBean(transaction)
+                .bind("existingCreatedDate", existingCreatedDate)
+                .execute();
+        if (noOfRowsUpdated == 0) {
+            return existingCreatedDate;
+        }
+        handle.createUpdate(UPDATE_TRANSACTION_EXTERNAL_ID_CREATED_DATE)
+                .bindBean(transaction)
+                .execute();
+        return transaction.getCreatedDate();
     }
 
     public List<String> getSourceTypeValues() {
-        return jdbi.withHandle(handle -> handle.createQuery(GET_SOURCE_TYPE_ENUM_VALUES)
+        return readReplicaRouter.getJdbiForReads().withHandle(handle -> handle.createQuery(GET_SOURCE_TYPE_ENUM_VALUES)
                 .mapTo(String.class)
                 .collect(Collectors.toList()));
     }
@@ -445,7 +704,7 @@ public class TransactionDao {
     public Optional<ZonedDateTime> getCreatedDateOfFirstTransaction() {
         String query = "select min(created_date) from transaction";
 
-        return jdbi.withHandle(handle ->
+        return readReplicaRouter.getJdbiForReads().withHandle(handle ->
                 handle.createQuery(query)
                         .mapTo(ZonedDateTime.class)
                         .findFirst()
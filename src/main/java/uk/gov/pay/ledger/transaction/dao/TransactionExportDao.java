@@ -0,0 +1,113 @@
+package uk.gov.pay.ledger.transaction.dao;
+
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+import uk.gov.pay.ledger.transaction.dao.mapper.TransactionExportMapper;
+import uk.gov.pay.ledger.transaction.entity.TransactionExportEntity;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps track of transaction exports, so that every instance can report on and serve the exports any instance ran.
+ * Only the instance running an export moves it on from QUEUED or RUNNING, apart from exports whose instance has stopped
+ * updating them, which any instance fails.
+ */
+@RegisterRowMapper(TransactionExportMapper.class)
+public interface TransactionExportDao {
+
+    String COLUMNS = "export_id, gateway_account_ids, state, created_date, updated_date, expires_date, estimated_total," +
+            " transactions_written, file_size_in_bytes";
+
+    @SqlUpdate("INSERT INTO transaction_export(export_id, gateway_account_ids, search_key, state, created_date, updated_date)" +
+            " VALUES (:exportId, :gatewayAccountIds, :searchKey, 'QUEUED', :createdDate, :createdDate)")
+    void insert(@Bind("exportId") String exportId,
+                @Bind("gatewayAccountIds") String gatewayAccountIds,
+                @Bind("searchKey") String searchKey,
+                @Bind("createdDate") Instant createdDate);
+
+    @SqlQuery("SELECT " + COLUMNS + " FROM transaction_export WHERE export_id = :exportId")
+    Optional<TransactionExportEntity> findById(@Bind("exportId") String exportId);
+
+    /**
+     * Finds the latest export of the same search that has neither failed nor expired.
+     */
+    @SqlQuery("SELECT " + COLUMNS + " FROM transaction_export WHERE search_key = :searchKey AND state <> 'FAILED'" +
+            " AND (expires_date IS NULL OR expires_date > :now) ORDER BY created_date DESC LIMIT 1")
+    Optional<TransactionExportEntity> findReusable(@Bind("searchKey") String searchKey, @Bind("now") Instant now);
+
+    @SqlQuery("SELECT export_id FROM transaction_export WHERE export_id IN (<exportIds>)")
+    List<String> findExistingExportIds(@BindList("exportIds") List<String> exportIds);
+
+    @SqlQuery("SELECT " + COLUMNS + " FROM transaction_export WHERE state = 'SUCCEEDED' ORDER BY expires_date")
+    List<TransactionExportEntity> findSucceededOldestFirst();
+
+    @SqlUpdate("UPDATE transaction_export SET state = 'RUNNING', estimated_total = :estimatedTotal, updated_date = :now" +
+            " WHERE export_id = :exportId AND state = 'QUEUED'")
+    boolean markRunning(@Bind("exportId") String exportId,
+                        @Bind("estimatedTotal") Long estimatedTotal,
+                        @Bind("now") Instant now);
+
+    @SqlUpdate("UPDATE transaction_export SET transactions_written = :transactionsWritten, updated_date = :now" +
+            " WHERE export_id = :exportId AND state IN ('QUEUED', 'RUNNING')")
+    void updateProgress(@Bind("exportId") String exportId,
+                        @Bind("transactionsWritten") long transactionsWritten,
+                        @Bind("now") Instant now);
+
+    /**
+     * @return false if the export is no longer running, because it was failed for not having been updated for too long
+     */
+    @SqlUpdate("UPDATE transaction_export SET state = 'SUCCEEDED', transactions_written = :transactionsWritten," +
+            " file_size_in_bytes = :fileSizeInBytes, expires_date = :expiresDate, updated_date = :now" +
+            " WHERE export_id = :exportId AND state = 'RUNNING'")
+    boolean markSucceeded(@Bind("exportId") String exportId,
+                          @Bind("transactionsWritten") long transactionsWritten,
+                          @Bind("fileSizeInBytes") long fileSizeInBytes,
+                          @Bind("expiresDate") Instant expiresDate,
+                          @Bind("now") Instant now);
+
+    @SqlUpdate("UPDATE transaction_export SET state = 'FAILED', transactions_written = :transactionsWritten," +
+            " expires_date = :expiresDate, updated_date = :now WHERE export_id = :exportId AND state IN ('QUEUED', 'RUNNING')")
+    void markFailed(@Bind("exportId") String exportId,
+                    @Bind("transactionsWritten") long transactionsWritten,
+                    @Bind("expiresDate") Instant expiresDate,
+                    @Bind("now") Instant now);
+
+    /**
+     * Fails the queued and running exports that have not been updated since the given time, because the instance that
+     * was running them has gone away.
+     *
+     * @return the ids of the exports that were failed
+     */
+    @SqlQuery("UPDATE transaction_export SET state = 'FAILED', expires_date = :expiresDate, updated_date = :now" +
+            " WHERE state IN ('QUEUED', 'RUNNING') AND updated_date < :updatedBefore RETURNING export_id")
+    List<String> failNotUpdatedSince(@Bind("updatedBefore") Instant updatedBefore,
+                                     @Bind("expiresDate") Instant expiresDate,
+                                     @Bind("now") Instant now);
+
+    @SqlUpdate("UPDATE transaction_export SET last_downloaded_date = :now WHERE export_id = :exportId")
+    void markDownloaded(@Bind("exportId") String exportId, @Bind("now") Instant now);
+
+    /**
+     * Deletes the expired exports, apart from the ones whose file has been downloaded since the given time.
+     *
+     * @return the ids of the exports that were deleted
+     */
+    @SqlQuery("DELETE FROM transaction_export WHERE expires_date <= :now" +
+            " AND (last_downloaded_date IS NULL OR last_downloaded_date < :downloadedBefore) RETURNING export_id")
+    List<String> deleteExpired(@Bind("now") Instant now, @Bind("downloadedBefore") Instant downloadedBefore);
+
+    @SqlUpdate("DELETE FROM transaction_export WHERE export_id = :exportId")
+    boolean delete(@Bind("exportId") String exportId);
+
+    /**
+     * @return false if the export has been downloaded since the given time, or has already been deleted
+     */
+    @SqlUpdate("DELETE FROM transaction_export WHERE export_id = :exportId" +
+            " AND (last_downloaded_date IS NULL OR last_downloaded_date < :downloadedBefore)")
+    boolean deleteIfNotDownloadedSince(@Bind("exportId") String exportId, @Bind("downloadedBefore") Instant downloadedBefore);
+}
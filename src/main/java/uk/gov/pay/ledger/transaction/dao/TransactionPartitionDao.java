@@ -0,0 +1,59 @@
+package uk.gov.pay.ledger.transaction.dao;
+
+import com.google.inject.Inject;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import static java.lang.String.format;
+
+public class TransactionPartitionDao {
+
+    private static final DateTimeFormatter PARTITION_NAME_FORMATTER = DateTimeFormatter.ofPattern("'transaction_y'yyyy'm'MM");
+
+    private static final String FIND_END_OF_LAST_PARTITION =
+            "SELECT max(substring(pg_get_expr(c.relpartbound, c.oid) FROM 'TO \\(''([^'']*)''\\)')::timestamptz) " +
+                    "FROM pg_inherits i " +
+                    "JOIN pg_class c ON c.oid = i.inhrelid " +
+                    "WHERE i.inhparent = 'transaction'::regclass";
+
+    // creating a partition briefly locks the whole transaction table, so it gives up rather than queue behind a long
+    // running query and hold up every other query on the table while waiting
+    private static final String SET_LOCK_TIMEOUT = "SET LOCAL lock_timeout = '5s'";
+
+    private static final String CREATE_PARTITION =
+            "CREATE TABLE IF NOT EXISTS %s PARTITION OF transaction FOR VALUES FROM ('%s') TO ('%s')";
+
+    private final Jdbi jdbi;
+
+    @Inject
+    public TransactionPartitionDao(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    public Optional<ZonedDateTime> findEndOfLastPartition() {
+        return jdbi.withHandle(handle -> handle.createQuery(FIND_END_OF_LAST_PARTITION)
+                .mapTo(ZonedDateTime.class)
+                .findOne()
+                .map(endOfLastPartition -> endOfLastPartition.withZoneSameInstant(ZoneOffset.UTC)));
+    }
+
+    /**
+     * Creates the partition of the transactions created from the start of the given month in UTC up to the start of the
+     * month after, unless it exists already.
+     */
+    public void createPartitionForMonth(ZonedDateTime startOfMonth) {
+        ZonedDateTime from = startOfMonth.withZoneSameInstant(ZoneOffset.UTC);
+        ZonedDateTime to = from.plusMonths(1);
+        jdbi.useTransaction(handle -> {
+            handle.execute(SET_LOCK_TIMEOUT);
+            handle.execute(format(CREATE_PARTITION,
+                    PARTITION_NAME_FORMATTER.format(from),
+                    DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(from),
+                    DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(to)));
+        });
+    }
+}
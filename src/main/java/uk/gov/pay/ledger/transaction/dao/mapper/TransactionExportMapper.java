@@ -0,0 +1,33 @@
+package uk.gov.pay.ledger.transaction.dao.mapper;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import uk.gov.pay.ledger.transaction.entity.TransactionExportEntity;
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+public class TransactionExportMapper implements RowMapper<TransactionExportEntity> {
+
+    @Override
+    public TransactionExportEntity map(ResultSet rs, StatementContext ctx) throws SQLException {
+        return new TransactionExportEntity(
+                rs.getString("export_id"),
+                rs.getString("gateway_account_ids"),
+                TransactionExportState.valueOf(rs.getString("state")),
+                getInstant(rs, "created_date"),
+                getInstant(rs, "updated_date"),
+                getInstant(rs, "expires_date"),
+                rs.getObject("estimated_total", Long.class),
+                rs.getLong("transactions_written"),
+                rs.getObject("file_size_in_bytes", Long.class));
+    }
+
+    private static Instant getInstant(ResultSet rs, String column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column);
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+}
@@ -0,0 +1,71 @@
+package uk.gov.pay.ledger.transaction.entity;
+
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+
+import java.time.Instant;
+
+public class TransactionExportEntity {
+
+    private final String exportId;
+    private final String gatewayAccountIds;
+    private final TransactionExportState state;
+    private final Instant createdDate;
+    private final Instant updatedDate;
+    private final Instant expiresDate;
+    private final Long estimatedTotal;
+    private final long transactionsWritten;
+    private final Long fileSizeInBytes;
+
+    public TransactionExportEntity(String exportId, String gatewayAccountIds, TransactionExportState state,
+                                   Instant createdDate, Instant updatedDate, Instant expiresDate, Long estimatedTotal,
+                                   long transactionsWritten, Long fileSizeInBytes) {
+        this.exportId = exportId;
+        this.gatewayAccountIds = gatewayAccountIds;
+        this.state = state;
+        this.createdDate = createdDate;
+        this.updatedDate = updatedDate;
+        this.expiresDate = expiresDate;
+        this.estimatedTotal = estimatedTotal;
+        this.transactionsWritten = transactionsWritten;
+        this.fileSizeInBytes = fileSizeInBytes;
+    }
+
+    public String getExportId() {
+        return exportId;
+    }
+
+    /**
+     * The gateway accounts the export was started for, sorted and separated by commas.
+     */
+    public String getGatewayAccountIds() {
+        return gatewayAccountIds;
+    }
+
+    public TransactionExportState getState() {
+        return state;
+    }
+
+    public Instant getCreatedDate() {
+        return createdDate;
+    }
+
+    public Instant getUpdatedDate() {
+        return updatedDate;
+    }
+
+    public Instant getExpiresDate() {
+        return expiresDate;
+    }
+
+    public Long getEstimatedTotal() {
+        return estimatedTotal;
+    }
+
+    public long getTransactionsWritten() {
+        return transactionsWritten;
+    }
+
+    public Long getFileSizeInBytes() {
+        return fileSizeInBytes;
+    }
+}
@@ -0,0 +1,75 @@
+package uk.gov.pay.ledger.transaction.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.swagger.v3.oas.annotations.media.Schema;
+import uk.gov.service.payments.commons.api.json.ApiResponseDateTimeSerializer;
+
+import java.time.ZonedDateTime;
+
+public class TransactionExportResponse {
+
+    @JsonProperty("export_id")
+    @Schema(example = "5b1b7c8e0c9a4a4e8b5f2d9c3e6a1f07")
+    private final String exportId;
+    @JsonProperty("state")
+    private final TransactionExportState state;
+    @JsonProperty("created_date")
+    @JsonSerialize(using = ApiResponseDateTimeSerializer.class)
+    private final ZonedDateTime createdDate;
+    @JsonProperty("expires_date")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonSerialize(using = ApiResponseDateTimeSerializer.class)
+    private final ZonedDateTime expiresDate;
+    @JsonProperty("estimated_total")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Planner estimate of how many transactions the export will write, once it is running")
+    private final Long estimatedTotal;
+    @JsonProperty("transactions_written")
+    private final long transactionsWritten;
+    @JsonProperty("file_size_in_bytes")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Size of the gzipped file, once the export has succeeded")
+    private final Long fileSizeInBytes;
+
+    public TransactionExportResponse(String exportId, TransactionExportState state, ZonedDateTime createdDate,
+                                     ZonedDateTime expiresDate, Long estimatedTotal, long transactionsWritten,
+                                     Long fileSizeInBytes) {
+        this.exportId = exportId;
+        this.state = state;
+        this.createdDate = createdDate;
+        this.expiresDate = expiresDate;
+        this.estimatedTotal = estimatedTotal;
+        this.transactionsWritten = transactionsWritten;
+        this.fileSizeInBytes = fileSizeInBytes;
+    }
+
+    public String getExportId() {
+        return exportId;
+    }
+
+    public TransactionExportState getState() {
+        return state;
+    }
+
+    public ZonedDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    public ZonedDateTime getExpiresDate() {
+        return expiresDate;
+    }
+
+    public Long getEstimatedTotal() {
+        return estimatedTotal;
+    }
+
+    public long getTransactionsWritten() {
+        return transactionsWritten;
+    }
+
+    public Long getFileSizeInBytes() {
+        return fileSizeInBytes;
+    }
+}
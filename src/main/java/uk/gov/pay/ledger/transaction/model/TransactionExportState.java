@@ -0,0 +1,33 @@
+package uk.gov.pay.ledger.transaction.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * Where a transaction export has got to.
+ */
+public enum TransactionExportState {
+    /**
+     * Waiting for an export thread to be free.
+     */
+    QUEUED,
+    /**
+     * Writing the transactions to the file.
+     */
+    RUNNING,
+    /**
+     * The file is ready to download.
+     */
+    SUCCEEDED,
+    /**
+     * The export failed and has no file.
+     */
+    FAILED;
+
+    @JsonValue
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
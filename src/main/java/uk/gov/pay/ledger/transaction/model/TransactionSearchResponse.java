@@ -1,6 +1,8 @@
 package uk.gov.pay.ledger.transaction.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import uk.gov.pay.ledger.transaction.search.common.TotalMode;
 import uk.gov.pay.ledger.util.pagination.PaginationBuilder;
 import uk.gov.pay.ledger.transaction.search.model.TransactionView;
 
@@ -18,6 +20,14 @@ public class TransactionSearchResponse {
     List<TransactionView> transactionViewList;
     @JsonProperty("_links")
     private PaginationBuilder paginationBuilder;
+    @JsonProperty("next_cursor")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String nextCursor;
+    @JsonProperty("prev_cursor")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String prevCursor;
+    @JsonProperty("total_mode")
+    private TotalMode totalMode;
 
     public TransactionSearchResponse(Long total, Long count, Long page,
                                      List<TransactionView> transactionViewList) {
@@ -32,6 +42,17 @@ public class TransactionSearchResponse {
         return this;
     }
 
+    public TransactionSearchResponse withCursors(String nextCursor, String prevCursor) {
+        this.nextCursor = nextCursor;
+        this.prevCursor = prevCursor;
+        return this;
+    }
+
+    public TransactionSearchResponse withTotalMode(TotalMode totalMode) {
+        this.totalMode = totalMode;
+        return this;
+    }
+
     public Long getTotal() {
         return total;
     }
@@ -51,4 +72,16 @@ public class TransactionSearchResponse {
     public PaginationBuilder getPaginationBuilder() {
         return paginationBuilder;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public String getPrevCursor() {
+        return prevCursor;
+    }
+
+    public TotalMode getTotalMode() {
+        return totalMode;
+    }
 }
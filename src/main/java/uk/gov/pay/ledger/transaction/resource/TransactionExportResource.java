@@ -0,0 +1,234 @@
+package uk.gov.pay.ledger.transaction.resource;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.inject.Inject;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import jakarta.ws.rs.BeanParam;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import uk.gov.pay.ledger.exception.ErrorResponse;
+import uk.gov.pay.ledger.exception.ValidationException;
+import uk.gov.pay.ledger.transaction.model.TransactionExportResponse;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.transaction.service.TransactionExport;
+import uk.gov.pay.ledger.transaction.service.TransactionExportService;
+import uk.gov.pay.ledger.util.CommaDelimitedSetParameter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+import static uk.gov.pay.ledger.transaction.search.common.TransactionSearchParamsValidator.validateSearchParamsForCsv;
+
+@Path("/v1/transaction/exports")
+@Produces("application/json; qs=1")
+@Tag(name = "Transactions")
+public class TransactionExportResource {
+
+    private static final String GZIP_MEDIA_TYPE = "application/gzip";
+    private static final Pattern SINGLE_BYTE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final TransactionExportService transactionExportService;
+
+    @Inject
+    public TransactionExportResource(TransactionExportService transactionExportService) {
+        this.transactionExportService = transactionExportService;
+    }
+
+    @Path("/")
+    @POST
+    @Timed
+    @Operation(
+            summary = "Start exporting the transactions a search finds to a gzipped CSV file. Takes the same query params as a CSV download of a transaction search",
+            operationId = "start transaction export",
+            responses = {
+                    @ApiResponse(responseCode = "202", description = "Accepted. An earlier export of the same search is returned until it expires", content = @Content(schema = @Schema(implementation = TransactionExportResponse.class))),
+                    @ApiResponse(responseCode = "400", description = "Missing required query parameters", content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "503", description = "Too many transaction exports in progress")
+            }
+    )
+    public Response startExport(@Valid
+                                @Parameter(schema = @Schema(implementation = TransactionSearchParams.class))
+                                @BeanParam TransactionSearchParams searchParams,
+                                @Parameter(description = "Comma delimited gateway account IDs", example = "1,2", required = true, schema = @Schema(type = "string", implementation = String.class))
+                                @QueryParam("account_id") CommaDelimitedSetParameter gatewayAccountIds,
+                                @Parameter(description = "Set to true to include fee columns")
+                                @QueryParam("fee_headers") boolean includeFeeHeaders,
+                                @Parameter(description = "Set to true to include the MOTO column")
+                                @QueryParam("moto_header") boolean includeMotoHeader) {
+        TransactionSearchParams exportSearchParams = Optional.ofNullable(searchParams).orElse(new TransactionSearchParams());
+        validateSearchParamsForCsv(exportSearchParams, gatewayAccountIds);
+        exportSearchParams.setAccountIds(gatewayAccountIds.getParameters());
+
+        TransactionExport export = transactionExportService.startExport(exportSearchParams, includeFeeHeaders, includeMotoHeader);
+        return Response.accepted(export.toResponse()).build();
+    }
+
+    @Path("/{exportId}")
+    @GET
+    @Timed
+    @Operation(
+            summary = "Get the progress of a transaction export",
+            operationId = "get transaction export",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK", content = @Content(schema = @Schema(implementation = TransactionExportResponse.class))),
+                    @ApiResponse(responseCode = "400", description = "Missing required query parameters", content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "404", description = "Not found")
+            }
+    )
+    public TransactionExportResponse getExport(@Parameter(example = "5b1b7c8e0c9a4a4e8b5f2d9c3e6a1f07", description = "Transaction export ID")
+                                               @PathParam("exportId") String exportId,
+                                               @Parameter(description = "Comma delimited gateway account IDs the export was started for", example = "1,2", required = true, schema = @Schema(type = "string", implementation = String.class))
+                                               @QueryParam("account_id") CommaDelimitedSetParameter gatewayAccountIds) {
+        return findExport(exportId, gatewayAccountIds).toResponse();
+    }
+
+    @Path("/{exportId}/file")
+    @GET
+    @Produces(GZIP_MEDIA_TYPE)
+    @Timed
+    @Operation(
+            summary = "Download the gzipped CSV file of a transaction export. Supports a single byte range in the Range header, to resume a download",
+            operationId = "download transaction export file",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK", content = @Content(mediaType = GZIP_MEDIA_TYPE)),
+                    @ApiResponse(responseCode = "206", description = "Partial content", content = @Content(mediaType = GZIP_MEDIA_TYPE)),
+                    @ApiResponse(responseCode = "400", description = "Missing required query parameters", content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+                    @ApiResponse(responseCode = "404", description = "Not found, or the file has expired"),
+                    @ApiResponse(responseCode = "409", description = "The export is still running or has failed"),
+                    @ApiResponse(responseCode = "416", description = "Range not satisfiable")
+            }
+    )
+    public Response downloadFile(@Parameter(example = "5b1b7c8e0c9a4a4e8b5f2d9c3e6a1f07", description = "Transaction export ID")
+                                 @PathParam("exportId") String exportId,
+                                 @Parameter(description = "Comma delimited gateway account IDs the export was started for", example = "1,2", required = true, schema = @Schema(type = "string", implementation = String.class))
+                                 @QueryParam("account_id") CommaDelimitedSetParameter gatewayAccountIds,
+                                 @Parameter(description = "Single byte range of the file to download", example = "bytes=1048576-")
+                                 @HeaderParam("Range") String rangeHeader) {
+        TransactionExport export = findExport(exportId, gatewayAccountIds);
+        java.nio.file.Path file = export.getFile()
+                .orElseThrow(() -> new WebApplicationException("Transaction export has not succeeded", Response.Status.CONFLICT));
+
+        // the file is not written to again once the export has succeeded, so the size it was given is its size
+        long fileSize = export.getFileSizeInBytes();
+        Optional<ByteRange> requestedRange = parseRange(rangeHeader, fileSize);
+        ByteRange range = requestedRange.orElse(new ByteRange(0, fileSize - 1));
+        transactionExportService.recordDownload(exportId);
+        Response.ResponseBuilder response = requestedRange.isPresent()
+                ? Response.status(Response.Status.PARTIAL_CONTENT)
+                    .header("Content-Range", format("bytes %d-%d/%d", range.first(), range.last(), fileSize))
+                : Response.ok();
+        return response
+                .entity(fileContent(openFile(file), range))
+                .type(GZIP_MEDIA_TYPE)
+                .header("Accept-Ranges", "bytes")
+                .header(HttpHeaders.CONTENT_LENGTH, range.length())
+                .header("Content-Disposition", format("attachment; filename=\"transactions-%s.csv.gz\"", exportId))
+                .build();
+    }
+
+    private TransactionExport findExport(String exportId, CommaDelimitedSetParameter gatewayAccountIds) {
+        if (gatewayAccountIds == null || gatewayAccountIds.getParameters().isEmpty()) {
+            throw new ValidationException("account_id is mandatory to get a transaction export");
+        }
+        // an export is only found for exactly the gateway accounts it was started for
+        return transactionExportService.getExport(exportId)
+                .filter(export -> new HashSet<>(export.getAccountIds()).equals(new HashSet<>(gatewayAccountIds.getParameters())))
+                .orElseThrow(() -> new WebApplicationException(Response.Status.NOT_FOUND));
+    }
+
+    private static FileChannel openFile(java.nio.file.Path file) {
+        try {
+            // the file is not deleted for a while after its download is recorded, as deleting it from shared storage
+            // cuts off downloads that have it open on other instances
+            return FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new WebApplicationException("Transaction export has expired", Response.Status.NOT_FOUND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // only a single range is supported, which is all resuming a download needs, so any other Range header is ignored
+    static Optional<ByteRange> parseRange(String rangeHeader, long fileSize) {
+        if (rangeHeader == null) {
+            return Optional.empty();
+        }
+        Matcher matcher = SINGLE_BYTE_RANGE.matcher(rangeHeader.trim());
+        if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return Optional.empty();
+        }
+        try {
+            if (matcher.group(1).isEmpty()) {
+                long suffixLength = Long.parseLong(matcher.group(2));
+                if (suffixLength == 0 || fileSize == 0) {
+                    throw rangeNotSatisfiable(fileSize);
+                }
+                return Optional.of(new ByteRange(Math.max(0, fileSize - suffixLength), fileSize - 1));
+            }
+            long first = Long.parseLong(matcher.group(1));
+            long last = matcher.group(2).isEmpty() ? fileSize - 1 : Math.min(Long.parseLong(matcher.group(2)), fileSize - 1);
+            if (first >= fileSize) {
+                throw rangeNotSatisfiable(fileSize);
+            }
+            return last < first ? Optional.empty() : Optional.of(new ByteRange(first, last));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static WebApplicationException rangeNotSatisfiable(long fileSize) {
+        return new WebApplicationException(Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header("Content-Range", "bytes */" + fileSize)
+                .build());
+    }
+
+    private static StreamingOutput fileContent(FileChannel fileChannel, ByteRange range) {
+        return outputStream -> {
+            try (fileChannel) {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                long position = range.first();
+                long remaining = range.length();
+                while (remaining > 0) {
+                    long transferred = fileChannel.transferTo(position, remaining, target);
+                    if (transferred <= 0) {
+                        throw new EOFException("Transaction export file ended before the range did");
+                    }
+                    position += transferred;
+                    remaining -= transferred;
+                }
+            }
+        };
+    }
+
+    record ByteRange(long first, long last) {
+        long length() {
+            return last - first + 1;
+        }
+    }
+}
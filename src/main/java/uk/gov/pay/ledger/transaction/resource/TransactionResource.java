@@ -1,7 +1,6 @@
 package uk.gov.pay.ledger.transaction.resource;
 
 import com.codahale.metrics.annotation.Timed;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.base.Stopwatch;
 import com.google.inject.Inject;
 import io.swagger.v3.oas.annotations.Hidden;
@@ -32,7 +31,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.pay.ledger.exception.ErrorResponse;
-import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.model.TransactionEventResponse;
 import uk.gov.pay.ledger.transaction.model.TransactionSearchResponse;
 import uk.gov.pay.ledger.transaction.model.TransactionType;
@@ -41,12 +39,13 @@ import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
 import uk.gov.pay.ledger.transaction.search.model.TransactionView;
 import uk.gov.pay.ledger.transaction.service.AccountIdListSupplierManager;
 import uk.gov.pay.ledger.transaction.service.AccountIdSupplierManager;
+import uk.gov.pay.ledger.transaction.service.CsvExportPipeline;
 import uk.gov.pay.ledger.transaction.service.CsvService;
+import uk.gov.pay.ledger.transaction.service.CsvTransactionWriter;
 import uk.gov.pay.ledger.transaction.service.TransactionService;
 import uk.gov.pay.ledger.util.CommaDelimitedSetParameter;
 
 import java.sql.SQLException;
-import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -66,12 +65,15 @@ public class TransactionResource {
     private static final String SQL_PROCESSING_WAS_INTERRUPTED_BY_A_CANCEL_REQUEST_FROM_A_CLIENT_PROGRAM_STATE_CODE = "57014";
     private final TransactionService transactionService;
     private final CsvService csvService;
+    private final CsvExportPipeline csvExportPipeline;
     private final LedgerConfig configuration;
 
     @Inject
-    public TransactionResource(TransactionService transactionService, CsvService csvService, LedgerConfig configuration) {
+    public TransactionResource(TransactionService transactionService, CsvService csvService,
+                               CsvExportPipeline csvExportPipeline, LedgerConfig configuration) {
         this.transactionService = transactionService;
         this.csvService = csvService;
+        this.csvExportPipeline = csvExportPipeline;
         this.configuration = configuration;
     }
 
@@ -162,38 +164,24 @@ public class TransactionResource {
 
             validateSearchParamsForCsv(csvSearchParams, gatewayAccountIds);
 
-            csvSearchParams.overrideMaxDisplaySize((long) configuration.getReportingConfig().getStreamingCsvPageSize());
             csvSearchParams.setAccountIds(gatewayAccountIds.getParameters());
 
-            List<TransactionEntity> page;
-            ZonedDateTime startingAfterCreatedDate = null;
-            Long startingAfterId = null;
-            int count = 0;
-
             Map<String, Object> headers = csvService.csvHeaderFrom(csvSearchParams, includeFeeHeaders, includeMotoHeader);
-            ObjectWriter writer = csvService.writerFrom(headers);
             Stopwatch stopwatch = Stopwatch.createStarted();
-            outputStream.write(csvService.csvStringFrom(headers, writer).getBytes());
-            do {
-                page = transactionService.searchTransactionAfter(csvSearchParams, startingAfterCreatedDate, startingAfterId);
-                count += page.size();
-
-                if (!page.isEmpty()) {
-                    var lastEntity = page.get(page.size() - 1);
-                    startingAfterCreatedDate = lastEntity.getCreatedDate();
-                    startingAfterId = lastEntity.getId();
-
-                    outputStream.write(
-                            csvService.csvStringFrom(page, writer).getBytes()
-                    );
-                    outputStream.flush();
-                }
-            } while (!page.isEmpty());
-            outputStream.close();
+            CsvTransactionWriter csvWriter = csvService.csvTransactionWriterFrom(headers, outputStream,
+                    configuration.getReportingConfig().getStreamingCsvFlushThresholdInBytes());
+            long count;
+            try {
+                csvWriter.writeHeader();
+                count = csvExportPipeline.export(csvSearchParams, csvWriter);
+            } finally {
+                csvWriter.close();
+            }
             long elapsed = stopwatch.stop().elapsed(TimeUnit.MILLISECONDS);
             LOGGER.info("CSV stream took:",
                     kv("time_taken_in_milli_seconds", elapsed),
-                    kv("number_of_transactions_streamed", count));
+                    kv("number_of_transactions_streamed", count),
+                    kv("number_of_bytes_streamed", csvWriter.getBytesWritten()));
         };
         return Response.ok(stream).build();
     }
@@ -0,0 +1,33 @@
+package uk.gov.pay.ledger.transaction.search.common;
+
+/**
+ * How a search term is matched against a text column of transactions.
+ *
+ * Partial matches are looked up in the trigram indexes of the column, which lead with the gateway account so that a
+ * search of one account only reads the trigrams of that account. A term shorter than a trigram cannot be looked up
+ * that way and would read the whole trigram index, so it is matched by filtering the transactions of the gateway
+ * accounts searched instead.
+ */
+enum TextMatch {
+    EXACT,
+    TRIGRAM,
+    FILTER;
+
+    private static final int TRIGRAM_LENGTH = 3;
+
+    static TextMatch forTerm(String term, boolean exactMatch) {
+        if (exactMatch) {
+            return EXACT;
+        }
+        return term.length() < TRIGRAM_LENGTH ? FILTER : TRIGRAM;
+    }
+
+    String filterTemplate(String column, String field) {
+        return switch (this) {
+            case EXACT -> " lower(t." + column + ") = lower(:" + field + ")";
+            case TRIGRAM -> " lower(t." + column + ") LIKE lower(:" + field + ")";
+            // the expression is not the indexed one, so the planner does not consider the trigram indexes
+            case FILTER -> " (lower(t." + column + ") || '') LIKE lower(:" + field + ")";
+        };
+    }
+}
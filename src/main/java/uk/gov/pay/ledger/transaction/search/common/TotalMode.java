@@ -0,0 +1,38 @@
+package uk.gov.pay.ledger.transaction.search.common;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * How the total of a transaction search is worked out.
+ */
+public enum TotalMode {
+    /**
+     * Counts every transaction that matches the search.
+     */
+    EXACT,
+    /**
+     * Counts the transactions that match the search up to the limit_total_size.
+     */
+    CAPPED,
+    /**
+     * Estimates the number of transactions that match the search from transaction_summary, when the search only filters
+     * on what it is summarised by, or otherwise from the row estimate of the query planner.
+     */
+    ESTIMATED;
+
+    public static Optional<TotalMode> from(String totalMode) {
+        return Arrays.stream(values())
+                .filter(mode -> mode.name().equalsIgnoreCase(totalMode))
+                .findFirst();
+    }
+
+    @JsonValue
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
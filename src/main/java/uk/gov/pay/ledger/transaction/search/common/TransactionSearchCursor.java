@@ -0,0 +1,78 @@
+package uk.gov.pay.ledger.transaction.search.common;
+
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * A position in the transactions of a search, ordered by created date and id, newest first. A cursor either starts the
+ * page after a transaction or ends the page before it, so that a page can be found by seeking to it through the index
+ * instead of skipping over all the transactions on earlier pages.
+ *
+ * Cursors are handed out as opaque URL safe tokens.
+ */
+public class TransactionSearchCursor {
+
+    private static final String AFTER = "a";
+    private static final String BEFORE = "b";
+    private static final String SEPARATOR = "|";
+
+    private final boolean before;
+    private final ZonedDateTime createdDate;
+    private final Long id;
+
+    private TransactionSearchCursor(boolean before, ZonedDateTime createdDate, Long id) {
+        this.before = before;
+        this.createdDate = createdDate;
+        this.id = id;
+    }
+
+    public static TransactionSearchCursor after(TransactionEntity transaction) {
+        return new TransactionSearchCursor(false, transaction.getCreatedDate(), transaction.getId());
+    }
+
+    public static TransactionSearchCursor before(TransactionEntity transaction) {
+        return new TransactionSearchCursor(true, transaction.getCreatedDate(), transaction.getId());
+    }
+
+    /**
+     * Reads a cursor token, which is empty if the token was not handed out by {@link #encode()}.
+     */
+    public static Optional<TransactionSearchCursor> decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+                    .split("\\" + SEPARATOR);
+            if (parts.length != 3 || !(AFTER.equals(parts[0]) || BEFORE.equals(parts[0]))) {
+                return Optional.empty();
+            }
+            return Optional.of(new TransactionSearchCursor(BEFORE.equals(parts[0]),
+                    ZonedDateTime.ofInstant(Instant.parse(parts[1]), ZoneOffset.UTC),
+                    Long.valueOf(parts[2])));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    public String encode() {
+        String cursor = String.join(SEPARATOR, before ? BEFORE : AFTER, createdDate.toInstant().toString(),
+                String.valueOf(id));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean isBefore() {
+        return before;
+    }
+
+    public ZonedDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
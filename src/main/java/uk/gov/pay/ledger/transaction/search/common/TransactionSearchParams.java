@@ -18,7 +18,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static uk.gov.service.payments.commons.validation.DateTimeUtils.fromLocalDateOnlyString;
@@ -47,7 +49,12 @@ public class TransactionSearchParams extends SearchParams {
     private static final long DEFAULT_MAX_DISPLAY_SIZE = 500L;
     private static final Long DEFAULT_LIMIT_TOTAL_SIZE = 10000L;
     private static final String METADATA_VALUE = "metadata_value";
+    private static final String METADATA_KEY = "metadata_key";
     private static final String AGREEMENT_ID_FIELD = "agreement_id";
+    private static final String CURSOR_FIELD = "cursor";
+    private static final String TOTAL_MODE_FIELD = "total_mode";
+    private static final Set<String> SUMMARISED_FIELDS = Set.of(GATEWAY_ACCOUNT_EXTERNAL_FIELD, TRANSACTION_TYPE_FIELD,
+            FROM_DATE_FIELD, TO_DATE_FIELD, STATE_FIELD, PAYMENT_STATES_FIELD);
 
     private long maxDisplaySize = DEFAULT_MAX_DISPLAY_SIZE;
 
@@ -70,12 +77,15 @@ public class TransactionSearchParams extends SearchParams {
     private String fromSettledDate;
     private String toSettledDate;
     private String metadataValue;
+    private String metadataKey;
     private String agreementId;
     private Long pageNumber = 1L;
+    private String cursor;
 
     private Long displaySize = DEFAULT_MAX_DISPLAY_SIZE;
     private boolean limitTotal;
     private Long limitTotalSize = DEFAULT_LIMIT_TOTAL_SIZE;
+    private String totalMode;
 
     private Map<String, Object> queryMap;
     private String gatewayTransactionId;
@@ -190,6 +200,13 @@ public class TransactionSearchParams extends SearchParams {
         this.metadataValue = metadataValue;
     }
 
+    @Parameter(description = "Metadata key of transactions to be searched. When searching by metadata_value as well, " +
+            "only the value of this key is matched.", example = "metadata-key-1")
+    @QueryParam("metadata_key")
+    public void setMetadataKey(String metadataKey) {
+        this.metadataKey = metadataKey;
+    }
+
     @QueryParam("agreement_id")
     @Parameter(example = "17ii98mg7f6si930tcjt48ldlc")
     public void setAgreementId(String agreementId) {
@@ -202,6 +219,13 @@ public class TransactionSearchParams extends SearchParams {
         this.pageNumber = Objects.requireNonNullElse(pageNumber, DEFAULT_PAGE_NUMBER);
     }
 
+    @Parameter(description = "Cursor from the next_cursor or prev_cursor of a previous search, to get the page after or before it. " +
+            "Takes the place of 'page' and is faster for pages far from the first.")
+    @QueryParam(CURSOR_FIELD)
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     @Parameter(example = "100", schema = @Schema(defaultValue = "500"))
     @DefaultValue("500")
     @QueryParam("display_size")
@@ -223,6 +247,14 @@ public class TransactionSearchParams extends SearchParams {
         this.limitTotal = limitTotal;
     }
 
+    @Parameter(example = "estimated", description = "Set to 'exact' to count all matching transactions, 'capped' to count them up to " +
+            "'limit_total_size' or 'estimated' to estimate their number. Defaults to 'capped' if 'limit_total' is 'true', otherwise 'exact'",
+            schema = @Schema(allowableValues = {"exact", "capped", "estimated"}))
+    @QueryParam(TOTAL_MODE_FIELD)
+    public void setTotalMode(String totalMode) {
+        this.totalMode = totalMode;
+    }
+
     @Parameter(description = "Comma delimited dispute states.", example = "won,needs_response", schema = @Schema(type = "string", implementation = String.class))
     @QueryParam("dispute_states")
     public void setDisputeStates(CommaDelimitedSetParameter disputeStates) {
@@ -239,17 +271,13 @@ public class TransactionSearchParams extends SearchParams {
         addCommonFilterTemplates(filters);
 
         if (isNotBlank(email)) {
-            filters.add(" lower(t.email) LIKE lower(:" + EMAIL_FIELD + ")");
+            filters.add(TextMatch.forTerm(email, false).filterTemplate("email", EMAIL_FIELD));
         }
         if (isNotBlank(reference)) {
-            if (exactReferenceMatch) {
-                filters.add(" lower(t.reference) = lower(:" + REFERENCE_FIELD + ")");
-            } else {
-                filters.add(" lower(t.reference) LIKE lower(:" + REFERENCE_FIELD + ")");
-            }
+            filters.add(TextMatch.forTerm(reference, exactReferenceMatch).filterTemplate("reference", REFERENCE_FIELD));
         }
         if (isNotBlank(cardHolderName)) {
-            filters.add(" lower(t.cardholder_name) LIKE lower(:" + CARDHOLDER_NAME_FIELD + ")");
+            filters.add(TextMatch.forTerm(cardHolderName, false).filterTemplate("cardholder_name", CARDHOLDER_NAME_FIELD));
         }
         if (cardBrands != null && cardBrands.isNotEmpty()) {
             filters.add(" t.card_brand IN (<" + CARD_BRAND_FIELD + ">)");
@@ -266,8 +294,8 @@ public class TransactionSearchParams extends SearchParams {
         if (isNotBlank(toSettledDate)) {
             filters.add(" po.paid_out_date < :" + TO_SETTLED_DATE_FIELD);
         }
-        if (isNotBlank(metadataValue)) {
-            filters.add(" lower(tm.value) = lower(:" + METADATA_VALUE + ")");
+        if (isNotBlank(metadataValue) || isNotBlank(metadataKey)) {
+            filters.add(getMetadataFilterTemplate());
         }
         if (isNotBlank(agreementId)) {
             filters.add( " t.agreement_id = :" + AGREEMENT_ID_FIELD);
@@ -276,6 +304,19 @@ public class TransactionSearchParams extends SearchParams {
         return List.copyOf(filters);
     }
 
+    // a semi-join finds each transaction once however many of its metadata match, so rows do not need de-duplicating
+    private String getMetadataFilterTemplate() {
+        List<String> metadataFilters = new ArrayList<>();
+        metadataFilters.add("tm.transaction_id = t.id");
+        if (isNotBlank(metadataValue)) {
+            metadataFilters.add("lower(tm.value) = lower(:" + METADATA_VALUE + ")");
+        }
+        if (isNotBlank(metadataKey)) {
+            metadataFilters.add("tm.metadata_key_id = (SELECT mk.id FROM metadata_key mk WHERE mk.key = :" + METADATA_KEY + ")");
+        }
+        return " EXISTS (SELECT 1 FROM transaction_metadata tm WHERE " + String.join(" AND ", metadataFilters) + ")";
+    }
+
     private void addCommonFilterTemplates(List<String> filters) {
 
         if (accountIds != null && !accountIds.isEmpty()) {
@@ -373,6 +414,9 @@ public class TransactionSearchParams extends SearchParams {
             if (isNotBlank(metadataValue)) {
                 queryMap.put(METADATA_VALUE, metadataValue);
             }
+            if (isNotBlank(metadataKey)) {
+                queryMap.put(METADATA_KEY, metadataKey);
+            }
             if (isNotBlank(agreementId)) {
                 queryMap.put(AGREEMENT_ID_FIELD, agreementId);
             }
@@ -395,6 +439,17 @@ public class TransactionSearchParams extends SearchParams {
         return pageNumber;
     }
 
+    /**
+     * The cursor of the requested page, or null when the page is requested by number.
+     */
+    public String getCursor() {
+        return isNotBlank(cursor) ? cursor : null;
+    }
+
+    public Optional<TransactionSearchCursor> getTransactionSearchCursor() {
+        return Optional.ofNullable(getCursor()).flatMap(TransactionSearchCursor::decode);
+    }
+
     @Override
     public Long getDisplaySize() {
         if (this.displaySize > this.maxDisplaySize) {
@@ -406,7 +461,36 @@ public class TransactionSearchParams extends SearchParams {
 
     @Override
     public boolean limitTotal() {
-        return limitTotal;
+        return getTotalMode() != TotalMode.EXACT;
+    }
+
+    public TotalMode getTotalMode() {
+        return TotalMode.from(totalMode).orElse(limitTotal ? TotalMode.CAPPED : TotalMode.EXACT);
+    }
+
+    public boolean hasUnknownTotalMode() {
+        return isNotBlank(totalMode) && TotalMode.from(totalMode).isEmpty();
+    }
+
+    /**
+     * The payment states searched for, if the search only looks for payments of gateway accounts in finished states
+     * between two dates. These are the dimensions payments are counted by in transaction_summary, which only counts
+     * payments once they have finished.
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<List<String>> getPaymentStatesForSummarisedSearch() {
+        Map<String, Object> query = getQueryMap();
+        if (!query.containsKey(GATEWAY_ACCOUNT_EXTERNAL_FIELD) || !SUMMARISED_FIELDS.containsAll(query.keySet())) {
+            return Optional.empty();
+        }
+        if (transactionType == null ? !query.containsKey(PAYMENT_STATES_FIELD) : transactionType != TransactionType.PAYMENT) {
+            return Optional.empty();
+        }
+        return Stream.of(STATE_FIELD, PAYMENT_STATES_FIELD)
+                .filter(query::containsKey)
+                .map(field -> (List<String>) query.get(field))
+                .reduce((states, otherStates) -> states.stream().filter(otherStates::contains).collect(Collectors.toList()))
+                .filter(states -> states.stream().map(TransactionState::valueOf).allMatch(TransactionState::isFinished));
     }
 
     public Long getLimitTotalSize() {
@@ -444,8 +528,28 @@ public class TransactionSearchParams extends SearchParams {
         return metadataValue;
     }
 
+    public String getMetadataKey() {
+        return metadataKey;
+    }
+
     @Override
     public String buildQueryParamString(Long forPage) {
+        List<String> queries = buildFilterQueryParams();
+        queries.add("page=" + forPage);
+        queries.add("display_size=" + getDisplaySize());
+
+        return String.join("&", queries);
+    }
+
+    public String buildQueryParamStringForCursor(String forCursor) {
+        List<String> queries = buildFilterQueryParams();
+        queries.add(CURSOR_FIELD + "=" + URLEncoder.encode(forCursor, StandardCharsets.UTF_8));
+        queries.add("display_size=" + getDisplaySize());
+
+        return String.join("&", queries);
+    }
+
+    private List<String> buildFilterQueryParams() {
         List<String> queries = new ArrayList<>();
 
         if (accountIds != null && !accountIds.isEmpty()) {
@@ -502,13 +606,16 @@ public class TransactionSearchParams extends SearchParams {
         if (isNotBlank(metadataValue)) {
             queries.add(METADATA_VALUE + "=" + URLEncoder.encode(metadataValue, StandardCharsets.UTF_8));
         }
+        if (isNotBlank(metadataKey)) {
+            queries.add(METADATA_KEY + "=" + URLEncoder.encode(metadataKey, StandardCharsets.UTF_8));
+        }
         if (isNotBlank(agreementId)) {
             queries.add(AGREEMENT_ID_FIELD + "=" + URLEncoder.encode(agreementId, StandardCharsets.UTF_8));
         }
-        queries.add("page=" + forPage);
-        queries.add("display_size=" + getDisplaySize());
-        
-        return String.join("&", queries);
+        if (isNotBlank(totalMode)) {
+            queries.add(TOTAL_MODE_FIELD + "=" + getTotalMode());
+        }
+        return queries;
     }
 
     public Long getOffset() {
@@ -18,6 +18,14 @@ public class TransactionSearchParamsValidator {
 
     public static void validateSearchParams(TransactionSearchParams searchParams, CommaDelimitedSetParameter gatewayAccountIds) {
         validateDates(searchParams);
+
+        if (searchParams.getCursor() != null && searchParams.getTransactionSearchCursor().isEmpty()) {
+            throw new ValidationException("cursor is not valid");
+        }
+
+        if (searchParams.hasUnknownTotalMode()) {
+            throw new ValidationException("total_mode must be one of exact, capped or estimated");
+        }
     }
 
     public static void validateSearchParamsForCsv(TransactionSearchParams searchParams, CommaDelimitedSetParameter gatewayAccountIds) {
@@ -0,0 +1,268 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Writes the transactions of a CSV download to the client while the next pages of them are being fetched. A thread of
+ * its own reads the transactions and maps them to their CSV values, keeping up to the prefetch depth of pages ready,
+ * while the response thread writes them. The time the fetching thread spends waiting for a slow client and the time
+ * the response thread spends waiting for a slow database are recorded as producer and consumer stalls.
+ *
+ * With a prefetch depth of 0, or while every fetching thread is busy with other downloads, the transactions are
+ * fetched and written by the response thread alone.
+ *
+ * The query fetching the transactions is cancelled as soon as writing to the client fails, which is how a client
+ * that has gone away shows up, or once the download has taken longer than the maximum export duration.
+ */
+public class CsvExportPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvExportPipeline.class);
+    private static final String METRIC_PREFIX = "csv-export-pipeline";
+    private static final List<Map<String, Object>> END_OF_TRANSACTIONS = List.of();
+
+    private final TransactionSearchStreamer transactionSearchStreamer;
+    private final TransactionDao transactionDao;
+    private final CsvTransactionFactory csvTransactionFactory;
+    private final ExecutorService executorService;
+    private final MetricRegistry metricRegistry;
+    private final InstantSource instantSource;
+    private final int prefetchDepth;
+    private final int pageSize;
+    private final Duration maxExportDuration;
+    private final Timer producerStall;
+    private final Timer consumerStall;
+
+    public CsvExportPipeline(TransactionSearchStreamer transactionSearchStreamer,
+                             TransactionDao transactionDao,
+                             CsvTransactionFactory csvTransactionFactory,
+                             ExecutorService executorService,
+                             MetricRegistry metricRegistry,
+                             InstantSource instantSource,
+                             int prefetchDepth,
+                             int pageSize,
+                             Duration maxExportDuration) {
+        this.transactionSearchStreamer = transactionSearchStreamer;
+        this.transactionDao = transactionDao;
+        this.csvTransactionFactory = csvTransactionFactory;
+        this.executorService = executorService;
+        this.metricRegistry = metricRegistry;
+        this.instantSource = instantSource;
+        this.prefetchDepth = prefetchDepth;
+        this.pageSize = pageSize;
+        this.maxExportDuration = maxExportDuration;
+        this.producerStall = metricRegistry.timer(METRIC_PREFIX + ".producer-stall");
+        this.consumerStall = metricRegistry.timer(METRIC_PREFIX + ".consumer-stall");
+    }
+
+    /**
+     * Writes every transaction the search finds and returns how many there were.
+     */
+    public long export(TransactionSearchParams searchParams, CsvTransactionWriter csvWriter) throws IOException {
+        var export = new Export(instantSource.instant().plus(maxExportDuration));
+        try {
+            return prefetchDepth == 0
+                    ? exportWithoutPrefetch(searchParams, csvWriter, export)
+                    : exportWithPrefetch(searchParams, csvWriter, export);
+        } catch (IOException e) {
+            // the client has gone away, so stop the query fetching transactions for it
+            export.statementCanceller.cancel();
+            recordAbandonedExport(searchParams, export);
+            throw e;
+        }
+    }
+
+    private long exportWithPrefetch(TransactionSearchParams searchParams, CsvTransactionWriter csvWriter, Export export)
+            throws IOException {
+        BlockingQueue<List<Map<String, Object>>> pages = new ArrayBlockingQueue<>(prefetchDepth);
+        // the transactions are read from where the response thread would read them from
+        boolean replicaReadsAllowed = ReadReplicaRouter.areReplicaReadsAllowed();
+        Future<Long> producer;
+        try {
+            producer = executorService.submit(() ->
+                    ReadReplicaRouter.withReplicaReads(replicaReadsAllowed, () -> fetchPages(searchParams, pages, export)));
+        } catch (RejectedExecutionException e) {
+            metricRegistry.counter(METRIC_PREFIX + ".rejected-prefetches").inc();
+            return exportWithoutPrefetch(searchParams, csvWriter, export);
+        }
+
+        try {
+            writePages(pages, csvWriter, export);
+            return producer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("CSV download was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to fetch the transactions of a CSV download", e.getCause());
+        } finally {
+            // stops fetching transactions nobody will write if writing them failed
+            producer.cancel(true);
+        }
+    }
+
+    private long exportWithoutPrefetch(TransactionSearchParams searchParams, CsvTransactionWriter csvWriter, Export export)
+            throws IOException {
+        try {
+            return transactionSearchStreamer.stream(searchParams, export.statementCanceller, transaction -> {
+                export.checkDeadline();
+                try {
+                    csvWriter.write(transaction);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                export.rowsWritten++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private long fetchPages(TransactionSearchParams searchParams, BlockingQueue<List<Map<String, Object>>> pages,
+                            Export export) {
+        var pageFiller = new PageFiller(pages, export);
+        try {
+            long count = transactionSearchStreamer.stream(searchParams, export.statementCanceller, pageFiller);
+            pageFiller.handOverLastPage();
+            handOver(pages, END_OF_TRANSACTIONS);
+            return count;
+        } catch (RuntimeException | Error e) {
+            // the response thread only takes pages, so once the ones it has not written are dropped there is room
+            pages.clear();
+            pages.offer(END_OF_TRANSACTIONS);
+            throw e;
+        }
+    }
+
+    private void handOver(BlockingQueue<List<Map<String, Object>>> pages, List<Map<String, Object>> page) {
+        if (!pages.offer(page)) {
+            try (Timer.Context ignored = producerStall.time()) {
+                pages.put(page);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("CSV download was abandoned");
+            }
+        }
+    }
+
+    private void writePages(BlockingQueue<List<Map<String, Object>>> pages, CsvTransactionWriter csvWriter, Export export)
+            throws IOException, InterruptedException {
+        while (true) {
+            List<Map<String, Object>> page = pages.poll();
+            if (page == null) {
+                try (Timer.Context ignored = consumerStall.time()) {
+                    page = pages.take();
+                }
+            }
+            if (page == END_OF_TRANSACTIONS) {
+                return;
+            }
+            export.checkDeadline();
+            for (Map<String, Object> csvValues : page) {
+                csvWriter.write(csvValues);
+                export.rowsWritten++;
+            }
+        }
+    }
+
+    private void recordAbandonedExport(TransactionSearchParams searchParams, Export export) {
+        metricRegistry.counter(METRIC_PREFIX + ".abandoned-exports").inc();
+        try {
+            // the planner's estimate of the search's total saves counting the transactions that were not fetched
+            long rowsSaved = Math.max(0, transactionDao.getEstimatedTotalForSearch(searchParams) - export.rowsWritten);
+            metricRegistry.counter(METRIC_PREFIX + ".rows-saved").inc(rowsSaved);
+            LOGGER.info("CSV download abandoned by the client",
+                    kv("number_of_transactions_streamed", export.rowsWritten),
+                    kv("estimated_number_of_transactions_not_streamed", rowsSaved));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to estimate the transactions an abandoned CSV download did not stream",
+                    kv("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * The state of one CSV download, shared by its response thread and the thread fetching its transactions.
+     */
+    private class Export {
+
+        private final StatementCanceller statementCanceller = new StatementCanceller();
+        private final Instant deadline;
+        private final AtomicBoolean deadlinePassed = new AtomicBoolean();
+        // only counted by the response thread
+        private long rowsWritten;
+
+        private Export(Instant deadline) {
+            this.deadline = deadline;
+        }
+
+        private void checkDeadline() {
+            if (instantSource.instant().isBefore(deadline)) {
+                return;
+            }
+            if (deadlinePassed.compareAndSet(false, true)) {
+                statementCanceller.cancel();
+                metricRegistry.counter(METRIC_PREFIX + ".exports-past-deadline").inc();
+            }
+            throw new CancellationException("CSV download took longer than " + maxExportDuration);
+        }
+    }
+
+    private class PageFiller implements Consumer<TransactionEntity> {
+
+        private final BlockingQueue<List<Map<String, Object>>> pages;
+        private final Export export;
+        private List<Map<String, Object>> page = new ArrayList<>(pageSize);
+
+        private PageFiller(BlockingQueue<List<Map<String, Object>>> pages, Export export) {
+            this.pages = pages;
+            this.export = export;
+        }
+
+        @Override
+        public void accept(TransactionEntity transaction) {
+            export.checkDeadline();
+            page.add(csvTransactionFactory.toMap(transaction));
+            if (page.size() == pageSize) {
+                handOver(pages, page);
+                page = new ArrayList<>(pageSize);
+            }
+        }
+
+        private void handOverLastPage() {
+            if (!page.isEmpty()) {
+                handOver(pages, page);
+            }
+        }
+    }
+}
@@ -1,20 +1,19 @@
 package uk.gov.pay.ledger.transaction.service;
 
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.google.inject.Inject;
 import uk.gov.pay.ledger.gatewayaccountmetadata.service.GatewayAccountMetadataService;
-import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
 import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class CsvService {
 
@@ -48,20 +47,14 @@ public class CsvService {
         return csvTransactionFactory.getCsvHeadersWithMedataKeys(metadataKeys, includeFeeHeaders, includeMotoHeader);
     }
 
-    public String csvStringFrom(Map<String, Object> headers, ObjectWriter writer) throws JsonProcessingException {
-        return csvString(List.of(headers), writer);
-    }
-
-    public String csvStringFrom(List<TransactionEntity> page, ObjectWriter writer) throws JsonProcessingException {
-        List<Map<String, Object>> csvTransactions = page
-                .stream()
-                .map(csvTransactionFactory::toMap)
-                .collect(Collectors.toList());
-
-        return csvString(csvTransactions, writer);
-    }
-
-    private String csvString(List<Map<String, Object>> page, ObjectWriter writer) throws JsonProcessingException {
-        return writer.writeValueAsString(page);
+    /**
+     * Returns a writer of the rows of a CSV download with the given headers to the output stream, which is flushed every
+     * time the flush threshold of bytes has been written since it was last flushed.
+     */
+    public CsvTransactionWriter csvTransactionWriterFrom(Map<String, Object> headers,
+                                                         OutputStream outputStream,
+                                                         long flushThresholdInBytes) throws IOException {
+        return new CsvTransactionWriter(csvTransactionFactory, writerFrom(headers), headers.keySet(), outputStream,
+                flushThresholdInBytes);
     }
 }
@@ -0,0 +1,90 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.google.common.io.CountingOutputStream;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the rows of a CSV download straight to the response as they are produced, instead of building the CSV of a
+ * whole page as a string first. Each row is copied into one array of values, reused for every row, in the order of the
+ * header columns, and handed to the response stream once it is encoded. The response stream is only flushed to the
+ * client whenever the flush threshold of bytes has been written since the last flush, however many rows or pages that
+ * takes.
+ */
+public class CsvTransactionWriter implements Closeable {
+
+    private final CsvTransactionFactory csvTransactionFactory;
+    private final CountingOutputStream outputStream;
+    private final SequenceWriter sequenceWriter;
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+    private final Object[] row;
+    private final long flushThresholdInBytes;
+    private long bytesFlushed;
+
+    CsvTransactionWriter(CsvTransactionFactory csvTransactionFactory,
+                         ObjectWriter writer,
+                         Set<String> columns,
+                         OutputStream outputStream,
+                         long flushThresholdInBytes) throws IOException {
+        this.csvTransactionFactory = csvTransactionFactory;
+        this.outputStream = new CountingOutputStream(outputStream);
+        // flushing the writer after every row only hands the row to the response stream, which is flushed by bytes
+        this.sequenceWriter = writer.without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM).writeValues(this.outputStream);
+        this.flushThresholdInBytes = flushThresholdInBytes;
+        columns.forEach(column -> columnIndexes.put(column, columnIndexes.size()));
+        this.row = new Object[columnIndexes.size()];
+    }
+
+    public void writeHeader() throws IOException {
+        columnIndexes.forEach((column, index) -> row[index] = column);
+        writeRow();
+    }
+
+    public void write(TransactionEntity transaction) throws IOException {
+        write(csvTransactionFactory.toMap(transaction));
+    }
+
+    /**
+     * Writes a transaction that has already been mapped to its CSV values by {@link CsvTransactionFactory#toMap}.
+     */
+    public void write(Map<String, Object> csvValues) throws IOException {
+        Arrays.fill(row, null);
+        csvValues.forEach((column, value) -> {
+            Integer index = columnIndexes.get(column);
+            // values of columns that are not in the header, such as metadata of other gateway accounts, are left out
+            if (index != null) {
+                row[index] = value;
+            }
+        });
+        writeRow();
+    }
+
+    public long getBytesWritten() {
+        return outputStream.getCount();
+    }
+
+    private void writeRow() throws IOException {
+        sequenceWriter.write(row);
+        sequenceWriter.flush();
+        if (outputStream.getCount() - bytesFlushed >= flushThresholdInBytes) {
+            outputStream.flush();
+            bytesFlushed = outputStream.getCount();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sequenceWriter.close();
+    }
+}
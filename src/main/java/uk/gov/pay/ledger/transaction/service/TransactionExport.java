@@ -0,0 +1,63 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import uk.gov.pay.ledger.transaction.entity.TransactionExportEntity;
+import uk.gov.pay.ledger.transaction.model.TransactionExportResponse;
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One export of the transactions a search finds to a gzipped CSV file, as it was when it was last read from the
+ * database.
+ */
+public class TransactionExport {
+
+    private final TransactionExportEntity entity;
+    private final Path file;
+
+    TransactionExport(TransactionExportEntity entity, Path file) {
+        this.entity = entity;
+        this.file = file;
+    }
+
+    public String getExportId() {
+        return entity.getExportId();
+    }
+
+    public TransactionExportState getState() {
+        return entity.getState();
+    }
+
+    public List<String> getAccountIds() {
+        return List.of(entity.getGatewayAccountIds().split(","));
+    }
+
+    /**
+     * The file of the export, once it has succeeded.
+     */
+    public Optional<Path> getFile() {
+        return entity.getState() == TransactionExportState.SUCCEEDED ? Optional.of(file) : Optional.empty();
+    }
+
+    /**
+     * The size of the file of the export, or 0 until it has succeeded.
+     */
+    public long getFileSizeInBytes() {
+        return entity.getFileSizeInBytes() == null ? 0 : entity.getFileSizeInBytes();
+    }
+
+    public TransactionExportResponse toResponse() {
+        return new TransactionExportResponse(entity.getExportId(), entity.getState(), toUtc(entity.getCreatedDate()),
+                toUtc(entity.getExpiresDate()), entity.getEstimatedTotal(), entity.getTransactionsWritten(),
+                entity.getFileSizeInBytes());
+    }
+
+    private static ZonedDateTime toUtc(Instant instant) {
+        return instant == null ? null : ZonedDateTime.ofInstant(instant, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,98 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An export that is queued or running on this instance. Its progress is written by the thread running it and read by
+ * the thread recording the progress of exports in the database.
+ */
+class TransactionExportJob {
+
+    private final String exportId;
+    private final TransactionSearchParams searchParams;
+    private final boolean includeFeeHeaders;
+    private final boolean includeMotoHeader;
+    private final Path file;
+    private final boolean replicaReadsAllowed;
+    private final StatementCanceller statementCanceller = new StatementCanceller();
+    private final AtomicLong transactionsWritten = new AtomicLong();
+    private volatile boolean running;
+
+    TransactionExportJob(String exportId, TransactionSearchParams searchParams, boolean includeFeeHeaders,
+                         boolean includeMotoHeader, Path file, boolean replicaReadsAllowed) {
+        this.exportId = exportId;
+        this.searchParams = searchParams;
+        this.includeFeeHeaders = includeFeeHeaders;
+        this.includeMotoHeader = includeMotoHeader;
+        this.file = file;
+        this.replicaReadsAllowed = replicaReadsAllowed;
+    }
+
+    String getExportId() {
+        return exportId;
+    }
+
+    TransactionSearchParams getSearchParams() {
+        return searchParams;
+    }
+
+    boolean isIncludeFeeHeaders() {
+        return includeFeeHeaders;
+    }
+
+    boolean isIncludeMotoHeader() {
+        return includeMotoHeader;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    Path getPartFile() {
+        return partFileOf(file);
+    }
+
+    boolean isReplicaReadsAllowed() {
+        return replicaReadsAllowed;
+    }
+
+    StatementCanceller getStatementCanceller() {
+        return statementCanceller;
+    }
+
+    long getTransactionsWritten() {
+        return transactionsWritten.get();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    boolean isCancelled() {
+        return statementCanceller.isCancelled();
+    }
+
+    void running() {
+        running = true;
+    }
+
+    void transactionWritten() {
+        transactionsWritten.incrementAndGet();
+    }
+
+    /**
+     * Stops the export: a queued export fails as soon as it starts and a running export fails once its query has been
+     * cancelled.
+     */
+    void cancel() {
+        statementCanceller.cancel();
+    }
+
+    static Path partFileOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".part");
+    }
+}
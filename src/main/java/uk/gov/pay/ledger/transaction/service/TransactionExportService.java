@@ -0,0 +1,458 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.dao.TransactionExportDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionExportEntity;
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Exports the transactions searches find to gzipped CSV files in the background. Exports run on a fixed number of
+ * threads, each holding one database connection while it reads, so that exports cannot take more connections than that
+ * away from projecting events. Exports wait in a bounded queue for a thread and are refused once it is full.
+ *
+ * Exports are recorded in the database and their files are written to a directory shared by all instances, so any
+ * instance can report on an export and serve its file, whichever instance ran it. The instance running an export
+ * records its progress every heartbeat interval. An export that has not been updated for several heartbeat intervals,
+ * because the instance running it has gone away, is failed by whichever instance notices first.
+ *
+ * Asking for an export of the same search as an earlier export that has not failed or expired gives back the earlier
+ * export. The file of an export is kept for the time to live, but once the files of the exports that succeeded and the
+ * part files of the exports still running take up more than the disk quota, the oldest exports that succeeded are
+ * deleted first and then running exports are cancelled.
+ *
+ * On shared storage such as NFS or EFS, deleting a file cuts off downloads of it on other instances with a stale file
+ * handle, so the file of an export is not deleted until the download grace period has passed since it was last asked
+ * for. A download still going after that can be cut off, and cannot be resumed once the file has gone.
+ */
+public class TransactionExportService implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionExportService.class);
+    private static final String METRIC_PREFIX = "transaction-export";
+    private static final String FILE_EXTENSION = ".csv.gz";
+    private static final String PART_FILE_EXTENSION = ".csv.gz.part";
+    private static final int BUFFER_SIZE_IN_BYTES = 65536;
+    private static final int MISSED_HEARTBEATS_BEFORE_FAILING = 6;
+
+    private final TransactionSearchStreamer transactionSearchStreamer;
+    private final TransactionDao transactionDao;
+    private final TransactionExportDao transactionExportDao;
+    private final CsvService csvService;
+    private final ExecutorService exportExecutorService;
+    private final ScheduledExecutorService cleanUpExecutorService;
+    private final MetricRegistry metricRegistry;
+    private final InstantSource instantSource;
+    private final Path directory;
+    private final Duration timeToLive;
+    private final long diskQuotaInBytes;
+    private final Duration cleanUpInterval;
+    private final Duration heartbeatInterval;
+    private final Duration downloadGracePeriod;
+    private final Map<String, TransactionExportJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong diskUsageInBytes = new AtomicLong();
+
+    public TransactionExportService(TransactionSearchStreamer transactionSearchStreamer,
+                                    TransactionDao transactionDao,
+                                    TransactionExportDao transactionExportDao,
+                                    CsvService csvService,
+                                    ExecutorService exportExecutorService,
+                                    ScheduledExecutorService cleanUpExecutorService,
+                                    MetricRegistry metricRegistry,
+                                    InstantSource instantSource,
+                                    Path directory,
+                                    Duration timeToLive,
+                                    long diskQuotaInBytes,
+                                    Duration cleanUpInterval,
+                                    Duration heartbeatInterval,
+                                    Duration downloadGracePeriod) {
+        this.transactionSearchStreamer = transactionSearchStreamer;
+        this.transactionDao = transactionDao;
+        this.transactionExportDao = transactionExportDao;
+        this.csvService = csvService;
+        this.exportExecutorService = exportExecutorService;
+        this.cleanUpExecutorService = cleanUpExecutorService;
+        this.metricRegistry = metricRegistry;
+        this.instantSource = instantSource;
+        this.directory = directory;
+        this.timeToLive = timeToLive;
+        this.diskQuotaInBytes = diskQuotaInBytes;
+        this.cleanUpInterval = cleanUpInterval;
+        this.heartbeatInterval = heartbeatInterval;
+        this.downloadGracePeriod = downloadGracePeriod;
+        metricRegistry.gauge(METRIC_PREFIX + ".running-exports", () -> (Gauge<Long>) () ->
+                jobs.values().stream().filter(TransactionExportJob::isRunning).count());
+        // as of the last heartbeat or clean up, which is when it is worked out
+        metricRegistry.gauge(METRIC_PREFIX + ".disk-usage-in-bytes", () -> (Gauge<Long>) diskUsageInBytes::get);
+    }
+
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        cleanUpExecutorService.scheduleWithFixedDelay(this::heartbeatSafely, heartbeatInterval.toMillis(),
+                heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+        cleanUpExecutorService.scheduleWithFixedDelay(this::cleanUpSafely, cleanUpInterval.toMillis(),
+                cleanUpInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        cleanUpExecutorService.shutdown();
+        // lets the export threads fail the exports of this instance before they are shut down
+        jobs.values().forEach(TransactionExportJob::cancel);
+    }
+
+    /**
+     * Starts exporting the transactions the search finds, unless an earlier export of the same search can be used
+     * instead, and returns the export.
+     */
+    public TransactionExport startExport(TransactionSearchParams searchParams, boolean includeFeeHeaders,
+                                         boolean includeMotoHeader) {
+        // the query map includes the gateway accounts, so an export is only ever reused for the accounts it was for
+        String searchKey = Hashing.sha256().hashString(List.of(TransactionSearchTotalCache.normalise(searchParams.getQueryMap()),
+                includeFeeHeaders, includeMotoHeader).toString(), StandardCharsets.UTF_8).toString();
+        // two instances asked for the same search at the same time can both start an export of it, which is harmless
+        synchronized (jobs) {
+            Instant now = instantSource.instant();
+            Optional<TransactionExportEntity> earlierExport = transactionExportDao.findReusable(searchKey, now);
+            if (earlierExport.isPresent()) {
+                metricRegistry.counter(METRIC_PREFIX + ".reused-exports").inc();
+                return toExport(earlierExport.get());
+            }
+
+            String exportId = UUID.randomUUID().toString().replace("-", "");
+            String gatewayAccountIds = searchParams.getAccountIds().stream().sorted().distinct().collect(Collectors.joining(","));
+            transactionExportDao.insert(exportId, gatewayAccountIds, searchKey, now);
+            // the transactions are read from where the request thread would read them from
+            var job = new TransactionExportJob(exportId, searchParams, includeFeeHeaders, includeMotoHeader, fileOf(exportId),
+                    ReadReplicaRouter.areReplicaReadsAllowed());
+            jobs.put(exportId, job);
+            try {
+                exportExecutorService.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(exportId);
+                transactionExportDao.delete(exportId);
+                metricRegistry.counter(METRIC_PREFIX + ".rejected-exports").inc();
+                throw new WebApplicationException("Too many transaction exports in progress", Response.Status.SERVICE_UNAVAILABLE);
+            }
+            return toExport(new TransactionExportEntity(exportId, gatewayAccountIds, TransactionExportState.QUEUED, now,
+                    now, null, null, 0, null));
+        }
+    }
+
+    public Optional<TransactionExport> getExport(String exportId) {
+        return transactionExportDao.findById(exportId).map(this::toExport);
+    }
+
+    /**
+     * Records that the file of the export is being downloaded, which keeps it from being deleted for the download grace
+     * period.
+     */
+    public void recordDownload(String exportId) {
+        try {
+            transactionExportDao.markDownloaded(exportId, instantSource.instant());
+        } catch (RuntimeException e) {
+            // the download carries on, at the risk of being cut off if its file is deleted meanwhile
+            LOGGER.warn("Failed to record the download of a transaction export",
+                    kv("export_id", exportId),
+                    kv("error", e.getMessage()));
+        }
+    }
+
+    private void run(TransactionExportJob job) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            if (job.isCancelled()) {
+                throw new IllegalStateException("Transaction export was cancelled before it started");
+            }
+            long count = ReadReplicaRouter.withReplicaReads(job.isReplicaReadsAllowed(), () -> writeFile(job));
+            long fileSizeInBytes = Files.size(job.getFile());
+            if (!transactionExportDao.markSucceeded(job.getExportId(), count, fileSizeInBytes,
+                    instantSource.instant().plus(timeToLive), instantSource.instant())) {
+                deleteFile(job.getFile());
+                LOGGER.warn("Transaction export finished after it had been failed for not being updated",
+                        kv("export_id", job.getExportId()));
+                return;
+            }
+            LOGGER.info("Transaction export succeeded",
+                    kv("export_id", job.getExportId()),
+                    kv("time_taken_in_milli_seconds", stopwatch.elapsed(TimeUnit.MILLISECONDS)),
+                    kv("number_of_transactions_exported", count),
+                    kv("file_size_in_bytes", fileSizeInBytes));
+            // keeps within the disk quota from the moment the file is added rather than from the next clean up
+            cleanUpSafely();
+        } catch (IOException | RuntimeException e) {
+            deleteFile(job.getPartFile());
+            metricRegistry.counter(METRIC_PREFIX + ".failed-exports").inc();
+            LOGGER.error("Transaction export failed",
+                    kv("export_id", job.getExportId()),
+                    kv("number_of_transactions_exported", job.getTransactionsWritten()),
+                    kv("error", e.getMessage()));
+            markFailed(job);
+        } finally {
+            jobs.remove(job.getExportId());
+        }
+    }
+
+    private long writeFile(TransactionExportJob job) {
+        TransactionSearchParams searchParams = job.getSearchParams();
+        Path partFile = job.getPartFile();
+        try {
+            transactionExportDao.markRunning(job.getExportId(), estimateTotal(searchParams), instantSource.instant());
+            job.running();
+            Map<String, Object> headers = csvService.csvHeaderFrom(searchParams, job.isIncludeFeeHeaders(),
+                    job.isIncludeMotoHeader());
+            long count;
+            try (OutputStream outputStream = new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(partFile)), BUFFER_SIZE_IN_BYTES);
+                 CsvTransactionWriter csvWriter = csvService.csvTransactionWriterFrom(headers, outputStream,
+                         BUFFER_SIZE_IN_BYTES)) {
+                csvWriter.writeHeader();
+                count = transactionSearchStreamer.stream(searchParams, job.getStatementCanceller(), transaction -> {
+                    try {
+                        csvWriter.write(transaction);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    job.transactionWritten();
+                });
+            }
+            // the file only gets its name once it is complete, so a partly written file is never downloaded
+            Files.move(partFile, job.getFile(), StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Long estimateTotal(TransactionSearchParams searchParams) {
+        try {
+            return transactionDao.getEstimatedTotalForSearch(searchParams);
+        } catch (RuntimeException e) {
+            // the estimate only shows progress, so the export carries on without it
+            LOGGER.warn("Failed to estimate the transactions of a transaction export", kv("error", e.getMessage()));
+            return null;
+        }
+    }
+
+    private void markFailed(TransactionExportJob job) {
+        try {
+            transactionExportDao.markFailed(job.getExportId(), job.getTransactionsWritten(),
+                    instantSource.instant().plus(timeToLive), instantSource.instant());
+        } catch (RuntimeException e) {
+            // the export is failed by a later heartbeat once it has not been updated for long enough
+            LOGGER.error("Failed to record that a transaction export failed",
+                    kv("export_id", job.getExportId()),
+                    kv("error", e.getMessage()));
+        }
+    }
+
+    private void heartbeatSafely() {
+        try {
+            heartbeat();
+        } catch (Exception e) {
+            LOGGER.error("Failed to record the progress of transaction exports", kv("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Records the progress of the exports of this instance, which also shows they are still being worked on, and fails
+     * the exports that no instance has updated for several heartbeat intervals.
+     */
+    void heartbeat() {
+        Instant now = instantSource.instant();
+        jobs.values().forEach(job -> transactionExportDao.updateProgress(job.getExportId(), job.getTransactionsWritten(), now));
+        // running exports grow between clean ups, so they are held to the disk quota as often as their progress is
+        try {
+            keepWithinDiskQuota();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<String> abandonedExportIds = transactionExportDao.failNotUpdatedSince(
+                now.minus(heartbeatInterval.multipliedBy(MISSED_HEARTBEATS_BEFORE_FAILING)), now.plus(timeToLive), now);
+        if (!abandonedExportIds.isEmpty()) {
+            metricRegistry.counter(METRIC_PREFIX + ".abandoned-exports").inc(abandonedExportIds.size());
+            LOGGER.warn("Failed transaction exports that have not been updated for too long",
+                    kv("export_ids", abandonedExportIds));
+        }
+    }
+
+    private void cleanUpSafely() {
+        try {
+            cleanUp();
+        } catch (Exception e) {
+            // files that are still due to be deleted are deleted by the next clean up
+            LOGGER.error("Failed to clean up transaction exports", kv("error", e.getMessage()));
+        }
+    }
+
+    synchronized void cleanUp() throws IOException {
+        Instant now = instantSource.instant();
+        transactionExportDao.deleteExpired(now, now.minus(downloadGracePeriod)).forEach(exportId -> {
+            deleteFile(fileOf(exportId));
+            deleteFile(TransactionExportJob.partFileOf(fileOf(exportId)));
+        });
+        keepWithinDiskQuota();
+        deleteFilesOfNoExport();
+    }
+
+    /**
+     * Counts the files of the exports that succeeded and the part files of the exports still running, on any instance,
+     * against the disk quota. Deletes the oldest exports that succeeded, apart from the ones downloaded within the
+     * download grace period, then cancels the running exports of this instance, largest first, until the files fit
+     * within the quota.
+     */
+    synchronized void keepWithinDiskQuota() throws IOException {
+        Instant downloadedBefore = instantSource.instant().minus(downloadGracePeriod);
+        List<TransactionExportEntity> oldestFirst = transactionExportDao.findSucceededOldestFirst();
+        long usageInBytes = oldestFirst.stream().mapToLong(TransactionExportEntity::getFileSizeInBytes).sum()
+                + sizeOfPartFiles();
+        for (TransactionExportEntity export : oldestFirst) {
+            if (usageInBytes <= diskQuotaInBytes) {
+                break;
+            }
+            if (transactionExportDao.deleteIfNotDownloadedSince(export.getExportId(), downloadedBefore)) {
+                deleteFile(fileOf(export.getExportId()));
+                metricRegistry.counter(METRIC_PREFIX + ".exports-deleted-over-quota").inc();
+                LOGGER.info("Deleted transaction export before it expired to keep within the disk quota",
+                        kv("export_id", export.getExportId()),
+                        kv("file_size_in_bytes", export.getFileSizeInBytes()));
+                usageInBytes -= export.getFileSizeInBytes();
+            } else if (transactionExportDao.findById(export.getExportId()).isEmpty()) {
+                // another instance cleaning up at the same time deleted it already
+                usageInBytes -= export.getFileSizeInBytes();
+            }
+            // otherwise it has been downloaded within the grace period, so its file is kept and still takes up space
+        }
+
+        if (usageInBytes > diskQuotaInBytes) {
+            Map<TransactionExportJob, Long> partFileSizes = new HashMap<>();
+            for (TransactionExportJob job : jobs.values()) {
+                if (job.isRunning() && !job.isCancelled()) {
+                    partFileSizes.put(job, sizeOf(job.getPartFile()));
+                }
+            }
+            List<TransactionExportJob> largestFirst = partFileSizes.keySet().stream()
+                    .sorted(Comparator.comparing((TransactionExportJob job) -> partFileSizes.get(job)).reversed())
+                    .toList();
+            for (TransactionExportJob job : largestFirst) {
+                if (usageInBytes <= diskQuotaInBytes) {
+                    break;
+                }
+                // the export fails once its query has been cancelled, which deletes its part file
+                job.cancel();
+                usageInBytes -= partFileSizes.get(job);
+                metricRegistry.counter(METRIC_PREFIX + ".exports-cancelled-over-quota").inc();
+                LOGGER.warn("Cancelled running transaction export to keep within the disk quota",
+                        kv("export_id", job.getExportId()),
+                        kv("file_size_in_bytes", partFileSizes.get(job)));
+            }
+        }
+        diskUsageInBytes.set(usageInBytes);
+    }
+
+    private long sizeOfPartFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(PART_FILE_EXTENSION))
+                    .mapToLong(TransactionExportService::sizeOf)
+                    .sum();
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            // the export has finished or failed since, so its part file no longer takes up any space
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes the files left behind when deleting the file of an export failed.
+     */
+    private void deleteFilesOfNoExport() throws IOException {
+        List<Path> exportFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            exportFiles = files.filter(file -> exportIdOf(file).isPresent()).toList();
+        }
+        if (exportFiles.isEmpty()) {
+            return;
+        }
+        // an export is recorded before its file is written, so a file of no export is never a file still to come
+        Set<String> existingExportIds = new HashSet<>(transactionExportDao.findExistingExportIds(
+                exportFiles.stream().map(file -> exportIdOf(file).get()).distinct().toList()));
+        exportFiles.stream()
+                .filter(file -> !existingExportIds.contains(exportIdOf(file).get()))
+                .forEach(this::deleteFile);
+    }
+
+    private static Optional<String> exportIdOf(Path file) {
+        String fileName = file.getFileName().toString();
+        if (fileName.endsWith(PART_FILE_EXTENSION)) {
+            return Optional.of(fileName.substring(0, fileName.length() - PART_FILE_EXTENSION.length()));
+        }
+        if (fileName.endsWith(FILE_EXTENSION)) {
+            return Optional.of(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+        }
+        return Optional.empty();
+    }
+
+    private Path fileOf(String exportId) {
+        return directory.resolve(exportId + FILE_EXTENSION);
+    }
+
+    private TransactionExport toExport(TransactionExportEntity entity) {
+        return new TransactionExport(entity, fileOf(entity.getExportId()));
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            // only a download on this instance that already has the file open is sure to carry on reading it
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete transaction export file", kv("file", file.toString()), kv("error", e.getMessage()));
+        }
+    }
+}
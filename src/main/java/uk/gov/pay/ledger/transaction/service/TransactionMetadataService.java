@@ -1,7 +1,5 @@
 package uk.gov.pay.ledger.transaction.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
@@ -26,43 +24,48 @@ public class TransactionMetadataService {
     private final MetadataKeyDao metadataKeyDao;
     private final TransactionMetadataDao transactionMetadataDao;
     private final GatewayAccountMetadataService gatewayAccountMetadataService;
+    private final ObjectMapper objectMapper;
 
 
     @Inject
     public TransactionMetadataService(MetadataKeyDao metadataKeyDao,
                                       TransactionMetadataDao transactionMetadataDao,
                                       TransactionDao transactionDao,
-                                      GatewayAccountMetadataService gatewayAccountMetadataService) {
+                                      GatewayAccountMetadataService gatewayAccountMetadataService,
+                                      ObjectMapper objectMapper) {
         this.metadataKeyDao = metadataKeyDao;
         this.transactionMetadataDao = transactionMetadataDao;
         this.transactionDao = transactionDao;
         this.gatewayAccountMetadataService = gatewayAccountMetadataService;
+        this.objectMapper = objectMapper;
 
     }
 
     public void upsertMetadataFor(EventEntity event) {
-        JsonNode eventDataNode;
+        Map<String, Object> eventData;
         try {
-            eventDataNode = new ObjectMapper().readTree(event.getEventData());
-        } catch (JsonProcessingException e) {
+            eventData = event.getEventDataMap(objectMapper);
+        } catch (RuntimeException e) {
             LOGGER.error("Unable to parse incoming event payload: {}", e.getMessage());
             return;
         }
-        if (eventDataNode != null && eventDataNode.has("external_metadata")) {
+        if (eventData.get("external_metadata") instanceof Map) {
+            @SuppressWarnings("unchecked")
+            var metadata = (Map<String, Object>) eventData.get("external_metadata");
             transactionDao.findTransactionByExternalId(event.getResourceExternalId())
                     .ifPresent(transactionEntity -> {
-                        eventDataNode.get("external_metadata").fields().forEachRemaining(metadata -> {
+                        metadata.forEach((key, metadataValue) -> {
                             try {
-                                metadataKeyDao.insertIfNotExist(metadata.getKey());
+                                metadataKeyDao.insertIfNotExist(key);
                             } catch (UnableToExecuteStatementException ex) {
                                 LOGGER.info("Metadata key already exists",
-                                        kv("key", metadata.getKey()),
+                                        kv("key", key),
                                         kv("exception", ex.getMessage()));
                             }
-                            String value = metadata.getValue().asText();
+                            String value = String.valueOf(metadataValue);
                             transactionMetadataDao
-                                    .upsert(transactionEntity.getId(), metadata.getKey(), value);
-                            gatewayAccountMetadataService.upsertMetadataKeyForGatewayAccount(transactionEntity.getGatewayAccountId(), metadata.getKey());
+                                    .upsert(transactionEntity.getId(), key, value);
+                            gatewayAccountMetadataService.upsertMetadataKeyForGatewayAccount(transactionEntity.getGatewayAccountId(), key);
                         });
                     });
         }
@@ -0,0 +1,87 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.transaction.dao.TransactionPartitionDao;
+
+import java.time.Duration;
+import java.time.InstantSource;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Creates the monthly partitions of the transaction table ahead of time, so that there is always a partition for
+ * transactions created up to the configured number of months from now. Partitions are created before the application
+ * starts taking events off the queue and again every check interval. There is no default partition, so a transaction
+ * with a created date past the last partition fails to be projected and its event is retried from the queue.
+ */
+public class TransactionPartitionMaintainer implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionPartitionMaintainer.class);
+
+    private final TransactionPartitionDao transactionPartitionDao;
+    private final ScheduledExecutorService executorService;
+    private final InstantSource instantSource;
+    private final int monthsToCreateAhead;
+    private final Duration checkInterval;
+    private volatile ZonedDateTime endOfLastPartition;
+
+    public TransactionPartitionMaintainer(TransactionPartitionDao transactionPartitionDao,
+                                          ScheduledExecutorService executorService,
+                                          MetricRegistry metricRegistry,
+                                          InstantSource instantSource,
+                                          int monthsToCreateAhead,
+                                          Duration checkInterval) {
+        this.transactionPartitionDao = transactionPartitionDao;
+        this.executorService = executorService;
+        this.instantSource = instantSource;
+        this.monthsToCreateAhead = monthsToCreateAhead;
+        this.checkInterval = checkInterval;
+        metricRegistry.gauge("transaction-partition-maintainer.days-partitioned-ahead", () -> (Gauge<Long>) () ->
+                endOfLastPartition == null ? 0 : ChronoUnit.DAYS.between(instantSource.instant(), endOfLastPartition.toInstant()));
+    }
+
+    @Override
+    public void start() {
+        createPartitionsAhead();
+        executorService.scheduleWithFixedDelay(this::createPartitionsAhead, checkInterval.toMillis(),
+                checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        executorService.shutdown();
+    }
+
+    private void createPartitionsAhead() {
+        try {
+            createPartitions();
+        } catch (Exception e) {
+            // partitions that are still missing are created by the next check
+            LOGGER.error("Failed to create transaction partitions", kv("error", e.getMessage()));
+        }
+    }
+
+    void createPartitions() {
+        ZonedDateTime startOfThisMonth = ZonedDateTime.ofInstant(instantSource.instant(), ZoneOffset.UTC)
+                .truncatedTo(ChronoUnit.DAYS)
+                .withDayOfMonth(1);
+        ZonedDateTime partitionUntil = startOfThisMonth.plusMonths(monthsToCreateAhead + 1L);
+        ZonedDateTime startOfNextPartition = transactionPartitionDao.findEndOfLastPartition().orElse(startOfThisMonth);
+
+        while (startOfNextPartition.isBefore(partitionUntil)) {
+            transactionPartitionDao.createPartitionForMonth(startOfNextPartition);
+            LOGGER.info("Created transaction partition", kv("partition_start", startOfNextPartition.toString()));
+            startOfNextPartition = startOfNextPartition.plusMonths(1);
+        }
+        endOfLastPartition = startOfNextPartition;
+    }
+}
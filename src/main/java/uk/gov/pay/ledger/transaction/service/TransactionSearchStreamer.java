@@ -0,0 +1,89 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.google.inject.Inject;
+import org.jdbi.v3.core.JdbiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.app.LedgerConfig;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.time.ZonedDateTime;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Streams every transaction a search finds, newest first, for CSV downloads. The transactions are read from a cursor
+ * over a single query. A cursor is only kept open for the maximum cursor duration, so that a long download does not
+ * hold one database transaction open for all of it; the next cursor starts after the last transaction streamed. The
+ * same happens when a cursor is lost part way through, as long as it streamed at least one transaction first and the
+ * search has not been cancelled.
+ */
+public class TransactionSearchStreamer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionSearchStreamer.class);
+
+    private final TransactionDao transactionDao;
+    private final InstantSource instantSource;
+    private final Duration maxCursorDuration;
+
+    @Inject
+    public TransactionSearchStreamer(TransactionDao transactionDao, LedgerConfig configuration, InstantSource instantSource) {
+        this.transactionDao = transactionDao;
+        this.instantSource = instantSource;
+        this.maxCursorDuration = Duration.ofSeconds(configuration.getReportingConfig().getStreamingCsvMaxCursorDurationInSeconds());
+    }
+
+    /**
+     * Passes every transaction the search finds to the consumer and returns how many there were. Cancelling the
+     * statement canceller stops the search, which then fails.
+     */
+    public long stream(TransactionSearchParams searchParams, StatementCanceller statementCanceller,
+                       Consumer<TransactionEntity> consumer) {
+        var streamed = new StreamedTransactions();
+        boolean finished = false;
+
+        while (!finished) {
+            long streamedBeforeCursor = streamed.count;
+            Instant cursorDeadline = instantSource.instant().plus(maxCursorDuration);
+            try {
+                finished = transactionDao.streamTransactionSearch(searchParams, streamed.lastCreatedDate, streamed.lastId,
+                        statementCanceller, transaction -> {
+                            if (statementCanceller.isCancelled()) {
+                                throw new CancellationException("Transaction search was cancelled");
+                            }
+                            consumer.accept(transaction);
+                            streamed.add(transaction);
+                            return instantSource.instant().isBefore(cursorDeadline);
+                        });
+            } catch (JdbiException e) {
+                if (statementCanceller.isCancelled() || streamed.count == streamedBeforeCursor) {
+                    throw e;
+                }
+                LOGGER.warn("Lost the cursor of a transaction search, resuming after the last transaction streamed",
+                        kv("number_of_transactions_streamed", streamed.count),
+                        kv("error", e.getMessage()));
+            }
+        }
+        return streamed.count;
+    }
+
+    private static class StreamedTransactions {
+        private long count;
+        private ZonedDateTime lastCreatedDate;
+        private Long lastId;
+
+        private void add(TransactionEntity transaction) {
+            count++;
+            lastCreatedDate = transaction.getCreatedDate();
+            lastId = transaction.getId();
+        }
+    }
+}
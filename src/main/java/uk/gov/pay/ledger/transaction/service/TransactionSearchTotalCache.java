@@ -0,0 +1,78 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import uk.gov.pay.ledger.transaction.search.common.TotalMode;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the totals of recent transaction searches for a short time, so that paging through a search or repeating it
+ * does not count its transactions again every time.
+ *
+ * A total is cached for the generation of each gateway account it counts, and projecting a transaction of a gateway
+ * account starts its next generation, so that its cached totals are no longer used. Totals of searches across all
+ * gateway accounts and totals counted before another instance projected a transaction are only refreshed when they
+ * expire.
+ */
+public class TransactionSearchTotalCache {
+
+    private final Cache<List<Object>, Long> totals;
+    private final Map<String, AtomicLong> gatewayAccountGenerations = new ConcurrentHashMap<>();
+
+    public TransactionSearchTotalCache(Duration timeToLive, long maximumSize) {
+        this.totals = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeToLive)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    public Long getTotal(TransactionSearchParams searchParams, TotalMode totalMode, Supplier<Long> countTransactions) {
+        // the generations are read before counting, so a transaction projected while counting leaves the total unused
+        List<Object> key = List.of(totalMode, totalMode == TotalMode.CAPPED ? searchParams.getLimitTotalSize() : 0L,
+                normalise(searchParams.getQueryMap()), generationsOf(searchParams.getAccountIds()));
+        Long total = totals.getIfPresent(key);
+        if (total == null) {
+            total = countTransactions.get();
+            totals.put(key, total);
+        }
+        return total;
+    }
+
+    public void invalidate(String gatewayAccountId) {
+        gatewayAccountGenerations.computeIfAbsent(gatewayAccountId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    private Map<String, Long> generationsOf(List<String> gatewayAccountIds) {
+        Map<String, Long> generations = new TreeMap<>();
+        if (gatewayAccountIds != null) {
+            gatewayAccountIds.forEach(id -> generations.put(id,
+                    gatewayAccountGenerations.getOrDefault(id, new AtomicLong()).get()));
+        }
+        return generations;
+    }
+
+    // searches that differ only in the order of their lists or the time zone of their dates find the same transactions
+    static Map<String, Object> normalise(Map<String, Object> queryMap) {
+        Map<String, Object> normalised = new TreeMap<>();
+        queryMap.forEach((field, value) -> {
+            if (value instanceof List<?> values) {
+                normalised.put(field, values.stream().map(String::valueOf).sorted().distinct().collect(Collectors.toList()));
+            } else if (value instanceof ZonedDateTime dateTime) {
+                normalised.put(field, dateTime.toInstant());
+            } else {
+                normalised.put(field, value);
+            }
+        });
+        return normalised;
+    }
+}
@@ -16,23 +16,31 @@ import uk.gov.pay.ledger.transaction.model.TransactionFactory;
 import uk.gov.pay.ledger.transaction.model.TransactionSearchResponse;
 import uk.gov.pay.ledger.transaction.model.TransactionType;
 import uk.gov.pay.ledger.transaction.model.TransactionsForTransactionResponse;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchCursor;
+import uk.gov.pay.ledger.transaction.search.common.TotalMode;
 import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
 import uk.gov.pay.ledger.transaction.search.model.TransactionView;
+import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+import uk.gov.pay.ledger.util.dao.ConcurrentQueryExecutor;
 import uk.gov.pay.ledger.util.pagination.PaginationBuilder;
 
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import static java.lang.String.format;
+import static java.time.ZoneOffset.UTC;
 import static java.util.stream.Collectors.groupingBy;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static uk.gov.pay.ledger.transaction.model.TransactionType.PAYMENT;
 
 public class TransactionService {
@@ -46,17 +54,25 @@ public class TransactionService {
     private TransactionFactory transactionFactory;
     private CsvTransactionFactory csvTransactionFactory;
     private ObjectMapper objectMapper;
+    private final TransactionSummaryDao transactionSummaryDao;
+    private final TransactionSearchTotalCache transactionSearchTotalCache;
+    private final ConcurrentQueryExecutor concurrentQueryExecutor;
 
     @Inject
     public TransactionService(TransactionDao transactionDao, EventDao eventDao, TransactionEntityFactory transactionEntityFactory,
                               TransactionFactory transactionFactory, CsvTransactionFactory csvTransactionFactory,
-                              ObjectMapper objectMapper) {
+                              ObjectMapper objectMapper, TransactionSummaryDao transactionSummaryDao,
+                              TransactionSearchTotalCache transactionSearchTotalCache,
+                              ConcurrentQueryExecutor concurrentQueryExecutor) {
         this.transactionDao = transactionDao;
         this.eventDao = eventDao;
         this.transactionEntityFactory = transactionEntityFactory;
         this.transactionFactory = transactionFactory;
         this.csvTransactionFactory = csvTransactionFactory;
         this.objectMapper = objectMapper;
+        this.transactionSummaryDao = transactionSummaryDao;
+        this.transactionSearchTotalCache = transactionSearchTotalCache;
+        this.concurrentQueryExecutor = concurrentQueryExecutor;
     }
 
     public Optional<TransactionView> getTransactionForGatewayAccount(String gatewayAccountId, String transactionExternalId,
@@ -93,20 +109,42 @@ public class TransactionService {
             searchParams.setAccountIds(gatewayAccountIds);
         }
 
-        List<Transaction> transactionList = transactionDao.searchTransactions(searchParams)
+        Optional<TransactionSearchCursor> cursor = searchParams.getTransactionSearchCursor();
+        TotalMode totalMode = searchParams.getTotalMode();
+        // the query map is built on first use, so build it before both queries read it
+        searchParams.getQueryMap();
+
+        try {
+            return concurrentQueryExecutor.runConcurrently(
+                    () -> findPage(searchParams, cursor),
+                    () -> transactionSearchTotalCache.getTotal(searchParams, totalMode,
+                            () -> countTransactions(searchParams, totalMode)),
+                    (transactionEntities, total) -> toTransactionSearchResponse(searchParams, uriInfo, cursor,
+                            transactionEntities, total));
+        } catch (RejectedExecutionException e) {
+            throw new WebApplicationException("Too many transaction searches in progress", Response.Status.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private List<TransactionEntity> findPage(TransactionSearchParams searchParams, Optional<TransactionSearchCursor> cursor) {
+        return cursor
+                .map(pageCursor -> pageCursor.isBefore()
+                        ? transactionDao.cursorTransactionSearchBefore(searchParams, pageCursor.getCreatedDate(), pageCursor.getId())
+                        : transactionDao.cursorTransactionSearch(searchParams, pageCursor.getCreatedDate(), pageCursor.getId()))
+                .orElseGet(() -> transactionDao.searchTransactions(searchParams));
+    }
+
+    private TransactionSearchResponse toTransactionSearchResponse(TransactionSearchParams searchParams, UriInfo uriInfo,
+                                                                  Optional<TransactionSearchCursor> cursor,
+                                                                  List<TransactionEntity> transactionEntities, Long total) {
+        List<Transaction> transactionList = transactionEntities
                 .stream()
                 .map(transactionFactory::createTransactionEntity)
                 .collect(Collectors.toList());
 
-        Long total;
-
-        if (searchParams.limitTotal()) {
-            total = transactionDao.getTotalWithLimitForSearch(searchParams);
-        } else {
-            total = transactionDao.getTotalForSearch(searchParams);
-
+        if (searchParams.getTotalMode() == TotalMode.EXACT) {
             long size = searchParams.getDisplaySize();
-            if (total > 0 && searchParams.getDisplaySize() > 0) {
+            if (cursor.isEmpty() && total > 0 && searchParams.getDisplaySize() > 0) {
                 long lastPage = (total + size - 1) / size;
                 if (searchParams.getPageNumber() > lastPage || searchParams.getPageNumber() < 1) {
                     throw new WebApplicationException("the requested page not found",
@@ -115,19 +153,62 @@ public class TransactionService {
             }
         }
 
-        return buildTransactionSearchResponse(searchParams, uriInfo, transactionList, total);
+        return buildTransactionSearchResponse(searchParams, uriInfo, transactionList, total,
+                nextCursor(searchParams, cursor, transactionEntities),
+                prevCursor(searchParams, cursor, transactionEntities));
+    }
+
+    private Long countTransactions(TransactionSearchParams searchParams, TotalMode totalMode) {
+        return switch (totalMode) {
+            case EXACT -> transactionDao.getTotalForSearch(searchParams);
+            case CAPPED -> transactionDao.getTotalWithLimitForSearch(searchParams);
+            case ESTIMATED -> searchParams.getPaymentStatesForSummarisedSearch()
+                    .map(states -> transactionSummaryDao.countPayments(searchParams.getAccountIds(), states,
+                            toSummaryDate(searchParams.getFromDate()), toSummaryDate(searchParams.getToDate())))
+                    .orElseGet(() -> transactionDao.getEstimatedTotalForSearch(searchParams));
+        };
     }
 
-    public List<TransactionEntity> searchTransactionAfter(TransactionSearchParams searchParams, ZonedDateTime startingAfterCreatedDate, Long startingAfterId) {
-        return transactionDao.cursorTransactionSearch(searchParams, startingAfterCreatedDate, startingAfterId);
+    private LocalDate toSummaryDate(String searchDate) {
+        return isNotBlank(searchDate) ? LocalDate.ofInstant(ZonedDateTime.parse(searchDate).toInstant(), UTC) : null;
     }
 
-    private TransactionSearchResponse buildTransactionSearchResponse(TransactionSearchParams searchParams, UriInfo uriInfo, List<Transaction> transactionList, Long totalCount) {
+    /**
+     * A full page seeking forwards may be followed by more transactions, as may any page reached by seeking backwards.
+     */
+    private String nextCursor(TransactionSearchParams searchParams, Optional<TransactionSearchCursor> cursor,
+                              List<TransactionEntity> page) {
+        if (page.isEmpty()) {
+            return null;
+        }
+        boolean mayHaveNextPage = page.size() == searchParams.getDisplaySize()
+                || cursor.map(TransactionSearchCursor::isBefore).orElse(false);
+        return mayHaveNextPage ? TransactionSearchCursor.after(page.get(page.size() - 1)).encode() : null;
+    }
+
+    /**
+     * A full page seeking backwards may be preceded by more transactions, as may any page after the first.
+     */
+    private String prevCursor(TransactionSearchParams searchParams, Optional<TransactionSearchCursor> cursor,
+                              List<TransactionEntity> page) {
+        if (page.isEmpty()) {
+            return null;
+        }
+        boolean mayHavePrevPage = cursor
+                .map(pageCursor -> !pageCursor.isBefore() || page.size() == searchParams.getDisplaySize())
+                .orElse(searchParams.getPageNumber() > 1);
+        return mayHavePrevPage ? TransactionSearchCursor.before(page.get(0)).encode() : null;
+    }
+
+    private TransactionSearchResponse buildTransactionSearchResponse(TransactionSearchParams searchParams, UriInfo uriInfo,
+                                                                     List<Transaction> transactionList, Long totalCount,
+                                                                     String nextCursor, String prevCursor) {
         Long total = Optional.ofNullable(totalCount).orElse(0L);
         PaginationBuilder paginationBuilder = new PaginationBuilder(searchParams, uriInfo);
         paginationBuilder = paginationBuilder
                 .withTotalCount(total)
                 .withCount((long) transactionList.size())
+                .withCursors(nextCursor, prevCursor)
                 .buildResponse();
 
         List<TransactionView> transactionViewList = mapToTransactionViewList(transactionList, searchParams.getStatusVersion());
@@ -137,7 +218,9 @@ public class TransactionService {
                 (long) transactionList.size(),
                 searchParams.getPageNumber(),
                 transactionViewList
-        ).withPaginationBuilder(paginationBuilder);
+        ).withPaginationBuilder(paginationBuilder)
+                .withCursors(nextCursor, prevCursor)
+                .withTotalMode(searchParams.getTotalMode());
     }
 
     private List<TransactionView> mapToTransactionViewList(List<Transaction> transactionList, int statusVersion) {
@@ -150,11 +233,18 @@ public class TransactionService {
     public TransactionEntity upsertTransactionFor(EventDigest eventDigest) {
         TransactionEntity transaction = transactionEntityFactory.create(eventDigest);
         transactionDao.upsert(transaction);
+        transactionSearchTotalCache.invalidate(transaction.getGatewayAccountId());
         return transaction;
     }
 
     public void upsertTransaction(TransactionEntity transaction) {
         transactionDao.upsert(transaction);
+        transactionSearchTotalCache.invalidate(transaction.getGatewayAccountId());
+    }
+
+    public void upsertTransactions(List<TransactionEntity> transactions) {
+        transactionDao.upsertAll(transactions);
+        transactions.forEach(transaction -> transactionSearchTotalCache.invalidate(transaction.getGatewayAccountId()));
     }
 
     public TransactionEventResponse findTransactionEvents(String externalId, String gatewayAccountId,
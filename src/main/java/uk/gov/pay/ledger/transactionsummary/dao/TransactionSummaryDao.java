@@ -2,6 +2,7 @@ package uk.gov.pay.ledger.transactionsummary.dao;
 
 import com.google.inject.Inject;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.statement.Query;
 import uk.gov.pay.ledger.report.entity.GatewayAccountMonthlyPerformanceReportEntity;
 import uk.gov.pay.ledger.report.entity.PerformanceReportEntity;
@@ -9,6 +10,8 @@ import uk.gov.pay.ledger.report.mapper.GatewayAccountMonthlyPerformanceReportEnt
 import uk.gov.pay.ledger.report.mapper.PerformanceReportEntityMapper;
 import uk.gov.pay.ledger.report.params.PerformanceReportParams;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.transactionsummary.entity.FlushedDeltasEntity;
+import uk.gov.pay.ledger.transactionsummary.entity.TransactionSummaryDeltaEntity;
 
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
@@ -16,43 +19,101 @@ import java.util.List;
 
 public class TransactionSummaryDao {
 
+    // The summary of a key is spread over NUMBER_OF_STRIPES rows, one per stripe, so that concurrent projections of
+    // different transactions rarely wait for the same row lock. Changing it moves transactions to other stripes, which
+    // readers do not mind as they sum over all stripes, but a deduct would then no longer meet the row it deducts from.
+    public static final int NUMBER_OF_STRIPES = 16;
+
     private static final String UPSERT_STRING = "INSERT INTO transaction_summary AS ts(gateway_account_id, type, " +
-            " transaction_date, state, live, moto, total_amount_in_pence, no_of_transactions, total_fee_in_pence)" +
-            " VALUES(:gatewayAccountId, :type, :transactionDate, :state, :live, :moto, :amountInPence, 1,0)" +
-            " ON CONFLICT ON CONSTRAINT transaction_summmary_unique_key " +
+            " transaction_date, state, live, moto, stripe, total_amount_in_pence, no_of_transactions, total_fee_in_pence)" +
+            " VALUES(:gatewayAccountId, :type, :transactionDate, :state, :live, :moto, :stripe, :amountInPence, 1,0)" +
+            " ON CONFLICT ON CONSTRAINT transaction_summary_stripe_unique_key " +
             " DO UPDATE SET no_of_transactions = ts.no_of_transactions + 1, " +
-            " total_amount_in_pence = :amountInPence + ts.total_amount_in_pence" +
-            " WHERE ts.gateway_account_id = :gatewayAccountId " +
-            " AND ts.transaction_date = :transactionDate " +
-            " AND ts.state = :state " +
+            " total_amount_in_pence = :amountInPence + ts.total_amount_in_pence";
+
+    // A transaction counted before the summary was striped sits in stripe 0 rather than in its own stripe, so a deduct
+    // or a fee goes to stripe 0 when its own stripe has no row. Neither creates a row: as before the summary was
+    // striped, a change to a row that does not exist is dropped rather than recorded as a row of negative or fee-only
+    // values.
+    private static final String SUMMARY_ROW_OF_TRANSACTION = " WHERE ts.gateway_account_id = :gatewayAccountId" +
             " AND ts.type = :type" +
+            " AND ts.transaction_date = :transactionDate" +
+            " AND ts.state = :state" +
             " AND ts.live = :live" +
-            " AND ts.moto = :moto";
+            " AND ts.moto = :moto" +
+            " AND ts.stripe = (SELECT s.stripe FROM transaction_summary s" +
+            "   WHERE s.gateway_account_id = ts.gateway_account_id AND s.type = ts.type" +
+            "   AND s.transaction_date = ts.transaction_date AND s.state = ts.state AND s.live = ts.live" +
+            "   AND s.moto = ts.moto AND s.stripe IN (:stripe, 0)" +
+            "   ORDER BY s.stripe = :stripe DESC LIMIT 1)";
 
     private static final String DEDUCT_TRANSACTION_SUMMARY = "UPDATE transaction_summary ts " +
             " SET no_of_transactions = ts.no_of_transactions - 1, " +
             " total_amount_in_pence = ts.total_amount_in_pence - :amountInPence, " +
-            " total_fee_in_pence = ts.total_fee_in_pence - :feeInPence " +
-            " WHERE ts.gateway_account_id = :gatewayAccountId " +
-            " AND ts.transaction_date = :transactionDate " +
-            " AND ts.state = :state " +
-            " AND ts.type = :type" +
-            " AND ts.live = :live" +
-            " AND ts.moto = :moto";
+            " total_fee_in_pence = ts.total_fee_in_pence - :feeInPence" +
+            SUMMARY_ROW_OF_TRANSACTION;
 
     private static final String UPDATE_FEE = "UPDATE transaction_summary ts " +
-            " SET total_fee_in_pence = ts.total_fee_in_pence + :feeInPence " +
-            " WHERE ts.gateway_account_id = :gatewayAccountId " +
-            " AND ts.transaction_date = :transactionDate " +
-            " AND ts.state = :state " +
-            " AND ts.type = :type" +
-            " AND ts.live = :live" +
-            " AND ts.moto = :moto";
+            " SET total_fee_in_pence = ts.total_fee_in_pence + :feeInPence" +
+            SUMMARY_ROW_OF_TRANSACTION;
+
+    private static final String INSERT_DELTA = "INSERT INTO transaction_summary_delta(gateway_account_id, type, " +
+            " transaction_date, state, live, moto, stripe, no_of_transactions, total_amount_in_pence, total_fee_in_pence)" +
+            " VALUES(:gatewayAccountId, :transactionType, :transactionDate, :state, :live, :moto, :stripe," +
+            " :noOfTransactions, :amountInPence, :feeInPence)";
+
+    // Deletes the oldest deltas that no other flush is working on, merges them by summary row and applies them in the
+    // same statement, so that a delta is either still in the table or part of the summary and is never counted twice.
+    // Merged deltas that add no transactions, which are deducts and fees, follow the same rules as deducts and fees
+    // that are not written behind: they go to stripe 0 when their own stripe has no row, and never create a row.
+    private static final String FLUSH_DELTAS = "WITH flushed AS (" +
+            "   DELETE FROM transaction_summary_delta" +
+            "   WHERE id IN (SELECT id FROM transaction_summary_delta ORDER BY id LIMIT :maximumDeltas FOR UPDATE SKIP LOCKED)" +
+            "   RETURNING *" +
+            " ), merged AS (" +
+            "   SELECT gateway_account_id, type, transaction_date, state, live, moto, stripe," +
+            "   SUM(no_of_transactions) AS no_of_transactions," +
+            "   COALESCE(SUM(total_amount_in_pence), 0) AS total_amount_in_pence," +
+            "   COALESCE(SUM(total_fee_in_pence), 0) AS total_fee_in_pence" +
+            "   FROM flushed" +
+            "   GROUP BY gateway_account_id, type, transaction_date, state, live, moto, stripe" +
+            " ), targeted AS (" +
+            "   SELECT m.gateway_account_id, m.type, m.transaction_date, m.state, m.live, m.moto," +
+            "   (SELECT s.stripe FROM transaction_summary s" +
+            "     WHERE s.gateway_account_id = m.gateway_account_id AND s.type = m.type" +
+            "     AND s.transaction_date = m.transaction_date AND s.state = m.state AND s.live = m.live" +
+            "     AND s.moto = m.moto AND s.stripe IN (m.stripe, 0)" +
+            "     ORDER BY s.stripe = m.stripe DESC LIMIT 1) AS existing_stripe," +
+            "   m.stripe, m.no_of_transactions, m.total_amount_in_pence, m.total_fee_in_pence" +
+            "   FROM merged m" +
+            " ), retargeted AS (" +
+            "   SELECT gateway_account_id, type, transaction_date, state, live, moto," +
+            "   CASE WHEN no_of_transactions > 0 THEN stripe ELSE existing_stripe END AS stripe," +
+            "   SUM(no_of_transactions) AS no_of_transactions," +
+            "   SUM(total_amount_in_pence) AS total_amount_in_pence," +
+            "   SUM(total_fee_in_pence) AS total_fee_in_pence" +
+            "   FROM targeted" +
+            "   WHERE no_of_transactions > 0 OR existing_stripe IS NOT NULL" +
+            "   GROUP BY gateway_account_id, type, transaction_date, state, live, moto," +
+            "   CASE WHEN no_of_transactions > 0 THEN stripe ELSE existing_stripe END" +
+            " ), applied AS (" +
+            "   INSERT INTO transaction_summary AS ts(gateway_account_id, type, transaction_date, state, live, moto," +
+            "   stripe, no_of_transactions, total_amount_in_pence, total_fee_in_pence)" +
+            "   SELECT gateway_account_id, type, transaction_date, state, live, moto," +
+            "   stripe, no_of_transactions, total_amount_in_pence, total_fee_in_pence" +
+            "   FROM retargeted" +
+            "   ORDER BY gateway_account_id, type, transaction_date, state, live, moto, stripe" +
+            "   ON CONFLICT ON CONSTRAINT transaction_summary_stripe_unique_key" +
+            "   DO UPDATE SET no_of_transactions = ts.no_of_transactions + EXCLUDED.no_of_transactions," +
+            "   total_amount_in_pence = ts.total_amount_in_pence + EXCLUDED.total_amount_in_pence," +
+            "   total_fee_in_pence = ts.total_fee_in_pence + EXCLUDED.total_fee_in_pence" +
+            " )" +
+            " SELECT count(*) AS no_of_deltas, max(id) AS flushed_up_to FROM flushed";
 
     private static final String MONTHLY_GATEWAY_ACCOUNT_PERFORMANCE_STATISTICS = "SELECT " + "t.gateway_account_id, " +
             "COALESCE(SUM(t.no_of_transactions), 0) AS volume, " +
             "COALESCE(SUM(t.total_amount_in_pence), 0) AS total_amount, " +
-            "COALESCE(SUM(t.total_amount_in_pence)/SUM(t.no_of_transactions), 0) AS avg_amount, " +
+            "COALESCE(SUM(t.total_amount_in_pence)/NULLIF(SUM(t.no_of_transactions), 0), 0) AS avg_amount, " +
             "EXTRACT(YEAR from transaction_date) AS year, " +
             "EXTRACT(MONTH from transaction_date) AS month " +
             "FROM transaction_summary t " +
@@ -65,11 +126,19 @@ public class TransactionSummaryDao {
 
     private static final String PERFORMANCE_REPORT_QUERY = "SELECT COALESCE(SUM(t.no_of_transactions),0) AS volume, " +
             "COALESCE(SUM(t.total_amount_in_pence), 0) AS total_amount, " +
-            "COALESCE(SUM(t.total_amount_in_pence)/SUM(t.no_of_transactions), 0) AS avg_amount " +
+            "COALESCE(SUM(t.total_amount_in_pence)/NULLIF(SUM(t.no_of_transactions), 0), 0) AS avg_amount " +
             "FROM transaction_summary t " +
             "WHERE t.type= 'PAYMENT' " +
             "AND t.live= TRUE";
 
+    private static final String COUNT_PAYMENTS = "SELECT COALESCE(SUM(t.no_of_transactions), 0) " +
+            "FROM transaction_summary t " +
+            "WHERE t.type = 'PAYMENT' " +
+            "AND t.gateway_account_id IN (<gatewayAccountIds>) " +
+            "AND t.state IN (<states>) " +
+            "AND (CAST(:fromDate AS DATE) IS NULL OR t.transaction_date >= :fromDate) " +
+            "AND (CAST(:toDate AS DATE) IS NULL OR t.transaction_date <= :toDate)";
+
     private static final String WITH_STATE = " AND t.state=:state";
 
     private static final String WITH_DATE_RANGE = " AND t.transaction_date BETWEEN :startDate AND :toDate";
@@ -81,8 +150,15 @@ public class TransactionSummaryDao {
         this.jdbi = jdbi;
     }
 
-    public void upsert(String gatewayAccountId, String transactionType, LocalDate transactionDate,
-                       TransactionState state, Boolean live, boolean moto, Long amount) {
+    /**
+     * The stripe of the summary rows a transaction is counted in.
+     */
+    public static int stripeFor(String transactionExternalId) {
+        return Math.floorMod(transactionExternalId.hashCode(), NUMBER_OF_STRIPES);
+    }
+
+    public void upsert(String transactionExternalId, String gatewayAccountId, String transactionType,
+                       LocalDate transactionDate, TransactionState state, Boolean live, boolean moto, Long amount) {
         jdbi.withHandle(handle ->
                 handle.createUpdate(UPSERT_STRING)
                         .bind("gatewayAccountId", gatewayAccountId)
@@ -91,13 +167,14 @@ public class TransactionSummaryDao {
                         .bind("state", state)
                         .bind("live", live)
                         .bind("moto", moto)
+                        .bind("stripe", stripeFor(transactionExternalId))
                         .bind("amountInPence", amount)
                         .execute()
         );
     }
 
-    public void updateFee(String gatewayAccountId, String transactionType, LocalDate transactionDate,
-                          TransactionState state, boolean live, boolean moto, Long fee) {
+    public void updateFee(String transactionExternalId, String gatewayAccountId, String transactionType,
+                          LocalDate transactionDate, TransactionState state, boolean live, boolean moto, Long fee) {
         jdbi.withHandle(handle ->
                 handle.createUpdate(UPDATE_FEE)
                         .bind("gatewayAccountId", gatewayAccountId)
@@ -106,14 +183,15 @@ public class TransactionSummaryDao {
                         .bind("state", state)
                         .bind("live", live)
                         .bind("moto", moto)
+                        .bind("stripe", stripeFor(transactionExternalId))
                         .bind("feeInPence", fee)
                         .execute()
         );
     }
 
-    public void deductTransactionSummaryFor(String gatewayAccountId, String transactionType,
-                                            LocalDate transactionDate, TransactionState state, boolean live,
-                                            boolean moto, Long amount, Long fee) {
+    public void deductTransactionSummaryFor(String transactionExternalId, String gatewayAccountId,
+                                            String transactionType, LocalDate transactionDate, TransactionState state,
+                                            boolean live, boolean moto, Long amount, Long fee) {
         jdbi.withHandle(handle ->
                 handle.createUpdate(DEDUCT_TRANSACTION_SUMMARY)
                         .bind("gatewayAccountId", gatewayAccountId)
@@ -122,12 +200,51 @@ public class TransactionSummaryDao {
                         .bind("state", state)
                         .bind("live", live)
                         .bind("moto", moto)
+                        .bind("stripe", stripeFor(transactionExternalId))
                         .bind("amountInPence", amount)
                         .bind("feeInPence", fee)
                         .execute()
         );
     }
 
+    public void insertDeltas(List<TransactionSummaryDeltaEntity> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        jdbi.withHandle(handle -> {
+            PreparedBatch batch = handle.prepareBatch(INSERT_DELTA);
+            deltas.forEach(delta -> batch.bindBean(delta).add());
+            return batch.execute();
+        });
+    }
+
+    public FlushedDeltasEntity flushDeltas(int maximumDeltas) {
+        return jdbi.withHandle(handle ->
+                handle.createQuery(FLUSH_DELTAS)
+                        .bind("maximumDeltas", maximumDeltas)
+                        .map((rs, ctx) -> new FlushedDeltasEntity(rs.getInt("no_of_deltas"),
+                                rs.getObject("flushed_up_to", Long.class)))
+                        .one()
+        );
+    }
+
+    /**
+     * Counts the finished payments of gateway accounts in some states, created on or between two dates if given.
+     */
+    public Long countPayments(List<String> gatewayAccountIds, List<String> states, LocalDate fromDate, LocalDate toDate) {
+        if (states.isEmpty()) {
+            return 0L;
+        }
+        return jdbi.withHandle(handle ->
+                handle.createQuery(COUNT_PAYMENTS)
+                        .bindList("gatewayAccountIds", gatewayAccountIds)
+                        .bindList("states", states)
+                        .bind("fromDate", fromDate)
+                        .bind("toDate", toDate)
+                        .mapTo(Long.class)
+                        .one());
+    }
+
     public List<GatewayAccountMonthlyPerformanceReportEntity> monthlyPerformanceReportForGatewayAccounts(LocalDate startDate, LocalDate endDate) {
         return jdbi.withHandle(handle ->
                 handle
@@ -0,0 +1,22 @@
+package uk.gov.pay.ledger.transactionsummary.entity;
+
+import java.util.Optional;
+
+public class FlushedDeltasEntity {
+
+    private final int noOfDeltas;
+    private final Long flushedUpToDeltaId;
+
+    public FlushedDeltasEntity(int noOfDeltas, Long flushedUpToDeltaId) {
+        this.noOfDeltas = noOfDeltas;
+        this.flushedUpToDeltaId = flushedUpToDeltaId;
+    }
+
+    public int getNoOfDeltas() {
+        return noOfDeltas;
+    }
+
+    public Optional<Long> getFlushedUpToDeltaId() {
+        return Optional.ofNullable(flushedUpToDeltaId);
+    }
+}
@@ -0,0 +1,104 @@
+package uk.gov.pay.ledger.transactionsummary.entity;
+
+import uk.gov.pay.ledger.transaction.state.TransactionState;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A change to one transaction_summary row, waiting in the transaction_summary_delta table to be folded into the
+ * summary. The row is inserted when it does not exist yet.
+ */
+public class TransactionSummaryDeltaEntity {
+
+    private final String gatewayAccountId;
+    private final String transactionType;
+    private final LocalDate transactionDate;
+    private final TransactionState state;
+    private final Boolean live;
+    private final boolean moto;
+    private final int stripe;
+    private final long noOfTransactions;
+    private final Long amountInPence;
+    private final Long feeInPence;
+
+    public TransactionSummaryDeltaEntity(String gatewayAccountId, String transactionType, LocalDate transactionDate,
+                                         TransactionState state, Boolean live, boolean moto, int stripe,
+                                         long noOfTransactions, Long amountInPence, Long feeInPence) {
+        this.gatewayAccountId = gatewayAccountId;
+        this.transactionType = transactionType;
+        this.transactionDate = transactionDate;
+        this.state = state;
+        this.live = live;
+        this.moto = moto;
+        this.stripe = stripe;
+        this.noOfTransactions = noOfTransactions;
+        this.amountInPence = amountInPence;
+        this.feeInPence = feeInPence;
+    }
+
+    public String getGatewayAccountId() {
+        return gatewayAccountId;
+    }
+
+    public String getTransactionType() {
+        return transactionType;
+    }
+
+    public LocalDate getTransactionDate() {
+        return transactionDate;
+    }
+
+    public TransactionState getState() {
+        return state;
+    }
+
+    public Boolean getLive() {
+        return live;
+    }
+
+    public boolean isMoto() {
+        return moto;
+    }
+
+    public int getStripe() {
+        return stripe;
+    }
+
+    public long getNoOfTransactions() {
+        return noOfTransactions;
+    }
+
+    public Long getAmountInPence() {
+        return amountInPence;
+    }
+
+    public Long getFeeInPence() {
+        return feeInPence;
+    }
+
+    /**
+     * The unique key of the transaction_summary row this delta applies to.
+     */
+    public List<Object> getSummaryKey() {
+        return Arrays.asList(gatewayAccountId, transactionType, transactionDate, state, live, moto, stripe);
+    }
+
+    /**
+     * Combines this delta with another delta for the same summary row.
+     */
+    public TransactionSummaryDeltaEntity merge(TransactionSummaryDeltaEntity other) {
+        return new TransactionSummaryDeltaEntity(gatewayAccountId, transactionType, transactionDate, state, live, moto, stripe,
+                noOfTransactions + other.noOfTransactions,
+                add(amountInPence, other.amountInPence),
+                add(feeInPence, other.feeInPence));
+    }
+
+    private static Long add(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a + b;
+    }
+}
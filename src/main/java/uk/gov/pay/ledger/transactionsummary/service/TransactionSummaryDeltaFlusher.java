@@ -0,0 +1,130 @@
+package uk.gov.pay.ledger.transactionsummary.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+import uk.gov.pay.ledger.transactionsummary.entity.FlushedDeltasEntity;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Folds the transaction summary deltas recorded by projections into transaction_summary, every flush interval or as
+ * soon as the maximum number of deltas is pending. Each flush merges up to the maximum number of deltas by summary key
+ * and applies them with one statement, so the hot summary rows are locked once per flush instead of once per event.
+ *
+ * Deltas are written in the same transaction as the projection they belong to and are only deleted by the statement
+ * that applies them, so the deltas table is the position up to which the summary has been flushed. Deltas that were
+ * pending when the application stopped are flushed after it starts again, and none are counted twice.
+ */
+public class TransactionSummaryDeltaFlusher implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionSummaryDeltaFlusher.class);
+
+    private final TransactionSummaryDao transactionSummaryDao;
+    private final ScheduledExecutorService executorService;
+    private final MetricRegistry metricRegistry;
+    private final boolean enabled;
+    private final Duration flushInterval;
+    private final int maximumDeltas;
+    private final AtomicLong pendingDeltas = new AtomicLong();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong flushedUpToDeltaId = new AtomicLong();
+    // deltas written on this thread by a unit of work that has not committed yet, which a flush cannot see
+    private final ThreadLocal<Integer> uncommittedDeltas = ThreadLocal.withInitial(() -> 0);
+
+    public TransactionSummaryDeltaFlusher(TransactionSummaryDao transactionSummaryDao,
+                                          ScheduledExecutorService executorService,
+                                          MetricRegistry metricRegistry,
+                                          boolean enabled,
+                                          Duration flushInterval,
+                                          int maximumDeltas) {
+        this.transactionSummaryDao = transactionSummaryDao;
+        this.executorService = executorService;
+        this.metricRegistry = metricRegistry;
+        this.enabled = enabled;
+        this.flushInterval = flushInterval;
+        this.maximumDeltas = maximumDeltas;
+        metricRegistry.gauge("transaction-summary-flusher.pending-deltas", () -> (Gauge<Long>) pendingDeltas::get);
+        metricRegistry.gauge("transaction-summary-flusher.flushed-up-to-delta-id", () -> (Gauge<Long>) flushedUpToDeltaId::get);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Counts deltas written by a projection. They count towards bringing the next flush forward only once the unit of
+     * work that wrote them has committed, see {@link #deltasCommitted()}.
+     */
+    public void deltasRecorded(int noOfDeltas) {
+        uncommittedDeltas.set(uncommittedDeltas.get() + noOfDeltas);
+    }
+
+    /**
+     * Called once the unit of work that recorded deltas on this thread has committed. Brings the next flush forward once
+     * the maximum number of deltas is pending.
+     */
+    public void deltasCommitted() {
+        int noOfDeltas = uncommittedDeltas.get();
+        uncommittedDeltas.remove();
+        if (noOfDeltas > 0 && pendingDeltas.addAndGet(noOfDeltas) >= maximumDeltas
+                && flushRequested.compareAndSet(false, true)) {
+            executorService.execute(this::flushPendingDeltas);
+        }
+    }
+
+    /**
+     * Called once the unit of work that recorded deltas on this thread has rolled back, which leaves none of them behind.
+     */
+    public void deltasRolledBack() {
+        uncommittedDeltas.remove();
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            executorService.scheduleWithFixedDelay(this::flushPendingDeltas, 0, flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            // fold deltas left over from when write-behind was last enabled
+            executorService.execute(this::flushPendingDeltas);
+        }
+    }
+
+    @Override
+    public void stop() {
+        executorService.shutdown();
+        flushPendingDeltas();
+    }
+
+    private void flushPendingDeltas() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // the deltas of a failed flush stay in the table and are picked up by the next one
+            LOGGER.warn("Failed to flush transaction summary deltas", kv("error", e.getMessage()));
+        }
+    }
+
+    synchronized void flush() {
+        flushRequested.set(false);
+        FlushedDeltasEntity flushedDeltas;
+        do {
+            flushedDeltas = metricRegistry.timer("transaction-summary-flusher.flush-latency")
+                    .timeSupplier(() -> transactionSummaryDao.flushDeltas(maximumDeltas));
+            int noOfDeltas = flushedDeltas.getNoOfDeltas();
+            // deltas recorded by other instances can be flushed here too, so the count never goes below zero
+            pendingDeltas.updateAndGet(pending -> Math.max(0, pending - noOfDeltas));
+            metricRegistry.histogram("transaction-summary-flusher.deltas-per-flush").update(noOfDeltas);
+            flushedDeltas.getFlushedUpToDeltaId().ifPresent(id -> flushedUpToDeltaId.accumulateAndGet(id, Math::max));
+        } while (flushedDeltas.getNoOfDeltas() == maximumDeltas);
+    }
+}
@@ -7,10 +7,13 @@ import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.model.TransactionType;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
 import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+import uk.gov.pay.ledger.transactionsummary.entity.TransactionSummaryDeltaEntity;
 
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -22,10 +25,12 @@ import static uk.gov.pay.ledger.event.model.SalientEventType.QUEUED_FOR_CAPTURE;
 import static uk.gov.pay.ledger.event.model.SalientEventType.SERVICE_APPROVED_FOR_CAPTURE;
 import static uk.gov.pay.ledger.event.model.SalientEventType.USER_APPROVED_FOR_CAPTURE;
 import static uk.gov.pay.ledger.event.model.SalientEventType.from;
+import static uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao.stripeFor;
 
 public class TransactionSummaryService {
 
     private final TransactionSummaryDao transactionSummaryDao;
+    private final TransactionSummaryDeltaFlusher transactionSummaryDeltaFlusher;
 
     // CAPTURE_SUBMITTED event (common to payment notifications, service approved and user approved payments) will be
     // considered to project transaction summary for success state. Ignore the following events that result into the
@@ -36,8 +41,10 @@ public class TransactionSummaryService {
             SERVICE_APPROVED_FOR_CAPTURE.name());
 
     @Inject
-    public TransactionSummaryService(TransactionSummaryDao transactionSummaryDao) {
+    public TransactionSummaryService(TransactionSummaryDao transactionSummaryDao,
+                                     TransactionSummaryDeltaFlusher transactionSummaryDeltaFlusher) {
         this.transactionSummaryDao = transactionSummaryDao;
+        this.transactionSummaryDeltaFlusher = transactionSummaryDeltaFlusher;
     }
 
     public void projectTransactionSummary(TransactionEntity transaction, EventEntity currentEvent, List<EventEntity> events) {
@@ -46,14 +53,29 @@ public class TransactionSummaryService {
         }
     }
 
+    /**
+     * With write-behind enabled the changes to the summary are merged by summary row and recorded as deltas in the
+     * transaction of the projection, to be folded into the summary by {@link TransactionSummaryDeltaFlusher}.
+     */
     private void projectPaymentTransactionSummary(TransactionEntity transaction, EventEntity currentEvent,
                                                   List<EventEntity> events) {
+        List<TransactionSummaryDeltaEntity> deltas = new ArrayList<>();
+
         if (canProjectTransactionAmount(currentEvent, events)) {
-            projectTransactionAmount(transaction, currentEvent, events);
+            projectTransactionAmount(transaction, currentEvent, events, deltas);
         }
 
         if (canProjectTransactionFee(transaction, currentEvent, events)) {
-            projectTransactionFee(transaction);
+            projectTransactionFee(transaction, deltas);
+        }
+
+        if (!deltas.isEmpty()) {
+            List<TransactionSummaryDeltaEntity> mergedDeltas = new ArrayList<>(deltas.stream()
+                    .collect(Collectors.toMap(TransactionSummaryDeltaEntity::getSummaryKey, delta -> delta,
+                            TransactionSummaryDeltaEntity::merge, LinkedHashMap::new))
+                    .values());
+            transactionSummaryDao.insertDeltas(mergedDeltas);
+            transactionSummaryDeltaFlusher.deltasRecorded(mergedDeltas.size());
         }
     }
 
@@ -96,7 +118,8 @@ public class TransactionSummaryService {
     }
 
     private void projectTransactionAmount(TransactionEntity transaction, EventEntity currentEvent,
-                                          List<EventEntity> events) {
+                                          List<EventEntity> events, List<TransactionSummaryDeltaEntity> deltas) {
+        Long amount = transaction.getTotalAmount() != null ? transaction.getTotalAmount() : transaction.getAmount();
         List<EventEntity> eventsMappingToFinishedState =
                 getEventsMappingToTransactionFinishedStateInDescendingOrder(events);
 
@@ -108,22 +131,44 @@ public class TransactionSummaryService {
                 return;
             }
 
-            transactionSummaryDao.deductTransactionSummaryFor(transaction.getGatewayAccountId(),
-                    transaction.getTransactionType(), toLocalDate(transaction.getCreatedDate()),
-                    getTransactionState(previousEvent).get(), transaction.isLive(), transaction.isMoto(),
-                    (transaction.getTotalAmount() != null ? transaction.getTotalAmount() : transaction.getAmount()),
-                    transaction.getFee());
+            if (transactionSummaryDeltaFlusher.isEnabled()) {
+                deltas.add(new TransactionSummaryDeltaEntity(transaction.getGatewayAccountId(),
+                        transaction.getTransactionType(), toLocalDate(transaction.getCreatedDate()),
+                        getTransactionState(previousEvent).get(), transaction.isLive(), transaction.isMoto(),
+                        stripeFor(transaction.getExternalId()), -1, negate(amount), negate(transaction.getFee())));
+            } else {
+                transactionSummaryDao.deductTransactionSummaryFor(transaction.getExternalId(), transaction.getGatewayAccountId(),
+                        transaction.getTransactionType(), toLocalDate(transaction.getCreatedDate()),
+                        getTransactionState(previousEvent).get(), transaction.isLive(), transaction.isMoto(),
+                        amount, transaction.getFee());
+            }
+        }
+        if (transactionSummaryDeltaFlusher.isEnabled()) {
+            deltas.add(new TransactionSummaryDeltaEntity(transaction.getGatewayAccountId(),
+                    transaction.getTransactionType(), toLocalDate(transaction.getCreatedDate()), transaction.getState(),
+                    transaction.isLive(), transaction.isMoto(), stripeFor(transaction.getExternalId()), 1, amount, 0L));
+        } else {
+            transactionSummaryDao.upsert(transaction.getExternalId(), transaction.getGatewayAccountId(), transaction.getTransactionType(),
+                    toLocalDate(transaction.getCreatedDate()), transaction.getState(),
+                    transaction.isLive(), transaction.isMoto(), amount);
+        }
+    }
+
+    private void projectTransactionFee(TransactionEntity transaction, List<TransactionSummaryDeltaEntity> deltas) {
+        if (transactionSummaryDeltaFlusher.isEnabled()) {
+            deltas.add(new TransactionSummaryDeltaEntity(transaction.getGatewayAccountId(),
+                    transaction.getTransactionType(), toLocalDate(transaction.getCreatedDate()), transaction.getState(),
+                    transaction.isLive(), transaction.isMoto(), stripeFor(transaction.getExternalId()), 0, 0L,
+                    transaction.getFee()));
+        } else {
+            transactionSummaryDao.updateFee(transaction.getExternalId(), transaction.getGatewayAccountId(), transaction.getTransactionType(),
+                    toLocalDate(transaction.getCreatedDate()), transaction.getState(), transaction.isLive(),
+                    transaction.isMoto(), transaction.getFee());
         }
-        transactionSummaryDao.upsert(transaction.getGatewayAccountId(), transaction.getTransactionType(),
-                toLocalDate(transaction.getCreatedDate()), transaction.getState(),
-                transaction.isLive(), transaction.isMoto(),
-                (transaction.getTotalAmount() != null ? transaction.getTotalAmount() : transaction.getAmount()));
     }
 
-    private void projectTransactionFee(TransactionEntity transaction) {
-        transactionSummaryDao.updateFee(transaction.getGatewayAccountId(), transaction.getTransactionType(),
-                toLocalDate(transaction.getCreatedDate()), transaction.getState(), transaction.isLive(),
-                transaction.isMoto(), transaction.getFee());
+    private static Long negate(Long value) {
+        return value == null ? null : -value;
     }
 
     private LocalDate toLocalDate(ZonedDateTime createdDate) {
@@ -0,0 +1,145 @@
+package uk.gov.pay.ledger.util.dao;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Runs two read queries side by side, each on its own thread and pool connection, so that the caller waits for the
+ * slower of the two instead of both. The executor is bounded: queries wait in its queue while all of its threads are
+ * busy and are rejected once the queue is full, instead of taking more connections from the pool.
+ *
+ * If either query fails, for instance by reaching its statement timeout, the statement of the other is cancelled so
+ * that its connection is not held for a result nobody will read.
+ */
+public class ConcurrentQueryExecutor {
+
+    private final ReadReplicaRouter readReplicaRouter;
+    private final ExecutorService executorService;
+    private final MetricRegistry metricRegistry;
+    private final String metricPrefix;
+    private final AtomicInteger queuedQueries = new AtomicInteger();
+    private final AtomicInteger runningQueries = new AtomicInteger();
+
+    public ConcurrentQueryExecutor(ReadReplicaRouter readReplicaRouter, ExecutorService executorService,
+                                   MetricRegistry metricRegistry, String metricPrefix) {
+        this.readReplicaRouter = readReplicaRouter;
+        this.executorService = executorService;
+        this.metricRegistry = metricRegistry;
+        this.metricPrefix = metricPrefix;
+        metricRegistry.gauge(metricPrefix + ".queued-queries", () -> (Gauge<Integer>) queuedQueries::get);
+        metricRegistry.gauge(metricPrefix + ".running-queries", () -> (Gauge<Integer>) runningQueries::get);
+    }
+
+    /**
+     * Runs both queries and combines their results once both have completed. Throws the failure of the query that
+     * failed first, or {@link RejectedExecutionException} if the executor is too busy to take both queries.
+     */
+    public <A, B, R> R runConcurrently(Supplier<A> firstQuery, Supplier<B> secondQuery, BiFunction<A, B, R> combine) {
+        CancellableQuery<A> first = new CancellableQuery<>(firstQuery);
+        CancellableQuery<B> second = new CancellableQuery<>(secondQuery);
+
+        CompletableFuture<A> firstResult = submit(first);
+        CompletableFuture<B> secondResult;
+        try {
+            secondResult = submit(second);
+        } catch (RejectedExecutionException e) {
+            first.cancel();
+            throw e;
+        }
+        firstResult.whenComplete((result, failure) -> cancelIfFailed(failure, second));
+        secondResult.whenComplete((result, failure) -> cancelIfFailed(failure, first));
+
+        try {
+            CompletableFuture.allOf(firstResult, secondResult).join();
+        } catch (CompletionException e) {
+            // the query that was cancelled failed because the other one did, so report the other one's failure
+            throw failureOf(first.isCancelled() ? secondResult : firstResult);
+        }
+        return combine.apply(firstResult.join(), secondResult.join());
+    }
+
+    private <T> CompletableFuture<T> submit(CancellableQuery<T> query) {
+        long submittedAt = System.nanoTime();
+        queuedQueries.incrementAndGet();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                queuedQueries.decrementAndGet();
+                metricRegistry.timer(metricPrefix + ".queue-wait").update(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                runningQueries.incrementAndGet();
+                try {
+                    return query.get();
+                } finally {
+                    runningQueries.decrementAndGet();
+                }
+            }, executorService);
+        } catch (RejectedExecutionException e) {
+            queuedQueries.decrementAndGet();
+            metricRegistry.counter(metricPrefix + ".rejected-queries").inc();
+            throw e;
+        }
+    }
+
+    private static void cancelIfFailed(Throwable failure, CancellableQuery<?> otherQuery) {
+        if (failure != null) {
+            otherQuery.cancel();
+        }
+    }
+
+    private static RuntimeException failureOf(CompletableFuture<?> result) {
+        try {
+            result.join();
+            return new IllegalStateException("Query did not fail");
+        } catch (CompletionException e) {
+            return e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Runs a query on a handle of its own and keeps hold of the statement it is running, so that another thread can
+     * cancel it.
+     */
+    private class CancellableQuery<T> implements Supplier<T> {
+
+        private final Supplier<T> query;
+        // the query reads from where the thread that submitted it would read from
+        private final boolean replicaReadsAllowed = ReadReplicaRouter.areReplicaReadsAllowed();
+        private final StatementCanceller statementCanceller = new StatementCanceller();
+
+        private CancellableQuery(Supplier<T> query) {
+            this.query = query;
+        }
+
+        @Override
+        public T get() {
+            if (isCancelled()) {
+                throw new CancellationException("Query was cancelled before it started");
+            }
+            // DAO calls made by the query on this thread run on this handle, so they pick up the customizer
+            return ReadReplicaRouter.withReplicaReads(replicaReadsAllowed, () ->
+                    readReplicaRouter.getJdbiForReads().withHandle(handle -> {
+                        handle.addCustomizer(statementCanceller);
+                        return query.get();
+                    }));
+        }
+
+        boolean isCancelled() {
+            return statementCanceller.isCancelled();
+        }
+
+        void cancel() {
+            if (statementCanceller.cancel()) {
+                metricRegistry.counter(metricPrefix + ".cancelled-queries").inc();
+            }
+        }
+    }
+}
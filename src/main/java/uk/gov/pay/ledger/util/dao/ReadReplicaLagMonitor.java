@@ -0,0 +1,102 @@
+package uk.gov.pay.ledger.util.dao;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Checks how far the read replica is behind the primary every check interval, and sends reads back to the primary
+ * while it is more than the maximum lag behind, is not streaming WAL from the primary or cannot be checked. Reads go to the replica again once a check finds
+ * it has caught up.
+ */
+public class ReadReplicaLagMonitor implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadReplicaLagMonitor.class);
+
+    // a replica that has replayed all the WAL it has received is up to date, however long ago the last write was, but
+    // only while it is still receiving WAL: once streaming stops it has replayed everything it has, however far behind
+    // it is, so its lag is unknown. Seeing the status of the WAL receiver needs the pg_read_all_stats role
+    private static final String SELECT_REPLICA_LAG_IN_SECONDS = "SELECT CASE " +
+            " WHEN NOT pg_is_in_recovery() THEN 0 " +
+            " WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming') THEN NULL " +
+            " WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final ReadReplicaRouter readReplicaRouter;
+    private final Jdbi replicaJdbi;
+    private final ScheduledExecutorService executorService;
+    private final Duration maximumLag;
+    private final Duration checkInterval;
+    private volatile double lagInSeconds;
+    private volatile String checkFailure;
+
+    public ReadReplicaLagMonitor(ReadReplicaRouter readReplicaRouter,
+                                 Jdbi replicaJdbi,
+                                 ScheduledExecutorService executorService,
+                                 MetricRegistry metricRegistry,
+                                 Duration maximumLag,
+                                 Duration checkInterval) {
+        this.readReplicaRouter = readReplicaRouter;
+        this.replicaJdbi = replicaJdbi;
+        this.executorService = executorService;
+        this.maximumLag = maximumLag;
+        this.checkInterval = checkInterval;
+        metricRegistry.gauge("read-replica.lag-seconds", () -> (Gauge<Double>) () -> lagInSeconds);
+        metricRegistry.gauge("read-replica.behind", () -> (Gauge<Integer>) () -> readReplicaRouter.isReplicaBehind() ? 1 : 0);
+    }
+
+    @Override
+    public void start() {
+        executorService.scheduleWithFixedDelay(this::checkLag, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        executorService.shutdown();
+    }
+
+    public double getLagInSeconds() {
+        return lagInSeconds;
+    }
+
+    public Optional<String> getCheckFailure() {
+        return Optional.ofNullable(checkFailure);
+    }
+
+    void checkLag() {
+        boolean behind;
+        try {
+            lagInSeconds = replicaJdbi.withHandle(handle -> handle.createQuery(SELECT_REPLICA_LAG_IN_SECONDS)
+                    .setQueryTimeout(Math.max(1, (int) checkInterval.toSeconds()))
+                    .mapTo(Double.class)
+                    .findOne())
+                    .orElseThrow(() -> new IllegalStateException("Read replica is not streaming WAL from the primary"));
+            checkFailure = null;
+            behind = lagInSeconds * 1000 > maximumLag.toMillis();
+        } catch (Exception e) {
+            checkFailure = e.getMessage();
+            behind = true;
+        }
+
+        if (behind != readReplicaRouter.isReplicaBehind()) {
+            if (behind) {
+                LOGGER.warn("Read replica is behind the primary, reading from the primary instead",
+                        kv("lag_in_seconds", lagInSeconds), kv("error", checkFailure));
+            } else {
+                LOGGER.info("Read replica has caught up with the primary, reading from the replica again",
+                        kv("lag_in_seconds", lagInSeconds));
+            }
+        }
+        readReplicaRouter.setReplicaBehind(behind);
+    }
+}
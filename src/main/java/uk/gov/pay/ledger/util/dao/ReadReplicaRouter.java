@@ -0,0 +1,74 @@
+package uk.gov.pay.ledger.util.dao;
+
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Chooses the database that read queries run on. Reads go to the read replica only on threads that are allowed to read
+ * from it, which are the threads serving GET requests that have not asked for consistent results with the X-Consistent
+ * header, and only while the replica is not too far behind the primary. All other reads, such as the ones made while
+ * ingesting events, and all writes go to the primary.
+ * <p>
+ * Only searches, CSV exports and reports read through the router. Lookups of a single transaction, payout or agreement
+ * always read from the primary, as they are often made straight after the write they are looking for.
+ */
+public class ReadReplicaRouter {
+
+    private static final ThreadLocal<Boolean> REPLICA_READS_ALLOWED = ThreadLocal.withInitial(() -> false);
+
+    private final Jdbi primaryJdbi;
+    private final Jdbi replicaJdbi;
+    private volatile boolean replicaBehind;
+
+    public ReadReplicaRouter(Jdbi primaryJdbi) {
+        this(primaryJdbi, null);
+    }
+
+    public ReadReplicaRouter(Jdbi primaryJdbi, Jdbi replicaJdbi) {
+        this.primaryJdbi = primaryJdbi;
+        this.replicaJdbi = replicaJdbi;
+    }
+
+    public Jdbi getJdbiForReads() {
+        if (replicaJdbi != null && !replicaBehind && REPLICA_READS_ALLOWED.get()) {
+            return replicaJdbi;
+        }
+        return primaryJdbi;
+    }
+
+    public Optional<Jdbi> getReplicaJdbi() {
+        return Optional.ofNullable(replicaJdbi);
+    }
+
+    public boolean isReplicaBehind() {
+        return replicaBehind;
+    }
+
+    public void setReplicaBehind(boolean replicaBehind) {
+        this.replicaBehind = replicaBehind;
+    }
+
+    public static boolean areReplicaReadsAllowed() {
+        return REPLICA_READS_ALLOWED.get();
+    }
+
+    public static void allowReplicaReads(boolean allowed) {
+        REPLICA_READS_ALLOWED.set(allowed);
+    }
+
+    /**
+     * Makes reads on the current thread, for instance a thread of an executor working on behalf of a request, go where
+     * the reads of the thread that submitted them would go.
+     */
+    public static <T> T withReplicaReads(boolean allowed, Supplier<T> reads) {
+        boolean previouslyAllowed = REPLICA_READS_ALLOWED.get();
+        REPLICA_READS_ALLOWED.set(allowed);
+        try {
+            return reads.get();
+        } finally {
+            REPLICA_READS_ALLOWED.set(previouslyAllowed);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package uk.gov.pay.ledger.util.dao;
+
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.core.statement.StatementCustomizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static net.logstash.logback.argument.StructuredArguments.kv;
+
+/**
+ * Keeps hold of the statement that queries it is added to are running, so that another thread can cancel it. Once
+ * cancelled, queries that have not started yet fail instead of running.
+ */
+public class StatementCanceller implements StatementCustomizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementCanceller.class);
+
+    private boolean cancelled;
+    private PreparedStatement runningStatement;
+
+    @Override
+    public synchronized void beforeExecution(PreparedStatement statement, StatementContext ctx) throws SQLException {
+        if (cancelled) {
+            throw new SQLException("Query was cancelled before it started");
+        }
+        runningStatement = statement;
+    }
+
+    @Override
+    public synchronized void afterExecution(PreparedStatement statement, StatementContext ctx) {
+        runningStatement = null;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancels the statement that is running, if there is one, and any statements that have not started yet. Returns
+     * whether a running statement was cancelled.
+     */
+    public synchronized boolean cancel() {
+        cancelled = true;
+        if (runningStatement == null) {
+            return false;
+        }
+        try {
+            runningStatement.cancel();
+            return true;
+        } catch (SQLException e) {
+            LOGGER.warn("Failed to cancel query", kv("error", e.getMessage()));
+            return false;
+        }
+    }
+}
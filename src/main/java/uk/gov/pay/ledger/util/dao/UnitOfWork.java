@@ -0,0 +1,42 @@
+package uk.gov.pay.ledger.util.dao;
+
+import com.google.inject.Inject;
+import org.jdbi.v3.core.Jdbi;
+
+/**
+ * Runs a piece of work against a single database handle. Jdbi binds the handle of a callback to the current thread and
+ * hands it to nested {@code withHandle} and {@code inTransaction} callbacks and on-demand DAO calls made on that
+ * thread, so every DAO used inside a unit of work shares one pool connection and, inside
+ * {@link #useTransaction(Work)}, one transaction.
+ *
+ * Units of work nest: a transaction started inside {@link #useHandle(Work)} runs on the same handle, and a transaction
+ * started inside another transaction joins it.
+ */
+public class UnitOfWork {
+
+    private final Jdbi jdbi;
+
+    @Inject
+    public UnitOfWork(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    /**
+     * Checks out one connection for all DAO calls made by the work. Each statement commits on its own.
+     */
+    public <X extends Exception> void useHandle(Work<X> work) throws X {
+        jdbi.useHandle(handle -> work.run());
+    }
+
+    /**
+     * Runs all DAO calls made by the work in one transaction, which is rolled back if the work throws.
+     */
+    public <X extends Exception> void useTransaction(Work<X> work) throws X {
+        jdbi.useTransaction(handle -> work.run());
+    }
+
+    @FunctionalInterface
+    public interface Work<X extends Exception> {
+        void run() throws X;
+    }
+}
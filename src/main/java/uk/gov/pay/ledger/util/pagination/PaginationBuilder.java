@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import uk.gov.pay.ledger.common.search.SearchParams;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
 
 import jakarta.ws.rs.core.UriInfo;
 import java.net.URI;
@@ -28,6 +29,10 @@ public class PaginationBuilder {
     private Long count;
     @JsonIgnore
     private Long selfPageNum;
+    @JsonIgnore
+    private String nextCursor;
+    @JsonIgnore
+    private String prevCursor;
     @JsonProperty(SELF_LINK)
     private PaginationLink selfLink;
     @JsonProperty(FIRST_LINK)
@@ -55,9 +60,22 @@ public class PaginationBuilder {
         return this;
     }
 
+    /**
+     * Cursors of the pages after and before this page, for transaction searches, which are the only searches that can be
+     * paged by cursor.
+     */
+    public PaginationBuilder withCursors(String nextCursor, String prevCursor) {
+        this.nextCursor = nextCursor;
+        this.prevCursor = prevCursor;
+        return this;
+    }
+
     public PaginationBuilder buildResponse() {
 
-        if (searchParams.limitTotal()) {
+        if (searchParams instanceof TransactionSearchParams transactionSearchParams
+                && transactionSearchParams.getCursor() != null) {
+            buildLinksForCursor(transactionSearchParams);
+        } else if (searchParams.limitTotal()) {
             buildLinksForLimitTotal();
         } else {
             Long pageSize = searchParams.getDisplaySize();
@@ -103,6 +121,16 @@ public class PaginationBuilder {
         }
     }
 
+    private void buildLinksForCursor(TransactionSearchParams transactionSearchParams) {
+        selfLink = PaginationLink.ofValue(uriWithParams(
+                transactionSearchParams.buildQueryParamStringForCursor(transactionSearchParams.getCursor())));
+        firstLink = PaginationLink.ofValue(uriWithParams(transactionSearchParams.buildQueryParamString(1L)));
+        nextLink = nextCursor == null ? null : PaginationLink.ofValue(
+                uriWithParams(transactionSearchParams.buildQueryParamStringForCursor(nextCursor)));
+        prevLink = prevCursor == null ? null : PaginationLink.ofValue(
+                uriWithParams(transactionSearchParams.buildQueryParamStringForCursor(prevCursor)));
+    }
+
     private void buildLinks(long lastPage) {
         selfLink = PaginationLink.ofValue(uriWithParams(searchParams.buildQueryParamString(searchParams.getPageNumber())));
         firstLink = PaginationLink.ofValue(uriWithParams(searchParams.buildQueryParamString(1L)));
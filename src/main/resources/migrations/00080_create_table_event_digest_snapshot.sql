@@ -0,0 +1,18 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:create_table_event_digest_snapshot
+CREATE TABLE event_digest_snapshot (
+    resource_external_id VARCHAR(255) PRIMARY KEY,
+    resource_type VARCHAR(255) NOT NULL,
+    parent_resource_external_id VARCHAR(255),
+    service_id VARCHAR(32),
+    live BOOLEAN,
+    event_aggregate JSONB NOT NULL,
+    event_count INTEGER NOT NULL,
+    latest_salient_event_type VARCHAR(255),
+    event_created_date TIMESTAMP WITH TIME ZONE NOT NULL,
+    watermark_event_date TIMESTAMP WITH TIME ZONE NOT NULL,
+    updated_date TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
+
+--rollback drop table event_digest_snapshot;
@@ -0,0 +1,41 @@
+--liquibase formatted sql
+
+-- Ingestion must be paused (the event queue receivers stopped on every instance, including the instances of the
+-- previous release during a rolling deploy) from the start of these changesets until the unique index has been built.
+-- The previous release checks for an event before inserting it, so it can insert a duplicate after the duplicates have
+-- been deleted, which makes the build of the unique index fail.
+--
+-- A failed CONCURRENTLY build leaves an INVALID index behind, which IF NOT EXISTS would then skip and ON CONFLICT
+-- cannot use. Until a valid index exists, the invalid index is dropped and the duplicates are deleted again on every
+-- update, so the migration can simply be run again once ingestion has been paused.
+
+--changeset uk.gov.pay:drop_invalid_event_resource_date_type_idx runInTransaction:false runAlways:true
+--preconditions onFail:CONTINUE
+--precondition-sql-check expectedResult:1 SELECT count(*) FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = 'event_resource_event_date_event_type_idx' AND NOT i.indisvalid
+DROP INDEX CONCURRENTLY IF EXISTS event_resource_event_date_event_type_idx;
+
+--changeset uk.gov.pay:delete_duplicate_events runAlways:true
+--preconditions onFail:CONTINUE
+--precondition-sql-check expectedResult:0 SELECT count(*) FROM pg_class c WHERE c.relname = 'event_resource_event_date_event_type_idx'
+DELETE FROM event e
+USING event original
+WHERE e.resource_type_id = original.resource_type_id
+  AND e.resource_external_id = original.resource_external_id
+  AND e.event_date = original.event_date
+  AND e.event_type = original.event_type
+  AND e.id > original.id;
+
+--changeset uk.gov.pay:unique_index_event_resource_date_type runInTransaction:false
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS event_resource_event_date_event_type_idx
+    ON event(resource_type_id, resource_external_id, event_date, event_type);
+--rollback drop index CONCURRENTLY event_resource_event_date_event_type_idx;
+
+--changeset uk.gov.pay:validate_unique_index_event_resource_date_type splitStatements:false
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+                   WHERE c.relname = 'event_resource_event_date_event_type_idx' AND i.indisvalid) THEN
+        RAISE EXCEPTION 'Index event_resource_event_date_event_type_idx is missing or INVALID. Pause ingestion and run the migration again';
+    END IF;
+END $$;
+--rollback select 1;
@@ -0,0 +1,18 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:create_table_transaction_summary_delta
+CREATE TABLE transaction_summary_delta (
+    id BIGSERIAL PRIMARY KEY,
+    gateway_account_id VARCHAR(255),
+    type VARCHAR(255),
+    transaction_date DATE,
+    state TEXT,
+    live BOOLEAN,
+    moto BOOLEAN,
+    no_of_transactions BIGINT NOT NULL,
+    total_amount_in_pence BIGINT,
+    total_fee_in_pence BIGINT,
+    creates_row BOOLEAN NOT NULL
+);
+
+--rollback drop table transaction_summary_delta;
@@ -0,0 +1,23 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:add_stripe_to_transaction_summary
+ALTER TABLE transaction_summary ADD COLUMN stripe SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE transaction_summary DROP CONSTRAINT transaction_summmary_unique_key;
+ALTER TABLE transaction_summary ADD CONSTRAINT transaction_summary_stripe_unique_key
+    UNIQUE (gateway_account_id, type, transaction_date, state, live, moto, stripe);
+
+--rollback INSERT INTO transaction_summary AS ts (gateway_account_id, type, transaction_date, state, live, moto, stripe, total_amount_in_pence, no_of_transactions, total_fee_in_pence)
+--rollback SELECT gateway_account_id, type, transaction_date, state, live, moto, 0, SUM(total_amount_in_pence), SUM(no_of_transactions), SUM(total_fee_in_pence)
+--rollback FROM transaction_summary WHERE stripe <> 0 GROUP BY gateway_account_id, type, transaction_date, state, live, moto
+--rollback ON CONFLICT (gateway_account_id, type, transaction_date, state, live, moto, stripe) DO UPDATE SET total_amount_in_pence = ts.total_amount_in_pence + EXCLUDED.total_amount_in_pence, no_of_transactions = ts.no_of_transactions + EXCLUDED.no_of_transactions, total_fee_in_pence = ts.total_fee_in_pence + EXCLUDED.total_fee_in_pence;
+--rollback DELETE FROM transaction_summary WHERE stripe <> 0;
+--rollback ALTER TABLE transaction_summary DROP CONSTRAINT transaction_summary_stripe_unique_key;
+--rollback ALTER TABLE transaction_summary DROP COLUMN stripe;
+--rollback ALTER TABLE transaction_summary ADD CONSTRAINT transaction_summmary_unique_key UNIQUE (gateway_account_id, type, transaction_date, state, live, moto);
+
+--changeset uk.gov.pay:add_stripe_to_transaction_summary_delta
+ALTER TABLE transaction_summary_delta ADD COLUMN stripe SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE transaction_summary_delta DROP COLUMN creates_row;
+
+--rollback ALTER TABLE transaction_summary_delta ADD COLUMN creates_row BOOLEAN NOT NULL DEFAULT TRUE;
+--rollback ALTER TABLE transaction_summary_delta DROP COLUMN stripe;
@@ -0,0 +1,20 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:create_extension_btree_gin
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+--rollback drop extension if exists btree_gin;
+
+--changeset uk.gov.pay:index_transaction_gateway_account_id_lower_email runInTransaction:false
+CREATE INDEX CONCURRENTLY IF NOT EXISTS transaction_gateway_account_id_lower_email_idx
+    ON transaction USING GIN (gateway_account_id, lower(email) gin_trgm_ops);
+--rollback drop index CONCURRENTLY transaction_gateway_account_id_lower_email_idx;
+
+--changeset uk.gov.pay:index_transaction_gateway_account_id_lower_reference runInTransaction:false
+CREATE INDEX CONCURRENTLY IF NOT EXISTS transaction_gateway_account_id_lower_reference_idx
+    ON transaction USING GIN (gateway_account_id, lower(reference) gin_trgm_ops);
+--rollback drop index CONCURRENTLY transaction_gateway_account_id_lower_reference_idx;
+
+--changeset uk.gov.pay:index_transaction_gateway_account_id_lower_cardholder_name runInTransaction:false
+CREATE INDEX CONCURRENTLY IF NOT EXISTS transaction_gateway_account_id_lower_cardholder_name_idx
+    ON transaction USING GIN (gateway_account_id, lower(cardholder_name) gin_trgm_ops);
+--rollback drop index CONCURRENTLY transaction_gateway_account_id_lower_cardholder_name_idx;
@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:index_transaction_metadata_lower_value_metadata_key_id_transaction_id runInTransaction:false
+CREATE INDEX CONCURRENTLY IF NOT EXISTS transaction_metadata_lower_value_metadata_key_id_transaction_id_idx
+    ON transaction_metadata USING btree (lower(value), metadata_key_id, transaction_id) INCLUDE (value);
+--rollback drop index CONCURRENTLY transaction_metadata_lower_value_metadata_key_id_transaction_id_idx;
+
+--changeset uk.gov.pay:drop_index_transaction_metadata_lower_value runInTransaction:false
+DROP INDEX CONCURRENTLY IF EXISTS transaction_metadata_lower_value_idx;
+--rollback CREATE INDEX CONCURRENTLY IF NOT EXISTS transaction_metadata_lower_value_idx ON transaction_metadata USING btree((lower(value)));
@@ -0,0 +1,29 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:create_table_transaction_external_id
+CREATE TABLE transaction_external_id (
+    external_id VARCHAR(26) PRIMARY KEY,
+    created_date TIMESTAMP WITH TIME ZONE NOT NULL
+);
+--rollback drop table transaction_external_id;
+
+--changeset uk.gov.pay:backfill_transaction_external_id
+INSERT INTO transaction_external_id (external_id, created_date)
+SELECT external_id, created_date FROM transaction WHERE external_id IS NOT NULL
+ON CONFLICT (external_id) DO NOTHING;
+
+--changeset uk.gov.pay:add_transaction_external_id_fk
+ALTER TABLE transaction ADD CONSTRAINT transaction_external_id_fk
+FOREIGN KEY (external_id) REFERENCES transaction_external_id (external_id) NOT VALID;
+--rollback alter table transaction drop constraint transaction_external_id_fk;
+
+--changeset uk.gov.pay:validate_transaction_external_id_fk
+ALTER TABLE transaction VALIDATE CONSTRAINT transaction_external_id_fk;
+
+--changeset uk.gov.pay:add_transaction_parent_external_id_fk
+ALTER TABLE transaction ADD CONSTRAINT transaction_parent_external_id_fk
+FOREIGN KEY (parent_external_id) REFERENCES transaction_external_id (external_id) NOT VALID;
+--rollback alter table transaction drop constraint transaction_parent_external_id_fk;
+
+--changeset uk.gov.pay:validate_transaction_parent_external_id_fk
+ALTER TABLE transaction VALIDATE CONSTRAINT transaction_parent_external_id_fk;
@@ -0,0 +1,24 @@
+--liquibase formatted sql dbms:postgresql splitStatements:false
+
+--changeset uk.gov.pay:unique_index_transaction_id_created_date runInTransaction:false
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS transaction_id_created_date_key
+    ON transaction USING btree (id, created_date);
+--rollback drop index CONCURRENTLY transaction_id_created_date_key;
+
+--changeset uk.gov.pay:unique_index_transaction_external_id_created_date runInTransaction:false
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS transaction_external_id_created_date_key
+    ON transaction USING btree (external_id, created_date);
+--rollback drop index CONCURRENTLY transaction_external_id_created_date_key;
+
+--changeset uk.gov.pay:add_transaction_created_date_before_partitioning_check
+-- the existing table becomes the partition of every transaction created before the start of the month after next, so
+-- that transactions ingested while the application is being deployed still fall within it
+DO ' BEGIN
+    EXECUTE format(''ALTER TABLE transaction ADD CONSTRAINT transaction_created_date_before_partitioning_check
+        CHECK (created_date < %L) NOT VALID'',
+        (date_trunc(''month'', now() AT TIME ZONE ''UTC'') + interval ''2 months'') AT TIME ZONE ''UTC'');
+END ';
+--rollback alter table transaction drop constraint transaction_created_date_before_partitioning_check;
+
+--changeset uk.gov.pay:validate_transaction_created_date_before_partitioning_check
+ALTER TABLE transaction VALIDATE CONSTRAINT transaction_created_date_before_partitioning_check;
@@ -0,0 +1,145 @@
+--liquibase formatted sql dbms:postgresql splitStatements:false
+
+--changeset uk.gov.pay:partition_transaction_by_created_date
+-- Turns transaction into a table partitioned by month of created_date, and attaches the existing table as the partition
+-- of everything created before transaction_created_date_before_partitioning_check. The check, the foreign keys and
+-- unique indexes including created_date were built and validated beforehand, and the partitioned table gets the same
+-- indexes as the existing one, so attaching it neither scans the existing table nor builds indexes on it.
+-- transaction_metadata can no longer reference transaction(id), as unique keys of a partitioned table have to include
+-- created_date, and uniqueness of external_id is kept by transaction_external_id instead.
+--
+-- Event ingestion must be paused while this runs: stop the queue receivers of every instance, or scale the instances
+-- running the previous release to zero, before deploying. Instances of the previous release upsert transactions with
+-- ON CONFLICT (external_id), which fails once the table is partitioned. The changeset also locks transaction and
+-- transaction_metadata up front, so that no write can happen between its steps and none can deadlock with it.
+-- The rollback moves every transaction back into one table and rebuilds its primary key on id, which blocks reads and
+-- writes of transaction for as long as that takes.
+DO ' DECLARE
+    constraint_record RECORD;
+    index_record RECORD;
+    index_definitions TEXT[] := ''{}'';
+    index_definition TEXT;
+    partitioned_before TIMESTAMP WITH TIME ZONE;
+BEGIN
+    LOCK TABLE transaction, transaction_metadata IN ACCESS EXCLUSIVE MODE;
+
+    SELECT substring(pg_get_constraintdef(oid) from ''[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9:.+-]+'')::timestamptz
+    INTO STRICT partitioned_before
+    FROM pg_constraint
+    WHERE conrelid = ''transaction''::regclass
+      AND conname = ''transaction_created_date_before_partitioning_check'';
+
+    FOR constraint_record IN
+        SELECT conname, conrelid::regclass AS table_name FROM pg_constraint
+        WHERE contype = ''f'' AND confrelid = ''transaction''::regclass
+    LOOP
+        EXECUTE format(''ALTER TABLE %s DROP CONSTRAINT %I'', constraint_record.table_name, constraint_record.conname);
+    END LOOP;
+
+    FOR constraint_record IN
+        SELECT conname FROM pg_constraint WHERE contype = ''p'' AND conrelid = ''transaction''::regclass
+    LOOP
+        EXECUTE format(''ALTER TABLE transaction DROP CONSTRAINT %I'', constraint_record.conname);
+    END LOOP;
+
+    ALTER TABLE transaction
+        ADD CONSTRAINT transaction_id_created_date_key PRIMARY KEY USING INDEX transaction_id_created_date_key,
+        ADD CONSTRAINT transaction_external_id_created_date_key UNIQUE USING INDEX transaction_external_id_created_date_key;
+
+    FOR index_record IN
+        SELECT pg_get_indexdef(i.indexrelid) AS definition FROM pg_index i
+        WHERE i.indrelid = ''transaction''::regclass AND NOT i.indisunique AND i.indisvalid
+    LOOP
+        index_definitions := array_append(index_definitions, index_record.definition);
+    END LOOP;
+
+    ALTER TABLE transaction RENAME TO transaction_before_partitioning;
+
+    FOR index_record IN
+        SELECT index_class.relname AS index_name, c.conname AS constraint_name
+        FROM pg_index i
+        JOIN pg_class index_class ON index_class.oid = i.indexrelid
+        LEFT JOIN pg_constraint c ON c.conindid = i.indexrelid AND c.conrelid = i.indrelid AND c.contype IN (''p'', ''u'')
+        WHERE i.indrelid = ''transaction_before_partitioning''::regclass
+    LOOP
+        IF index_record.constraint_name IS NOT NULL THEN
+            EXECUTE format(''ALTER TABLE transaction_before_partitioning RENAME CONSTRAINT %I TO %I'',
+                index_record.constraint_name, left(''legacy_'' || index_record.constraint_name, 63));
+        ELSE
+            EXECUTE format(''ALTER INDEX %I RENAME TO %I'',
+                index_record.index_name, left(''legacy_'' || index_record.index_name, 63));
+        END IF;
+    END LOOP;
+
+    CREATE TABLE transaction (LIKE transaction_before_partitioning INCLUDING DEFAULTS INCLUDING STORAGE)
+        PARTITION BY RANGE (created_date);
+
+    EXECUTE format(''ALTER SEQUENCE %s OWNED BY transaction.id'',
+        pg_get_serial_sequence(''transaction_before_partitioning'', ''id''));
+
+    ALTER TABLE transaction
+        ADD CONSTRAINT transaction_pkey PRIMARY KEY (id, created_date),
+        ADD CONSTRAINT transaction_external_id_created_date_key UNIQUE (external_id, created_date),
+        ADD CONSTRAINT transaction_external_id_fk
+            FOREIGN KEY (external_id) REFERENCES transaction_external_id (external_id),
+        ADD CONSTRAINT transaction_parent_external_id_fk
+            FOREIGN KEY (parent_external_id) REFERENCES transaction_external_id (external_id);
+
+    FOREACH index_definition IN ARRAY index_definitions
+    LOOP
+        EXECUTE index_definition;
+    END LOOP;
+
+    EXECUTE format(''ALTER TABLE transaction ATTACH PARTITION transaction_before_partitioning
+        FOR VALUES FROM (MINVALUE) TO (%L)'', partitioned_before);
+
+    ALTER TABLE transaction_before_partitioning DROP CONSTRAINT transaction_created_date_before_partitioning_check;
+END ';
+--rollback DO ' DECLARE
+--rollback     partition_record RECORD;
+--rollback     index_record RECORD;
+--rollback     partitioned_before TIMESTAMP WITH TIME ZONE;
+--rollback BEGIN
+--rollback     LOCK TABLE transaction, transaction_metadata IN ACCESS EXCLUSIVE MODE;
+--rollback     SELECT substring(pg_get_expr(relpartbound, oid) from ''[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9:.+-]+'')::timestamptz
+--rollback     INTO STRICT partitioned_before
+--rollback     FROM pg_class
+--rollback     WHERE oid = ''transaction_before_partitioning''::regclass;
+--rollback     ALTER TABLE transaction DETACH PARTITION transaction_before_partitioning;
+--rollback     FOR partition_record IN
+--rollback         SELECT inhrelid::regclass AS partition_name FROM pg_inherits WHERE inhparent = ''transaction''::regclass
+--rollback     LOOP
+--rollback         EXECUTE format(''INSERT INTO transaction_before_partitioning SELECT * FROM %s'', partition_record.partition_name);
+--rollback     END LOOP;
+--rollback     EXECUTE format(''ALTER SEQUENCE %s OWNED BY transaction_before_partitioning.id'',
+--rollback         pg_get_serial_sequence(''transaction'', ''id''));
+--rollback     DROP TABLE transaction;
+--rollback     ALTER TABLE transaction_before_partitioning RENAME TO transaction;
+--rollback     FOR index_record IN
+--rollback         SELECT index_class.relname AS index_name, c.conname AS constraint_name
+--rollback         FROM pg_index i
+--rollback         JOIN pg_class index_class ON index_class.oid = i.indexrelid
+--rollback         LEFT JOIN pg_constraint c ON c.conindid = i.indexrelid AND c.conrelid = i.indrelid AND c.contype IN (''p'', ''u'')
+--rollback         WHERE i.indrelid = ''transaction''::regclass AND starts_with(index_class.relname, ''legacy_'')
+--rollback     LOOP
+--rollback         IF index_record.constraint_name IS NOT NULL THEN
+--rollback             EXECUTE format(''ALTER TABLE transaction RENAME CONSTRAINT %I TO %I'',
+--rollback                 index_record.constraint_name, substring(index_record.constraint_name from 8));
+--rollback         ELSE
+--rollback             EXECUTE format(''ALTER INDEX %I RENAME TO %I'',
+--rollback                 index_record.index_name, substring(index_record.index_name from 8));
+--rollback         END IF;
+--rollback     END LOOP;
+--rollback     ALTER TABLE transaction
+--rollback         DROP CONSTRAINT transaction_id_created_date_key,
+--rollback         DROP CONSTRAINT transaction_external_id_created_date_key,
+--rollback         ADD CONSTRAINT transaction_pkey PRIMARY KEY (id);
+--rollback     CREATE UNIQUE INDEX transaction_id_created_date_key ON transaction USING btree (id, created_date);
+--rollback     CREATE UNIQUE INDEX transaction_external_id_created_date_key ON transaction USING btree (external_id, created_date);
+--rollback     EXECUTE format(''ALTER TABLE transaction ADD CONSTRAINT transaction_created_date_before_partitioning_check
+--rollback         CHECK (created_date < %L) NOT VALID'', partitioned_before);
+--rollback     ALTER TABLE transaction ADD CONSTRAINT transaction_parent_transaction_id_fkey
+--rollback         FOREIGN KEY (parent_external_id) REFERENCES transaction (external_id) NOT VALID;
+--rollback     ALTER TABLE transaction_metadata ADD CONSTRAINT transaction_metadata_transaction_id_fk
+--rollback         FOREIGN KEY (transaction_id) REFERENCES transaction (id) NOT VALID;
+--rollback END ';
@@ -0,0 +1,19 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:create_table_transaction_export
+CREATE TABLE transaction_export (
+    export_id VARCHAR(32) PRIMARY KEY,
+    gateway_account_ids TEXT NOT NULL,
+    search_key VARCHAR(64) NOT NULL,
+    state VARCHAR(10) NOT NULL,
+    created_date TIMESTAMP WITH TIME ZONE NOT NULL,
+    updated_date TIMESTAMP WITH TIME ZONE NOT NULL,
+    expires_date TIMESTAMP WITH TIME ZONE,
+    estimated_total BIGINT,
+    transactions_written BIGINT NOT NULL DEFAULT 0,
+    file_size_in_bytes BIGINT
+);
+
+CREATE INDEX transaction_export_search_key_idx ON transaction_export(search_key);
+
+--rollback drop table transaction_export;
@@ -0,0 +1,6 @@
+--liquibase formatted sql
+
+--changeset uk.gov.pay:add_last_downloaded_date_to_transaction_export
+ALTER TABLE transaction_export ADD COLUMN last_downloaded_date TIMESTAMP WITH TIME ZONE;
+
+--rollback ALTER TABLE transaction_export DROP COLUMN last_downloaded_date;
@@ -19,6 +19,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static uk.gov.pay.ledger.util.fixture.QueuePaymentEventFixture.aQueuePaymentEventFixture;
 
 class AgreementsFactoryTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
     private final AgreementsFactory agreementEntityFactory = new AgreementsFactory(new ObjectMapper());
     private final GsonBuilder gsonBuilder = new GsonBuilder();
 
@@ -35,7 +37,7 @@ class AgreementsFactoryTest {
                         ))
                 )
                 .toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(event));
+        var eventDigest = EventDigest.fromEventList(List.of(event), objectMapper);
         var entity = agreementEntityFactory.create(eventDigest);
 
         assertThat(entity.getServiceId(), is(event.getServiceId()));
@@ -62,7 +64,7 @@ class AgreementsFactoryTest {
                         ))
                 )
                 .toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(event));
+        var eventDigest = EventDigest.fromEventList(List.of(event), objectMapper);
         var entity = agreementEntityFactory.createPaymentInstrument(eventDigest);
 
         assertThat(entity.getCreatedDate(), is(event.getEventDate()));
@@ -85,7 +87,7 @@ class AgreementsFactoryTest {
                         ))
                 )
                 .toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(event));
+        var eventDigest = EventDigest.fromEventList(List.of(event), objectMapper);
         var entity = agreementEntityFactory.create(eventDigest);
 
         assertThat(entity.getServiceId(), is(event.getServiceId()));
@@ -112,7 +114,7 @@ class AgreementsFactoryTest {
                         ))
                 )
                 .toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(event));
+        var eventDigest = EventDigest.fromEventList(List.of(event), objectMapper);
         var entity = agreementEntityFactory.create(eventDigest);
 
         assertThat(entity.getServiceId(), is(event.getServiceId()));
@@ -158,7 +160,7 @@ class AgreementsFactoryTest {
                         ))
                 )
                 .toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(event2, event1));
+        var eventDigest = EventDigest.fromEventList(List.of(event2, event1), objectMapper);
         var entity = agreementEntityFactory.create(eventDigest);
 
         assertThat(entity.getServiceId(), is(event1.getServiceId()));
@@ -217,7 +219,7 @@ class AgreementsFactoryTest {
                         ))
                 )
                 .toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(event3, event2, event1));
+        var eventDigest = EventDigest.fromEventList(List.of(event3, event2, event1), objectMapper);
         var entity = agreementEntityFactory.create(eventDigest);
 
         assertThat(entity.getServiceId(), is(event1.getServiceId()));
@@ -179,7 +179,7 @@ class AgreementServiceTest {
     private EventDigest stubEventDigest(String agreementId, Integer eventCount) {
         return EventDigest.fromEventList(IntStream.range(0, eventCount)
                 .mapToObj(i -> anEventFixture().withResourceExternalId(agreementId).toEntity())
-                .collect(Collectors.toUnmodifiableList()));
+                .collect(Collectors.toUnmodifiableList()), new ObjectMapper());
     }
 
 }
@@ -0,0 +1,96 @@
+package uk.gov.pay.ledger.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.event.model.EventDigest;
+import uk.gov.pay.ledger.util.JsonParser;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static uk.gov.pay.ledger.util.fixture.EventFixture.anEventFixture;
+
+/**
+ * Compares the work done on the data of an ingested payment event before and after the event data is parsed once and
+ * shared between the digest, the metadata projection and the payment event processor.
+ * <p>
+ * Run with the GC profiler to see the allocation per ingested event alongside the time:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main \
+ *     -Dexec.args="EventDataParsingBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventDataParsingBenchmark {
+
+    @Param({"5", "50"})
+    private int numberOfEventsForPayment;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<String> eventData;
+    private List<EventEntity> events;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        // entities are recreated for each invocation as they would be when loaded for each ingested event
+        ZonedDateTime eventDate = ZonedDateTime.now();
+        eventData = new ArrayList<>();
+        events = new ArrayList<>();
+        for (int i = 0; i < numberOfEventsForPayment; i++) {
+            String data = "{\"amount\": " + (1000 + i) + ", \"reference\": \"a-reference\", \"description\": \"a payment\"," +
+                    " \"card_brand\": \"visa\", \"external_metadata\": {\"key\": \"value-" + i + "\", \"count\": " + i + "}}";
+            eventData.add(data);
+            events.add(anEventFixture()
+                    .withResourceExternalId("a-payment")
+                    .withEventDate(eventDate.minusSeconds(i))
+                    .withEventData(data)
+                    .toEntity());
+        }
+    }
+
+    @Benchmark
+    public void parseEventDataForEachConsumer(Blackhole blackhole) throws Exception {
+        Map<String, Object> aggregate = eventData.stream()
+                .map(JsonParser::jsonStringToMap)
+                .flatMap(m -> m.entrySet().stream())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (later, earlier) -> later));
+        blackhole.consume(aggregate);
+
+        JsonNode metadataNode = new ObjectMapper().readTree(eventData.get(0));
+        blackhole.consume(metadataNode.get("external_metadata"));
+
+        blackhole.consume(JsonParser.jsonStringToMap(eventData.get(0)).isEmpty());
+    }
+
+    @Benchmark
+    public void parseEventDataOnce(Blackhole blackhole) {
+        blackhole.consume(EventDigest.fromEventList(events, objectMapper).getEventAggregate());
+
+        EventEntity currentEvent = events.get(0);
+        blackhole.consume(currentEvent.getEventDataMap(objectMapper).get("external_metadata"));
+        blackhole.consume(currentEvent.getEventDataMap(objectMapper).isEmpty());
+    }
+}
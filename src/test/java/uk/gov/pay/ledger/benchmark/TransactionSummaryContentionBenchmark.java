@@ -0,0 +1,100 @@
+package uk.gov.pay.ledger.benchmark;
+
+import liquibase.Contexts;
+import liquibase.Liquibase;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.pay.ledger.rule.PostgresTestDocker;
+import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static java.sql.DriverManager.getConnection;
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static uk.gov.pay.ledger.transaction.state.TransactionState.SUCCESS;
+
+/**
+ * Measures how many finished payments of a single busy gateway account can be counted in transaction_summary per second
+ * by concurrent ingest threads, when all of them are counted in one summary row and when they are spread over the
+ * stripes of the row. Each summary update is made in a transaction that stays open for a while afterwards, as it does
+ * while the rest of an event is projected, so that the row lock is held for as long as it would be during ingest.
+ * <p>
+ * Needs Docker to start Postgres:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main \
+ *     -Dexec.args="TransactionSummaryContentionBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(8)
+@Fork(1)
+public class TransactionSummaryContentionBenchmark {
+
+    private static final String GATEWAY_ACCOUNT_ID = "1";
+    private static final LocalDate TRANSACTION_DATE = LocalDate.parse("2024-01-01");
+    // all external ids with this value share one stripe, as every payment did before the summary was striped
+    private static final String SINGLE_STRIPE_EXTERNAL_ID = "single-stripe-external-id";
+
+    @Param({"single-stripe", "striped"})
+    private String layout;
+
+    @Param({"2"})
+    private int projectionMillis;
+
+    private Jdbi jdbi;
+    private TransactionSummaryDao transactionSummaryDao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        PostgresTestDocker.getOrCreate();
+        try (Connection connection = getConnection(PostgresTestDocker.getConnectionUrl(),
+                PostgresTestDocker.getDbUsername(), PostgresTestDocker.getDbPassword())) {
+            new Liquibase("migrations.xml", new ClassLoaderResourceAccessor(), new JdbcConnection(connection))
+                    .update(new Contexts());
+        }
+        jdbi = Jdbi.create(PostgresTestDocker.getConnectionUrl(), PostgresTestDocker.getDbUsername(),
+                PostgresTestDocker.getDbPassword());
+        transactionSummaryDao = new TransactionSummaryDao(jdbi);
+    }
+
+    @Setup(Level.Iteration)
+    public void truncateTransactionSummary() {
+        jdbi.useHandle(handle -> handle.execute("TRUNCATE TABLE transaction_summary"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PostgresTestDocker.stopContainer();
+    }
+
+    @Benchmark
+    public void countFinishedPayment() {
+        String transactionExternalId = "single-stripe".equals(layout) ? SINGLE_STRIPE_EXTERNAL_ID : randomAlphanumeric(26);
+        jdbi.useTransaction(handle -> {
+            transactionSummaryDao.upsert(transactionExternalId, GATEWAY_ACCOUNT_ID, "PAYMENT", TRANSACTION_DATE,
+                    SUCCESS, true, false, 1000L);
+            handle.execute("SELECT pg_sleep(?)", projectionMillis / 1000.0);
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package uk.gov.pay.ledger.benchmark;
+
+import liquibase.Contexts;
+import liquibase.Liquibase;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.pay.ledger.app.LedgerConfig;
+import uk.gov.pay.ledger.rule.PostgresTestDocker;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+
+import java.sql.Connection;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.sql.DriverManager.getConnection;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures how long a partial email search of one busy gateway account takes on a seeded transaction table, when the
+ * trigrams of emails are indexed per gateway account and when they are only indexed across all gateway accounts.
+ * One in five transactions belongs to the busy gateway account and the rest are spread over a thousand others.
+ * <p>
+ * Seeding the table takes several minutes for every trial. Needs Docker to start Postgres:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main \
+ *     -Dexec.args="TransactionTextSearchBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class TransactionTextSearchBenchmark {
+
+    private static final String GATEWAY_ACCOUNT_ID = "1";
+
+    @Param({"account-indexes", "global-indexes"})
+    private String layout;
+
+    @Param({"10000000"})
+    private long rows;
+
+    // shorter than a trigram, matching most emails and matching a few hundred emails of the gateway account
+    @Param({"us", "example.org", "user1234"})
+    private String email;
+
+    private TransactionDao transactionDao;
+    private TransactionSearchParams searchParams;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        PostgresTestDocker.getOrCreate();
+        try (Connection connection = getConnection(PostgresTestDocker.getConnectionUrl(),
+                PostgresTestDocker.getDbUsername(), PostgresTestDocker.getDbPassword())) {
+            new Liquibase("migrations.xml", new ClassLoaderResourceAccessor(), new JdbcConnection(connection))
+                    .update(new Contexts());
+        }
+        Jdbi jdbi = Jdbi.create(PostgresTestDocker.getConnectionUrl(), PostgresTestDocker.getDbUsername(),
+                PostgresTestDocker.getDbPassword());
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        jdbi.useHandle(handle -> {
+            handle.createUpdate("INSERT INTO transaction_external_id (external_id, created_date) " +
+                            "SELECT left(md5(i::text), 26), :now - make_interval(secs => i) " +
+                            "FROM generate_series(1, :rows) AS i")
+                    .bind("rows", rows)
+                    .bind("now", now)
+                    .execute();
+            handle.createUpdate("INSERT INTO transaction (external_id, gateway_account_id, amount, reference, " +
+                            "description, state, email, cardholder_name, created_date, type, live) " +
+                            "SELECT left(md5(i::text), 26), " +
+                            "CASE WHEN i % 5 = 0 THEN :gatewayAccountId ELSE (2 + i % 1000)::text END, " +
+                            "1000, 'ref-' || i, 'a description', 'SUCCESS', 'user' || (i % 200000) || '@example.org', " +
+                            "'J Doe', :now - make_interval(secs => i), 'PAYMENT', true " +
+                            "FROM generate_series(1, :rows) AS i")
+                    .bind("gatewayAccountId", GATEWAY_ACCOUNT_ID)
+                    .bind("rows", rows)
+                    .bind("now", now)
+                    .execute();
+            if ("global-indexes".equals(layout)) {
+                handle.execute("DROP INDEX transaction_gateway_account_id_lower_email_idx");
+            }
+            handle.execute("VACUUM ANALYZE transaction");
+        });
+
+        transactionDao = new TransactionDao(jdbi, mock(LedgerConfig.class, RETURNS_DEEP_STUBS));
+        searchParams = new TransactionSearchParams();
+        searchParams.setAccountIds(List.of(GATEWAY_ACCOUNT_ID));
+        searchParams.setEmail(email);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PostgresTestDocker.stopContainer();
+    }
+
+    @Benchmark
+    public List<TransactionEntity> searchPage() {
+        return transactionDao.searchTransactions(searchParams);
+    }
+
+    @Benchmark
+    public Long countSearch() {
+        return transactionDao.getTotalForSearch(searchParams);
+    }
+}
@@ -26,6 +26,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static uk.gov.pay.ledger.util.DatabaseTestHelper.aDatabaseTestHelper;
 import static uk.gov.pay.ledger.util.ZonedDateTimeTimestampMatcher.isDate;
 import static uk.gov.pay.ledger.util.fixture.EventFixture.anEventFixture;
@@ -79,6 +80,24 @@ class EventDaoIT {
         events.forEach(event -> assertThat(event.getEventData(), is("{\"address\": \"Silicon Valley\", \"reference\": \"****************\"}")));
     }
 
+    @Test
+    void shouldRedactTheReferenceInTheEventDigestSnapshotAndDeleteTheSnapshotWithTheEvents() throws IOException {
+        String resourceExternalId = "52pfbqbta";
+        rule.getJdbi().onDemand(EventDigestSnapshotDao.class).upsert(resourceExternalId, "PAYMENT", null, "a-service-id",
+                true, "{\"email\": \"test@email.com\", \"reference\": \"4242424242424242\"}", 1, "PAYMENT_CREATED",
+                CREATED_AT, CREATED_AT);
+
+        eventDao.redactReference(resourceExternalId);
+
+        Map<String, Object> eventAggregate = objectMapper.readValue(
+                dbHelper.getEventDigestSnapshot(resourceExternalId).get().get("event_aggregate").toString(), Map.class);
+        assertThat(eventAggregate.get("reference"), is("****************"));
+
+        eventDao.deleteEventsForTransactions(List.of(resourceExternalId));
+
+        assertThat(dbHelper.getEventDigestSnapshot(resourceExternalId).isPresent(), is(false));
+    }
+
     @Test
     void shouldInsertEvent() throws IOException {
         EventEntity event = anEventFixture()
@@ -168,6 +187,55 @@ class EventDaoIT {
         assertThat(objectMapper.readTree(result.get("event_data").toString()), is(objectMapper.readTree(event.getEventData())));
     }
 
+    @Test
+    void shouldInsertEventsThatDoNotExistInOneStatementAndReturnTheirIdsInOrder() {
+        EventEntity existingEvent = anEventFixture()
+                .withEventDate(CREATED_AT)
+                .insert(rule.getJdbi())
+                .toEntity();
+        EventEntity duplicateEvent = anEventFixture()
+                .from(existingEvent)
+                .withSQSMessageId(RandomStringUtils.randomAlphanumeric(50))
+                .toEntity();
+        EventEntity newEvent = anEventFixture()
+                .from(existingEvent)
+                .withEventType("AUTHORISATION_SUCCEEDED")
+                .withEventDate(CREATED_AT.plusSeconds(1))
+                .toEntity();
+        EventEntity anotherNewEvent = anEventFixture()
+                .withResourceExternalId("another-resource")
+                .withEventDate(CREATED_AT)
+                .toEntity();
+        var resourceTypeIdCache = new ResourceTypeIdCache(resourceTypeDao);
+
+        List<Optional<Long>> ids = eventDao.insertEventsIfDoNotExist(
+                List.of(duplicateEvent, newEvent, anotherNewEvent, newEvent), resourceTypeIdCache::getResourceTypeId);
+
+        assertThat(ids, hasSize(4));
+        assertThat(ids.get(0).isPresent(), is(false));
+        assertThat(ids.get(1).isPresent(), is(true));
+        assertThat(ids.get(2).isPresent(), is(true));
+        assertThat(ids.get(3).isPresent(), is(false));
+        assertThat(eventDao.getById(ids.get(1).get()).get().getEventType(), is("AUTHORISATION_SUCCEEDED"));
+        assertThat(eventDao.getById(ids.get(2).get()).get().getResourceExternalId(), is("another-resource"));
+        assertThat(dbHelper.getEventsCountByExternalId(existingEvent.getResourceExternalId()), is(2));
+    }
+
+    @Test
+    void shouldLeaveTheTransactionUsableWhenABatchInsertFails() {
+        EventEntity event = anEventFixture().withEventDate(CREATED_AT).toEntity();
+        EventEntity poisonEvent = anEventFixture().withEventData("not json").withEventDate(CREATED_AT).toEntity();
+        var resourceTypeIdCache = new ResourceTypeIdCache(resourceTypeDao);
+
+        rule.getJdbi().useTransaction(handle -> {
+            assertThrows(Exception.class, () -> eventDao.insertEventsIfDoNotExist(List.of(event, poisonEvent),
+                    resourceTypeIdCache::getResourceTypeId));
+            eventDao.insertIfDoesNotExist(event, resourceTypeIdCache.getResourceTypeId(event.getResourceType()));
+        });
+
+        assertThat(dbHelper.getEventsCountByExternalId(event.getResourceExternalId()), is(1));
+    }
+
     @Test
     void shouldFindEvent() {
         EventEntity event = anEventFixture()
@@ -1,18 +1,24 @@
 package uk.gov.pay.ledger.event.model;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 
 import java.time.ZonedDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static uk.gov.pay.ledger.util.fixture.EventFixture.anEventFixture;
 
 public class EventDigestTest {
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Test
     public void shouldDeriveNonNullParentExternalIdCorrectlyFromEventDigest() {
         EventEntity eventWithParentExternalId = anEventFixture()
@@ -31,7 +37,7 @@ public class EventDigestTest {
                 .toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(latestEventWithOutParentExternalId, eventWithOutParentExternalId, eventWithParentExternalId));
+                List.of(latestEventWithOutParentExternalId, eventWithOutParentExternalId, eventWithParentExternalId), objectMapper);
 
         assertThat(eventDigest.getParentResourceExternalId(), is("parent_external_id"));
     }
@@ -51,7 +57,7 @@ public class EventDigestTest {
                 .toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(eventWithoutParentExternalId, event2WithoutParentExternalId, event3WithoutParentExternalId));
+                List.of(eventWithoutParentExternalId, event2WithoutParentExternalId, event3WithoutParentExternalId), objectMapper);
 
         assertThat(eventDigest.getParentResourceExternalId(), is(nullValue()));
     }
@@ -73,7 +79,7 @@ public class EventDigestTest {
                 .toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(eventWithServiceId, eventWithOutServiceId, latestEventWithOutServiceId));
+                List.of(eventWithServiceId, eventWithOutServiceId, latestEventWithOutServiceId), objectMapper);
 
         assertThat(eventDigest.getServiceId(), is("service-id"));
     }
@@ -93,7 +99,7 @@ public class EventDigestTest {
                 .toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(eventWithoutServiceId, event2WithoutServiceId, event3WithoutServiceId));
+                List.of(eventWithoutServiceId, event2WithoutServiceId, event3WithoutServiceId), objectMapper);
 
         assertThat(eventDigest.getParentResourceExternalId(), is(nullValue()));
     }
@@ -104,7 +110,7 @@ public class EventDigestTest {
         EventEntity eventWithTrueLiveValue = anEventFixture().withLive(true).toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(eventWithTrueLiveValue, eventWithNullLiveValue));
+                List.of(eventWithTrueLiveValue, eventWithNullLiveValue), objectMapper);
 
         assertThat(eventDigest.isLive(), is(Boolean.TRUE));
     }
@@ -115,7 +121,7 @@ public class EventDigestTest {
         EventEntity eventWithFalseLiveValue = anEventFixture().withLive(false).toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(eventWithFalseLiveValue, eventWithNullLiveValue));
+                List.of(eventWithFalseLiveValue, eventWithNullLiveValue), objectMapper);
 
         assertThat(eventDigest.isLive(), is(Boolean.FALSE));
     }
@@ -125,9 +131,98 @@ public class EventDigestTest {
         EventEntity eventWithNullLiveValue = anEventFixture().withLive(null).toEntity();
 
         EventDigest eventDigest = EventDigest.fromEventList(
-                List.of(eventWithNullLiveValue));
+                List.of(eventWithNullLiveValue), objectMapper);
 
         assertThat(eventDigest.isLive(), is(nullValue()));
     }
 
+
+    @Test
+    public void applyingAMoreRecentEventShouldGiveTheSameDigestAsReplayingAllEvents() {
+        ZonedDateTime now = ZonedDateTime.now();
+        EventEntity paymentCreated = anEventFixture()
+                .withEventDate(now.minusMinutes(2))
+                .withServiceId("service-id")
+                .withLive(true)
+                .withEventData("{\"amount\": 1000, \"reference\": \"a-reference\"}")
+                .toEntity();
+        EventEntity paymentDetailsEntered = anEventFixture()
+                .withResourceExternalId(paymentCreated.getResourceExternalId())
+                .withEventDate(now.minusMinutes(1))
+                .withEventType("PAYMENT_DETAILS_ENTERED")
+                .withEventData("{\"card_brand\": \"visa\"}")
+                .toEntity();
+        EventEntity authorisationSucceeded = anEventFixture()
+                .withResourceExternalId(paymentCreated.getResourceExternalId())
+                .withEventDate(now)
+                .withEventType("AUTHORISATION_SUCCEEDED")
+                .withEventData("{\"amount\": 1200}")
+                .toEntity();
+
+        EventDigest replayed = EventDigest.fromEventList(List.of(authorisationSucceeded, paymentDetailsEntered, paymentCreated), objectMapper);
+        EventDigest applied = EventDigest.fromEventList(List.of(paymentDetailsEntered, paymentCreated), objectMapper)
+                .applyEvent(authorisationSucceeded, objectMapper);
+
+        assertThat(applied.getEventAggregate(), is(replayed.getEventAggregate()));
+        assertThat(applied.getEventCount(), is(replayed.getEventCount()));
+        assertThat(applied.getServiceId(), is(replayed.getServiceId()));
+        assertThat(applied.isLive(), is(replayed.isLive()));
+        assertThat(applied.getMostRecentEventTimestamp(), is(replayed.getMostRecentEventTimestamp()));
+        assertThat(applied.getEventCreatedDate(), is(replayed.getEventCreatedDate()));
+        assertThat(applied.getLatestSalientEventType(), is(replayed.getLatestSalientEventType()));
+        assertThat(applied.getParentResourceExternalId(), is(replayed.getParentResourceExternalId()));
+    }
+
+    @Test
+    public void shouldNotApplyAnEventThatIsNotMoreRecentThanTheDigest() {
+        ZonedDateTime now = ZonedDateTime.now();
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(anEventFixture().withEventDate(now).toEntity()), objectMapper);
+
+        assertThrows(IllegalArgumentException.class, () ->
+                eventDigest.applyEvent(anEventFixture().withEventDate(now.minusSeconds(1)).toEntity(), objectMapper));
+    }
+
+    @Test
+    public void shouldTreatEventsWithoutEventDataAsHavingNoData() {
+        ZonedDateTime now = ZonedDateTime.now();
+        EventEntity eventWithData = anEventFixture()
+                .withEventDate(now.minusSeconds(2))
+                .withEventData("{\"amount\": 1000}")
+                .toEntity();
+        EventEntity eventWithNullData = anEventFixture().withEventDate(now.minusSeconds(1)).withEventData(null).toEntity();
+        EventEntity eventWithBlankData = anEventFixture().withEventDate(now).withEventData(" ").toEntity();
+
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(eventWithBlankData, eventWithNullData, eventWithData), objectMapper);
+
+        assertThat(eventDigest.getEventAggregate(), is(Map.of("amount", 1000)));
+        assertThat(eventWithNullData.getEventDataMap(objectMapper), is(Map.of()));
+        assertThat(eventWithBlankData.getEventDataMap(objectMapper), is(Map.of()));
+    }
+
+    @Test
+    public void shouldMergeNullValuesTheSameWayWhenReplayingAndApplyingEvents() {
+        ZonedDateTime now = ZonedDateTime.now();
+        EventEntity earlierEvent = anEventFixture()
+                .withEventDate(now.minusSeconds(2))
+                .withEventData("{\"email\": \"j.doe@example.org\", \"reference\": null}")
+                .toEntity();
+        EventEntity laterEvent = anEventFixture()
+                .withEventDate(now.minusSeconds(1))
+                .withEventData("{\"email\": null, \"reference\": \"a-reference\"}")
+                .toEntity();
+        EventEntity latestEvent = anEventFixture()
+                .withEventDate(now)
+                .withEventData("{\"reference\": null}")
+                .toEntity();
+
+        EventDigest replayed = EventDigest.fromEventList(List.of(latestEvent, laterEvent, earlierEvent), objectMapper);
+        EventDigest applied = EventDigest.fromEventList(List.of(laterEvent, earlierEvent), objectMapper)
+                .applyEvent(latestEvent, objectMapper);
+
+        Map<String, Object> expectedAggregate = new HashMap<>();
+        expectedAggregate.put("email", null);
+        expectedAggregate.put("reference", null);
+        assertThat(replayed.getEventAggregate(), is(expectedAggregate));
+        assertThat(applied.getEventAggregate(), is(expectedAggregate));
+    }
 }
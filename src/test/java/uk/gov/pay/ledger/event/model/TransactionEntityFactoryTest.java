@@ -55,7 +55,7 @@ public class TransactionEntityFactoryTest {
                 .withResourceType(ResourceType.PAYMENT)
                 .toEntity();
         EventDigest eventDigest = EventDigest.fromEventList(List.of(paymentCreatedEvent, paymentDetailsEvent,
-                captureConfirmedEvent, paymentIncludedInPayoutEvent));
+                captureConfirmedEvent, paymentIncludedInPayoutEvent), objectMapper);
 
         TransactionEntity transactionEntity = transactionEntityFactory.create(eventDigest);
 
@@ -114,7 +114,7 @@ public class TransactionEntityFactoryTest {
                 .withParentResourceExternalId(parentResourceExternalId)
                 .withResourceType(ResourceType.REFUND)
                 .toEntity();
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(refundCreatedEvent, refundSubmittedEvent));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(refundCreatedEvent, refundSubmittedEvent), objectMapper);
 
         TransactionEntity transactionEntity = transactionEntityFactory.create(eventDigest);
 
@@ -136,7 +136,7 @@ public class TransactionEntityFactoryTest {
         EventEntity paymentStartedEvent = aQueuePaymentEventFixture().withEventType("PAYMENT_STARTED").toEntity();
         EventEntity secondNonSalientEvent = aQueuePaymentEventFixture().withEventType("SECOND_NON_STATE_TRANSITION_EVENT").toEntity();
 
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(secondNonSalientEvent, paymentStartedEvent, nonSalientEvent, paymentCreatedEvent));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(secondNonSalientEvent, paymentStartedEvent, nonSalientEvent, paymentCreatedEvent), objectMapper);
         TransactionEntity transactionEntity = transactionEntityFactory.create(eventDigest);
 
         assertThat(transactionEntity.getState().toString(), is("STARTED"));
@@ -146,7 +146,7 @@ public class TransactionEntityFactoryTest {
     public void create_ShouldSetUndefinedStateForNoSalientEventTypes() {
         EventEntity paymentDetailsEntered = aQueuePaymentEventFixture().withEventType("PAYMENT_DETAILS_ENTERED").toEntity();
 
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(paymentDetailsEntered));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(paymentDetailsEntered), objectMapper);
         TransactionEntity transactionEntity = transactionEntityFactory.create(eventDigest);
 
         assertThat(transactionEntity.getState().toString(), is("UNDEFINED"));
@@ -159,7 +159,7 @@ public class TransactionEntityFactoryTest {
                 .withEventData("{\"canRetry\":false}")
                 .toEntity();
 
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(transactionRejected));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(transactionRejected), objectMapper);
         TransactionEntity transactionEntity = transactionEntityFactory.create(eventDigest);
 
         assertThat(transactionEntity.getState().toString(), is("FAILED_REJECTED"));
@@ -174,7 +174,7 @@ public class TransactionEntityFactoryTest {
                 .withEventData("{\"amount\":50}")
                 .toEntity();
 
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(paymentCreatedEvent));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(paymentCreatedEvent), objectMapper);
         TransactionEntity transactionEntity = transactionEntityFactory.create(eventDigest);
 
         assertThat(transactionEntity.getSource(), is(nullValue()));
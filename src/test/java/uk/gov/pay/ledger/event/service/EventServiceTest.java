@@ -1,5 +1,7 @@
 package uk.gov.pay.ledger.event.service;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -7,6 +9,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import uk.gov.pay.ledger.event.dao.EventDao;
+import uk.gov.pay.ledger.event.dao.EventDigestSnapshotDao;
+import uk.gov.pay.ledger.event.dao.ResourceTypeIdCache;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.EventDigest;
 import uk.gov.pay.ledger.event.model.SalientEventType;
@@ -18,6 +22,7 @@ import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static java.time.ZoneOffset.UTC;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -25,16 +30,31 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.gov.pay.ledger.event.model.ResourceType.AGREEMENT;
 import static uk.gov.pay.ledger.event.model.ResourceType.PAYMENT;
 
 @ExtendWith(MockitoExtension.class)
 class EventServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
     @Mock
     EventDao mockEventDao;
 
+    @Mock
+    EventDigestSnapshotDao mockEventDigestSnapshotDao;
+
+    @Mock
+    ResourceTypeIdCache mockResourceTypeIdCache;
+
+    private MetricRegistry metricRegistry;
     private EventService eventService;
 
     private EventEntity event;
@@ -46,7 +66,9 @@ class EventServiceTest {
 
     @BeforeEach
     void setUp() {
-        eventService = new EventService(mockEventDao);
+        metricRegistry = new MetricRegistry();
+        eventService = new EventService(mockEventDao, mockEventDigestSnapshotDao, objectMapper, metricRegistry, mockResourceTypeIdCache);
+        event = EventFixture.anEventFixture().toEntity();
 
         latestEventTime = ZonedDateTime.now().minusHours(1L);
         String eventDetails1 = "{ \"amount\": 1000}";
@@ -104,7 +126,8 @@ class EventServiceTest {
 
     @Test
     void createIfDoesNotExistReturnsSuccessfulCreatedResponse() {
-        when(mockEventDao.insertEventIfDoesNotExistWithResourceTypeId(event)).thenReturn(Optional.of(1L));
+        when(mockResourceTypeIdCache.getResourceTypeId(PAYMENT)).thenReturn(1);
+        when(mockEventDao.insertIfDoesNotExist(event, 1)).thenReturn(Optional.of(1L));
 
         CreateEventResponse response = eventService.createIfDoesNotExist(event);
 
@@ -114,7 +137,8 @@ class EventServiceTest {
 
     @Test
     void createIfDoesNotExistReturnsSuccessfulIgnoredResponse() {
-        when(mockEventDao.insertEventIfDoesNotExistWithResourceTypeId(event)).thenReturn(Optional.empty());
+        when(mockResourceTypeIdCache.getResourceTypeId(PAYMENT)).thenReturn(1);
+        when(mockEventDao.insertIfDoesNotExist(event, 1)).thenReturn(Optional.empty());
 
         CreateEventResponse response = eventService.createIfDoesNotExist(event);
 
@@ -124,8 +148,8 @@ class EventServiceTest {
 
     @Test
     void createIfDoesNotExistReturnsNotSuccessfulResponse() {
-        when(mockEventDao.insertEventIfDoesNotExistWithResourceTypeId(event))
-                .thenThrow(new RuntimeException("forced failure"));
+        when(mockResourceTypeIdCache.getResourceTypeId(PAYMENT)).thenReturn(1);
+        when(mockEventDao.insertIfDoesNotExist(event, 1)).thenThrow(new RuntimeException("forced failure"));
 
         CreateEventResponse response = eventService.createIfDoesNotExist(event);
 
@@ -134,6 +158,75 @@ class EventServiceTest {
         assertThat(response.getErrorMessage(), is("forced failure"));
     }
 
+    @Test
+    void createEventsIfDoNotExistReturnsAResponseForEachEventInOrder() {
+        EventEntity existingEvent = EventFixture.anEventFixture().withEventType("PAYMENT_STARTED").toEntity();
+        when(mockEventDao.insertEventsIfDoNotExist(eq(List.of(event, existingEvent)), any()))
+                .thenReturn(List.of(Optional.of(1L), Optional.empty()));
+
+        List<CreateEventResponse> responses = eventService.createEventsIfDoNotExist(List.of(event, existingEvent));
+
+        assertThat(responses.size(), is(2));
+        assertThat(responses.get(0).getState(), is(CreateEventResponse.CreateEventState.INSERTED));
+        assertThat(responses.get(1).getState(), is(CreateEventResponse.CreateEventState.IGNORED));
+    }
+
+    @Test
+    void createEventsIfDoNotExistInsertsEachEventOnItsOwnWhenTheBatchInsertFails() {
+        EventEntity anotherEvent = EventFixture.anEventFixture().withEventType("PAYMENT_STARTED").toEntity();
+        when(mockEventDao.insertEventsIfDoNotExist(eq(List.of(event, anotherEvent)), any()))
+                .thenThrow(new RuntimeException("forced failure"));
+        when(mockResourceTypeIdCache.getResourceTypeId(PAYMENT)).thenReturn(1);
+        when(mockEventDao.insertIfDoesNotExist(event, 1)).thenReturn(Optional.of(1L));
+        when(mockEventDao.insertIfDoesNotExist(anotherEvent, 1)).thenReturn(Optional.empty());
+
+        List<CreateEventResponse> responses = eventService.createEventsIfDoNotExist(List.of(event, anotherEvent));
+
+        assertThat(responses.size(), is(2));
+        assertThat(responses.get(0).getState(), is(CreateEventResponse.CreateEventState.INSERTED));
+        assertThat(responses.get(1).getState(), is(CreateEventResponse.CreateEventState.IGNORED));
+        assertThat(metricRegistry.counter("event-service.batch-insert-fallbacks").getCount(), is(1L));
+    }
+
+    @Test
+    void createEventsIfDoNotExistReturnsAnErrorResponseOnlyForTheEventThatCannotBeInserted() {
+        EventEntity poisonEvent = EventFixture.anEventFixture().withEventType("PAYMENT_STARTED").toEntity();
+        when(mockEventDao.insertEventsIfDoNotExist(eq(List.of(event, poisonEvent)), any()))
+                .thenThrow(new RuntimeException("forced failure"));
+        when(mockResourceTypeIdCache.getResourceTypeId(PAYMENT)).thenReturn(1);
+        when(mockEventDao.insertIfDoesNotExist(event, 1)).thenReturn(Optional.of(1L));
+        when(mockEventDao.insertIfDoesNotExist(poisonEvent, 1)).thenThrow(new RuntimeException("invalid event data"));
+
+        List<CreateEventResponse> responses = eventService.createEventsIfDoNotExist(List.of(event, poisonEvent));
+
+        assertThat(responses.size(), is(2));
+        assertTrue(responses.get(0).isSuccessful());
+        assertFalse(responses.get(1).isSuccessful());
+        assertThat(responses.get(1).getErrorMessage(), is("invalid event data"));
+    }
+
+    @Test
+    void getEventDigestsForResourcesShouldFoldTheEventsOfEachResourceFromASingleQuery() {
+        EventEntity anotherResourceEvent = EventFixture.anEventFixture()
+                .withEventData("{ \"amount\": 3000}")
+                .withResourceExternalId("another_resource_external_id")
+                .toEntity();
+        when(mockEventDao.findEventsForExternalIds(Set.of(resourceExternalId, "another_resource_external_id", "no_events")))
+                .thenReturn(List.of(event2, anotherResourceEvent, event1));
+
+        List<EventDigest> eventDigests = eventService.getEventDigestsForResources(
+                List.of(resourceExternalId, "another_resource_external_id", "no_events"));
+
+        assertThat(eventDigests.size(), is(2));
+        assertThat(eventDigests.get(0).getResourceExternalId(), is(resourceExternalId));
+        assertThat(eventDigests.get(0).getEventCount(), is(2));
+        assertThat(eventDigests.get(0).getMostRecentEventTimestamp(), is(latestEventTime));
+        assertThat(eventDigests.get(0).getEventAggregate().get("amount"), is(1000));
+        assertThat(eventDigests.get(0).getEventAggregate().get("description"), is("a payment"));
+        assertThat(eventDigests.get(1).getResourceExternalId(), is("another_resource_external_id"));
+        assertThat(eventDigests.get(1).getEventAggregate().get("amount"), is(3000));
+    }
+
     @Nested
     class getEventDigestForResourceAndType {
         @Test
@@ -178,4 +271,130 @@ class EventServiceTest {
                     eventService.getEventDigestForResourceAndType(resourceExternalId, AGREEMENT));
         }
     }
+
+    @Nested
+    class getEventDigestForResourceUsingSnapshot {
+
+        private EventDigest snapshot;
+
+        @BeforeEach
+        void setUp() {
+            snapshot = EventDigest.fromEventList(List.of(event1, event2), objectMapper);
+        }
+
+        @Test
+        void shouldApplyANewEventMoreRecentThanTheSnapshotAsADelta() {
+            EventEntity newEvent = EventFixture.anEventFixture()
+                    .withEventData("{ \"amount\": 3000}")
+                    .withEventType("AUTHORISATION_SUCCEEDED")
+                    .withResourceExternalId(resourceExternalId)
+                    .withEventDate(latestEventTime.plusMinutes(1L))
+                    .toEntity();
+            when(mockEventDigestSnapshotDao.findByResourceExternalId(resourceExternalId)).thenReturn(Optional.of(snapshot));
+
+            EventDigest eventDigest = eventService.getEventDigestForResource(newEvent, List.of(newEvent, event1, event2), true);
+
+            assertThat(eventDigest.getEventCount(), is(3));
+            assertThat(eventDigest.getEventAggregate().get("amount"), is(3000));
+            assertThat(eventDigest.getEventAggregate().get("description"), is("a payment"));
+            assertThat(eventDigest.getMostRecentSalientEventType().get(), is(SalientEventType.AUTHORISATION_SUCCEEDED));
+            verify(mockEventDao, never()).getEventsByResourceExternalId(resourceExternalId);
+            verify(mockEventDigestSnapshotDao).upsert(eq(resourceExternalId), eq("PAYMENT"), any(), any(), any(),
+                    anyString(), eq(3), eq("AUTHORISATION_SUCCEEDED"), any(), eq(newEvent.getEventDate()));
+            assertThat(metricRegistry.counter("event-digest-snapshot.applied").getCount(), is(1L));
+        }
+
+        @Test
+        void shouldReplayAllEventsWhenANewEventIsOlderThanTheSnapshot() {
+            EventEntity olderEvent = EventFixture.anEventFixture()
+                    .withEventData("{ \"description\": \"an older description\"}")
+                    .withResourceExternalId(resourceExternalId)
+                    .withEventDate(latestEventTime.minusHours(3L))
+                    .toEntity();
+            when(mockEventDigestSnapshotDao.findByResourceExternalId(resourceExternalId)).thenReturn(Optional.of(snapshot));
+            when(mockEventDao.getEventsByResourceExternalId(resourceExternalId)).thenReturn(List.of(event1, event2, olderEvent));
+
+            EventDigest eventDigest = eventService.getEventDigestForResource(olderEvent, List.of(event1, event2, olderEvent), true);
+
+            assertThat(eventDigest.getEventCount(), is(3));
+            assertThat(eventDigest.getEventAggregate().get("description"), is("a payment"));
+            assertThat(eventDigest.getMostRecentEventTimestamp(), is(latestEventTime));
+            assertThat(metricRegistry.counter("event-digest-snapshot.replayed").getCount(), is(1L));
+        }
+
+        @Test
+        void shouldReplayAllEventsWhenTheSnapshotHasMissedAnEvent() {
+            EventEntity newEvent = EventFixture.anEventFixture()
+                    .withResourceExternalId(resourceExternalId)
+                    .withEventDate(latestEventTime.plusMinutes(1L))
+                    .toEntity();
+            EventEntity missedEvent = EventFixture.anEventFixture()
+                    .withResourceExternalId(resourceExternalId)
+                    .withEventDate(latestEventTime.minusMinutes(1L))
+                    .toEntity();
+            List<EventEntity> events = List.of(newEvent, event1, missedEvent, event2);
+            when(mockEventDigestSnapshotDao.findByResourceExternalId(resourceExternalId)).thenReturn(Optional.of(snapshot));
+            when(mockEventDao.getEventsByResourceExternalId(resourceExternalId)).thenReturn(events);
+
+            EventDigest eventDigest = eventService.getEventDigestForResource(newEvent, events, true);
+
+            assertThat(eventDigest.getEventCount(), is(4));
+            assertThat(metricRegistry.counter("event-digest-snapshot.replayed").getCount(), is(1L));
+        }
+
+        @Test
+        void shouldReuseSnapshotForADuplicateEvent() {
+            when(mockEventDigestSnapshotDao.findByResourceExternalId(resourceExternalId)).thenReturn(Optional.of(snapshot));
+
+            EventDigest eventDigest = eventService.getEventDigestForResource(event2, List.of(event1, event2), false);
+
+            assertThat(eventDigest, is(snapshot));
+            verify(mockEventDigestSnapshotDao, never()).upsert(any(), any(), any(), any(), any(), any(), anyInt(), any(), any(), any());
+        }
+
+        @Test
+        void shouldReplayAllEventsAndWriteSnapshotWhenThereIsNoSnapshot() {
+            when(mockEventDigestSnapshotDao.findByResourceExternalId(resourceExternalId)).thenReturn(Optional.empty());
+
+            EventDigest eventDigest = eventService.getEventDigestForResource(event1, List.of(event1, event2), true);
+
+            assertThat(eventDigest.getEventCount(), is(2));
+            verify(mockEventDigestSnapshotDao).upsert(eq(resourceExternalId), eq("PAYMENT"), any(), any(), any(),
+                    anyString(), eq(2), eq("PAYMENT_CREATED"), any(), eq(latestEventTime));
+        }
+
+        @Test
+        void shouldReplayAllEventsForAReprojectEvent() {
+            EventEntity reprojectEvent = EventFixture.anEventFixture()
+                    .withResourceExternalId(resourceExternalId)
+                    .withIsReprojectDomainObject(true)
+                    .toEntity();
+
+            eventService.getEventDigestForResource(reprojectEvent, List.of(event1, event2), false);
+
+            verify(mockEventDigestSnapshotDao, never()).findByResourceExternalId(resourceExternalId);
+            assertThat(metricRegistry.counter("event-digest-snapshot.replayed").getCount(), is(1L));
+        }
+
+        @Test
+        void shouldRebuildSnapshotsInBatches() {
+            EventEntity otherResourceEvent = EventFixture.anEventFixture()
+                    .withResourceExternalId("other_resource_external_id")
+                    .toEntity();
+            when(mockEventDigestSnapshotDao.findResourceExternalIdsToRebuild("PAYMENT", "", 500))
+                    .thenReturn(List.of("other_resource_external_id", resourceExternalId));
+            when(mockEventDigestSnapshotDao.findResourceExternalIdsToRebuild("PAYMENT", resourceExternalId, 500))
+                    .thenReturn(List.of());
+            when(mockEventDao.findEventsForExternalIds(Set.of("other_resource_external_id", resourceExternalId)))
+                    .thenReturn(List.of(event2, otherResourceEvent, event1));
+
+            int noOfSnapshotsRebuilt = eventService.rebuildEventDigestSnapshots(PAYMENT);
+
+            assertThat(noOfSnapshotsRebuilt, is(2));
+            verify(mockEventDigestSnapshotDao).upsert(eq(resourceExternalId), eq("PAYMENT"), any(), any(), any(),
+                    anyString(), eq(2), any(), any(), eq(latestEventTime));
+            verify(mockEventDigestSnapshotDao).upsert(eq("other_resource_external_id"), eq("PAYMENT"), any(), any(), any(),
+                    anyString(), eq(1), any(), any(), any());
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package uk.gov.pay.ledger.eventpublisher;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.pay.ledger.eventpublisher.TopicName.CARD_PAYMENT_DISPUTE_EVENTS;
+import static uk.gov.pay.ledger.eventpublisher.TopicName.CARD_PAYMENT_EVENTS;
+
+@ExtendWith(MockitoExtension.class)
+class BatchingEventPublisherTest {
+
+    @Mock
+    private EventPublisher eventPublisher;
+
+    @Mock
+    private ExecutorService executorService;
+
+    private MetricRegistry metricRegistry;
+    private Timer publishTimer;
+    private BatchingEventPublisher batchingEventPublisher;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        publishTimer = metricRegistry.timer("ingest-stage.sns-publish.payment.PaymentEventProcessor");
+        batchingEventPublisher = new BatchingEventPublisher(eventPublisher, executorService, metricRegistry, 100, 3, Duration.ZERO);
+    }
+
+    @Test
+    void shouldPublishQueuedMessagesInBatchesOfUpToTenPerTopic() throws Exception {
+        List<String> paymentMessages = IntStream.range(0, 12).mapToObj(i -> "payment-event-" + i).collect(Collectors.toList());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String message : paymentMessages) {
+            futures.add(batchingEventPublisher.publish(message, CARD_PAYMENT_EVENTS, publishTimer));
+        }
+        futures.add(batchingEventPublisher.publish("dispute-event", CARD_PAYMENT_DISPUTE_EVENTS, publishTimer));
+        when(eventPublisher.publishMessagesToTopic(any(), any())).thenReturn(Set.of());
+
+        assertThat((Integer) metricRegistry.getGauges().get("sns-publisher.queue-depth").getValue(), is(13));
+
+        batchingEventPublisher.publishQueuedMessages();
+
+        verify(eventPublisher).publishMessagesToTopic(paymentMessages.subList(0, 10), CARD_PAYMENT_EVENTS, publishTimer);
+        verify(eventPublisher).publishMessagesToTopic(paymentMessages.subList(10, 12), CARD_PAYMENT_EVENTS, publishTimer);
+        verify(eventPublisher).publishMessagesToTopic(List.of("dispute-event"), CARD_PAYMENT_DISPUTE_EVENTS);
+        futures.forEach(future -> assertThat(future.isDone() && !future.isCompletedExceptionally(), is(true)));
+        assertThat((Integer) metricRegistry.getGauges().get("sns-publisher.queue-depth").getValue(), is(0));
+        assertThat(metricRegistry.histogram("sns-publisher.publish-batch.entries-per-call").getCount(), is(3L));
+        assertThat(publishTimer.getCount(), is(13L));
+    }
+
+    @Test
+    void shouldRetryOnlyTheEntriesThatFailed() throws Exception {
+        CompletableFuture<Void> first = batchingEventPublisher.publish("first", CARD_PAYMENT_EVENTS, publishTimer);
+        CompletableFuture<Void> second = batchingEventPublisher.publish("second", CARD_PAYMENT_EVENTS, publishTimer);
+        when(eventPublisher.publishMessagesToTopic(List.of("first", "second"), CARD_PAYMENT_EVENTS)).thenReturn(Set.of(1));
+        when(eventPublisher.publishMessagesToTopic(List.of("second"), CARD_PAYMENT_EVENTS)).thenReturn(Set.of());
+
+        batchingEventPublisher.publishQueuedMessages();
+
+        assertThat(first.isDone() && !first.isCompletedExceptionally(), is(true));
+        assertThat(second.isDone() && !second.isCompletedExceptionally(), is(true));
+        assertThat(metricRegistry.counter("sns-publisher.retried-entries").getCount(), is(1L));
+        assertThat(metricRegistry.counter("sns-publisher.failed-entries").getCount(), is(0L));
+    }
+
+    @Test
+    void shouldFailMessagesThatCouldNotBePublishedWithinTheMaximumAttempts() throws Exception {
+        CompletableFuture<Void> future = batchingEventPublisher.publish("a-message", CARD_PAYMENT_EVENTS, publishTimer);
+        when(eventPublisher.publishMessagesToTopic(List.of("a-message"), CARD_PAYMENT_EVENTS))
+                .thenThrow(new EventPublisherException("SNS unavailable", null));
+
+        batchingEventPublisher.publishQueuedMessages();
+
+        verify(eventPublisher, times(3)).publishMessagesToTopic(eq(List.of("a-message")), eq(CARD_PAYMENT_EVENTS));
+        assertThat(future.isCompletedExceptionally(), is(true));
+        assertThat(metricRegistry.counter("sns-publisher.retried-entries").getCount(), is(2L));
+        assertThat(metricRegistry.counter("sns-publisher.failed-entries").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldFailQueuedMessagesWhenStopped() throws Exception {
+        CompletableFuture<Void> future = batchingEventPublisher.publish("a-message", CARD_PAYMENT_EVENTS, publishTimer);
+
+        batchingEventPublisher.stop();
+
+        verify(executorService).shutdownNow();
+        assertThat(future.isCompletedExceptionally(), is(true));
+    }
+}
@@ -52,7 +52,7 @@ public class PayoutEntityFactoryTest {
                         ))
                 )
                 .toEntity();
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(payoutCreatedEvent, payoutPaidOutEvent));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(payoutCreatedEvent, payoutPaidOutEvent), objectMapper);
         PayoutEntity payoutEntity = payoutEntityFactory.create(eventDigest);
 
         assertThat(payoutEntity.getGatewayPayoutId(), is(payoutCreatedEvent.getResourceExternalId()));
@@ -73,7 +73,7 @@ public class PayoutEntityFactoryTest {
     public void shouldDigestStateFromEvents() {
         EventEntity payoutCreatedEvent = aQueuePaymentEventFixture().withEventType("PAYOUT_CREATED").toEntity();
         EventEntity payoutPaidOutEvent = aQueuePaymentEventFixture().withEventType("PAYOUT_PAID").toEntity();
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(payoutPaidOutEvent, payoutCreatedEvent));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(payoutPaidOutEvent, payoutCreatedEvent), objectMapper);
         PayoutEntity payoutEntity = payoutEntityFactory.create(eventDigest);
 
         assertThat(payoutEntity.getState(), is(PayoutState.PAID_OUT));
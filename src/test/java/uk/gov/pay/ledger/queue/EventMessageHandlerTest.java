@@ -16,7 +16,9 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.pay.ledger.app.config.SnsConfig;
@@ -24,18 +26,31 @@ import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.ResourceType;
 import uk.gov.pay.ledger.event.model.response.CreateEventResponse;
 import uk.gov.pay.ledger.event.service.EventService;
+import uk.gov.pay.ledger.eventpublisher.BatchingEventPublisher;
 import uk.gov.pay.ledger.eventpublisher.EventPublisher;
+import uk.gov.pay.ledger.eventpublisher.EventPublisherException;
 import uk.gov.pay.ledger.eventpublisher.TopicName;
+import uk.gov.pay.ledger.queue.eventprocessor.IngestedEvent;
+import uk.gov.pay.ledger.transactionsummary.service.TransactionSummaryDeltaFlusher;
+import uk.gov.pay.ledger.util.dao.UnitOfWork;
 import uk.gov.service.payments.commons.queue.exception.QueueException;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static ch.qos.logback.classic.Level.INFO;
 import static net.logstash.logback.argument.StructuredArguments.kv;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasItemInArray;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -84,15 +99,43 @@ class EventMessageHandlerTest {
     @Mock
     private EventPublisher eventPublisher;
 
+    @Mock
+    private BatchingEventPublisher batchingEventPublisher;
+
+    @Mock
+    private IngestLaneExecutor ingestLaneExecutor;
+
+    @Mock
+    private UnitOfWork unitOfWork;
+
+    @Mock
+    private TransactionSummaryDeltaFlusher transactionSummaryDeltaFlusher;
+
+    @Spy
+    private IngestMetrics ingestMetrics = new IngestMetrics(new MetricRegistry());
+
     @Captor
     private ArgumentCaptor<LoggingEvent> loggingEventArgumentCaptor;
 
+    @Captor
+    private ArgumentCaptor<List<IngestedEvent>> ingestedEventsArgumentCaptor;
+
     @InjectMocks
     private EventMessageHandler eventMessageHandler;
 
     @BeforeEach
-    void setUp() throws QueueException {
-        when(eventQueue.retrieveEvents()).thenReturn(List.of(eventMessage));
+    void setUp() throws Exception {
+        lenient().when(eventQueue.retrieveEvents()).thenReturn(List.of(eventMessage));
+        Answer<Void> runWork = invocation -> {
+            invocation.<UnitOfWork.Work<?>>getArgument(0).run();
+            return null;
+        };
+        lenient().doAnswer(runWork).when(unitOfWork).useHandle(any());
+        lenient().doAnswer(runWork).when(unitOfWork).useTransaction(any());
+    }
+
+    private static Answer<List<CreateEventResponse>> respondToEachEventWith(CreateEventResponse response) {
+        return invocation -> Collections.nCopies(invocation.<List<EventEntity>>getArgument(0).size(), response);
     }
 
     @Nested
@@ -103,14 +146,59 @@ class EventMessageHandlerTest {
             EventEntity event = aQueuePaymentEventFixture().toEntity();
             when(eventMessage.getEvent()).thenReturn(event);
             when(eventMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("a-valid-recipient-handle"));
-            when(eventService.createIfDoesNotExist(any())).thenReturn(createEventResponse);
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
             when(createEventResponse.isSuccessful()).thenReturn(true);
             when(metricRegistry.histogram((any()))).thenReturn(histogram);
 
             eventMessageHandler.handle();
 
             verify(eventDigestHandler).processEvent(event, false);
-            verify(eventQueue).markMessageAsProcessed(any(EventMessage.class));
+            verify(transactionSummaryDeltaFlusher).deltasCommitted();
+            verify(eventQueue).markMessagesAsProcessed(List.of(eventMessage));
+        }
+
+        @Test
+        void shouldProjectEachResourceInATransactionAndNotAcknowledgeItWhenProjectionFails() throws QueueException {
+            EventEntity event = aQueuePaymentEventFixture().toEntity();
+            when(eventMessage.getEvent()).thenReturn(event);
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
+            when(createEventResponse.isSuccessful()).thenReturn(true);
+            doThrow(new RuntimeException("projection failed")).when(eventDigestHandler).processEvent(event, false);
+
+            eventMessageHandler.handle();
+
+            verify(unitOfWork).useHandle(any());
+            verify(unitOfWork).useTransaction(any());
+            verify(eventQueue, never()).markMessagesAsProcessed(any());
+            verify(transactionSummaryDeltaFlusher).deltasRolledBack();
+            verify(transactionSummaryDeltaFlusher, never()).deltasCommitted();
+            assertThat(ingestMetrics.failedEvents().getCount(), is(1L));
+        }
+
+        @Test
+        void shouldCountInsertedAndRetriedEventsAndTimeTheirInsert() throws QueueException {
+            EventEntity event = aQueuePaymentEventFixture().toEntity();
+            EventMessage messageToRetry = mock(EventMessage.class);
+            CreateEventResponse errorResponse = mock(CreateEventResponse.class);
+            when(eventMessage.getEvent()).thenReturn(event);
+            when(messageToRetry.getEvent()).thenReturn(event);
+            when(messageToRetry.getQueueMessageId()).thenReturn(Optional.of("a-queue-message-id"));
+            when(eventService.createEventsIfDoNotExist(any())).thenReturn(List.of(createEventResponse, errorResponse));
+            when(createEventResponse.isSuccessful()).thenReturn(true);
+            when(createEventResponse.getState()).thenReturn(CreateEventResponse.CreateEventState.INSERTED);
+            when(errorResponse.isSuccessful()).thenReturn(false);
+            when(eventDigestHandler.processorNameFor(event)).thenReturn("PaymentEventProcessor");
+            when(metricRegistry.histogram((any()))).thenReturn(histogram);
+            when(ledgerConfig.getSnsConfig()).thenReturn(snsConfig);
+
+            eventMessageHandler.handle(List.of(eventMessage, messageToRetry));
+
+            verify(eventQueue).scheduleMessagesForRetry(List.of(messageToRetry));
+            assertThat(ingestMetrics.insertedEvents().getCount(), is(1L));
+            assertThat(ingestMetrics.retriedEvents().getCount(), is(1L));
+            assertThat(ingestMetrics.ignoredEvents().getCount(), is(0L));
+            assertThat(ingestMetrics.batchSize().getCount(), is(1L));
+            assertThat(ingestMetrics.stageTimer(IngestMetrics.Stage.INSERT, event.getResourceType(), "PaymentEventProcessor").getCount(), is(2L));
         }
 
         @Test
@@ -131,25 +219,87 @@ class EventMessageHandlerTest {
 
             eventMessageHandler.handle();
             verify(eventDigestHandler).processEvent(event, false);
-            verify(eventQueue).markMessageAsProcessed(any(EventMessage.class));
-            verify(eventService, never()).createIfDoesNotExist(any());
+            verify(eventQueue).markMessagesAsProcessed(List.of(eventMessage));
+            verify(eventService).createEventsIfDoNotExist(List.of());
 
             verify(mockAppender, times(1)).doAppend(loggingEventArgumentCaptor.capture());
             assertThat(loggingEventArgumentCaptor.getValue().getArgumentArray(), hasItemInArray(kv("reproject_domain_object_event", true)));
             assertThat(loggingEventArgumentCaptor.getValue().getArgumentArray(), hasItemInArray(kv(LEDGER_EVENT_TYPE, eventType)));
         }
 
+        @Test
+        void shouldProjectEachResourceOnceForAllOfItsEventsInTheBatch() throws QueueException {
+            EventEntity authorisationSucceeded = aQueuePaymentEventFixture()
+                    .withResourceExternalId("a-payment")
+                    .withEventType("AUTHORISATION_SUCCEEDED")
+                    .toEntity();
+            EventEntity captureSubmitted = aQueuePaymentEventFixture()
+                    .withResourceExternalId("a-payment")
+                    .withEventType("CAPTURE_SUBMITTED")
+                    .toEntity();
+            EventEntity anotherPaymentCreated = aQueuePaymentEventFixture()
+                    .withResourceExternalId("another-payment")
+                    .toEntity();
+            EventMessage secondMessage = mock(EventMessage.class);
+            EventMessage thirdMessage = mock(EventMessage.class);
+            when(eventMessage.getEvent()).thenReturn(authorisationSucceeded);
+            when(secondMessage.getEvent()).thenReturn(captureSubmitted);
+            when(thirdMessage.getEvent()).thenReturn(anotherPaymentCreated);
+            when(eventMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("a-receipt-handle"));
+            when(secondMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("another-receipt-handle"));
+            when(thirdMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("a-third-receipt-handle"));
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
+            when(createEventResponse.isSuccessful()).thenReturn(true);
+            when(createEventResponse.getState()).thenReturn(CreateEventResponse.CreateEventState.INSERTED);
+            when(metricRegistry.histogram((any()))).thenReturn(histogram);
+            when(ledgerConfig.getSnsConfig()).thenReturn(snsConfig);
+
+            eventMessageHandler.handle(List.of(eventMessage, thirdMessage, secondMessage));
+
+            verify(eventDigestHandler).processEvents(ingestedEventsArgumentCaptor.capture());
+            List<IngestedEvent> ingestedEvents = ingestedEventsArgumentCaptor.getValue();
+            assertThat(ingestedEvents.size(), is(2));
+            assertThat(ingestedEvents.get(0).getEvent(), is(authorisationSucceeded));
+            assertThat(ingestedEvents.get(1).getEvent(), is(captureSubmitted));
+            assertThat(ingestedEvents.get(1).isANewEvent(), is(true));
+            verify(eventDigestHandler).processEvent(anotherPaymentCreated, true);
+            verify(eventQueue).markMessagesAsProcessed(List.of(eventMessage, secondMessage, thirdMessage));
+        }
+
+        @Test
+        void shouldInsertTheEventsOfAllMessagesInOneCallLeavingOutReprojectDomainObjectEvents() throws QueueException {
+            EventEntity paymentCreated = aQueuePaymentEventFixture().withResourceExternalId("a-payment").toEntity();
+            EventEntity reprojectPayment = aQueuePaymentEventFixture()
+                    .withResourceExternalId("another-payment")
+                    .withIsReprojectDomainObject(true)
+                    .toEntity();
+            EventMessage reprojectMessage = mock(EventMessage.class);
+            when(eventMessage.getEvent()).thenReturn(paymentCreated);
+            when(reprojectMessage.getEvent()).thenReturn(reprojectPayment);
+            when(eventService.createEventsIfDoNotExist(List.of(paymentCreated))).thenReturn(List.of(createEventResponse));
+            when(createEventResponse.isSuccessful()).thenReturn(true);
+            when(createEventResponse.getState()).thenReturn(CreateEventResponse.CreateEventState.INSERTED);
+            when(metricRegistry.histogram((any()))).thenReturn(histogram);
+            when(ledgerConfig.getSnsConfig()).thenReturn(snsConfig);
+
+            eventMessageHandler.handle(List.of(eventMessage, reprojectMessage));
+
+            verify(eventService).createEventsIfDoNotExist(List.of(paymentCreated));
+            verify(eventDigestHandler).processEvent(paymentCreated, true);
+            verify(eventDigestHandler).processEvent(reprojectPayment, false);
+        }
+
         @Test
         void shouldScheduleMessageForRetry_WhenEventIsNotProcessedSuccessfully() throws QueueException {
             EventEntity event = aQueuePaymentEventFixture().toEntity();
             when(eventMessage.getEvent()).thenReturn(event);
             when(eventMessage.getQueueMessageId()).thenReturn(Optional.of("a-valid-queue-message-id"));
-            when(eventService.createIfDoesNotExist(any())).thenReturn(createEventResponse);
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
             when(createEventResponse.isSuccessful()).thenReturn(false);
 
             eventMessageHandler.handle();
 
-            verify(eventQueue).scheduleMessageForRetry(any());
+            verify(eventQueue).scheduleMessagesForRetry(List.of(eventMessage));
         }
 
         @Test
@@ -157,7 +307,7 @@ class EventMessageHandlerTest {
             EventEntity event = aQueuePaymentEventFixture().toEntity();
             when(eventMessage.getEvent()).thenReturn(event);
             when(eventMessage.getQueueMessageId()).thenReturn(null);
-            when(eventService.createIfDoesNotExist(any())).thenReturn(createEventResponse);
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
             when(createEventResponse.isSuccessful()).thenReturn(false);
 
             eventMessageHandler.handle();
@@ -174,7 +324,7 @@ class EventMessageHandlerTest {
         void setup() {
             when(ledgerConfig.getSnsConfig()).thenReturn(snsConfig);
             when(snsConfig.isSnsEnabled()).thenReturn(true);
-            when(eventService.createIfDoesNotExist(any())).thenReturn(createEventResponse);
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
             when(createEventResponse.isSuccessful()).thenReturn(true);
             when(metricRegistry.histogram((any()))).thenReturn(histogram);
         }
@@ -229,7 +379,7 @@ class EventMessageHandlerTest {
         void shouldNotTryToPublishWhenPublishCardPaymentDisputeEventsToSnsDisabled() throws QueueException {
             EventEntity event = aQueuePaymentEventFixture().withResourceType(ResourceType.DISPUTE).toEntity();
             when(createEventResponse.isSuccessful()).thenReturn(true);
-            when(eventService.createIfDoesNotExist(any())).thenReturn(createEventResponse);
+            when(eventService.createEventsIfDoNotExist(any())).thenAnswer(respondToEachEventWith(createEventResponse));
             when(eventMessage.getEvent()).thenReturn(event);
             when(snsConfig.isPublishCardPaymentDisputeEventsToSns()).thenReturn(false);
 
@@ -251,5 +401,67 @@ class EventMessageHandlerTest {
 
             verify(eventPublisher).publishMessageToTopic(messageBody, TopicName.CARD_PAYMENT_DISPUTE_EVENTS);
         }
+
+        @Test
+        void shouldMarkMessageAsProcessedOnceBatchPublishingHasBeenAccepted() throws Exception {
+            String messageBody = "{ \"foo\": \"bar\"}";
+
+            EventEntity event = aQueuePaymentEventFixture().toEntity();
+            when(eventMessage.getEvent()).thenReturn(event);
+            when(eventMessage.getRawMessageBody()).thenReturn(messageBody);
+            when(eventMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("a-valid-recipient-handle"));
+            when(snsConfig.isPublishCardPaymentEventsToSns()).thenReturn(true);
+            when(snsConfig.isBatchPublishingEnabled()).thenReturn(true);
+            when(batchingEventPublisher.publish(eq(messageBody), eq(TopicName.CARD_PAYMENT_EVENTS), any()))
+                    .thenReturn(CompletableFuture.completedFuture(null));
+
+            eventMessageHandler.handle();
+
+            verify(eventQueue).markMessagesAsProcessed(List.of(eventMessage));
+            verify(eventQueue, never()).scheduleMessagesForRetry(any());
+            verifyNoInteractions(eventPublisher);
+        }
+
+        @Test
+        void shouldScheduleMessageForRetryWhenBatchPublishingFails() throws Exception {
+            String messageBody = "{ \"foo\": \"bar\"}";
+
+            EventEntity event = aQueuePaymentEventFixture().toEntity();
+            when(eventMessage.getEvent()).thenReturn(event);
+            when(eventMessage.getRawMessageBody()).thenReturn(messageBody);
+            when(eventMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("a-valid-recipient-handle"));
+            when(snsConfig.isPublishCardPaymentEventsToSns()).thenReturn(true);
+            when(snsConfig.isBatchPublishingEnabled()).thenReturn(true);
+            when(batchingEventPublisher.publish(eq(messageBody), eq(TopicName.CARD_PAYMENT_EVENTS), any()))
+                    .thenReturn(CompletableFuture.failedFuture(new EventPublisherException("SNS unavailable", null)));
+
+            eventMessageHandler.handle();
+
+            verify(eventQueue).scheduleMessagesForRetry(List.of(eventMessage));
+            verify(eventQueue, never()).markMessagesAsProcessed(any());
+        }
+
+        @Test
+        void shouldNotWaitForBatchPublishingAndMarkMessageAsProcessedOnceItCompletes() throws Exception {
+            String messageBody = "{ \"foo\": \"bar\"}";
+            CompletableFuture<Void> publishing = new CompletableFuture<>();
+
+            EventEntity event = aQueuePaymentEventFixture().toEntity();
+            when(eventMessage.getEvent()).thenReturn(event);
+            when(eventMessage.getRawMessageBody()).thenReturn(messageBody);
+            when(eventMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("a-valid-recipient-handle"));
+            when(snsConfig.isPublishCardPaymentEventsToSns()).thenReturn(true);
+            when(snsConfig.isBatchPublishingEnabled()).thenReturn(true);
+            when(batchingEventPublisher.publish(eq(messageBody), eq(TopicName.CARD_PAYMENT_EVENTS), any())).thenReturn(publishing);
+
+            eventMessageHandler.handle();
+
+            verify(eventQueue, never()).markMessagesAsProcessed(any());
+
+            publishing.complete(null);
+
+            verify(eventQueue).markMessagesAsProcessed(List.of(eventMessage));
+            verify(eventQueue, never()).scheduleMessagesForRetry(any());
+        }
     }
 }
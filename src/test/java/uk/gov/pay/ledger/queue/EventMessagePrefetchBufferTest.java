@@ -0,0 +1,87 @@
+package uk.gov.pay.ledger.queue;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EventMessagePrefetchBufferTest {
+
+    private static final Instant NOW = Instant.parse("2022-06-01T10:00:00Z");
+
+    @Mock
+    private EventQueue eventQueue;
+
+    @Mock
+    private InstantSource instantSource;
+
+    private MetricRegistry metricRegistry;
+    private EventMessagePrefetchBuffer prefetchBuffer;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        prefetchBuffer = new EventMessagePrefetchBuffer(eventQueue, metricRegistry, instantSource, 2, Duration.ofSeconds(15));
+    }
+
+    @Test
+    void shouldBufferFetchedBatchUntilTaken() throws Exception {
+        List<EventMessage> batch = List.of(mock(EventMessage.class), mock(EventMessage.class));
+        when(eventQueue.retrieveEvents()).thenReturn(batch);
+        when(instantSource.instant()).thenReturn(NOW, NOW.plusSeconds(1));
+
+        prefetchBuffer.fetch();
+
+        assertThat(prefetchBuffer.getBufferedMessageCount(), is(2));
+        assertThat((Integer) metricRegistry.getGauges().get("event-message-prefetch-buffer.depth").getValue(), is(2));
+
+        assertThat(prefetchBuffer.poll(Duration.ofSeconds(1)), is(Optional.of(batch)));
+        assertThat(prefetchBuffer.getBufferedMessageCount(), is(0));
+        assertThat(metricRegistry.timer("event-message-prefetch-buffer.fetch-wait").getCount(), is(1L));
+        assertThat(metricRegistry.timer("event-message-prefetch-buffer.processing-wait").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldNotBufferEmptyBatches() throws Exception {
+        when(eventQueue.retrieveEvents()).thenReturn(List.of());
+
+        prefetchBuffer.fetch();
+
+        assertThat(prefetchBuffer.getBufferedMessageCount(), is(0));
+        assertThat(metricRegistry.timer("event-message-prefetch-buffer.fetch-wait").getCount(), is(0L));
+    }
+
+    @Test
+    void shouldReturnNothingWhenNoBatchIsFetchedWithinTheTimeout() throws Exception {
+        assertThat(prefetchBuffer.poll(Duration.ofMillis(50)), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldDropBatchesBufferedForLongerThanTheMaximumBufferedTime() throws Exception {
+        List<EventMessage> staleBatch = List.of(mock(EventMessage.class));
+        List<EventMessage> freshBatch = List.of(mock(EventMessage.class), mock(EventMessage.class));
+        when(eventQueue.retrieveEvents()).thenReturn(staleBatch, freshBatch);
+        when(instantSource.instant()).thenReturn(NOW, NOW.plusSeconds(14), NOW.plusSeconds(16), NOW.plusSeconds(16));
+
+        prefetchBuffer.fetch();
+        prefetchBuffer.fetch();
+
+        assertThat(prefetchBuffer.poll(Duration.ofSeconds(1)), is(Optional.of(freshBatch)));
+        assertThat(prefetchBuffer.getBufferedMessageCount(), is(0));
+        assertThat(metricRegistry.counter("event-message-prefetch-buffer.expired-messages").getCount(), is(1L));
+    }
+}
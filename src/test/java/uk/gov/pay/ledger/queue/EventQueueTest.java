@@ -1,11 +1,20 @@
 package uk.gov.pay.ledger.queue;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
 import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.pay.ledger.app.config.QueueMessageReceiverConfig;
@@ -17,13 +26,24 @@ import uk.gov.service.payments.commons.queue.sqs.SqsQueueService;
 
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,10 +55,27 @@ class EventQueueTest {
     @Mock
     private SqsQueueService sqsQueueService;
 
+    @Mock
+    private SqsClient sqsClient;
+
+    private MetricRegistry metricRegistry;
     private EventQueue eventQueue;
 
     @BeforeEach
-    void setUp() throws QueueException {
+    void setUp() {
+        QueueMessageReceiverConfig queueMessageReceiverConfig = mock(QueueMessageReceiverConfig.class);
+        SqsConfig sqsConfig = mock(SqsConfig.class);
+        when(sqsConfig.getEventQueueUrl()).thenReturn("");
+        when(queueMessageReceiverConfig.getMessageRetryDelayInSeconds()).thenReturn(900);
+        when(ledgerConfig.getSqsConfig()).thenReturn(sqsConfig);
+        when(ledgerConfig.getQueueMessageReceiverConfig()).thenReturn(queueMessageReceiverConfig);
+
+        metricRegistry = new MetricRegistry();
+        eventQueue = new EventQueue(sqsQueueService, sqsClient, ledgerConfig, new ObjectMapper(), metricRegistry);
+    }
+
+    @Test
+    void retrieveEvents() throws QueueException {
         String validJsonMessage = "{" +
                 "\"id\": \"my-id\"," +
                 "\"timestamp\": \"2018-03-12T16:25:01.123456Z\"," +
@@ -55,19 +92,8 @@ class EventQueueTest {
         List<QueueMessage> messages = List.of(
                 QueueMessage.of(messageResult, validJsonMessage)
         );
-        QueueMessageReceiverConfig queueMessageReceiverConfig = mock(QueueMessageReceiverConfig.class);
-        SqsConfig sqsConfig = mock(SqsConfig.class);
-        when(sqsConfig.getEventQueueUrl()).thenReturn("");
-        when(queueMessageReceiverConfig.getMessageRetryDelayInSeconds()).thenReturn(900);
-        when(ledgerConfig.getSqsConfig()).thenReturn(sqsConfig);
-        when(ledgerConfig.getQueueMessageReceiverConfig()).thenReturn(queueMessageReceiverConfig);
         when(sqsQueueService.receiveMessages(anyString(), anyString())).thenReturn(messages);
 
-        eventQueue = new EventQueue(sqsQueueService, ledgerConfig, new ObjectMapper());
-    }
-
-    @Test
-    void retrieveEvents() throws QueueException {
         List<EventMessage> eventsList = eventQueue.retrieveEvents();
 
         assertNotNull(eventsList);
@@ -79,4 +105,111 @@ class EventQueueTest {
         assertEquals("{\"example_event_details_field\":\"and its value\"}", eventsList.get(0).getEvent().getEventData());
         assertTrue(eventsList.get(0).getEvent().isReprojectDomainObject());
     }
+
+    @Test
+    void shouldDeleteProcessedMessagesInBatchesOfTen() {
+        List<EventMessage> messages = eventMessagesWithReceiptHandles(12);
+        when(sqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder().build());
+
+        eventQueue.markMessagesAsProcessed(messages);
+
+        ArgumentCaptor<DeleteMessageBatchRequest> requestCaptor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqsClient, times(2)).deleteMessageBatch(requestCaptor.capture());
+        assertThat(requestCaptor.getAllValues().get(0).entries().size(), is(10));
+        assertThat(requestCaptor.getAllValues().get(1).entries().size(), is(2));
+        assertThat(requestCaptor.getAllValues().get(1).entries().get(1).receiptHandle(), is("receipt-handle-11"));
+        verifyNoInteractions(sqsQueueService);
+    }
+
+    @Test
+    void shouldRetryFailedBatchDeleteEntriesIndividually() throws QueueException {
+        List<EventMessage> messages = eventMessagesWithReceiptHandles(3);
+        when(sqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .failed(BatchResultErrorEntry.builder().id("1").code("InternalError").senderFault(false).build())
+                        .build());
+
+        eventQueue.markMessagesAsProcessed(messages);
+
+        verify(sqsQueueService).deleteMessage("", "receipt-handle-1");
+        verifyNoMoreInteractions(sqsQueueService);
+    }
+
+    @Test
+    void shouldNotRetryBatchDeleteEntriesRejectedBySqs() {
+        List<EventMessage> messages = eventMessagesWithReceiptHandles(3);
+        when(sqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .failed(BatchResultErrorEntry.builder().id("1").code("ReceiptHandleIsInvalid").senderFault(true).build())
+                        .build());
+
+        eventQueue.markMessagesAsProcessed(messages);
+
+        verifyNoInteractions(sqsQueueService);
+        assertThat(metricRegistry.counter("event-queue.delete-message-batch.rejected-entries").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldCarryOnDeletingTheRemainingBatchesWhenABatchRequestFails() {
+        List<EventMessage> messages = eventMessagesWithReceiptHandles(12);
+        when(sqsClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenThrow(SdkException.builder().message("Service unavailable").build())
+                .thenReturn(DeleteMessageBatchResponse.builder().build());
+
+        eventQueue.markMessagesAsProcessed(messages);
+
+        verify(sqsClient, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        assertThat(metricRegistry.counter("event-queue.delete-message-batch.failed-calls").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldCarryOnDeferringTheRemainingBatchesWhenABatchRequestFails() {
+        List<EventMessage> messages = eventMessagesWithReceiptHandles(12);
+        when(sqsClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenThrow(SdkException.builder().message("Service unavailable").build())
+                .thenReturn(ChangeMessageVisibilityBatchResponse.builder().build());
+
+        eventQueue.scheduleMessagesForRetry(messages);
+
+        verify(sqsClient, times(2)).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+        assertThat(metricRegistry.counter("event-queue.change-message-visibility-batch.failed-calls").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldIgnoreMessagesWithoutReceiptHandleWhenDeletingInBatch() {
+        EventMessage messageWithoutReceiptHandle = mock(EventMessage.class);
+        when(messageWithoutReceiptHandle.getQueueMessageReceiptHandle()).thenReturn(Optional.empty());
+
+        eventQueue.markMessagesAsProcessed(List.of(messageWithoutReceiptHandle));
+
+        verifyNoInteractions(sqsClient);
+    }
+
+    @Test
+    void shouldDeferMessagesForRetryInBatches() throws QueueException {
+        List<EventMessage> messages = eventMessagesWithReceiptHandles(2);
+        when(sqsClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenReturn(ChangeMessageVisibilityBatchResponse.builder()
+                        .failed(BatchResultErrorEntry.builder().id("0").code("InternalError").senderFault(false).build())
+                        .build());
+
+        eventQueue.scheduleMessagesForRetry(messages);
+
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> requestCaptor = ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        verify(sqsClient).changeMessageVisibilityBatch(requestCaptor.capture());
+        assertThat(requestCaptor.getValue().entries().size(), is(2));
+        assertThat(requestCaptor.getValue().entries().get(1).visibilityTimeout(), is(900));
+        verify(sqsQueueService).deferMessage("", "receipt-handle-0", 900);
+    }
+
+    private List<EventMessage> eventMessagesWithReceiptHandles(int numberOfMessages) {
+        return IntStream.range(0, numberOfMessages)
+                .mapToObj(i -> {
+                    EventMessage eventMessage = mock(EventMessage.class);
+                    lenient().when(eventMessage.getQueueMessageReceiptHandle()).thenReturn(Optional.of("receipt-handle-" + i));
+                    return eventMessage;
+                })
+                .collect(Collectors.toList());
+    }
 }
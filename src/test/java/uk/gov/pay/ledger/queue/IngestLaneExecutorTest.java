@@ -0,0 +1,106 @@
+package uk.gov.pay.ledger.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+class IngestLaneExecutorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ExecutorService executorService;
+    private IngestLaneExecutor ingestLaneExecutor;
+
+    @BeforeEach
+    void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+        ingestLaneExecutor = new IngestLaneExecutor(4, executorService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void shouldBeDisabledWithASingleLane() {
+        assertThat(new IngestLaneExecutor(1, executorService).isEnabled(), is(false));
+        assertThat(ingestLaneExecutor.isEnabled(), is(true));
+    }
+
+    @Test
+    void shouldProcessAllMessagesAndKeepOrderForTheSameResource() throws Exception {
+        List<EventMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(anEventMessage("payment", "payment-" + (i % 5), null, "EVENT_" + i));
+        }
+        List<EventMessage> processed = Collections.synchronizedList(new ArrayList<>());
+
+        ingestLaneExecutor.process(messages, processed::addAll);
+
+        assertThat(processed.size(), is(20));
+        for (int i = 0; i < 5; i++) {
+            String resourceExternalId = "payment-" + i;
+            assertThat(eventTypesFor(processed, resourceExternalId), is(eventTypesFor(messages, resourceExternalId)));
+        }
+    }
+
+    @Test
+    void shouldAssignRefundsAndDisputesToTheLaneOfTheirParentPayment() throws Exception {
+        EventMessage payment = anEventMessage("payment", "a-payment", null, "PAYMENT_CREATED");
+        EventMessage refund = anEventMessage("refund", "a-refund", "a-payment", "REFUND_CREATED_BY_SERVICE");
+        EventMessage dispute = anEventMessage("dispute", "a-dispute", "a-payment", "DISPUTE_CREATED");
+
+        assertThat(ingestLaneExecutor.laneFor(refund), is(ingestLaneExecutor.laneFor(payment)));
+        assertThat(ingestLaneExecutor.laneFor(dispute), is(ingestLaneExecutor.laneFor(payment)));
+
+        List<EventMessage> processed = Collections.synchronizedList(new ArrayList<>());
+        ingestLaneExecutor.process(List.of(payment, refund, dispute), processed::addAll);
+
+        assertThat(processed, contains(payment, refund, dispute));
+    }
+
+    @Test
+    void shouldUseResourceExternalIdForChildResourcesWithoutParent() throws Exception {
+        EventMessage refund = anEventMessage("refund", "a-refund", null, "REFUND_CREATED_BY_SERVICE");
+        EventMessage payment = anEventMessage("payment", "another-payment", null, "PAYMENT_CREATED");
+
+        List<EventMessage> processed = Collections.synchronizedList(new ArrayList<>());
+        ingestLaneExecutor.process(List.of(refund, payment), processed::addAll);
+
+        assertThat(IngestLaneExecutor.laneKeyFor(refund.getEventDto()), is("a-refund"));
+        assertThat(processed, containsInAnyOrder(refund, payment));
+    }
+
+    private List<String> eventTypesFor(List<EventMessage> messages, String resourceExternalId) {
+        return messages.stream()
+                .map(EventMessage::getEventDto)
+                .filter(eventDto -> eventDto.getExternalId().equals(resourceExternalId))
+                .map(EventMessageDto::getEventType)
+                .collect(Collectors.toList());
+    }
+
+    private EventMessage anEventMessage(String resourceType, String externalId, String parentExternalId, String eventType) throws Exception {
+        String json = "{" +
+                "\"timestamp\": \"2018-03-12T16:25:01.123456Z\"," +
+                "\"resource_external_id\": \"" + externalId + "\"," +
+                (parentExternalId == null ? "" : "\"parent_resource_external_id\": \"" + parentExternalId + "\",") +
+                "\"event_type\": \"" + eventType + "\"," +
+                "\"resource_type\": \"" + resourceType + "\"," +
+                "\"event_details\": {}" +
+                "}";
+        return EventMessage.of(objectMapper.readValue(json, EventMessageDto.class), null);
+    }
+}
@@ -1,5 +1,6 @@
 package uk.gov.pay.ledger.queue.eventprocessor;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.GsonBuilder;
@@ -18,6 +19,7 @@ import uk.gov.pay.ledger.event.model.ResourceType;
 import uk.gov.pay.ledger.event.model.TransactionEntityFactory;
 import uk.gov.pay.ledger.event.service.EventService;
 import uk.gov.pay.ledger.exception.EmptyEventsException;
+import uk.gov.pay.ledger.queue.IngestMetrics;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.service.TransactionService;
 
@@ -29,6 +31,8 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.gov.pay.ledger.event.model.ResourceType.REFUND;
@@ -38,12 +42,16 @@ import static uk.gov.pay.ledger.util.fixture.QueuePaymentEventFixture.aQueuePaym
 @ExtendWith(MockitoExtension.class)
 class ChildTransactionEventProcessorTest {
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Mock
     private EventService mockEventService;
     @Mock
     private TransactionService mockTransactionService;
     @Captor
     private ArgumentCaptor<TransactionEntity> transactionEntityArgumentCaptor;
+    @Captor
+    private ArgumentCaptor<List<TransactionEntity>> transactionEntityListArgumentCaptor;
 
     private TransactionEntityFactory transactionEntityFactory;
     private ChildTransactionEventProcessor childTransactionEventProcessor;
@@ -52,7 +60,7 @@ class ChildTransactionEventProcessorTest {
     void setUp() {
         transactionEntityFactory = new TransactionEntityFactory(new ObjectMapper());
         childTransactionEventProcessor = new ChildTransactionEventProcessor(mockEventService, mockTransactionService,
-                transactionEntityFactory);
+                transactionEntityFactory, new IngestMetrics(new MetricRegistry()));
     }
 
     @Test
@@ -96,9 +104,9 @@ class ChildTransactionEventProcessorTest {
                         )))
                 .toEntity();
 
-        EventDigest refundEventDigest = EventDigest.fromEventList(List.of(refundEvent));
+        EventDigest refundEventDigest = EventDigest.fromEventList(List.of(refundEvent), objectMapper);
         when(mockEventService.getEventDigestForResource(refundEvent)).thenReturn(refundEventDigest);
-        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(paymentEvent1, paymentEvent2, paymentEvent3));
+        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(paymentEvent1, paymentEvent2, paymentEvent3), objectMapper);
         when(mockEventService.getEventDigestForResource(paymentExternalId)).thenReturn(paymentEventDigest);
 
         childTransactionEventProcessor.process(refundEvent, true);
@@ -139,7 +147,7 @@ class ChildTransactionEventProcessorTest {
                 .withParentResourceExternalId(paymentExternalId)
                 .toEntity();
 
-        EventDigest refundEventDigest = EventDigest.fromEventList(List.of(refundEvent));
+        EventDigest refundEventDigest = EventDigest.fromEventList(List.of(refundEvent), objectMapper);
         when(mockEventService.getEventDigestForResource(refundEvent)).thenReturn(refundEventDigest);
         when(mockEventService.getEventDigestForResource(paymentExternalId)).thenThrow(EmptyEventsException.class);
 
@@ -149,7 +157,7 @@ class ChildTransactionEventProcessorTest {
     }
 
     @Test
-    void shouldIncludePaymentInformationWhenChildTransactionReprojected() {
+    void shouldIncludePaymentInformationWhenChildTransactionsReprojected() {
 
         String paymentEventData = new GsonBuilder().create()
                 .toJson(ImmutableMap.builder()
@@ -158,24 +166,32 @@ class ChildTransactionEventProcessorTest {
                         .put("card_type", "visa")
                         .build());
         EventEntity paymentEvent = anEventFixture().withEventData(paymentEventData).toEntity();
-        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(paymentEvent));
+        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(paymentEvent), objectMapper);
 
         String refundEventData = new GsonBuilder().create()
                 .toJson(ImmutableMap.builder()
                         .put("amount", -50)
                         .put("some_refund_info", "blah")
                         .build());
-        EventEntity refundEvent = anEventFixture().withEventData(refundEventData).toEntity();
-        EventDigest refundEventDigest = EventDigest.fromEventList(List.of(refundEvent));
+        EventEntity refundEvent = anEventFixture().withResourceExternalId("refund-external-id-1")
+                .withEventData(refundEventData).toEntity();
+        EventEntity anotherRefundEvent = anEventFixture().withResourceExternalId("refund-external-id-2")
+                .withEventData("{\"amount\": -25}").toEntity();
 
-        String refundExternalId = "refund-external-id";
-        when(mockEventService.getEventDigestForResource(refundExternalId)).thenReturn(refundEventDigest);
+        List<String> refundExternalIds = List.of("refund-external-id-1", "refund-external-id-2");
+        when(mockEventService.getEventDigestsForResources(refundExternalIds)).thenReturn(List.of(
+                EventDigest.fromEventList(List.of(refundEvent), objectMapper),
+                EventDigest.fromEventList(List.of(anotherRefundEvent), objectMapper)));
 
-        childTransactionEventProcessor.reprojectChildTransaction(refundExternalId, paymentEventDigest);
+        childTransactionEventProcessor.reprojectChildTransactions(refundExternalIds, paymentEventDigest);
 
-        verify(mockTransactionService).upsertTransaction(transactionEntityArgumentCaptor.capture());
+        verify(mockTransactionService).upsertTransactions(transactionEntityListArgumentCaptor.capture());
 
-        TransactionEntity transactionEntity = transactionEntityArgumentCaptor.getValue();
+        List<TransactionEntity> transactionEntities = transactionEntityListArgumentCaptor.getValue();
+        assertThat(transactionEntities.size(), is(2));
+
+        TransactionEntity transactionEntity = transactionEntities.get(0);
+        assertThat(transactionEntity.getExternalId(), is("refund-external-id-1"));
         assertThat(transactionEntity.getReference(), is("payment-ref"));
         assertThat(transactionEntity.getAmount(), is(-50L));
 
@@ -183,13 +199,27 @@ class ChildTransactionEventProcessorTest {
         assertThat(transactionDetails.get("some_refund_info").getAsString(), is("blah"));
         assertThat(transactionDetails.get("payment_details").getAsJsonObject(), is(notNullValue()));
         assertThat(transactionDetails.get("payment_details").getAsJsonObject().get("card_type").getAsString(), is("visa"));
+
+        TransactionEntity anotherTransactionEntity = transactionEntities.get(1);
+        assertThat(anotherTransactionEntity.getExternalId(), is("refund-external-id-2"));
+        assertThat(anotherTransactionEntity.getReference(), is("payment-ref"));
+        assertThat(anotherTransactionEntity.getAmount(), is(-25L));
     }
 
+    @Test
+    void shouldNotLoadEventsWhenThereAreNoChildTransactionsToReproject() {
+        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(anEventFixture().toEntity()), objectMapper);
+
+        childTransactionEventProcessor.reprojectChildTransactions(List.of(), paymentEventDigest);
+
+        verify(mockEventService, never()).getEventDigestsForResources(any());
+        verify(mockTransactionService, never()).upsertTransactions(any());
+    }
 
     @Test
     void shouldProjectDisputeTransaction() {
         EventEntity disputeEvent = anEventFixture().withResourceType(ResourceType.DISPUTE).withLive(true).toEntity();
-        EventDigest eventDigest = EventDigest.fromEventList(List.of(disputeEvent));
+        EventDigest eventDigest = EventDigest.fromEventList(List.of(disputeEvent), objectMapper);
         when(mockEventService.getEventDigestForResource(disputeEvent)).thenReturn(eventDigest);
         childTransactionEventProcessor.process(disputeEvent, true);
 
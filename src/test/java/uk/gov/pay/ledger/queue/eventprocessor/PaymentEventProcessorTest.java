@@ -1,5 +1,7 @@
 package uk.gov.pay.ledger.queue.eventprocessor;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -7,17 +9,24 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.event.model.EventDigest;
+import uk.gov.pay.ledger.event.model.TransactionEntityFactory;
 import uk.gov.pay.ledger.event.service.EventService;
+import uk.gov.pay.ledger.queue.IngestMetrics;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.service.TransactionMetadataService;
 import uk.gov.pay.ledger.transaction.service.TransactionService;
 import uk.gov.pay.ledger.transactionsummary.service.TransactionSummaryService;
 
+import java.time.ZonedDateTime;
 import java.util.List;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -28,6 +37,8 @@ import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixt
 @ExtendWith(MockitoExtension.class)
 class PaymentEventProcessorTest {
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Mock
     private EventService eventService;
     @Mock
@@ -38,13 +49,18 @@ class PaymentEventProcessorTest {
     private ChildTransactionEventProcessor childTransactionEventProcessor;
     @Mock
     private TransactionSummaryService transactionSummaryService;
+    @Mock
+    private TransactionEntityFactory transactionEntityFactory;
 
+    private MetricRegistry metricRegistry;
     private PaymentEventProcessor paymentEventProcessor;
 
-
     @BeforeEach
     void setUp() {
-        paymentEventProcessor = new PaymentEventProcessor(eventService, transactionService, transactionMetadataService, childTransactionEventProcessor, transactionSummaryService);
+        metricRegistry = new MetricRegistry();
+        paymentEventProcessor = new PaymentEventProcessor(eventService, transactionService, transactionMetadataService,
+                childTransactionEventProcessor, transactionSummaryService, transactionEntityFactory, new IngestMetrics(metricRegistry),
+                objectMapper);
     }
 
     @Test
@@ -60,7 +76,7 @@ class PaymentEventProcessorTest {
                 .withEventType("USER_APPROVED_FOR_CAPTURE")
                 .toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(List.of(previousEvent, event));
+        givenEventsForResource(event, List.of(previousEvent, event));
 
         TransactionEntity refundTransaction1 = aTransactionFixture().withExternalId("refund-external-id-1").toEntity();
         TransactionEntity refundTransaction2 = aTransactionFixture().withExternalId("refund-external-id-2").toEntity();
@@ -70,8 +86,23 @@ class PaymentEventProcessorTest {
 
         verify(transactionService).upsertTransactionFor(any(EventDigest.class));
         verify(transactionMetadataService).upsertMetadataFor(event);
-        verify(childTransactionEventProcessor).reprojectChildTransaction(eq(refundTransaction1.getExternalId()), any(EventDigest.class));
-        verify(childTransactionEventProcessor).reprojectChildTransaction(eq(refundTransaction2.getExternalId()), any(EventDigest.class));
+        verify(childTransactionEventProcessor).reprojectChildTransactions(
+                eq(List.of(refundTransaction1.getExternalId(), refundTransaction2.getExternalId())), any(EventDigest.class));
+    }
+
+    @Test
+    void shouldTimeEachProjectionStage() {
+        EventEntity event = anEventFixture().withResourceType(PAYMENT)
+                .withEventType("PAYMENT_CREATED")
+                .toEntity();
+        givenEventsForResource(event, List.of(event));
+
+        paymentEventProcessor.process(event, true);
+
+        String processorName = PaymentEventProcessor.class.getSimpleName();
+        List.of("reload", "digest", "upsert", "metadata", "transaction-summary").forEach(stage ->
+                assertThat(metricRegistry.timer("ingest-stage." + stage + ".payment." + processorName).getCount(), is(1L)));
+        assertThat(metricRegistry.timer("ingest-stage.child-reprojection.payment." + processorName).getCount(), is(0L));
     }
 
     @Test
@@ -87,13 +118,13 @@ class PaymentEventProcessorTest {
                 .withEventType("PAYMENT_STARTED")
                 .toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(List.of(previousEvent, event));
+        givenEventsForResource(event, List.of(previousEvent, event));
 
         paymentEventProcessor.process(event, true);
         verify(transactionService).upsertTransactionFor(any(EventDigest.class));
         verify(transactionMetadataService).upsertMetadataFor(event);
         verify(transactionService, never()).getChildTransactions(any());
-        verify(childTransactionEventProcessor, never()).reprojectChildTransaction(any(), any());
+        verify(childTransactionEventProcessor, never()).reprojectChildTransactions(any(), any());
     }
 
     @Test
@@ -109,13 +140,13 @@ class PaymentEventProcessorTest {
                 .withEventType("USER_APPROVED_FOR_CAPTURE")
                 .toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(List.of(previousEvent, event));
+        givenEventsForResource(event, List.of(previousEvent, event));
 
         paymentEventProcessor.process(event, true);
         verify(transactionService).upsertTransactionFor(any(EventDigest.class));
         verify(transactionMetadataService).upsertMetadataFor(event);
         verify(transactionService, never()).getChildTransactions(any());
-        verify(childTransactionEventProcessor, never()).reprojectChildTransaction(any(), any());
+        verify(childTransactionEventProcessor, never()).reprojectChildTransactions(any(), any());
     }
 
     @Test
@@ -129,7 +160,7 @@ class PaymentEventProcessorTest {
         List<EventEntity> events = List.of(event);
         TransactionEntity transactionEntity = aTransactionFixture().toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(events);
+        givenEventsForResource(event, events);
         when(transactionService.upsertTransactionFor(any(EventDigest.class))).thenReturn(transactionEntity);
 
         paymentEventProcessor.process(event, true);
@@ -145,7 +176,7 @@ class PaymentEventProcessorTest {
                 .withIsReprojectDomainObject(true)
                 .toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(List.of(event));
+        givenEventsForResource(event, List.of(event));
 
         paymentEventProcessor.process(event, true);
         verifyNoInteractions(transactionSummaryService);
@@ -160,7 +191,7 @@ class PaymentEventProcessorTest {
                 .withIsReprojectDomainObject(false)
                 .toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(List.of(event));
+        givenEventsForResource(event, List.of(event));
 
         paymentEventProcessor.process(event, false);
         verifyNoInteractions(transactionSummaryService);
@@ -173,11 +204,77 @@ class PaymentEventProcessorTest {
                 .withIsReprojectDomainObject(true)
                 .toEntity();
 
-        when(eventService.getEventsForResource(event.getResourceExternalId())).thenReturn(List.of(anEventFixture().toEntity()));
+        givenEventsForResource(event, List.of(anEventFixture().toEntity()));
         paymentEventProcessor.process(event, true);
 
         verify(transactionService).upsertTransactionFor(any(EventDigest.class));
         verify(transactionMetadataService).reprojectFromEventDigest(any(EventDigest.class));
         verify(transactionMetadataService, never()).upsertMetadataFor(event);
     }
+
+    @Test
+    void shouldProjectPaymentOnceForEventsIngestedTogetherAndTransactionSummaryForEachNewEvent() {
+        String paymentExternalId = "payment-external-id";
+        ZonedDateTime now = ZonedDateTime.now();
+        EventEntity paymentCreated = anEventFixture().withResourceType(PAYMENT)
+                .withResourceExternalId(paymentExternalId)
+                .withEventType("PAYMENT_CREATED")
+                .withEventDate(now.minusMinutes(2))
+                .toEntity();
+        EventEntity authorisationSucceeded = anEventFixture().withResourceType(PAYMENT)
+                .withResourceExternalId(paymentExternalId)
+                .withEventType("AUTHORISATION_SUCCEEDED")
+                .withEventDate(now.minusMinutes(1))
+                .toEntity();
+        EventEntity captureSubmitted = anEventFixture().withResourceType(PAYMENT)
+                .withResourceExternalId(paymentExternalId)
+                .withEventType("CAPTURE_SUBMITTED")
+                .withEventDate(now)
+                .toEntity();
+        List<EventEntity> events = List.of(captureSubmitted, authorisationSucceeded, paymentCreated);
+        EventDigest paymentEventDigest = EventDigest.fromEventList(events, objectMapper);
+        TransactionEntity transactionEntity = aTransactionFixture().toEntity();
+        TransactionEntity transactionAfterAuthorisation = aTransactionFixture().toEntity();
+
+        when(eventService.getEventsForResource(paymentExternalId)).thenReturn(events);
+        when(eventService.replayEventDigest(events)).thenReturn(paymentEventDigest);
+        when(transactionService.upsertTransactionFor(paymentEventDigest)).thenReturn(transactionEntity);
+        when(transactionEntityFactory.create(any(EventDigest.class))).thenReturn(transactionAfterAuthorisation);
+
+        paymentEventProcessor.process(List.of(
+                new IngestedEvent(authorisationSucceeded, true),
+                new IngestedEvent(captureSubmitted, true)));
+
+        verify(transactionService, times(1)).upsertTransactionFor(any(EventDigest.class));
+        verify(transactionMetadataService).upsertMetadataFor(authorisationSucceeded);
+        verify(transactionMetadataService).upsertMetadataFor(captureSubmitted);
+        verify(transactionSummaryService).projectTransactionSummary(transactionAfterAuthorisation, authorisationSucceeded,
+                List.of(authorisationSucceeded, paymentCreated));
+        verify(transactionSummaryService).projectTransactionSummary(transactionEntity, captureSubmitted, events);
+    }
+
+    @Test
+    void shouldNotProjectTransactionSummaryForEventsIngestedTogetherThatAlreadyExisted() {
+        String paymentExternalId = "payment-external-id";
+        EventEntity paymentCreated = anEventFixture().withResourceType(PAYMENT)
+                .withResourceExternalId(paymentExternalId)
+                .withEventType("PAYMENT_CREATED")
+                .toEntity();
+        List<EventEntity> events = List.of(paymentCreated);
+
+        when(eventService.getEventsForResource(paymentExternalId)).thenReturn(events);
+        when(eventService.replayEventDigest(events)).thenReturn(EventDigest.fromEventList(events, objectMapper));
+
+        paymentEventProcessor.process(List.of(
+                new IngestedEvent(paymentCreated, false),
+                new IngestedEvent(paymentCreated, false)));
+
+        verify(transactionService, times(1)).upsertTransactionFor(any(EventDigest.class));
+        verifyNoInteractions(transactionSummaryService);
+    }
+
+    private void givenEventsForResource(EventEntity event, List<EventEntity> events) {
+        when(eventService.getEventsWithoutDataForResource(event.getResourceExternalId())).thenReturn(events);
+        when(eventService.getEventDigestForResource(eq(event), eq(events), anyBoolean())).thenReturn(EventDigest.fromEventList(events, objectMapper));
+    }
 }
@@ -1,5 +1,6 @@
 package uk.gov.pay.ledger.queue.eventprocessor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -19,6 +20,8 @@ import static uk.gov.pay.ledger.util.fixture.EventFixture.anEventFixture;
 
 @ExtendWith(MockitoExtension.class)
 class PaymentInstrumentEventProcessorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
     @Mock
     EventService mockEventService;
 
@@ -31,7 +34,7 @@ class PaymentInstrumentEventProcessorTest {
     @Test
     void shouldUpsertPaymentInstrument() {
         EventEntity event = anEventFixture().withResourceType(PAYMENT_INSTRUMENT).toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(anEventFixture().toEntity()));
+        var eventDigest = EventDigest.fromEventList(List.of(anEventFixture().toEntity()), objectMapper);
         when(mockEventService.getEventDigestForResource(event)).thenReturn(eventDigest);
 
         paymentInstrumentEventProcessor.process(event, true);
@@ -1,5 +1,6 @@
 package uk.gov.pay.ledger.queue.eventprocessor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -20,6 +21,8 @@ import static uk.gov.pay.ledger.util.fixture.EventFixture.anEventFixture;
 @ExtendWith(MockitoExtension.class)
 class PayoutEventProcessorTest {
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Mock
     EventService mockEventService;
 
@@ -32,7 +35,7 @@ class PayoutEventProcessorTest {
     @Test
     void shouldUpsertPayout() {
         EventEntity event = anEventFixture().withResourceType(PAYOUT).toEntity();
-        var eventDigest = EventDigest.fromEventList(List.of(anEventFixture().toEntity()));
+        var eventDigest = EventDigest.fromEventList(List.of(anEventFixture().toEntity()), objectMapper);
         when(mockEventService.getEventDigestForResource(event)).thenReturn(eventDigest);
 
         payoutEventProcessor.process(event, true);
@@ -0,0 +1,119 @@
+package uk.gov.pay.ledger.queue.managed;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.ledger.queue.EventMessage;
+import uk.gov.pay.ledger.queue.EventMessageHandler;
+import uk.gov.pay.ledger.queue.EventMessagePrefetchBuffer;
+import uk.gov.pay.ledger.queue.EventQueue;
+import uk.gov.service.payments.commons.queue.exception.QueueException;
+
+import java.time.Duration;
+import java.time.InstantSource;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PrefetchingQueueMessageReceiverTest {
+
+    @Mock
+    private EventQueue eventQueue;
+
+    @Mock
+    private EventMessageHandler eventMessageHandler;
+
+    private final ExecutorService fetchExecutorService = Executors.newSingleThreadExecutor();
+    private final ExecutorService processingExecutorService = Executors.newSingleThreadExecutor();
+    private PrefetchingQueueMessageReceiver receiver;
+
+    @BeforeEach
+    void setUp() {
+        var prefetchBuffer = new EventMessagePrefetchBuffer(eventQueue, new MetricRegistry(), InstantSource.system(), 2,
+                Duration.ofSeconds(15));
+        receiver = new PrefetchingQueueMessageReceiver(prefetchBuffer, eventMessageHandler, 1, 1,
+                fetchExecutorService, processingExecutorService, Duration.ofMillis(200), Duration.ofMillis(400));
+    }
+
+    @AfterEach
+    void tearDown() {
+        receiver.stop();
+    }
+
+    @Test
+    void shouldHandleTheBatchesTheFetchThreadsReceive() throws Exception {
+        List<EventMessage> batch = List.of(mock(EventMessage.class), mock(EventMessage.class));
+        when(eventQueue.retrieveEvents()).thenReturn(batch).thenAnswer(invocation -> longPoll());
+
+        receiver.start();
+
+        verify(eventMessageHandler, timeout(5000)).handle(batch);
+    }
+
+    @Test
+    void shouldInterruptThreadsBlockedOnTheQueueAndStopWaitingOnTheBufferWhenStopped() throws Exception {
+        when(eventQueue.retrieveEvents()).thenAnswer(invocation -> longPoll());
+        receiver.start();
+        verify(eventQueue, timeout(5000)).retrieveEvents();
+
+        receiver.stop();
+
+        assertThat(fetchExecutorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(processingExecutorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void shouldLetTheBatchBeingProcessedFinishWhenStopped() throws Exception {
+        List<EventMessage> batch = List.of(mock(EventMessage.class));
+        when(eventQueue.retrieveEvents()).thenReturn(batch).thenAnswer(invocation -> longPoll());
+        var processingStarted = new CountDownLatch(1);
+        var processingFinished = new AtomicBoolean();
+        doAnswer(invocation -> {
+            processingStarted.countDown();
+            Thread.sleep(500);
+            processingFinished.set(true);
+            return null;
+        }).when(eventMessageHandler).handle(batch);
+
+        receiver.start();
+        assertThat(processingStarted.await(5, TimeUnit.SECONDS), is(true));
+        receiver.stop();
+
+        assertThat(processingFinished.get(), is(true));
+        assertThat(processingExecutorService.isTerminated(), is(true));
+    }
+
+    @Test
+    void shouldBackOffBeforePollingAgainAfterAFailedFetch() throws Exception {
+        when(eventQueue.retrieveEvents()).thenThrow(new QueueException("SQS is unavailable"));
+
+        receiver.start();
+
+        // polls again after the initial backoff of 200ms, then waits 400ms before the third poll
+        verify(eventQueue, timeout(5000).times(2)).retrieveEvents();
+        verify(eventQueue, after(200).times(2)).retrieveEvents();
+    }
+
+    private static List<EventMessage> longPoll() throws InterruptedException {
+        Thread.sleep(Long.MAX_VALUE);
+        return List.of();
+    }
+}
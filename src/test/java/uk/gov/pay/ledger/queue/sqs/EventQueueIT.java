@@ -1,11 +1,15 @@
 package uk.gov.pay.ledger.queue.sqs;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.PurgeQueueRequest;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.pay.ledger.app.config.QueueMessageReceiverConfig;
 import uk.gov.pay.ledger.app.config.SqsConfig;
@@ -19,7 +23,10 @@ import uk.gov.service.payments.commons.queue.model.QueueMessage;
 import uk.gov.service.payments.commons.queue.sqs.SqsQueueService;
 
 import java.util.List;
+import java.util.Map;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -62,9 +69,40 @@ public class EventQueueIT {
         when(mockConfig.getQueueMessageReceiverConfig()).thenReturn(queueReceiverConfig);
 
         SqsQueueService sqsQueueService = new SqsQueueService(client, 1, 10);
-        EventQueue eventQueue = new EventQueue(sqsQueueService, mockConfig, new ObjectMapper());
+        EventQueue eventQueue = new EventQueue(sqsQueueService, client, mockConfig, new ObjectMapper(), new MetricRegistry());
 
         List<EventMessage> result = eventQueue.retrieveEvents();
         assertFalse(result.isEmpty());
     }
+
+    @Test
+    public void shouldDeleteAllMessagesOfABatchWithASingleBatchRequest() throws QueueException {
+        String queueUrl = SqsTestDocker.getQueueUrl("event-queue");
+        client.purgeQueue(PurgeQueueRequest.builder().queueUrl(queueUrl).build());
+        for (int i = 0; i < 3; i++) {
+            aQueuePaymentEventFixture().withResourceExternalId("external-id-" + i).insert(client);
+        }
+
+        SqsConfig sqsConfig = mock(SqsConfig.class);
+        when(sqsConfig.getEventQueueUrl()).thenReturn(queueUrl);
+        QueueMessageReceiverConfig queueReceiverConfig = mock(QueueMessageReceiverConfig.class);
+        when(queueReceiverConfig.getMessageRetryDelayInSeconds()).thenReturn(10);
+        LedgerConfig mockConfig = mock(LedgerConfig.class);
+        when(mockConfig.getSqsConfig()).thenReturn(sqsConfig);
+        when(mockConfig.getQueueMessageReceiverConfig()).thenReturn(queueReceiverConfig);
+
+        MetricRegistry metricRegistry = new MetricRegistry();
+        EventQueue eventQueue = new EventQueue(new SqsQueueService(client, 1, 10), client, mockConfig, new ObjectMapper(), metricRegistry);
+
+        List<EventMessage> result = eventQueue.retrieveEvents();
+        eventQueue.markMessagesAsProcessed(result);
+
+        Map<QueueAttributeName, String> attributes = client.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                .build()).attributes();
+        assertThat(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES), is("0"));
+        assertThat(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE), is("0"));
+        assertThat(metricRegistry.histogram("event-queue.delete-message-batch.entries-per-call").getCount(), is(1L));
+    }
 }
@@ -12,6 +12,7 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import uk.gov.pay.ledger.app.LedgerConfig;
+import uk.gov.pay.ledger.event.dao.EventDigestSnapshotDao;
 import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transaction.model.TransactionType;
@@ -283,6 +284,76 @@ class TransactionDaoIT {
         assertThat(retrievedTransaction.getReference(), is(REDACTED_REFERENCE_NUMBER));
     }
 
+    @Test
+    void shouldUpsertTransactionsInABatch() {
+        TransactionEntity transaction = aTransactionFixture()
+                .withState(TransactionState.CREATED)
+                .withEventCount(2)
+                .insert(rule.getJdbi())
+                .toEntity();
+        TransactionEntity transactionWithMoreEvents = aTransactionFixture()
+                .withState(TransactionState.CREATED)
+                .withEventCount(5)
+                .insert(rule.getJdbi())
+                .toEntity();
+
+        TransactionEntity modifiedTransaction = aTransactionFixture()
+                .withExternalId(transaction.getExternalId())
+                .withEventCount(3)
+                .withState(TransactionState.SUBMITTED)
+                .toEntity();
+        TransactionEntity staleTransaction = aTransactionFixture()
+                .withExternalId(transactionWithMoreEvents.getExternalId())
+                .withEventCount(4)
+                .withState(TransactionState.SUBMITTED)
+                .toEntity();
+        TransactionEntity newTransaction = aTransactionFixture()
+                .withState(TransactionState.SUCCESS)
+                .toEntity();
+
+        transactionDao.upsertAll(List.of(modifiedTransaction, staleTransaction, newTransaction));
+
+        assertThat(transactionDao.findTransactionByExternalId(transaction.getExternalId()).get().getState(),
+                is(TransactionState.SUBMITTED));
+        assertThat(transactionDao.findTransactionByExternalId(transactionWithMoreEvents.getExternalId()).get().getState(),
+                is(TransactionState.CREATED));
+        assertThat(transactionDao.findTransactionByExternalId(newTransaction.getExternalId()).get().getState(),
+                is(TransactionState.SUCCESS));
+    }
+
+    @Test
+    void shouldMoveTransactionToThePartitionOfItsNewCreatedDate() {
+        var transactionPartitionDao = new TransactionPartitionDao(rule.getJdbi());
+        ZonedDateTime startOfNewPartition = transactionPartitionDao.findEndOfLastPartition().get();
+        transactionPartitionDao.createPartitionForMonth(startOfNewPartition);
+        transactionPartitionDao.createPartitionForMonth(startOfNewPartition.plusMonths(1));
+
+        TransactionEntity transaction = aTransactionFixture()
+                .withCreatedDate(startOfNewPartition.plusMonths(1).plusDays(1))
+                .withState(TransactionState.CREATED)
+                .toEntity();
+        transactionDao.upsert(transaction);
+
+        TransactionEntity transactionWithEarlierCreatedDate = aTransactionFixture()
+                .withExternalId(transaction.getExternalId())
+                .withCreatedDate(startOfNewPartition.plusDays(1))
+                .withEventCount(2)
+                .withState(TransactionState.SUBMITTED)
+                .toEntity();
+        transactionDao.upsert(transactionWithEarlierCreatedDate);
+
+        TransactionEntity retrievedTransaction = transactionDao.findTransactionByExternalId(transaction.getExternalId()).get();
+        assertThat(retrievedTransaction.getState(), is(TransactionState.SUBMITTED));
+        assertThat(retrievedTransaction.getCreatedDate().isEqual(startOfNewPartition.plusDays(1)), is(true));
+        List<String> partitions = rule.getJdbi().withHandle(handle ->
+                handle.createQuery("SELECT tableoid::regclass::text FROM transaction WHERE external_id = :externalId")
+                        .bind("externalId", transaction.getExternalId())
+                        .mapTo(String.class)
+                        .list());
+        assertThat(partitions, is(List.of(String.format("transaction_y%dm%02d",
+                startOfNewPartition.getYear(), startOfNewPartition.getMonthValue()))));
+    }
+
     @Test
     void shouldNotOverwriteTransactionIfItConsistsOfFewerEvents() {
         TransactionEntity transaction = aTransactionFixture()
@@ -579,6 +650,23 @@ class TransactionDaoIT {
         assertThat(transactionEntityNotRedacted.getDescription(), is("Tx not redacted"));
     }
 
+    @Test
+    void redactPIIFromTransaction_shouldDeleteTheEventDigestSnapshotOfTheTransaction() {
+        TransactionEntity transactionToRedact = aTransactionFixture().insert(rule.getJdbi()).toEntity();
+        TransactionEntity transactionThatShouldNotBeRedacted = aTransactionFixture().insert(rule.getJdbi()).toEntity();
+        EventDigestSnapshotDao eventDigestSnapshotDao = rule.getJdbi().onDemand(EventDigestSnapshotDao.class);
+        String eventAggregate = "{\"email\": \"test@email.com\", \"cardholder_name\": \"Joe B\", \"reference\": \"ref-1\"}";
+        for (TransactionEntity transaction : List.of(transactionToRedact, transactionThatShouldNotBeRedacted)) {
+            eventDigestSnapshotDao.upsert(transaction.getExternalId(), "PAYMENT", null, "a-service-id", true,
+                    eventAggregate, 2, "PAYMENT_CREATED", transaction.getCreatedDate(), transaction.getCreatedDate());
+        }
+
+        transactionDao.redactPIIFromTransaction(transactionToRedact.getExternalId());
+
+        assertThat(databaseTestHelper.getEventDigestSnapshot(transactionToRedact.getExternalId()).isPresent(), is(false));
+        assertThat(databaseTestHelper.getEventDigestSnapshot(transactionThatShouldNotBeRedacted.getExternalId()).isPresent(), is(true));
+    }
+
     @Test
     void redactPIIFromTransaction_shouldNotReplaceNonMandatoryFieldsWithARedactedStringWhenBlank() throws JsonProcessingException {
         JsonObject transactionDetails1 = new JsonObject();
@@ -20,18 +20,22 @@ import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
 import uk.gov.pay.ledger.util.CommaDelimitedSetParameter;
 import uk.gov.pay.ledger.util.DatabaseTestHelper;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
 import uk.gov.pay.ledger.util.fixture.TransactionFixture;
 
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static java.time.ZonedDateTime.now;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.apache.commons.lang3.RandomUtils.nextLong;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertTrue;
 import static uk.gov.pay.ledger.util.DatabaseTestHelper.aDatabaseTestHelper;
 import static uk.gov.pay.ledger.util.fixture.PayoutFixture.PayoutFixtureBuilder.aPayoutFixture;
@@ -148,6 +152,22 @@ public class TransactionDaoSearchIT {
         assertThat(total, is(1L));
     }
 
+    @Test
+    public void shouldReturnPartialMatches_whenSearchingByATermShorterThanATrigram() {
+        String gatewayAccountId = "account-id-" + nextLong();
+
+        aTransactionFixture().withGatewayAccountId(gatewayAccountId).withCardholderName("Jo Bloggs").insert(rule.getJdbi());
+        aTransactionFixture().withGatewayAccountId(gatewayAccountId).withCardholderName("Mr Jones").insert(rule.getJdbi());
+        aTransactionFixture().withGatewayAccountId(gatewayAccountId).withCardholderName("Ann Smith").insert(rule.getJdbi());
+
+        TransactionSearchParams searchParams = new TransactionSearchParams();
+        searchParams.setAccountIds(List.of(gatewayAccountId));
+        searchParams.setCardHolderName("jo");
+
+        assertThat(transactionDao.searchTransactions(searchParams).size(), is(2));
+        assertThat(transactionDao.getTotalForSearch(searchParams), is(2L));
+    }
+
     @Test
     public void shouldReturn1Record_whenSearchingByExactReference() {
 
@@ -569,6 +589,31 @@ public class TransactionDaoSearchIT {
         assertThat(externalMetadata.getAsJsonObject().get("test-key-2").getAsString(), is("value1"));
     }
 
+    @Test
+    public void searchTransactionsByMetadataKeyAndValue() {
+        String gatewayAccountId = "account-id-" + nextLong();
+        String reference = randomAlphanumeric(15);
+
+        TransactionEntity transaction = insertTransaction(gatewayAccountId, reference, ZonedDateTime.now().minusDays(2),
+                ImmutableMap.of("test-key-1", "value1", "test-key-2", "value2"));
+        insertTransaction(gatewayAccountId, reference, ZonedDateTime.now(),
+                ImmutableMap.of("test-key-2", "value1"));
+
+        TransactionSearchParams searchParams = new TransactionSearchParams();
+        searchParams.setReference(reference);
+        searchParams.setMetadataKey("test-key-1");
+        searchParams.setMetadataValue("VALUE1");
+
+        List<TransactionEntity> transactionList = transactionDao.searchTransactions(searchParams);
+
+        assertThat(transactionList.size(), Matchers.is(1));
+        assertThat(transactionList.get(0).getExternalId(), is(transaction.getExternalId()));
+        assertThat(transactionDao.getTotalForSearch(searchParams), Matchers.is(1L));
+
+        searchParams.setMetadataKey("unknown-key");
+        assertThat(transactionDao.searchTransactions(searchParams).size(), Matchers.is(0));
+    }
+
     @Test
     public void shouldFilterByGatewayPayoutIdWhenSpecified() {
         String gatewayAccountId = "account-id-" + nextLong();
@@ -755,6 +800,85 @@ public class TransactionDaoSearchIT {
         assertThat(fourthPage.size(), is(0));
     }
 
+    @Test
+    public void shouldStreamTransactionsNewestFirstStartingAfterATransaction() {
+        when(reportingConfig.getStreamingCsvPageSize()).thenReturn(2);
+        ZonedDateTime createdDate = now(ZoneOffset.UTC).minusDays(1);
+        aTransactionFixture().withId(10L).withGatewayAccountId("1").withCreatedDate(createdDate).insert(rule.getJdbi());
+        aTransactionFixture().withId(20L).withGatewayAccountId("1").withCreatedDate(createdDate).insert(rule.getJdbi());
+        aTransactionFixture().withId(30L).withGatewayAccountId("1").withCreatedDate(createdDate.minusDays(1)).insert(rule.getJdbi());
+        aTransactionFixture().withId(40L).withGatewayAccountId("2").withCreatedDate(createdDate).insert(rule.getJdbi());
+        searchParams.setAccountIds(List.of("1"));
+
+        List<Long> allIds = new ArrayList<>();
+        boolean readAll = transactionDao.streamTransactionSearch(searchParams, null, null, new StatementCanceller(),
+                transaction -> allIds.add(transaction.getId()));
+
+        List<Long> idsAfterFirst = new ArrayList<>();
+        boolean readAllAfterFirst = transactionDao.streamTransactionSearch(searchParams, createdDate, 20L, new StatementCanceller(),
+                transaction -> idsAfterFirst.add(transaction.getId()));
+
+        assertThat(readAll, is(true));
+        assertThat(allIds, is(List.of(20L, 10L, 30L)));
+        assertThat(readAllAfterFirst, is(true));
+        assertThat(idsAfterFirst, is(List.of(10L, 30L)));
+    }
+
+    @Test
+    public void shouldStopStreamingTransactionsWhenTheConsumerAsksTo() {
+        when(reportingConfig.getStreamingCsvPageSize()).thenReturn(2);
+        aPersistedTransactionList("1", 5, rule.getJdbi(), true);
+        searchParams.setAccountIds(List.of("1"));
+
+        List<Long> ids = new ArrayList<>();
+        boolean readAll = transactionDao.streamTransactionSearch(searchParams, null, null, new StatementCanceller(),
+                transaction -> ids.add(transaction.getId()) && ids.size() < 3);
+
+        assertThat(readAll, is(false));
+        assertThat(ids.size(), is(3));
+    }
+
+    @Test
+    public void searchTransactionsByCursorBefore_shouldReturnThePreviousPageNewestFirst() {
+        TransactionFixture newest = aTransactionFixture()
+                .withId(9L)
+                .withGatewayAccountId("1")
+                .withCreatedDate(now(ZoneOffset.UTC).minusDays(3))
+                .insert(rule.getJdbi());
+
+        TransactionFixture sameCreatedDateLowerId = aTransactionFixture()
+                .withId(6L)
+                .withGatewayAccountId("1")
+                .withCreatedDate(now(ZoneOffset.UTC).minusDays(5))
+                .insert(rule.getJdbi());
+
+        aTransactionFixture()
+                .withId(200L)
+                .withGatewayAccountId("1")
+                .withCreatedDate(sameCreatedDateLowerId.getCreatedDate())
+                .insert(rule.getJdbi());
+
+        TransactionFixture oldest = aTransactionFixture()
+                .withId(3L)
+                .withGatewayAccountId("1")
+                .withCreatedDate(now(ZoneOffset.UTC).minusDays(6))
+                .insert(rule.getJdbi());
+
+        searchParams.setAccountIds(List.of("1"));
+        searchParams.setDisplaySize(2L);
+
+        List<TransactionEntity> pageBeforeOldest = transactionDao.cursorTransactionSearchBefore(searchParams,
+                oldest.getCreatedDate(), oldest.getId());
+        List<TransactionEntity> pageBeforeLowerId = transactionDao.cursorTransactionSearchBefore(searchParams,
+                sameCreatedDateLowerId.getCreatedDate(), sameCreatedDateLowerId.getId());
+        List<TransactionEntity> pageBeforeNewest = transactionDao.cursorTransactionSearchBefore(searchParams,
+                newest.getCreatedDate(), newest.getId());
+
+        assertThat(pageBeforeOldest.stream().map(TransactionEntity::getId).collect(Collectors.toList()), is(List.of(200L, 6L)));
+        assertThat(pageBeforeLowerId.stream().map(TransactionEntity::getId).collect(Collectors.toList()), is(List.of(9L, 200L)));
+        assertThat(pageBeforeNewest.size(), is(0));
+    }
+
     @Test
     public void searchTransactionsByCursorAndetadataValue() {
         String gatewayAccountId = "account-id-" + nextLong();
@@ -810,6 +934,20 @@ public class TransactionDaoSearchIT {
         assertThat(total, is(15L));
     }
 
+    @Test
+    public void getEstimatedTotalForSearchShouldEstimateFromTheQueryPlan() {
+        String gatewayAccountId = "account-id-" + nextLong();
+        aPersistedTransactionList(gatewayAccountId, 15, rule.getJdbi(), true);
+        rule.getJdbi().useHandle(handle -> handle.execute("ANALYZE transaction"));
+
+        TransactionSearchParams searchParams = new TransactionSearchParams();
+        searchParams.setAccountIds(List.of(gatewayAccountId));
+        searchParams.setFromDate("2019-10-01T10:00:00.000Z");
+
+        Long total = transactionDao.getEstimatedTotalForSearch(searchParams);
+        assertThat(total, is(greaterThan(0L)));
+    }
+
     @Test
     public void getTotalWithLimitForSearchShouldApplySearchByMetadataValueCorrectly() {
         String gatewayAccountId = "account-id-" + nextLong();
@@ -0,0 +1,108 @@
+package uk.gov.pay.ledger.transaction.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
+import uk.gov.pay.ledger.transaction.entity.TransactionExportEntity;
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+import uk.gov.pay.ledger.util.DatabaseTestHelper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static uk.gov.pay.ledger.util.DatabaseTestHelper.aDatabaseTestHelper;
+
+class TransactionExportDaoIT {
+
+    @RegisterExtension
+    public static AppWithPostgresAndSqsExtension rule = new AppWithPostgresAndSqsExtension();
+
+    private final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    private final Instant expiresDate = now.plus(Duration.ofHours(1));
+    private TransactionExportDao transactionExportDao;
+
+    @BeforeEach
+    void setUp() {
+        DatabaseTestHelper dbHelper = aDatabaseTestHelper(rule.getJdbi());
+        dbHelper.truncateAllData();
+        transactionExportDao = rule.getJdbi().onDemand(TransactionExportDao.class);
+    }
+
+    @Test
+    void shouldRecordAnExportFromQueuedToSucceeded() {
+        transactionExportDao.insert("an-export-id", "1,2", "a-search-key", now);
+
+        assertThat(transactionExportDao.markRunning("an-export-id", 10L, now), is(true));
+        transactionExportDao.updateProgress("an-export-id", 5, now);
+        assertThat(transactionExportDao.markSucceeded("an-export-id", 10, 1024, expiresDate, now), is(true));
+
+        TransactionExportEntity export = transactionExportDao.findById("an-export-id").get();
+        assertThat(export.getGatewayAccountIds(), is("1,2"));
+        assertThat(export.getState(), is(TransactionExportState.SUCCEEDED));
+        assertThat(export.getEstimatedTotal(), is(10L));
+        assertThat(export.getTransactionsWritten(), is(10L));
+        assertThat(export.getFileSizeInBytes(), is(1024L));
+        assertThat(export.getExpiresDate(), is(expiresDate));
+    }
+
+    @Test
+    void shouldOnlyReuseAnExportOfTheSameSearchThatHasNeitherFailedNorExpired() {
+        transactionExportDao.insert("failed-export-id", "1", "a-search-key", now.minusSeconds(2));
+        transactionExportDao.markFailed("failed-export-id", 0, expiresDate, now);
+        transactionExportDao.insert("expired-export-id", "1", "a-search-key", now.minusSeconds(1));
+        transactionExportDao.markRunning("expired-export-id", null, now);
+        transactionExportDao.markSucceeded("expired-export-id", 0, 0, now, now);
+
+        assertThat(transactionExportDao.findReusable("a-search-key", now).isPresent(), is(false));
+
+        transactionExportDao.insert("queued-export-id", "1", "a-search-key", now);
+        transactionExportDao.insert("other-export-id", "1", "another-search-key", now);
+
+        assertThat(transactionExportDao.findReusable("a-search-key", now).get().getExportId(), is("queued-export-id"));
+    }
+
+    @Test
+    void shouldNotMarkAnExportThatWasFailedForNotBeingUpdatedAsSucceeded() {
+        transactionExportDao.insert("abandoned-export-id", "1", "a-search-key", now.minusSeconds(120));
+        transactionExportDao.markRunning("abandoned-export-id", null, now.minusSeconds(120));
+        transactionExportDao.insert("running-export-id", "1", "another-search-key", now);
+        transactionExportDao.markRunning("running-export-id", null, now);
+
+        List<String> failedExportIds = transactionExportDao.failNotUpdatedSince(now.minusSeconds(60), expiresDate, now);
+
+        assertThat(failedExportIds, is(List.of("abandoned-export-id")));
+        assertThat(transactionExportDao.markSucceeded("abandoned-export-id", 0, 0, expiresDate, now), is(false));
+        assertThat(transactionExportDao.findById("abandoned-export-id").get().getState(), is(TransactionExportState.FAILED));
+        assertThat(transactionExportDao.findById("running-export-id").get().getState(), is(TransactionExportState.RUNNING));
+    }
+
+    @Test
+    void shouldDeleteOnlyExpiredExports() {
+        transactionExportDao.insert("expired-export-id", "1", "a-search-key", now);
+        transactionExportDao.markFailed("expired-export-id", 0, now, now);
+        transactionExportDao.insert("queued-export-id", "1", "another-search-key", now);
+
+        assertThat(transactionExportDao.deleteExpired(now, now), is(List.of("expired-export-id")));
+        assertThat(transactionExportDao.findExistingExportIds(List.of("expired-export-id", "queued-export-id")),
+                is(List.of("queued-export-id")));
+    }
+
+    @Test
+    void shouldNotDeleteExportsDownloadedSinceTheGivenTime() {
+        transactionExportDao.insert("downloaded-export-id", "1", "a-search-key", now);
+        transactionExportDao.markFailed("downloaded-export-id", 0, now, now);
+        transactionExportDao.markDownloaded("downloaded-export-id", now.minusSeconds(60));
+        transactionExportDao.insert("earlier-downloaded-export-id", "1", "another-search-key", now);
+        transactionExportDao.markFailed("earlier-downloaded-export-id", 0, now, now);
+        transactionExportDao.markDownloaded("earlier-downloaded-export-id", now.minusSeconds(180));
+
+        assertThat(transactionExportDao.deleteExpired(now, now.minusSeconds(120)), is(List.of("earlier-downloaded-export-id")));
+        assertThat(transactionExportDao.deleteIfNotDownloadedSince("downloaded-export-id", now.minusSeconds(120)), is(false));
+        assertThat(transactionExportDao.deleteIfNotDownloadedSince("downloaded-export-id", now.minusSeconds(30)), is(true));
+    }
+}
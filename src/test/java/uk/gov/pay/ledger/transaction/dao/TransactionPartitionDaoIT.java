@@ -0,0 +1,64 @@
+package uk.gov.pay.ledger.transaction.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class TransactionPartitionDaoIT {
+
+    @RegisterExtension
+    public static AppWithPostgresAndSqsExtension rule = new AppWithPostgresAndSqsExtension();
+
+    private TransactionPartitionDao transactionPartitionDao;
+
+    @BeforeEach
+    void setUp() {
+        transactionPartitionDao = new TransactionPartitionDao(rule.getJdbi());
+    }
+
+    @Test
+    void shouldHavePartitionsAheadOfTheCurrentMonthOnceTheApplicationHasStarted() {
+        ZonedDateTime startOfNextMonth = ZonedDateTime.now(ZoneOffset.UTC).withDayOfMonth(1).toLocalDate()
+                .atStartOfDay(ZoneOffset.UTC).plusMonths(1);
+
+        assertThat(transactionPartitionDao.findEndOfLastPartition().get().isAfter(startOfNextMonth), is(true));
+    }
+
+    @Test
+    void shouldCreateThePartitionOfAMonthOnce() {
+        ZonedDateTime startOfNewPartition = transactionPartitionDao.findEndOfLastPartition().get();
+
+        transactionPartitionDao.createPartitionForMonth(startOfNewPartition);
+        transactionPartitionDao.createPartitionForMonth(startOfNewPartition);
+
+        assertThat(transactionPartitionDao.findEndOfLastPartition().get(), is(startOfNewPartition.plusMonths(1)));
+    }
+
+    @Test
+    void shouldOnlyScanThePartitionsOfTheSearchedDates() {
+        ZonedDateTime startOfNewPartition = transactionPartitionDao.findEndOfLastPartition().get();
+        transactionPartitionDao.createPartitionForMonth(startOfNewPartition);
+        String partition = String.format("transaction_y%dm%02d", startOfNewPartition.getYear(), startOfNewPartition.getMonthValue());
+
+        String plan = rule.getJdbi().withHandle(handle ->
+                handle.createQuery("EXPLAIN SELECT t.* FROM transaction t " +
+                                "WHERE t.created_date >= :fromDate AND t.created_date < :toDate")
+                        .bind("fromDate", startOfNewPartition.plusDays(1))
+                        .bind("toDate", startOfNewPartition.plusDays(2))
+                        .mapTo(String.class)
+                        .list())
+                .toString();
+
+        assertThat(plan, containsString(partition));
+        assertThat(plan, not(containsString("transaction_before_partitioning")));
+    }
+}
@@ -0,0 +1,177 @@
+package uk.gov.pay.ledger.transaction.resource;
+
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.ledger.exception.BadRequestExceptionMapper;
+import uk.gov.pay.ledger.transaction.model.TransactionExportResponse;
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+import uk.gov.pay.ledger.transaction.service.TransactionExport;
+import uk.gov.pay.ledger.transaction.service.TransactionExportService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(DropwizardExtensionsSupport.class)
+@ExtendWith(MockitoExtension.class)
+class TransactionExportResourceTest {
+
+    private static final String FILE_CONTENT = "0123456789";
+    private static final TransactionExportService mockTransactionExportService = mock(TransactionExportService.class);
+
+    public static final ResourceExtension resources = ResourceExtension.builder()
+            .addResource(new TransactionExportResource(mockTransactionExportService))
+            .addProvider(BadRequestExceptionMapper.class)
+            .build();
+
+    @TempDir
+    private Path directory;
+
+    private final TransactionExport export = mock(TransactionExport.class);
+
+    @BeforeEach
+    void setUp() {
+        reset(mockTransactionExportService);
+    }
+
+    @Test
+    void shouldReturn400IfGatewayAccountIdIsNotProvidedToStartAnExport() {
+        Response response = resources.target("/v1/transaction/exports")
+                .request()
+                .post(Entity.json(""));
+
+        assertThat(response.getStatus(), is(400));
+    }
+
+    @Test
+    void shouldReturn202WithTheExportWhenStartingAnExport() {
+        when(export.toResponse()).thenReturn(new TransactionExportResponse("an-export-id", TransactionExportState.QUEUED,
+                null, null, null, 0, null));
+        when(mockTransactionExportService.startExport(any(), anyBoolean(), anyBoolean())).thenReturn(export);
+
+        Response response = resources.target("/v1/transaction/exports")
+                .queryParam("account_id", "1")
+                .request()
+                .post(Entity.json(""));
+
+        assertThat(response.getStatus(), is(202));
+        assertThat(response.readEntity(Map.class).get("export_id"), is("an-export-id"));
+    }
+
+    @Test
+    void shouldReturn404ForAnExportOfOtherGatewayAccounts() {
+        givenAnExport(TransactionExportState.RUNNING, null);
+
+        Response response = resources.target("/v1/transaction/exports/an-export-id")
+                .queryParam("account_id", "2")
+                .request()
+                .get();
+
+        assertThat(response.getStatus(), is(404));
+    }
+
+    @Test
+    void shouldReturn409WhenDownloadingTheFileOfAnExportThatHasNotSucceeded() {
+        givenAnExport(TransactionExportState.RUNNING, null);
+
+        Response response = downloadFile(null);
+
+        assertThat(response.getStatus(), is(409));
+    }
+
+    @Test
+    void shouldDownloadTheWholeFile() throws IOException {
+        givenAnExport(TransactionExportState.SUCCEEDED, aFile());
+
+        Response response = downloadFile(null);
+
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeaderString("Accept-Ranges"), is("bytes"));
+        assertThat(response.readEntity(String.class), is(FILE_CONTENT));
+        verify(mockTransactionExportService).recordDownload("an-export-id");
+    }
+
+    @Test
+    void shouldResumeADownloadFromTheStartOfTheRange() throws IOException {
+        givenAnExport(TransactionExportState.SUCCEEDED, aFile());
+
+        Response response = downloadFile("bytes=4-");
+
+        assertThat(response.getStatus(), is(206));
+        assertThat(response.getHeaderString("Content-Range"), is("bytes 4-9/10"));
+        assertThat(response.readEntity(String.class), is("456789"));
+    }
+
+    @Test
+    void shouldDownloadTheLastBytesOfTheFile() throws IOException {
+        givenAnExport(TransactionExportState.SUCCEEDED, aFile());
+
+        Response response = downloadFile("bytes=-3");
+
+        assertThat(response.getStatus(), is(206));
+        assertThat(response.getHeaderString("Content-Range"), is("bytes 7-9/10"));
+        assertThat(response.readEntity(String.class), is("789"));
+    }
+
+    @Test
+    void shouldReturn416ForARangeStartingPastTheEndOfTheFile() throws IOException {
+        givenAnExport(TransactionExportState.SUCCEEDED, aFile());
+
+        Response response = downloadFile("bytes=10-");
+
+        assertThat(response.getStatus(), is(416));
+        assertThat(response.getHeaderString("Content-Range"), is("bytes */10"));
+    }
+
+    @Test
+    void shouldDownloadTheWholeFileForSeveralRanges() throws IOException {
+        givenAnExport(TransactionExportState.SUCCEEDED, aFile());
+
+        Response response = downloadFile("bytes=0-1,4-5");
+
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.readEntity(String.class), is(FILE_CONTENT));
+    }
+
+    private void givenAnExport(TransactionExportState state, Path file) {
+        when(export.getAccountIds()).thenReturn(List.of("1"));
+        // otherwise the mock has no file, like an export that has not succeeded
+        if (state == TransactionExportState.SUCCEEDED) {
+            when(export.getFile()).thenReturn(Optional.of(file));
+            when(export.getFileSizeInBytes()).thenReturn((long) FILE_CONTENT.length());
+        }
+        when(mockTransactionExportService.getExport("an-export-id")).thenReturn(Optional.of(export));
+    }
+
+    private Path aFile() throws IOException {
+        return Files.writeString(directory.resolve("an-export-id.csv.gz"), FILE_CONTENT, StandardCharsets.UTF_8);
+    }
+
+    private static Response downloadFile(String range) {
+        return resources.target("/v1/transaction/exports/an-export-id/file")
+                .queryParam("account_id", "1")
+                .request()
+                .header("Range", range)
+                .get();
+    }
+}
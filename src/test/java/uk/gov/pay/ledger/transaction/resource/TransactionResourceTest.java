@@ -9,6 +9,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import uk.gov.pay.ledger.app.LedgerConfig;
 import uk.gov.pay.ledger.exception.BadRequestExceptionMapper;
 import uk.gov.pay.ledger.transaction.search.model.TransactionView;
+import uk.gov.pay.ledger.transaction.service.CsvExportPipeline;
 import uk.gov.pay.ledger.transaction.service.CsvService;
 import uk.gov.pay.ledger.transaction.service.TransactionService;
 
@@ -36,10 +37,11 @@ import static org.mockito.Mockito.when;
 public class TransactionResourceTest {
     private static final TransactionService mockTransactionService = mock(TransactionService.class);
     private static final CsvService mockCsvService = mock(CsvService.class);
+    private static final CsvExportPipeline mockCsvExportPipeline = mock(CsvExportPipeline.class);
     private static final LedgerConfig mockConfig = mock(LedgerConfig.class);
 
     public static final ResourceExtension resources = ResourceExtension.builder()
-            .addResource(new TransactionResource(mockTransactionService, mockCsvService, mockConfig))
+            .addResource(new TransactionResource(mockTransactionService, mockCsvService, mockCsvExportPipeline, mockConfig))
             .addProvider(BadRequestExceptionMapper.class)
             .build();
 
@@ -0,0 +1,39 @@
+package uk.gov.pay.ledger.transaction.search.common;
+
+import org.junit.jupiter.api.Test;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.matchesPattern;
+import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
+
+class TransactionSearchCursorTest {
+
+    @Test
+    void shouldDecodeTheCursorItEncodes() {
+        TransactionEntity transaction = aTransactionFixture()
+                .withId(1234L)
+                .withCreatedDate(ZonedDateTime.parse("2023-04-05T06:07:08.123456+01:00"))
+                .toEntity();
+
+        String token = TransactionSearchCursor.before(transaction).encode();
+        TransactionSearchCursor cursor = TransactionSearchCursor.decode(token).get();
+
+        assertThat(token, matchesPattern("[A-Za-z0-9_-]+"));
+        assertThat(cursor.isBefore(), is(true));
+        assertThat(cursor.getId(), is(1234L));
+        assertThat(cursor.getCreatedDate(), is(ZonedDateTime.parse("2023-04-05T05:07:08.123456Z").withZoneSameInstant(ZoneOffset.UTC)));
+        assertThat(TransactionSearchCursor.decode(TransactionSearchCursor.after(transaction).encode()).get().isBefore(), is(false));
+    }
+
+    @Test
+    void shouldNotDecodeTokensItDidNotHandOut() {
+        assertThat(TransactionSearchCursor.decode("not a token").isPresent(), is(false));
+        assertThat(TransactionSearchCursor.decode("eHx5fHo").isPresent(), is(false));
+        assertThat(TransactionSearchCursor.decode("").isPresent(), is(false));
+    }
+}
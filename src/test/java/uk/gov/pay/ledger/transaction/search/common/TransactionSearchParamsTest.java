@@ -5,8 +5,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
+import uk.gov.pay.ledger.transaction.model.TransactionType;
+import uk.gov.pay.ledger.util.CommaDelimitedSetParameter;
+
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
@@ -37,6 +41,15 @@ public class TransactionSearchParamsTest {
         assertThat(transactionSearchParams.getQueryMap().get("reference"), is("%test-reference%"));
     }
 
+    @Test
+    public void getsFilterThatCannotUseTrigramIndexesWhenTermIsShorterThanATrigram() {
+        transactionSearchParams.setEmail("jo");
+        transactionSearchParams.setCardHolderName("joe");
+        assertThat(transactionSearchParams.getFilterTemplates().get(0), is(" (lower(t.email) || '') LIKE lower(:email)"));
+        assertThat(transactionSearchParams.getFilterTemplates().get(1), is(" lower(t.cardholder_name) LIKE lower(:cardholder_name)"));
+        assertThat(transactionSearchParams.getQueryMap().get("email"), is("%jo%"));
+    }
+
     @Test
     public void getsFilterAndQueryMapWhenNotEmptyReferenceAndExactMatch() {
         transactionSearchParams.setReference("test-reference");
@@ -45,6 +58,17 @@ public class TransactionSearchParamsTest {
         assertThat(transactionSearchParams.getQueryMap().get("reference"), is("test-reference"));
     }
 
+    @Test
+    public void getsSemiJoinFilterWhenSearchingByMetadataKeyAndValue() {
+        transactionSearchParams.setMetadataKey("key-1");
+        transactionSearchParams.setMetadataValue("value-1");
+        assertThat(transactionSearchParams.getFilterTemplates().get(0), is(" EXISTS (SELECT 1 FROM transaction_metadata tm " +
+                "WHERE tm.transaction_id = t.id AND lower(tm.value) = lower(:metadata_value) " +
+                "AND tm.metadata_key_id = (SELECT mk.id FROM metadata_key mk WHERE mk.key = :metadata_key))"));
+        assertThat(transactionSearchParams.getQueryMap().get("metadata_key"), is("key-1"));
+        assertThat(transactionSearchParams.buildQueryParamString(1L), containsString("metadata_key=key-1"));
+    }
+
     @Test
     public void getsEmptyFilterTemplateWhenEmptyFromDate() {
         transactionSearchParams.setFromDate("");
@@ -182,6 +206,48 @@ public class TransactionSearchParamsTest {
         assertThat(transactionSearchParams.buildQueryParamString(1L), containsString("to_settled_date=2020-09-26"));
     }
 
+    @Test
+    public void totalModeShouldDefaultToCappedOnlyWhenLimitTotalIsSet() {
+        assertThat(transactionSearchParams.getTotalMode(), is(TotalMode.EXACT));
+        assertThat(transactionSearchParams.limitTotal(), is(false));
+
+        transactionSearchParams.setLimitTotal(true);
+        assertThat(transactionSearchParams.getTotalMode(), is(TotalMode.CAPPED));
+
+        transactionSearchParams.setTotalMode("Estimated");
+        assertThat(transactionSearchParams.getTotalMode(), is(TotalMode.ESTIMATED));
+        assertThat(transactionSearchParams.limitTotal(), is(true));
+        assertThat(transactionSearchParams.buildQueryParamString(1L), containsString("total_mode=estimated"));
+    }
+
+    @Test
+    public void shouldGetPaymentStatesForASearchOfFinishedPaymentsByAccountStateAndDate() {
+        transactionSearchParams.setAccountIds(List.of("1"));
+        transactionSearchParams.setTransactionType(TransactionType.PAYMENT);
+        transactionSearchParams.setState("success");
+        transactionSearchParams.setFromDate("2018-09-22T10:14:16.067Z");
+
+        assertThat(transactionSearchParams.getPaymentStatesForSummarisedSearch(), is(Optional.of(List.of("SUCCESS"))));
+    }
+
+    @Test
+    public void shouldNotGetPaymentStatesForASearchThatIsNotSummarised() {
+        transactionSearchParams.setAccountIds(List.of("1"));
+        transactionSearchParams.setPaymentStates(new CommaDelimitedSetParameter("success"));
+        transactionSearchParams.setEmail("test@example.org");
+        assertThat(transactionSearchParams.getPaymentStatesForSummarisedSearch(), is(Optional.empty()));
+
+        TransactionSearchParams unfinishedPayments = new TransactionSearchParams();
+        unfinishedPayments.setAccountIds(List.of("1"));
+        unfinishedPayments.setPaymentStates(new CommaDelimitedSetParameter("created"));
+        assertThat(unfinishedPayments.getPaymentStatesForSummarisedSearch(), is(Optional.empty()));
+
+        TransactionSearchParams refundsAndPayments = new TransactionSearchParams();
+        refundsAndPayments.setAccountIds(List.of("1"));
+        refundsAndPayments.setState("success");
+        assertThat(refundsAndPayments.getPaymentStatesForSummarisedSearch(), is(Optional.empty()));
+    }
+
     @ParameterizedTest
     @CsvSource({"?, %3F", 
             "{ , %7B", 
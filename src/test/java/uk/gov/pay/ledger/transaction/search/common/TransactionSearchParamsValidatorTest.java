@@ -53,6 +53,22 @@ class TransactionSearchParamsValidatorTest {
         assertThat(unparsableDateException.getMessage(), is("Input to_settled_date (wrong-date) is wrong format"));
     }
 
+    @Test
+    void shouldThrowException_whenCursorWasNotHandedOutBySearch() {
+        searchParams.setCursor("not-a-cursor");
+        ValidationException validationException = assertThrows(ValidationException.class,
+                () -> TransactionSearchParamsValidator.validateSearchParams(searchParams, null));
+        assertThat(validationException.getMessage(), is("cursor is not valid"));
+    }
+
+    @Test
+    void shouldThrowException_whenTotalModeIsUnknown() {
+        searchParams.setTotalMode("roughly");
+        ValidationException validationException = assertThrows(ValidationException.class,
+                () -> TransactionSearchParamsValidator.validateSearchParams(searchParams, null));
+        assertThat(validationException.getMessage(), is("total_mode must be one of exact, capped or estimated"));
+    }
+
     @Test
     void shouldNotThrowException_whenValidDateFormats() {
         searchParams.setFromDate("2019-05-01T10:15:30Z");
@@ -0,0 +1,229 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.ledger.gatewayaccountmetadata.service.GatewayAccountMetadataService;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
+import uk.gov.pay.ledger.transaction.model.TransactionType;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
+
+@ExtendWith(MockitoExtension.class)
+class CsvExportPipelineTest {
+
+    private static final Duration MAX_EXPORT_DURATION = Duration.ofMinutes(60);
+    private static final String EXPECTED_CSV = "Reference\nref-1\nref-2\nref-3\nref-4\nref-5\n";
+
+    @Mock
+    private TransactionSearchStreamer transactionSearchStreamer;
+
+    @Mock
+    private TransactionDao transactionDao;
+
+    private final CsvTransactionFactory csvTransactionFactory = new CsvTransactionFactory(new ObjectMapper());
+    private final CsvService csvService = new CsvService(csvTransactionFactory, mock(GatewayAccountMetadataService.class));
+    private final TransactionSearchParams searchParams = new TransactionSearchParams();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2026-10-18T12:00:00Z"));
+    private ExecutorService executorService;
+
+    @BeforeEach
+    void setUp() {
+        executorService = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void shouldWriteEveryTransactionFetchedAhead() throws IOException {
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> streamTransactions(invocation.getArgument(2)));
+        var pipeline = aPipeline(executorService, 1);
+
+        long count = export(pipeline, outputStream);
+
+        assertThat(count, is(5L));
+        assertThat(outputStream.toString(StandardCharsets.UTF_8), is(EXPECTED_CSV));
+    }
+
+    @Test
+    void shouldWriteEveryTransactionWithoutFetchingAheadWhenThePrefetchDepthIsZero() throws IOException {
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> streamTransactions(invocation.getArgument(2)));
+        var pipeline = aPipeline(executorService, 0);
+
+        long count = export(pipeline, outputStream);
+
+        assertThat(count, is(5L));
+        assertThat(outputStream.toString(StandardCharsets.UTF_8), is(EXPECTED_CSV));
+    }
+
+    @Test
+    void shouldWriteEveryTransactionWithoutFetchingAheadWhenEveryPrefetchThreadIsBusy() throws IOException {
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> streamTransactions(invocation.getArgument(2)));
+        ExecutorService busyExecutorService = mock(ExecutorService.class);
+        when(busyExecutorService.submit(any(Callable.class))).thenThrow(new RejectedExecutionException());
+        var pipeline = aPipeline(busyExecutorService, 1);
+
+        long count = export(pipeline, outputStream);
+
+        assertThat(count, is(5L));
+        assertThat(outputStream.toString(StandardCharsets.UTF_8), is(EXPECTED_CSV));
+        assertThat(metricRegistry.counter("csv-export-pipeline.rejected-prefetches").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldFailWithTheFailureOfFetchingTransactions() {
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> {
+            Consumer<TransactionEntity> consumer = invocation.getArgument(2);
+            consumer.accept(aPayment("ref-1"));
+            throw new IllegalStateException("canceling statement due to statement timeout");
+        });
+        var pipeline = aPipeline(executorService, 1);
+
+        var exception = assertThrows(IllegalStateException.class, () -> export(pipeline, outputStream));
+
+        assertThat(exception.getMessage(), is("canceling statement due to statement timeout"));
+    }
+
+    @Test
+    void shouldStopFetchingTransactionsWhenTheyCannotBeWritten() throws InterruptedException {
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> {
+            Consumer<TransactionEntity> consumer = invocation.getArgument(2);
+            for (int i = 0; i < 1000; i++) {
+                consumer.accept(aPayment("ref-" + i));
+            }
+            return 1000L;
+        });
+        var pipeline = aPipeline(executorService, 1);
+
+        assertThrows(IOException.class, () -> export(pipeline, aClientThatDisconnects()));
+
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void shouldCancelTheQueryAndCountTheRowsSavedWhenTheClientDisconnects() {
+        var statementCanceller = new AtomicReference<StatementCanceller>();
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> {
+            statementCanceller.set(invocation.getArgument(1));
+            Consumer<TransactionEntity> consumer = invocation.getArgument(2);
+            for (int i = 0; i < 1000; i++) {
+                consumer.accept(aPayment("ref-" + i));
+            }
+            return 1000L;
+        });
+        when(transactionDao.getEstimatedTotalForSearch(searchParams)).thenReturn(1000L);
+        var pipeline = aPipeline(executorService, 0);
+
+        assertThrows(IOException.class, () -> export(pipeline, aClientThatDisconnects()));
+
+        assertThat(statementCanceller.get().isCancelled(), is(true));
+        assertThat(metricRegistry.counter("csv-export-pipeline.abandoned-exports").getCount(), is(1L));
+        assertThat(metricRegistry.counter("csv-export-pipeline.rows-saved").getCount(), is(greaterThan(900L)));
+    }
+
+    @Test
+    void shouldCancelTheQueryOnceTheDownloadHasTakenLongerThanTheMaximumDuration() {
+        var statementCanceller = new AtomicReference<StatementCanceller>();
+        when(transactionSearchStreamer.stream(eq(searchParams), any(), any())).thenAnswer(invocation -> {
+            statementCanceller.set(invocation.getArgument(1));
+            Consumer<TransactionEntity> consumer = invocation.getArgument(2);
+            consumer.accept(aPayment("ref-1"));
+            now.set(now.get().plus(MAX_EXPORT_DURATION));
+            consumer.accept(aPayment("ref-2"));
+            return 2L;
+        });
+        var pipeline = aPipeline(executorService, 1);
+
+        assertThrows(CancellationException.class, () -> export(pipeline, outputStream));
+
+        assertThat(statementCanceller.get().isCancelled(), is(true));
+        assertThat(metricRegistry.counter("csv-export-pipeline.exports-past-deadline").getCount(), is(1L));
+        assertThat(metricRegistry.counter("csv-export-pipeline.abandoned-exports").getCount(), is(0L));
+    }
+
+    private CsvExportPipeline aPipeline(ExecutorService executorService, int prefetchDepth) {
+        return new CsvExportPipeline(transactionSearchStreamer, transactionDao, csvTransactionFactory, executorService,
+                metricRegistry, now::get, prefetchDepth, 2, MAX_EXPORT_DURATION);
+    }
+
+    private static OutputStream aClientThatDisconnects() {
+        return new OutputStream() {
+            private int bytesWritten;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++bytesWritten > 50) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+        };
+    }
+
+    private long export(CsvExportPipeline pipeline, OutputStream outputStream) throws IOException {
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("Reference", "Reference");
+        try (CsvTransactionWriter csvWriter = csvService.csvTransactionWriterFrom(headers, outputStream, 65536)) {
+            csvWriter.writeHeader();
+            return pipeline.export(searchParams, csvWriter);
+        }
+    }
+
+    private static long streamTransactions(Consumer<TransactionEntity> consumer) {
+        for (int i = 1; i <= 5; i++) {
+            consumer.accept(aPayment("ref-" + i));
+        }
+        return 5L;
+    }
+
+    private static TransactionEntity aPayment(String reference) {
+        return aTransactionFixture()
+                .withReference(reference)
+                .withState(TransactionState.SUCCESS)
+                .withTransactionType(TransactionType.PAYMENT.name())
+                .withCreatedDate(ZonedDateTime.parse("2026-10-18T10:15:30Z"))
+                .withDefaultTransactionDetails()
+                .toEntity();
+    }
+}
@@ -0,0 +1,114 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.pay.ledger.gatewayaccountmetadata.service.GatewayAccountMetadataService;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
+import uk.gov.pay.ledger.transaction.model.TransactionType;
+import uk.gov.pay.ledger.transaction.state.TransactionState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
+
+class CsvTransactionWriterTest {
+
+    private CsvService csvService;
+    private Map<String, Object> headers;
+    private ByteArrayOutputStream outputStream;
+
+    @BeforeEach
+    void setUp() {
+        csvService = new CsvService(new CsvTransactionFactory(new ObjectMapper()), mock(GatewayAccountMetadataService.class));
+        headers = new LinkedHashMap<>();
+        headers.put("Reference", "Reference");
+        headers.put("Amount", "Amount");
+        headers.put("State", "State");
+        headers.put("Finished", "Finished");
+        outputStream = new ByteArrayOutputStream();
+    }
+
+    @Test
+    void shouldWriteTheValuesOfEachTransactionInTheOrderOfTheHeaders() throws IOException {
+        try (CsvTransactionWriter csvWriter = csvService.csvTransactionWriterFrom(headers, outputStream, 65536)) {
+            csvWriter.writeHeader();
+            csvWriter.write(aPayment("ref-1", 1000L, TransactionState.SUCCESS));
+            csvWriter.write(aPayment("=ref-2", 250L, TransactionState.CREATED));
+        }
+
+        assertThat(outputStream.toString(StandardCharsets.UTF_8), is(
+                "Reference,Amount,State,Finished\n" +
+                        "ref-1,10.00,Success,true\n" +
+                        "'=ref-2,2.50,In progress,false\n"));
+    }
+
+    @Test
+    void shouldNotCarryValuesOverFromThePreviousRow() throws IOException {
+        headers.put("Issued By", "Issued By");
+
+        try (CsvTransactionWriter csvWriter = csvService.csvTransactionWriterFrom(headers, outputStream, 65536)) {
+            csvWriter.write(aTransactionFixture()
+                    .withReference("ref-1")
+                    .withAmount(1000L)
+                    .withState(TransactionState.SUCCESS)
+                    .withTransactionType(TransactionType.REFUND.name())
+                    .withRefundedByUserEmail("refunder@example.org")
+                    .withCreatedDate(ZonedDateTime.parse("2026-10-18T10:15:30Z"))
+                    .withDefaultTransactionDetails()
+                    .toEntity());
+            csvWriter.write(aPayment("ref-2", 250L, TransactionState.SUCCESS));
+        }
+
+        assertThat(outputStream.toString(StandardCharsets.UTF_8).split("\n")[1], is("ref-2,2.50,Success,true,"));
+    }
+
+    @Test
+    void shouldOnlyFlushOnceTheThresholdOfBytesHasBeenWrittenSinceTheLastFlush() throws IOException {
+        var flushes = new AtomicInteger();
+        var flushCountingOutputStream = new FilterOutputStream(outputStream) {
+            @Override
+            public void flush() throws IOException {
+                flushes.incrementAndGet();
+                super.flush();
+            }
+        };
+        CsvTransactionWriter csvWriter = csvService.csvTransactionWriterFrom(headers, flushCountingOutputStream, 100);
+
+        csvWriter.writeHeader();
+        csvWriter.write(aPayment("ref-0", 1000L, TransactionState.SUCCESS));
+        csvWriter.write(aPayment("ref-1", 1000L, TransactionState.SUCCESS));
+        assertThat(flushes.get(), is(0));
+
+        csvWriter.write(aPayment("ref-2", 1000L, TransactionState.SUCCESS));
+        assertThat(flushes.get(), is(1));
+        assertThat(csvWriter.getBytesWritten(), is((long) outputStream.size()));
+
+        for (int i = 3; i < 6; i++) {
+            csvWriter.write(aPayment("ref-" + i, 1000L, TransactionState.SUCCESS));
+        }
+        assertThat(flushes.get(), is(1));
+    }
+
+    private TransactionEntity aPayment(String reference, long amount, TransactionState state) {
+        return aTransactionFixture()
+                .withReference(reference)
+                .withAmount(amount)
+                .withState(state)
+                .withTransactionType(TransactionType.PAYMENT.name())
+                .withCreatedDate(ZonedDateTime.parse("2026-10-18T10:15:30Z"))
+                .withDefaultTransactionDetails()
+                .toEntity();
+    }
+}
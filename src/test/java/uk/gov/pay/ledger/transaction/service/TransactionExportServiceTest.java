@@ -0,0 +1,395 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.MoreExecutors;
+import jakarta.ws.rs.WebApplicationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.ledger.gatewayaccountmetadata.service.GatewayAccountMetadataService;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.dao.TransactionExportDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.entity.TransactionExportEntity;
+import uk.gov.pay.ledger.transaction.model.CsvTransactionFactory;
+import uk.gov.pay.ledger.transaction.model.TransactionExportState;
+import uk.gov.pay.ledger.transaction.model.TransactionType;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.util.dao.ReadReplicaRouter;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionExportServiceTest {
+
+    private static final Duration TIME_TO_LIVE = Duration.ofMinutes(60);
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration DOWNLOAD_GRACE_PERIOD = Duration.ofMinutes(30);
+    private static final Instant NOW = Instant.parse("2026-10-18T12:00:00Z");
+    private static final String FILE_CONTENT = "0123456789";
+
+    @Mock
+    private TransactionSearchStreamer transactionSearchStreamer;
+
+    @Mock
+    private TransactionDao transactionDao;
+
+    @Mock
+    private TransactionExportDao transactionExportDao;
+
+    @Mock
+    private ScheduledExecutorService cleanUpExecutorService;
+
+    @TempDir
+    private Path directory;
+
+    private final CsvService csvService = new CsvService(new CsvTransactionFactory(new ObjectMapper()),
+            mock(GatewayAccountMetadataService.class));
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private TransactionExportService transactionExportService;
+
+    @BeforeEach
+    void setUp() {
+        transactionExportService = aTransactionExportService(MoreExecutors.newDirectExecutorService(), Long.MAX_VALUE);
+    }
+
+    @Test
+    void shouldWriteEveryTransactionTheSearchFindsToAGzippedFile() throws IOException {
+        var searchParams = aSearch("ref");
+        when(transactionDao.getEstimatedTotalForSearch(searchParams)).thenReturn(5L);
+        when(transactionSearchStreamer.stream(any(), any(), any())).thenAnswer(invocation -> streamTransactions(invocation.getArgument(2)));
+        when(transactionExportDao.markSucceeded(anyString(), anyLong(), anyLong(), any(), any())).thenReturn(true);
+        when(transactionExportDao.findExistingExportIds(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        TransactionExport export = transactionExportService.startExport(searchParams, false, false);
+
+        Path file = directory.resolve(export.getExportId() + ".csv.gz");
+        verify(transactionExportDao).insert(eq(export.getExportId()), eq("1"), anyString(), eq(NOW));
+        verify(transactionExportDao).markRunning(export.getExportId(), 5L, NOW);
+        verify(transactionExportDao).markSucceeded(export.getExportId(), 5L, Files.size(file), NOW.plus(TIME_TO_LIVE), NOW);
+        String csv = gunzip(file);
+        assertThat(csv.lines().count(), is(6L));
+        assertThat(csv, containsString("ref-5"));
+    }
+
+    @Test
+    void shouldReadTheTransactionsFromWhereTheRequestThreadWouldReadThemFrom() throws Exception {
+        ExecutorService exportExecutorService = Executors.newSingleThreadExecutor();
+        transactionExportService = aTransactionExportService(exportExecutorService, Long.MAX_VALUE);
+        List<Boolean> replicaReadsAllowed = new CopyOnWriteArrayList<>();
+        when(transactionSearchStreamer.stream(any(), any(), any())).thenAnswer(invocation -> {
+            replicaReadsAllowed.add(ReadReplicaRouter.areReplicaReadsAllowed());
+            return 0L;
+        });
+
+        try {
+            // the export thread is left allowing replica reads, which the export must not pick up
+            exportExecutorService.submit(() -> ReadReplicaRouter.allowReplicaReads(true)).get();
+            ReadReplicaRouter.allowReplicaReads(false);
+            transactionExportService.startExport(aSearch("consistent"), false, false);
+            ReadReplicaRouter.allowReplicaReads(true);
+            transactionExportService.startExport(aSearch("inconsistent"), false, false);
+
+            exportExecutorService.shutdown();
+            assertThat(exportExecutorService.awaitTermination(5, TimeUnit.SECONDS), is(true));
+            assertThat(replicaReadsAllowed, is(List.of(false, true)));
+        } finally {
+            ReadReplicaRouter.allowReplicaReads(false);
+            exportExecutorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldGiveBackAnEarlierExportOfTheSameSearch() {
+        when(transactionSearchStreamer.stream(any(), any(), any())).thenAnswer(invocation -> streamTransactions(invocation.getArgument(2)));
+        var searchParams = aSearch("ref");
+        searchParams.setAccountIds(List.of("1", "2"));
+        var sameSearchParams = aSearch("ref");
+        sameSearchParams.setAccountIds(List.of("2", "1"));
+
+        TransactionExport export = transactionExportService.startExport(searchParams, true, false);
+        ArgumentCaptor<String> searchKey = ArgumentCaptor.forClass(String.class);
+        verify(transactionExportDao).insert(eq(export.getExportId()), eq("1,2"), searchKey.capture(), eq(NOW));
+        lenient().when(transactionExportDao.findReusable(searchKey.getValue(), NOW))
+                .thenReturn(Optional.of(anExport(export.getExportId(), TransactionExportState.SUCCEEDED, 10L)));
+
+        TransactionExport sameExport = transactionExportService.startExport(sameSearchParams, true, false);
+        TransactionExport exportWithoutFees = transactionExportService.startExport(sameSearchParams, false, false);
+
+        assertThat(sameExport.getExportId(), is(export.getExportId()));
+        assertThat(exportWithoutFees.getExportId(), is(not(export.getExportId())));
+        assertThat(metricRegistry.counter("transaction-export.reused-exports").getCount(), is(1L));
+        verify(transactionSearchStreamer, times(2)).stream(any(), any(), any());
+    }
+
+    @Test
+    void shouldRecordAFailedExportAndDeleteItsPartFile() throws IOException {
+        when(transactionSearchStreamer.stream(any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    Consumer<TransactionEntity> consumer = invocation.getArgument(2);
+                    consumer.accept(aPayment("ref-1"));
+                    throw new IllegalStateException("canceling statement due to statement timeout");
+                });
+
+        TransactionExport export = transactionExportService.startExport(aSearch("ref"), false, false);
+
+        verify(transactionExportDao).markFailed(export.getExportId(), 1L, NOW.plus(TIME_TO_LIVE), NOW);
+        verify(transactionExportDao, never()).markSucceeded(anyString(), anyLong(), anyLong(), any(), any());
+        assertThat(metricRegistry.counter("transaction-export.failed-exports").getCount(), is(1L));
+        try (var files = Files.list(directory)) {
+            assertThat(files.toList(), is(List.of()));
+        }
+    }
+
+    @Test
+    void shouldDeleteTheFileOfAnExportThatWasFailedForNotBeingUpdatedWhileItRan() {
+        when(transactionSearchStreamer.stream(any(), any(), any())).thenAnswer(invocation -> streamTransactions(invocation.getArgument(2)));
+        when(transactionExportDao.markSucceeded(anyString(), anyLong(), anyLong(), any(), any())).thenReturn(false);
+
+        TransactionExport export = transactionExportService.startExport(aSearch("ref"), false, false);
+
+        assertThat(Files.exists(directory.resolve(export.getExportId() + ".csv.gz")), is(false));
+    }
+
+    @Test
+    void shouldRefuseExportsOnceTheQueueIsFull() {
+        ExecutorService busyExecutorService = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(busyExecutorService).execute(any());
+        transactionExportService = aTransactionExportService(busyExecutorService, Long.MAX_VALUE);
+
+        var exception = assertThrows(WebApplicationException.class,
+                () -> transactionExportService.startExport(aSearch("ref"), false, false));
+
+        assertThat(exception.getResponse().getStatus(), is(503));
+        assertThat(metricRegistry.counter("transaction-export.rejected-exports").getCount(), is(1L));
+        ArgumentCaptor<String> exportId = ArgumentCaptor.forClass(String.class);
+        verify(transactionExportDao).insert(exportId.capture(), anyString(), anyString(), eq(NOW));
+        verify(transactionExportDao).delete(exportId.getValue());
+    }
+
+    @Test
+    void shouldFailQueuedExportsWhenStopped() {
+        ExecutorService queueingExecutorService = mock(ExecutorService.class);
+        transactionExportService = aTransactionExportService(queueingExecutorService, Long.MAX_VALUE);
+        TransactionExport export = transactionExportService.startExport(aSearch("ref"), false, false);
+        ArgumentCaptor<Runnable> queuedExport = ArgumentCaptor.forClass(Runnable.class);
+        verify(queueingExecutorService).execute(queuedExport.capture());
+
+        transactionExportService.stop();
+        queuedExport.getValue().run();
+
+        verify(transactionExportDao).markFailed(export.getExportId(), 0L, NOW.plus(TIME_TO_LIVE), NOW);
+        verify(transactionSearchStreamer, never()).stream(any(), any(), any());
+    }
+
+    @Test
+    void shouldRecordTheProgressOfQueuedAndRunningExportsAndFailAbandonedExports() {
+        transactionExportService = aTransactionExportService(mock(ExecutorService.class), Long.MAX_VALUE);
+        TransactionExport export = transactionExportService.startExport(aSearch("ref"), false, false);
+        when(transactionExportDao.failNotUpdatedSince(NOW.minus(HEARTBEAT_INTERVAL.multipliedBy(6)), NOW.plus(TIME_TO_LIVE), NOW))
+                .thenReturn(List.of("abandoned-export-id"));
+
+        transactionExportService.heartbeat();
+
+        verify(transactionExportDao).updateProgress(export.getExportId(), 0L, NOW);
+        assertThat(metricRegistry.counter("transaction-export.abandoned-exports").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldDeleteTheFilesOfExpiredExports() throws IOException {
+        Path file = Files.createFile(directory.resolve("a1b2.csv.gz"));
+        Path partFile = Files.createFile(directory.resolve("c3d4.csv.gz.part"));
+        when(transactionExportDao.deleteExpired(NOW, NOW.minus(DOWNLOAD_GRACE_PERIOD))).thenReturn(List.of("a1b2", "c3d4"));
+
+        transactionExportService.cleanUp();
+
+        assertThat(Files.exists(file), is(false));
+        assertThat(Files.exists(partFile), is(false));
+    }
+
+    @Test
+    void shouldDeleteTheOldestFilesOnceTheDiskQuotaIsUsedUp() throws IOException {
+        transactionExportService = aTransactionExportService(MoreExecutors.newDirectExecutorService(), 20);
+        Path oldestFile = Files.createFile(directory.resolve("oldest.csv.gz"));
+        Path olderFile = Files.createFile(directory.resolve("older.csv.gz"));
+        when(transactionExportDao.findSucceededOldestFirst()).thenReturn(List.of(
+                anExport("oldest", TransactionExportState.SUCCEEDED, 10L),
+                anExport("older", TransactionExportState.SUCCEEDED, 10L),
+                anExport("newest", TransactionExportState.SUCCEEDED, 10L)));
+        when(transactionExportDao.deleteIfNotDownloadedSince("oldest", NOW.minus(DOWNLOAD_GRACE_PERIOD))).thenReturn(true);
+        when(transactionExportDao.findExistingExportIds(anyList())).thenReturn(List.of("older"));
+
+        transactionExportService.cleanUp();
+
+        assertThat(Files.exists(oldestFile), is(false));
+        assertThat(Files.exists(olderFile), is(true));
+        verify(transactionExportDao, never()).deleteIfNotDownloadedSince(eq("older"), any());
+        assertThat(metricRegistry.counter("transaction-export.exports-deleted-over-quota").getCount(), is(1L));
+        assertThat((Long) metricRegistry.getGauges().get("transaction-export.disk-usage-in-bytes").getValue(), is(20L));
+    }
+
+    @Test
+    void shouldNotDeleteTheFilesOfExportsDownloadedWithinTheGracePeriodToKeepWithinTheDiskQuota() throws IOException {
+        transactionExportService = aTransactionExportService(MoreExecutors.newDirectExecutorService(), 20);
+        Path downloadedFile = Files.createFile(directory.resolve("downloaded.csv.gz"));
+        Path olderFile = Files.createFile(directory.resolve("older.csv.gz"));
+        TransactionExportEntity downloadedExport = anExport("downloaded", TransactionExportState.SUCCEEDED, 10L);
+        when(transactionExportDao.findSucceededOldestFirst()).thenReturn(List.of(
+                downloadedExport,
+                anExport("older", TransactionExportState.SUCCEEDED, 10L),
+                anExport("newest", TransactionExportState.SUCCEEDED, 10L)));
+        when(transactionExportDao.deleteIfNotDownloadedSince("downloaded", NOW.minus(DOWNLOAD_GRACE_PERIOD))).thenReturn(false);
+        when(transactionExportDao.findById("downloaded")).thenReturn(Optional.of(downloadedExport));
+        when(transactionExportDao.deleteIfNotDownloadedSince("older", NOW.minus(DOWNLOAD_GRACE_PERIOD))).thenReturn(true);
+
+        transactionExportService.keepWithinDiskQuota();
+
+        assertThat(Files.exists(downloadedFile), is(true));
+        assertThat(Files.exists(olderFile), is(false));
+        assertThat(metricRegistry.counter("transaction-export.exports-deleted-over-quota").getCount(), is(1L));
+        assertThat((Long) metricRegistry.getGauges().get("transaction-export.disk-usage-in-bytes").getValue(), is(20L));
+    }
+
+    @Test
+    void shouldRecordTheDownloadOfAnExport() {
+        transactionExportService.recordDownload("a1b2");
+
+        verify(transactionExportDao).markDownloaded("a1b2", NOW);
+    }
+
+    @Test
+    void shouldCountThePartFilesOfRunningExportsAgainstTheDiskQuota() throws Exception {
+        ExecutorService exportExecutorService = Executors.newSingleThreadExecutor();
+        transactionExportService = aTransactionExportService(exportExecutorService, 5);
+        Path olderFile = Files.createFile(directory.resolve("older.csv.gz"));
+        Files.writeString(directory.resolve("other-instance.csv.gz.part"), FILE_CONTENT, StandardCharsets.UTF_8);
+        when(transactionExportDao.findSucceededOldestFirst()).thenReturn(List.of(anExport("older", TransactionExportState.SUCCEEDED, 10L)));
+        when(transactionExportDao.deleteIfNotDownloadedSince("older", NOW.minus(DOWNLOAD_GRACE_PERIOD))).thenReturn(true);
+        CountDownLatch exportRunning = new CountDownLatch(1);
+        when(transactionSearchStreamer.stream(any(), any(), any())).thenAnswer(invocation -> {
+            StatementCanceller statementCanceller = invocation.getArgument(1);
+            Consumer<TransactionEntity> consumer = invocation.getArgument(2);
+            consumer.accept(aPayment("ref-1"));
+            exportRunning.countDown();
+            while (!statementCanceller.isCancelled()) {
+                Thread.sleep(10);
+            }
+            throw new IllegalStateException("canceling statement due to user request");
+        });
+
+        try {
+            TransactionExport export = transactionExportService.startExport(aSearch("ref"), false, false);
+            assertThat(exportRunning.await(5, TimeUnit.SECONDS), is(true));
+
+            transactionExportService.heartbeat();
+
+            assertThat(Files.exists(olderFile), is(false));
+            verify(transactionExportDao, timeout(5000)).markFailed(eq(export.getExportId()), eq(1L), any(), any());
+            assertThat(metricRegistry.counter("transaction-export.exports-deleted-over-quota").getCount(), is(1L));
+            assertThat(metricRegistry.counter("transaction-export.exports-cancelled-over-quota").getCount(), is(1L));
+        } finally {
+            exportExecutorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldDeleteOnlyTheExportFilesOfNoExport() throws IOException {
+        Path fileOfNoExport = Files.createFile(directory.resolve("a1b2.csv.gz"));
+        Path partFileOfNoExport = Files.createFile(directory.resolve("c3d4.csv.gz.part"));
+        Path fileOfAnExport = Files.createFile(directory.resolve("e5f6.csv.gz"));
+        Path otherFile = Files.createFile(directory.resolve("notes.txt"));
+        when(transactionExportDao.findExistingExportIds(anyList())).thenReturn(List.of("e5f6"));
+
+        transactionExportService.cleanUp();
+
+        assertThat(Files.exists(fileOfNoExport), is(false));
+        assertThat(Files.exists(partFileOfNoExport), is(false));
+        assertThat(Files.exists(fileOfAnExport), is(true));
+        assertThat(Files.exists(otherFile), is(true));
+    }
+
+    private TransactionExportService aTransactionExportService(ExecutorService exportExecutorService, long diskQuotaInBytes) {
+        return new TransactionExportService(transactionSearchStreamer, transactionDao, transactionExportDao, csvService,
+                exportExecutorService, cleanUpExecutorService, metricRegistry, () -> NOW, directory, TIME_TO_LIVE,
+                diskQuotaInBytes, Duration.ofMinutes(5), HEARTBEAT_INTERVAL, DOWNLOAD_GRACE_PERIOD);
+    }
+
+    private static TransactionExportEntity anExport(String exportId, TransactionExportState state, Long fileSizeInBytes) {
+        return new TransactionExportEntity(exportId, "1", state, NOW, NOW, NOW.plus(TIME_TO_LIVE), 5L, 5L, fileSizeInBytes);
+    }
+
+    private static TransactionSearchParams aSearch(String reference) {
+        var searchParams = new TransactionSearchParams();
+        searchParams.setReference(reference);
+        searchParams.setAccountIds(List.of("1"));
+        return searchParams;
+    }
+
+    private static String gunzip(Path file) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long streamTransactions(Consumer<TransactionEntity> consumer) {
+        for (int i = 1; i <= 5; i++) {
+            consumer.accept(aPayment("ref-" + i));
+        }
+        return 5L;
+    }
+
+    private static TransactionEntity aPayment(String reference) {
+        return aTransactionFixture()
+                .withReference(reference)
+                .withState(TransactionState.SUCCESS)
+                .withTransactionType(TransactionType.PAYMENT.name())
+                .withCreatedDate(ZonedDateTime.parse("2026-10-18T10:15:30Z"))
+                .withDefaultTransactionDetails()
+                .toEntity();
+    }
+}
@@ -1,5 +1,6 @@
 package uk.gov.pay.ledger.transaction.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
@@ -30,6 +31,8 @@ import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixt
 @ExtendWith(MockitoExtension.class)
 class TransactionMetadataServiceTest {
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Mock
     private TransactionDao mockTransactionDao;
     @Mock
@@ -45,7 +48,8 @@ class TransactionMetadataServiceTest {
     void shouldInsertMetadata() {
         String externalId = "transaction-id";
         TransactionEntity transaction = aTransactionFixture().withState(TransactionState.CREATED).toEntity();
-        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService);
+        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService,
+                objectMapper);
 
         when(mockTransactionDao.findTransactionByExternalId(externalId)).thenReturn(Optional.of(transaction));
 
@@ -77,7 +81,8 @@ class TransactionMetadataServiceTest {
     void shouldNotTryToInsertMetadataIfIfNoExternalMetadataOnEvent() {
         String externalId = "transaction-id";
         TransactionEntity transaction = aTransactionFixture().withState(TransactionState.STARTED).toEntity();
-        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService);
+        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService,
+                objectMapper);
 
         EventEntity paymentCreatedEvent = aQueuePaymentEventFixture()
                 .withResourceExternalId(externalId)
@@ -98,7 +103,8 @@ class TransactionMetadataServiceTest {
     void shouldReprojectFromEventDigest() {
         String externalId = "transaction-id";
         TransactionEntity transaction = aTransactionFixture().withState(TransactionState.STARTED).toEntity();
-        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService);
+        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService,
+                objectMapper);
 
         EventEntity event = aQueuePaymentEventFixture()
                 .withResourceExternalId(externalId)
@@ -114,7 +120,7 @@ class TransactionMetadataServiceTest {
                 .withMetadata("meta3", true)
                 .withDefaultEventDataForEventType(SalientEventType.PAYMENT_CREATED.name())
                 .toEntity();
-        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(event, previousEvent));
+        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(event, previousEvent), objectMapper);
 
         when(mockTransactionDao.findTransactionByExternalId(externalId)).thenReturn(Optional.of(transaction));
 
@@ -133,13 +139,14 @@ class TransactionMetadataServiceTest {
     void shouldDoNothingIfNoExternalMetadataOnEventDigest() {
         String externalId = "transaction-id";
         TransactionEntity transaction = aTransactionFixture().withState(TransactionState.STARTED).toEntity();
-        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService);
+        service = new TransactionMetadataService(mockMetadataKeyDao, mockTransactionMetadataDao, mockTransactionDao, mockGatewayAccountMetadataService,
+                objectMapper);
 
         EventEntity event = aQueuePaymentEventFixture()
                 .withResourceExternalId(externalId)
                 .toEntity();
 
-        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(event));
+        EventDigest paymentEventDigest = EventDigest.fromEventList(List.of(event), objectMapper);
 
         when(mockTransactionDao.findTransactionByExternalId(externalId)).thenReturn(Optional.of(transaction));
 
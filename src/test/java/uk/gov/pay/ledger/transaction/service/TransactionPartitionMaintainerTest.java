@@ -0,0 +1,90 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.ledger.transaction.dao.TransactionPartitionDao;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionPartitionMaintainerTest {
+
+    @Mock
+    private TransactionPartitionDao transactionPartitionDao;
+
+    @Mock
+    private ScheduledExecutorService executorService;
+
+    private MetricRegistry metricRegistry;
+    private TransactionPartitionMaintainer maintainer;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        maintainer = new TransactionPartitionMaintainer(transactionPartitionDao, executorService, metricRegistry,
+                InstantSource.fixed(Instant.parse("2026-10-18T12:00:00Z")), 2, Duration.ofHours(24));
+    }
+
+    @Test
+    void shouldCreatePartitionsUpToTheConfiguredNumberOfMonthsAfterThisOne() {
+        when(transactionPartitionDao.findEndOfLastPartition()).thenReturn(Optional.of(ZonedDateTime.parse("2026-11-01T00:00Z")));
+
+        maintainer.createPartitions();
+
+        var inOrder = inOrder(transactionPartitionDao);
+        inOrder.verify(transactionPartitionDao).createPartitionForMonth(ZonedDateTime.parse("2026-11-01T00:00Z"));
+        inOrder.verify(transactionPartitionDao).createPartitionForMonth(ZonedDateTime.parse("2026-12-01T00:00Z"));
+        inOrder.verifyNoMoreInteractions();
+        assertThat(metricRegistry.getGauges().get("transaction-partition-maintainer.days-partitioned-ahead").getValue(), is(74L));
+    }
+
+    @Test
+    void shouldNotCreatePartitionsWhenThereAreEnoughAlready() {
+        when(transactionPartitionDao.findEndOfLastPartition()).thenReturn(Optional.of(ZonedDateTime.parse("2027-02-01T00:00Z")));
+
+        maintainer.createPartitions();
+
+        verify(transactionPartitionDao, never()).createPartitionForMonth(any());
+    }
+
+    @Test
+    void shouldCreatePartitionsBeforeStartingAndThenEveryCheckInterval() {
+        when(transactionPartitionDao.findEndOfLastPartition()).thenReturn(Optional.of(ZonedDateTime.parse("2027-01-01T00:00Z")));
+
+        maintainer.start();
+
+        verify(transactionPartitionDao).findEndOfLastPartition();
+        verify(executorService).scheduleWithFixedDelay(any(), eq(86400000L), eq(86400000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void shouldStartWhenPartitionsCannotBeCreated() {
+        when(transactionPartitionDao.findEndOfLastPartition()).thenReturn(Optional.of(ZonedDateTime.parse("2026-12-01T00:00Z")));
+        doThrow(new RuntimeException("canceling statement due to lock timeout"))
+                .when(transactionPartitionDao).createPartitionForMonth(any());
+
+        maintainer.start();
+
+        verify(executorService).scheduleWithFixedDelay(any(), eq(86400000L), eq(86400000L), eq(TimeUnit.MILLISECONDS));
+    }
+}
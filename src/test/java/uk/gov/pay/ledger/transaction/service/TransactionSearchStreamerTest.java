@@ -0,0 +1,161 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import uk.gov.pay.ledger.app.LedgerConfig;
+import uk.gov.pay.ledger.app.config.ReportingConfig;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+import uk.gov.pay.ledger.util.dao.StatementCanceller;
+
+import java.time.Instant;
+import java.time.InstantSource;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionSearchStreamerTest {
+
+    private static final ZonedDateTime CREATED_DATE = ZonedDateTime.parse("2026-10-18T10:15:30Z");
+
+    @Mock
+    private TransactionDao transactionDao;
+
+    @Mock
+    private LedgerConfig ledgerConfig;
+
+    @Mock
+    private ReportingConfig reportingConfig;
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2026-10-18T12:00:00Z"));
+    private final TransactionSearchParams searchParams = new TransactionSearchParams();
+    private final List<Long> streamedIds = new ArrayList<>();
+    private final StatementCanceller statementCanceller = new StatementCanceller();
+    private TransactionSearchStreamer streamer;
+
+    @BeforeEach
+    void setUp() {
+        when(reportingConfig.getStreamingCsvMaxCursorDurationInSeconds()).thenReturn(60);
+        when(ledgerConfig.getReportingConfig()).thenReturn(reportingConfig);
+        streamer = new TransactionSearchStreamer(transactionDao, ledgerConfig, now::get);
+    }
+
+    @Test
+    void shouldStreamEveryTransactionFromOneCursor() {
+        when(transactionDao.streamTransactionSearch(eq(searchParams), isNull(), isNull(), any(), any()))
+                .thenAnswer(streaming(List.of(aTransaction(3L), aTransaction(2L), aTransaction(1L)), false));
+
+        long count = streamer.stream(searchParams, statementCanceller, transaction -> streamedIds.add(transaction.getId()));
+
+        assertThat(count, is(3L));
+        assertThat(streamedIds, is(List.of(3L, 2L, 1L)));
+    }
+
+    @Test
+    void shouldCarryOnFromANewCursorOnceTheMaximumCursorDurationHasPassed() {
+        when(transactionDao.streamTransactionSearch(eq(searchParams), isNull(), isNull(), any(), any()))
+                .thenAnswer(invocation -> {
+                    Predicate<TransactionEntity> consumer = invocation.getArgument(4);
+                    consumer.test(aTransaction(3L));
+                    now.set(now.get().plusSeconds(60));
+                    return consumer.test(aTransaction(2L)) && consumer.test(aTransaction(1L));
+                });
+        when(transactionDao.streamTransactionSearch(eq(searchParams), eq(CREATED_DATE), eq(2L), any(), any()))
+                .thenAnswer(streaming(List.of(aTransaction(1L)), false));
+
+        long count = streamer.stream(searchParams, statementCanceller, transaction -> streamedIds.add(transaction.getId()));
+
+        assertThat(count, is(3L));
+        assertThat(streamedIds, is(List.of(3L, 2L, 1L)));
+    }
+
+    @Test
+    void shouldResumeAfterTheLastTransactionStreamedWhenTheCursorIsLost() {
+        when(transactionDao.streamTransactionSearch(eq(searchParams), isNull(), isNull(), any(), any()))
+                .thenAnswer(streaming(List.of(aTransaction(3L)), true));
+        when(transactionDao.streamTransactionSearch(eq(searchParams), eq(CREATED_DATE), eq(3L), any(), any()))
+                .thenAnswer(streaming(List.of(aTransaction(2L), aTransaction(1L)), false));
+
+        long count = streamer.stream(searchParams, statementCanceller, transaction -> streamedIds.add(transaction.getId()));
+
+        assertThat(count, is(3L));
+        assertThat(streamedIds, is(List.of(3L, 2L, 1L)));
+    }
+
+    @Test
+    void shouldFailWhenACursorIsLostBeforeStreamingAnyTransactions() {
+        when(transactionDao.streamTransactionSearch(eq(searchParams), isNull(), isNull(), any(), any()))
+                .thenAnswer(streaming(List.of(aTransaction(3L)), true));
+        when(transactionDao.streamTransactionSearch(eq(searchParams), eq(CREATED_DATE), eq(3L), any(), any()))
+                .thenAnswer(streaming(List.of(), true));
+
+        assertThrows(UnableToExecuteStatementException.class,
+                () -> streamer.stream(searchParams, statementCanceller, transaction -> streamedIds.add(transaction.getId())));
+        assertThat(streamedIds, is(List.of(3L)));
+    }
+
+    @Test
+    void shouldNotResumeACancelledSearch() {
+        when(transactionDao.streamTransactionSearch(eq(searchParams), isNull(), isNull(), eq(statementCanceller), any()))
+                .thenAnswer(streaming(List.of(aTransaction(3L)), true));
+
+        assertThrows(UnableToExecuteStatementException.class, () -> streamer.stream(searchParams, statementCanceller, transaction -> {
+            streamedIds.add(transaction.getId());
+            statementCanceller.cancel();
+        }));
+        assertThat(streamedIds, is(List.of(3L)));
+    }
+
+    @Test
+    void shouldStopStreamingOnceTheSearchIsCancelled() {
+        when(transactionDao.streamTransactionSearch(eq(searchParams), isNull(), isNull(), eq(statementCanceller), any()))
+                .thenAnswer(streaming(List.of(aTransaction(3L), aTransaction(2L), aTransaction(1L)), false));
+
+        assertThrows(CancellationException.class, () -> streamer.stream(searchParams, statementCanceller, transaction -> {
+            streamedIds.add(transaction.getId());
+            statementCanceller.cancel();
+        }));
+        assertThat(streamedIds, is(List.of(3L)));
+    }
+
+    private static Answer<Boolean> streaming(List<TransactionEntity> transactions, boolean thenLoseTheCursor) {
+        return invocation -> {
+            Predicate<TransactionEntity> consumer = invocation.getArgument(4);
+            for (TransactionEntity transaction : transactions) {
+                if (!consumer.test(transaction)) {
+                    return false;
+                }
+            }
+            if (thenLoseTheCursor) {
+                throw new UnableToExecuteStatementException("terminating connection due to conflict with recovery", null);
+            }
+            return true;
+        };
+    }
+
+    private static TransactionEntity aTransaction(long id) {
+        return aTransactionFixture()
+                .withId(id)
+                .withCreatedDate(CREATED_DATE)
+                .toEntity();
+    }
+}
@@ -0,0 +1,72 @@
+package uk.gov.pay.ledger.transaction.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.pay.ledger.transaction.search.common.TotalMode;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class TransactionSearchTotalCacheTest {
+
+    private final AtomicLong counts = new AtomicLong();
+    private TransactionSearchTotalCache transactionSearchTotalCache;
+
+    @BeforeEach
+    void setUp() {
+        transactionSearchTotalCache = new TransactionSearchTotalCache(Duration.ofMinutes(1), 100);
+    }
+
+    @Test
+    void shouldReuseTheTotalOfTheSameSearchWithItsFiltersInAnotherOrder() {
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("1", "2"), "2019-05-01T10:15:30Z"),
+                TotalMode.EXACT, counts::incrementAndGet), is(1L));
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("2", "1"), "2019-05-01T11:15:30+01:00"),
+                TotalMode.EXACT, counts::incrementAndGet), is(1L));
+    }
+
+    @Test
+    void shouldNotReuseTheTotalOfAnotherModeOrSearch() {
+        transactionSearchTotalCache.getTotal(aSearch(List.of("1"), "2019-05-01T10:15:30Z"), TotalMode.EXACT, counts::incrementAndGet);
+
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("1"), "2019-05-01T10:15:30Z"),
+                TotalMode.ESTIMATED, counts::incrementAndGet), is(2L));
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("1"), "2019-05-02T10:15:30Z"),
+                TotalMode.EXACT, counts::incrementAndGet), is(3L));
+    }
+
+    @Test
+    void shouldCountAgainOnceATransactionOfOneOfTheGatewayAccountsIsProjected() {
+        transactionSearchTotalCache.getTotal(aSearch(List.of("1", "2"), "2019-05-01T10:15:30Z"), TotalMode.EXACT, counts::incrementAndGet);
+        transactionSearchTotalCache.getTotal(aSearch(List.of("3"), "2019-05-01T10:15:30Z"), TotalMode.EXACT, counts::incrementAndGet);
+
+        transactionSearchTotalCache.invalidate("2");
+
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("1", "2"), "2019-05-01T10:15:30Z"),
+                TotalMode.EXACT, counts::incrementAndGet), is(3L));
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("3"), "2019-05-01T10:15:30Z"),
+                TotalMode.EXACT, counts::incrementAndGet), is(2L));
+    }
+
+    @Test
+    void shouldCountEverySearchWhenTotalsAreNotKept() {
+        transactionSearchTotalCache = new TransactionSearchTotalCache(Duration.ZERO, 100);
+
+        transactionSearchTotalCache.getTotal(aSearch(List.of("1"), "2019-05-01T10:15:30Z"), TotalMode.EXACT, counts::incrementAndGet);
+
+        assertThat(transactionSearchTotalCache.getTotal(aSearch(List.of("1"), "2019-05-01T10:15:30Z"),
+                TotalMode.EXACT, counts::incrementAndGet), is(2L));
+    }
+
+    private TransactionSearchParams aSearch(List<String> gatewayAccountIds, String fromDate) {
+        TransactionSearchParams searchParams = new TransactionSearchParams();
+        searchParams.setAccountIds(gatewayAccountIds);
+        searchParams.setFromDate(fromDate);
+        return searchParams;
+    }
+}
@@ -21,10 +21,14 @@ import uk.gov.pay.ledger.transaction.model.TransactionEvent;
 import uk.gov.pay.ledger.transaction.model.TransactionEventResponse;
 import uk.gov.pay.ledger.transaction.model.TransactionFactory;
 import uk.gov.pay.ledger.transaction.model.TransactionSearchResponse;
+import uk.gov.pay.ledger.transaction.search.common.TransactionSearchCursor;
+import uk.gov.pay.ledger.transaction.search.common.TotalMode;
 import uk.gov.pay.ledger.transaction.search.common.TransactionSearchParams;
 import uk.gov.pay.ledger.transaction.search.model.TransactionView;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
 import uk.gov.pay.ledger.util.CommaDelimitedSetParameter;
+import uk.gov.pay.ledger.util.dao.ConcurrentQueryExecutor;
 import uk.gov.pay.ledger.util.fixture.EventFixture;
 import uk.gov.pay.ledger.util.fixture.TransactionFixture;
 import uk.gov.pay.ledger.util.pagination.PaginationBuilder;
@@ -33,11 +37,16 @@ import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.UriBuilder;
 import jakarta.ws.rs.core.UriInfo;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -47,8 +56,11 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static uk.gov.pay.ledger.transaction.model.TransactionType.PAYMENT;
 import static uk.gov.pay.ledger.transaction.service.TransactionService.REDACTED_REFERENCE_NUMBER;
 import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
 
@@ -63,6 +75,10 @@ public class TransactionServiceTest {
     private EventDao mockEventDao;
     @Mock
     private UriInfo mockUriInfo;
+    @Mock
+    private TransactionSummaryDao mockTransactionSummaryDao;
+    @Mock
+    private ConcurrentQueryExecutor mockConcurrentQueryExecutor;
     private TransactionService transactionService;
     private String gatewayAccountId = "gateway_account_id";
     private TransactionSearchParams searchParams;
@@ -75,12 +91,19 @@ public class TransactionServiceTest {
         TransactionFactory transactionFactory = new TransactionFactory(objectMapper);
         CsvTransactionFactory csvTransactionFactory = new CsvTransactionFactory(objectMapper);
         transactionService = new TransactionService(mockTransactionDao, mockEventDao, transactionEntityFactory,
-                transactionFactory, csvTransactionFactory, objectMapper);
+                transactionFactory, csvTransactionFactory, objectMapper, mockTransactionSummaryDao,
+                new TransactionSearchTotalCache(Duration.ofMinutes(1), 100), mockConcurrentQueryExecutor);
         searchParams = new TransactionSearchParams();
         searchParams.setAccountIds(List.of(gatewayAccountId));
 
         lenient().when(mockUriInfo.getBaseUriBuilder()).thenReturn(UriBuilder.fromUri("http://app.com"));
         lenient().when(mockUriInfo.getPath()).thenReturn("/v1/transaction");
+        lenient().when(mockConcurrentQueryExecutor.runConcurrently(any(), any(), any())).thenAnswer(invocation -> {
+            Supplier<?> pageQuery = invocation.getArgument(0);
+            Supplier<?> countQuery = invocation.getArgument(1);
+            BiFunction<Object, Object, ?> combine = invocation.getArgument(2);
+            return combine.apply(pageQuery.get(), countQuery.get());
+        });
     }
 
     @Test
@@ -216,6 +239,154 @@ public class TransactionServiceTest {
         assertCorrectPaginationQueryParams(transactionSearchResponse);
     }
 
+    @Test
+    public void searchTransactions_shouldRunThePageAndTotalQueriesConcurrently() {
+        when(mockTransactionDao.searchTransactions(any(TransactionSearchParams.class))).thenReturn(List.of());
+        when(mockTransactionDao.getTotalForSearch(any(TransactionSearchParams.class))).thenReturn(0L);
+
+        transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        verify(mockConcurrentQueryExecutor).runConcurrently(any(), any(), any());
+    }
+
+    @Test
+    public void searchTransactions_shouldBeUnavailableWhenTooManySearchesAreInProgress() {
+        when(mockConcurrentQueryExecutor.runConcurrently(any(), any(), any())).thenThrow(new RejectedExecutionException());
+
+        WebApplicationException webApplicationException = assertThrows(WebApplicationException.class,
+                () -> transactionService.searchTransactions(searchParams, mockUriInfo));
+
+        assertThat(webApplicationException.getResponse().getStatus(), is(503));
+    }
+
+    @Test
+    public void shouldReuseTheTotalOfASearchUntilATransactionOfTheGatewayAccountIsProjected() {
+        when(mockTransactionDao.searchTransactions(any(TransactionSearchParams.class))).thenReturn(List.of());
+        when(mockTransactionDao.getTotalForSearch(any(TransactionSearchParams.class))).thenReturn(10L, 11L);
+
+        transactionService.searchTransactions(searchParams, mockUriInfo);
+        assertThat(transactionService.searchTransactions(searchParams, mockUriInfo).getTotal(), is(10L));
+
+        transactionService.upsertTransaction(aTransactionFixture().withGatewayAccountId(gatewayAccountId).toEntity());
+
+        assertThat(transactionService.searchTransactions(searchParams, mockUriInfo).getTotal(), is(11L));
+        verify(mockTransactionDao, times(2)).getTotalForSearch(searchParams);
+    }
+
+    @Test
+    public void shouldEstimateTheTotalFromTheTransactionSummaryWhenTheSearchIsSummarised() {
+        when(mockTransactionDao.searchTransactions(any(TransactionSearchParams.class))).thenReturn(List.of());
+        when(mockTransactionSummaryDao.countPayments(List.of(gatewayAccountId), List.of("SUCCESS"),
+                LocalDate.parse("2019-05-01"), null)).thenReturn(1234L);
+        searchParams.setTransactionType(PAYMENT);
+        searchParams.setState("success");
+        searchParams.setFromDate("2019-05-01T10:15:30Z");
+        searchParams.setPageNumber(1000L);
+        searchParams.setTotalMode("estimated");
+
+        TransactionSearchResponse transactionSearchResponse = transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        assertThat(transactionSearchResponse.getTotal(), is(1234L));
+        assertThat(transactionSearchResponse.getTotalMode(), is(TotalMode.ESTIMATED));
+        assertThat(transactionSearchResponse.getPaginationBuilder().getLastLink(), is(nullValue()));
+        verify(mockTransactionDao, never()).getEstimatedTotalForSearch(any(TransactionSearchParams.class));
+    }
+
+    @Test
+    public void shouldEstimateTheTotalFromTheQueryPlanWhenTheSearchIsNotSummarised() {
+        when(mockTransactionDao.searchTransactions(any(TransactionSearchParams.class))).thenReturn(List.of());
+        when(mockTransactionDao.getEstimatedTotalForSearch(searchParams)).thenReturn(42L);
+        setAllSearchParams();
+        searchParams.setTotalMode("estimated");
+
+        TransactionSearchResponse transactionSearchResponse = transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        assertThat(transactionSearchResponse.getTotal(), is(42L));
+        assertThat(transactionSearchResponse.getTotalMode(), is(TotalMode.ESTIMATED));
+        verify(mockTransactionSummaryDao, never()).countPayments(any(), any(), any(), any());
+        assertCorrectPaginationQueryParams(transactionSearchResponse);
+    }
+
+    @Test
+    public void shouldReturnCursorsOfTheNeighbouringPagesForAFullPageRequestedByPageNumber() {
+        List<TransactionEntity> transactionList = TransactionFixture.aTransactionList(gatewayAccountId, 10);
+        searchParams.setPageNumber(2L);
+        searchParams.setDisplaySize(10L);
+        when(mockTransactionDao.searchTransactions(any(TransactionSearchParams.class))).thenReturn(transactionList);
+        when(mockTransactionDao.getTotalForSearch(any(TransactionSearchParams.class))).thenReturn(100L);
+
+        TransactionSearchResponse transactionSearchResponse = transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        TransactionSearchCursor nextCursor = TransactionSearchCursor.decode(transactionSearchResponse.getNextCursor()).get();
+        assertThat(nextCursor.isBefore(), is(false));
+        assertThat(nextCursor.getId(), is(transactionList.get(9).getId()));
+        assertThat(nextCursor.getCreatedDate().toInstant(), is(transactionList.get(9).getCreatedDate().toInstant()));
+
+        TransactionSearchCursor prevCursor = TransactionSearchCursor.decode(transactionSearchResponse.getPrevCursor()).get();
+        assertThat(prevCursor.isBefore(), is(true));
+        assertThat(prevCursor.getId(), is(transactionList.get(0).getId()));
+    }
+
+    @Test
+    public void shouldNotReturnCursorsPastTheEndsOfTheSearch() {
+        List<TransactionEntity> transactionList = TransactionFixture.aTransactionList(gatewayAccountId, 5);
+        searchParams.setDisplaySize(10L);
+        when(mockTransactionDao.searchTransactions(any(TransactionSearchParams.class))).thenReturn(transactionList);
+        when(mockTransactionDao.getTotalForSearch(any(TransactionSearchParams.class))).thenReturn(5L);
+
+        TransactionSearchResponse transactionSearchResponse = transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        assertThat(transactionSearchResponse.getNextCursor(), is(nullValue()));
+        assertThat(transactionSearchResponse.getPrevCursor(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldSeekThePageAfterANextCursorWithoutCheckingThePageNumber() {
+        TransactionEntity lastOfPreviousPage = aTransactionFixture().toEntity();
+        String cursor = TransactionSearchCursor.after(lastOfPreviousPage).encode();
+        List<TransactionEntity> transactionList = TransactionFixture.aTransactionList(gatewayAccountId, 10);
+        searchParams.setCursor(cursor);
+        searchParams.setDisplaySize(10L);
+        when(mockTransactionDao.cursorTransactionSearch(any(TransactionSearchParams.class),
+                any(ZonedDateTime.class), any(Long.class))).thenReturn(transactionList);
+        when(mockTransactionDao.getTotalForSearch(any(TransactionSearchParams.class))).thenReturn(1000L);
+
+        TransactionSearchResponse transactionSearchResponse = transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        verify(mockTransactionDao).cursorTransactionSearch(searchParams,
+                TransactionSearchCursor.decode(cursor).get().getCreatedDate(), lastOfPreviousPage.getId());
+        verify(mockTransactionDao, never()).searchTransactions(any());
+
+        String nextCursor = TransactionSearchCursor.after(transactionList.get(9)).encode();
+        String prevCursor = TransactionSearchCursor.before(transactionList.get(0)).encode();
+        assertThat(transactionSearchResponse.getNextCursor(), is(nextCursor));
+        assertThat(transactionSearchResponse.getPrevCursor(), is(prevCursor));
+
+        PaginationBuilder paginationBuilder = transactionSearchResponse.getPaginationBuilder();
+        assertThat(paginationBuilder.getSelfLink().getHref(), is("http://app.com/v1/transaction?account_id=gateway_account_id&cursor=" + cursor + "&display_size=10"));
+        assertThat(paginationBuilder.getNextLink().getHref(), is("http://app.com/v1/transaction?account_id=gateway_account_id&cursor=" + nextCursor + "&display_size=10"));
+        assertThat(paginationBuilder.getPrevLink().getHref(), is("http://app.com/v1/transaction?account_id=gateway_account_id&cursor=" + prevCursor + "&display_size=10"));
+        assertThat(paginationBuilder.getFirstLink().getHref(), is("http://app.com/v1/transaction?account_id=gateway_account_id&page=1&display_size=10"));
+        assertThat(paginationBuilder.getLastLink(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldSeekBackwardsForAPrevCursorAndStopAtTheFirstPage() {
+        TransactionEntity firstOfNextPage = aTransactionFixture().toEntity();
+        List<TransactionEntity> transactionList = TransactionFixture.aTransactionList(gatewayAccountId, 3);
+        searchParams.setCursor(TransactionSearchCursor.before(firstOfNextPage).encode());
+        searchParams.setDisplaySize(10L);
+        when(mockTransactionDao.cursorTransactionSearchBefore(any(TransactionSearchParams.class),
+                any(ZonedDateTime.class), any(Long.class))).thenReturn(transactionList);
+        when(mockTransactionDao.getTotalForSearch(any(TransactionSearchParams.class))).thenReturn(1000L);
+
+        TransactionSearchResponse transactionSearchResponse = transactionService.searchTransactions(searchParams, mockUriInfo);
+
+        assertThat(transactionSearchResponse.getNextCursor(), is(TransactionSearchCursor.after(transactionList.get(2)).encode()));
+        assertThat(transactionSearchResponse.getPrevCursor(), is(nullValue()));
+        assertThat(transactionSearchResponse.getPaginationBuilder().getPrevLink(), is(nullValue()));
+    }
+
     @Test
     public void findTransactionEvents_shouldReturnTransactionEventsCorrectlyForStatusVersion1() {
         List<TransactionEntity> transactionEntityList = TransactionFixture.aTransactionList(gatewayAccountId, 1);
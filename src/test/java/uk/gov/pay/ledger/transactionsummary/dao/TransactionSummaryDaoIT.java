@@ -8,6 +8,8 @@ import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
 import uk.gov.pay.ledger.report.entity.GatewayAccountMonthlyPerformanceReportEntity;
 import uk.gov.pay.ledger.report.params.PerformanceReportParams;
 import uk.gov.pay.ledger.transaction.state.TransactionState;
+import uk.gov.pay.ledger.transactionsummary.entity.FlushedDeltasEntity;
+import uk.gov.pay.ledger.transactionsummary.entity.TransactionSummaryDeltaEntity;
 import uk.gov.pay.ledger.util.DatabaseTestHelper;
 import uk.gov.pay.ledger.util.fixture.TransactionSummaryFixture;
 
@@ -15,6 +17,7 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.math.BigDecimal.ZERO;
@@ -50,9 +53,9 @@ public class TransactionSummaryDaoIT {
     public void upsertShouldInsertNewTransactionSummaryRowCorrectly() {
         String gatewayAccountId1 = "account-" + randomAlphanumeric(10);
         String gatewayAccountId2 = "account-" + randomAlphanumeric(10);
-        transactionSummaryDao.upsert(gatewayAccountId1, "PAYMENT",
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId1, "PAYMENT",
                 parse("2018-09-22"), SUCCESS, false, false, 100L);
-        transactionSummaryDao.upsert(gatewayAccountId2, "PAYMENT",
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId2, "PAYMENT",
                 parse("2018-09-23"), FAILED_REJECTED, true, true, 200L);
 
         List<Map<String, Object>> transactionSummary = dbHelper.getTransactionSummary(gatewayAccountId1, PAYMENT,
@@ -76,10 +79,126 @@ public class TransactionSummaryDaoIT {
         assertThat(transactionSummary.get(0).get("no_of_transactions"), is(1L));
     }
 
+    @Test
+    public void shouldSpreadTransactionsOverStripesAndReportTheirSum() {
+        String gatewayAccountId = "1";
+        LocalDate transactionDate = parse("2019-01-01");
+        aTransactionSummaryFixture()
+                .withGatewayAccountId(gatewayAccountId)
+                .withTransactionDate(transactionDate)
+                .withType(PAYMENT)
+                .withState(SUCCESS)
+                .withLive(true)
+                .withAmount(1000L)
+                .withNoOfTransactions(10L)
+                .insert(rule.getJdbi());
+        List<String> transactionExternalIds = Stream.generate(() -> randomAlphanumeric(26)).limit(50).collect(Collectors.toList());
+        transactionExternalIds.forEach(externalId -> transactionSummaryDao.upsert(externalId, gatewayAccountId, "PAYMENT",
+                transactionDate, SUCCESS, true, false, 100L));
+        transactionSummaryDao.deductTransactionSummaryFor(transactionExternalIds.get(0), gatewayAccountId, "PAYMENT",
+                transactionDate, SUCCESS, true, false, 100L, 0L);
+
+        long noOfRows = dbHelper.getTransactionSummaryStripes(gatewayAccountId).size();
+        assertThat(noOfRows > 1, is(true));
+        assertThat(noOfRows <= TransactionSummaryDao.NUMBER_OF_STRIPES, is(true));
+
+        List<Map<String, Object>> transactionSummary = dbHelper.getTransactionSummary(gatewayAccountId, PAYMENT,
+                SUCCESS, transactionDate, true, false);
+        assertThat(transactionSummary.size(), is(1));
+        assertThat(transactionSummary.get(0).get("no_of_transactions"), is(59L));
+        assertThat(transactionSummary.get(0).get("total_amount_in_pence"), is(5900L));
+
+        var performanceReportParams = PerformanceReportParams.PerformanceReportParamsBuilder.builder()
+                .withFromDate(transactionDate)
+                .withToDate(transactionDate)
+                .build();
+        var performanceReportEntity = transactionSummaryDao.performanceReportForPaymentTransactions(performanceReportParams);
+        assertThat(performanceReportEntity.getTotalVolume(), CoreMatchers.is(59L));
+        assertThat(performanceReportEntity.getTotalAmount(), CoreMatchers.is(closeTo(new BigDecimal(5900L), ZERO)));
+        assertThat(performanceReportEntity.getAverageAmount(), CoreMatchers.is(closeTo(new BigDecimal(100L), ZERO)));
+
+        List<GatewayAccountMonthlyPerformanceReportEntity> monthlyReport = transactionSummaryDao
+                .monthlyPerformanceReportForGatewayAccounts(transactionDate, transactionDate);
+        assertThat(monthlyReport.size(), is(1));
+        assertThat(monthlyReport.get(0).getTotalVolume(), is(59L));
+        assertThat(monthlyReport.get(0).getTotalAmount(), is(closeTo(new BigDecimal(5900L), ZERO)));
+    }
+
+    @Test
+    public void countPaymentsShouldSumTheFinishedPaymentsOfTheGatewayAccountsInTheStatesAndDates() {
+        String gatewayAccountId = "account-" + randomAlphanumeric(10);
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "PAYMENT", parse("2018-09-22"), SUCCESS, true, false, 100L);
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "PAYMENT", parse("2018-09-23"), SUCCESS, false, true, 100L);
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "PAYMENT", parse("2018-09-24"), SUCCESS, true, false, 100L);
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "PAYMENT", parse("2018-09-23"), FAILED_REJECTED, true, false, 100L);
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "REFUND", parse("2018-09-23"), SUCCESS, true, false, 100L);
+        transactionSummaryDao.upsert(randomAlphanumeric(26), "account-" + randomAlphanumeric(10), "PAYMENT",
+                parse("2018-09-23"), SUCCESS, true, false, 100L);
+
+        assertThat(transactionSummaryDao.countPayments(List.of(gatewayAccountId), List.of("SUCCESS"),
+                parse("2018-09-22"), parse("2018-09-23")), is(2L));
+        assertThat(transactionSummaryDao.countPayments(List.of(gatewayAccountId), List.of("SUCCESS", "FAILED_REJECTED"),
+                null, null), is(4L));
+        assertThat(transactionSummaryDao.countPayments(List.of(gatewayAccountId), List.of(), null, null), is(0L));
+    }
+
+    @Test
+    public void flushDeltasShouldMergeDeltasByKeyAndApplyThemOnce() {
+        String gatewayAccountId = "account-" + randomAlphanumeric(10);
+        LocalDate transactionDate = parse("2018-09-22");
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, 100L);
+        transactionSummaryDao.insertDeltas(List.of(
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, 0, 1, 200L, 5L),
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, 0, -1, -100L, -2L),
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, FAILED_REJECTED, true, false, 0, 1, 300L, 0L),
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, STARTED, true, false, 0, -1, -50L, 0L)));
+
+        FlushedDeltasEntity flushedDeltas = transactionSummaryDao.flushDeltas(10);
+
+        assertThat(flushedDeltas.getNoOfDeltas(), is(4));
+        assertThat(flushedDeltas.getFlushedUpToDeltaId().isPresent(), is(true));
+
+        List<Map<String, Object>> successSummary = dbHelper.getTransactionSummary(gatewayAccountId, PAYMENT,
+                SUCCESS, transactionDate, true, false);
+        assertThat(successSummary.get(0).get("no_of_transactions"), is(1L));
+        assertThat(successSummary.get(0).get("total_amount_in_pence"), is(200L));
+        assertThat(successSummary.get(0).get("total_fee_in_pence"), is(3L));
+
+        List<Map<String, Object>> failedSummary = dbHelper.getTransactionSummary(gatewayAccountId, PAYMENT,
+                FAILED_REJECTED, transactionDate, true, false);
+        assertThat(failedSummary.get(0).get("no_of_transactions"), is(1L));
+        assertThat(failedSummary.get(0).get("total_amount_in_pence"), is(300L));
+
+        // a deduct from a summary row that does not exist does not create one
+        assertThat(dbHelper.getTransactionSummary(gatewayAccountId, PAYMENT, STARTED, transactionDate, true, false).isEmpty(),
+                is(true));
+        assertThat(transactionSummaryDao.flushDeltas(10).getNoOfDeltas(), is(0));
+    }
+
+    @Test
+    public void flushDeltasShouldFlushNoMoreThanTheMaximumNumberOfDeltas() {
+        String gatewayAccountId = "account-" + randomAlphanumeric(10);
+        LocalDate transactionDate = parse("2018-09-22");
+        transactionSummaryDao.insertDeltas(List.of(
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, 0, 1, 100L, 0L),
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, 0, 1, 200L, 0L)));
+
+        FlushedDeltasEntity firstFlush = transactionSummaryDao.flushDeltas(1);
+        assertThat(firstFlush.getNoOfDeltas(), is(1));
+        assertThat(dbHelper.getTransactionSummary(gatewayAccountId, PAYMENT, SUCCESS, transactionDate, true, false)
+                .get(0).get("total_amount_in_pence"), is(100L));
+
+        FlushedDeltasEntity secondFlush = transactionSummaryDao.flushDeltas(1);
+        assertThat(secondFlush.getNoOfDeltas(), is(1));
+        assertThat(secondFlush.getFlushedUpToDeltaId().get() > firstFlush.getFlushedUpToDeltaId().get(), is(true));
+        assertThat(dbHelper.getTransactionSummary(gatewayAccountId, PAYMENT, SUCCESS, transactionDate, true, false)
+                .get(0).get("total_amount_in_pence"), is(300L));
+    }
+
     @Test
     public void upsertWithLiveNullShouldNotCauseException(){
         String gatewayAccountId = "account-" + randomAlphanumeric(10);
-        transactionSummaryDao.upsert(gatewayAccountId, "PAYMENT",
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, "PAYMENT",
                 parse("2018-09-22"), SUCCESS, null, false, 100L);
         List<Map<String, Object>> transactionSummary = dbHelper.getTransactionSummary(gatewayAccountId);
         assertThat(transactionSummary.get(0).get("live"), is(nullValue()));
@@ -97,7 +216,7 @@ public class TransactionSummaryDaoIT {
                 .withFee(77L)
                 .withNoOfTransactions(10L)
                 .insert(rule.getJdbi());
-        transactionSummaryDao.upsert(gatewayAccountId, PAYMENT.name(),
+        transactionSummaryDao.upsert(randomAlphanumeric(26), gatewayAccountId, PAYMENT.name(),
                 transactionSummaryFixture.getTransactionDate(), transactionSummaryFixture.getState(),
                 false, false, 123L);
 
@@ -124,7 +243,7 @@ public class TransactionSummaryDaoIT {
                 .withFee(100L)
                 .withNoOfTransactions(10L)
                 .insert(rule.getJdbi());
-        transactionSummaryDao.deductTransactionSummaryFor(gatewayAccountId, PAYMENT.name(),
+        transactionSummaryDao.deductTransactionSummaryFor(randomAlphanumeric(26), gatewayAccountId, PAYMENT.name(),
                 transactionSummaryFixture.getTransactionDate(), transactionSummaryFixture.getState(),
                 false, false, 123L, 23L);
 
@@ -140,6 +259,74 @@ public class TransactionSummaryDaoIT {
         assertThat(transactionSummary.get(0).get("total_fee_in_pence"), is(77L));
     }
 
+    @Test
+    public void deductShouldDeductFromStripeZeroWhenTheStripeOfTheTransactionHasNoRow() {
+        String gatewayAccountId = "account-" + randomAlphanumeric(10);
+        aTransactionSummaryFixture()
+                .withGatewayAccountId(gatewayAccountId)
+                .withTransactionDate(parse("2018-09-22"))
+                .withType(PAYMENT)
+                .withState(SUCCESS)
+                .withAmount(1000L)
+                .withFee(100L)
+                .withNoOfTransactions(10L)
+                .insert(rule.getJdbi());
+        String transactionExternalId = anExternalIdOfANonZeroStripe();
+
+        transactionSummaryDao.deductTransactionSummaryFor(transactionExternalId, gatewayAccountId, PAYMENT.name(),
+                parse("2018-09-22"), SUCCESS, false, false, 123L, 23L);
+        transactionSummaryDao.updateFee(transactionExternalId, gatewayAccountId, PAYMENT.name(),
+                parse("2018-09-22"), SUCCESS, false, false, 3L);
+
+        List<Map<String, Object>> stripes = dbHelper.getTransactionSummaryStripes(gatewayAccountId);
+        assertThat(stripes.size(), is(1));
+        assertThat(((Number) stripes.get(0).get("stripe")).intValue(), is(0));
+        assertThat(stripes.get(0).get("no_of_transactions"), is(9L));
+        assertThat(stripes.get(0).get("total_amount_in_pence"), is(877L));
+        assertThat(stripes.get(0).get("total_fee_in_pence"), is(80L));
+    }
+
+    @Test
+    public void deductAndUpdateFeeShouldNotCreateASummaryRow() {
+        String gatewayAccountId = "account-" + randomAlphanumeric(10);
+        String transactionExternalId = anExternalIdOfANonZeroStripe();
+
+        transactionSummaryDao.deductTransactionSummaryFor(transactionExternalId, gatewayAccountId, PAYMENT.name(),
+                parse("2018-09-22"), SUCCESS, false, false, 123L, 23L);
+        transactionSummaryDao.updateFee(transactionExternalId, gatewayAccountId, PAYMENT.name(),
+                parse("2018-09-22"), SUCCESS, false, false, 23L);
+
+        assertThat(dbHelper.getTransactionSummaryStripes(gatewayAccountId).isEmpty(), is(true));
+    }
+
+    @Test
+    public void flushDeltasShouldApplyDeductsToStripeZeroWhenTheirStripeHasNoRow() {
+        String gatewayAccountId = "account-" + randomAlphanumeric(10);
+        LocalDate transactionDate = parse("2018-09-22");
+        aTransactionSummaryFixture()
+                .withGatewayAccountId(gatewayAccountId)
+                .withTransactionDate(transactionDate)
+                .withType(PAYMENT)
+                .withState(SUCCESS)
+                .withLive(true)
+                .withAmount(1000L)
+                .withFee(100L)
+                .withNoOfTransactions(10L)
+                .insert(rule.getJdbi());
+        int stripe = TransactionSummaryDao.stripeFor(anExternalIdOfANonZeroStripe());
+        transactionSummaryDao.insertDeltas(List.of(
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, stripe, -1, -100L, -10L),
+                new TransactionSummaryDeltaEntity(gatewayAccountId, "PAYMENT", transactionDate, SUCCESS, true, false, 0, 0, 0L, 5L)));
+
+        transactionSummaryDao.flushDeltas(10);
+
+        List<Map<String, Object>> stripes = dbHelper.getTransactionSummaryStripes(gatewayAccountId);
+        assertThat(stripes.size(), is(1));
+        assertThat(stripes.get(0).get("no_of_transactions"), is(9L));
+        assertThat(stripes.get(0).get("total_amount_in_pence"), is(900L));
+        assertThat(stripes.get(0).get("total_fee_in_pence"), is(95L));
+    }
+
     @Test
     public void shouldUpdateFeeForTransactionSummaryCorrectly() {
         String gatewayAccountId = "account-" + randomAlphanumeric(10);
@@ -152,7 +339,7 @@ public class TransactionSummaryDaoIT {
                 .withFee(100L)
                 .withNoOfTransactions(10L)
                 .insert(rule.getJdbi());
-        transactionSummaryDao.updateFee(gatewayAccountId, PAYMENT.name(),
+        transactionSummaryDao.updateFee(randomAlphanumeric(26), gatewayAccountId, PAYMENT.name(),
                 transactionSummaryFixture.getTransactionDate(), transactionSummaryFixture.getState(),
                 false, false, 23L);
 
@@ -309,4 +496,11 @@ public class TransactionSummaryDaoIT {
         assertThat(performanceReportEntity.getTotalAmount(), CoreMatchers.is(closeTo(new BigDecimal(3000L), ZERO)));
         assertThat(performanceReportEntity.getAverageAmount(), CoreMatchers.is(closeTo(new BigDecimal(1000L), ZERO)));
     }
-}
\ No newline at end of file
+
+    private static String anExternalIdOfANonZeroStripe() {
+        return Stream.generate(() -> randomAlphanumeric(26))
+                .filter(externalId -> TransactionSummaryDao.stripeFor(externalId) != 0)
+                .findFirst()
+                .get();
+    }
+}
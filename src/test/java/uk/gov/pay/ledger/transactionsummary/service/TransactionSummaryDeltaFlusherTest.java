@@ -0,0 +1,91 @@
+package uk.gov.pay.ledger.transactionsummary.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+import uk.gov.pay.ledger.transactionsummary.entity.FlushedDeltasEntity;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionSummaryDeltaFlusherTest {
+
+    @Mock
+    private TransactionSummaryDao transactionSummaryDao;
+
+    @Mock
+    private ScheduledExecutorService executorService;
+
+    private MetricRegistry metricRegistry;
+    private TransactionSummaryDeltaFlusher flusher;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        flusher = new TransactionSummaryDeltaFlusher(transactionSummaryDao, executorService, metricRegistry, true,
+                Duration.ofMillis(250), 3);
+    }
+
+    @Test
+    void shouldScheduleFlushesEveryFlushIntervalWhenEnabled() {
+        flusher.start();
+
+        verify(executorService).scheduleWithFixedDelay(any(), eq(0L), eq(250L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void shouldRequestAFlushOnceTheMaximumNumberOfCommittedDeltasIsPending() {
+        flusher.deltasRecorded(2);
+        flusher.deltasCommitted();
+        verify(executorService, never()).execute(any());
+
+        flusher.deltasRecorded(1);
+        verify(executorService, never()).execute(any());
+        flusher.deltasCommitted();
+        flusher.deltasRecorded(1);
+        flusher.deltasCommitted();
+        verify(executorService, times(1)).execute(any());
+        assertThat(metricRegistry.getGauges().get("transaction-summary-flusher.pending-deltas").getValue(), is(4L));
+    }
+
+    @Test
+    void shouldNotCountTheDeltasOfAUnitOfWorkThatRolledBack() {
+        flusher.deltasRecorded(5);
+        flusher.deltasRolledBack();
+        flusher.deltasCommitted();
+
+        verify(executorService, never()).execute(any());
+        assertThat(metricRegistry.getGauges().get("transaction-summary-flusher.pending-deltas").getValue(), is(0L));
+    }
+
+    @Test
+    void shouldKeepFlushingWhileFullFlushesAreReturnedAndTrackTheFlushedUpToPosition() {
+        flusher.deltasRecorded(5);
+        flusher.deltasCommitted();
+        when(transactionSummaryDao.flushDeltas(3)).thenReturn(
+                new FlushedDeltasEntity(3, 13L),
+                new FlushedDeltasEntity(2, 15L));
+
+        flusher.flush();
+
+        verify(transactionSummaryDao, times(2)).flushDeltas(3);
+        assertThat(metricRegistry.getGauges().get("transaction-summary-flusher.pending-deltas").getValue(), is(0L));
+        assertThat(metricRegistry.getGauges().get("transaction-summary-flusher.flushed-up-to-delta-id").getValue(), is(15L));
+        assertThat(metricRegistry.timer("transaction-summary-flusher.flush-latency").getCount(), is(2L));
+    }
+}
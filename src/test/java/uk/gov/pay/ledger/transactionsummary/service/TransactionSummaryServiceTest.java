@@ -3,11 +3,14 @@ package uk.gov.pay.ledger.transactionsummary.service;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import uk.gov.pay.ledger.event.entity.EventEntity;
 import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
 import uk.gov.pay.ledger.transactionsummary.dao.TransactionSummaryDao;
+import uk.gov.pay.ledger.transactionsummary.entity.TransactionSummaryDeltaEntity;
 import uk.gov.pay.ledger.util.fixture.EventFixture;
 
 import java.time.LocalDate;
@@ -15,9 +18,12 @@ import java.time.ZonedDateTime;
 import java.util.List;
 
 import static java.time.ZoneOffset.UTC;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 import static uk.gov.pay.ledger.event.model.SalientEventType.AUTHORISATION_SUCCEEDED;
 import static uk.gov.pay.ledger.event.model.SalientEventType.CAPTURE_CONFIRMED;
 import static uk.gov.pay.ledger.event.model.SalientEventType.CAPTURE_ERRORED;
@@ -27,6 +33,7 @@ import static uk.gov.pay.ledger.event.model.SalientEventType.PAYMENT_STATUS_CORR
 import static uk.gov.pay.ledger.event.model.SalientEventType.REFUND_SUBMITTED;
 import static uk.gov.pay.ledger.event.model.SalientEventType.USER_APPROVED_FOR_CAPTURE;
 import static uk.gov.pay.ledger.transaction.state.TransactionState.CREATED;
+import static uk.gov.pay.ledger.transaction.state.TransactionState.ERROR_GATEWAY;
 import static uk.gov.pay.ledger.transaction.state.TransactionState.SUBMITTED;
 import static uk.gov.pay.ledger.transaction.state.TransactionState.SUCCESS;
 import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
@@ -37,10 +44,14 @@ public class TransactionSummaryServiceTest {
     private TransactionSummaryService transactionSummaryService;
     @Mock
     TransactionSummaryDao mockTransactionSummaryDao;
+    @Mock
+    TransactionSummaryDeltaFlusher mockTransactionSummaryDeltaFlusher;
+    @Captor
+    ArgumentCaptor<List<TransactionSummaryDeltaEntity>> deltasArgumentCaptor;
 
     @BeforeEach
     void setUp() {
-        transactionSummaryService = new TransactionSummaryService(mockTransactionSummaryDao);
+        transactionSummaryService = new TransactionSummaryService(mockTransactionSummaryDao, mockTransactionSummaryDeltaFlusher);
     }
 
     @Test
@@ -61,7 +72,7 @@ public class TransactionSummaryServiceTest {
 
         transactionSummaryService.projectTransactionSummary(transactionEntity, paymentCreatedEvent, events);
 
-        verify(mockTransactionSummaryDao).upsert(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).upsert(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount());
@@ -84,7 +95,7 @@ public class TransactionSummaryServiceTest {
 
         transactionSummaryService.projectTransactionSummary(transactionEntity, userApprovedForCaptureEvent, events);
 
-        verify(mockTransactionSummaryDao).upsert(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).upsert(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount());
@@ -107,11 +118,11 @@ public class TransactionSummaryServiceTest {
 
         transactionSummaryService.projectTransactionSummary(transactionEntity, event3, events);
 
-        verify(mockTransactionSummaryDao).upsert(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).upsert(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount());
-        verify(mockTransactionSummaryDao).deductTransactionSummaryFor(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).deductTransactionSummaryFor(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount(), transactionEntity.getFee());
@@ -132,7 +143,7 @@ public class TransactionSummaryServiceTest {
 
         transactionSummaryService.projectTransactionSummary(transactionEntity, event, events);
 
-        verify(mockTransactionSummaryDao).upsert(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).upsert(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount());
@@ -156,17 +167,82 @@ public class TransactionSummaryServiceTest {
 
         transactionSummaryService.projectTransactionSummary(transactionEntity, paymentCreatedEvent, events);
 
-        verify(mockTransactionSummaryDao).upsert(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).upsert(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount());
-        verify(mockTransactionSummaryDao).updateFee(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).updateFee(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getFee());
         verifyNoMoreInteractions(mockTransactionSummaryDao);
     }
 
+    @Test
+    public void shouldRecordAmountAndFeeAsOneDeltaWhenWriteBehindIsEnabled() {
+        when(mockTransactionSummaryDeltaFlusher.isEnabled()).thenReturn(true);
+        TransactionEntity transactionEntity = aTransactionFixture()
+                .withState(SUCCESS)
+                .withAmount(1000L)
+                .withFee(10L)
+                .toEntity();
+        EventEntity paymentCreatedEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now())
+                .withEventType(PAYMENT_CREATED.name()).toEntity();
+        EventEntity captureConfirmedEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now().plusSeconds(1))
+                .withEventType(CAPTURE_CONFIRMED.name()).toEntity();
+        EventEntity captureSubmittedEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now().plusSeconds(1))
+                .withEventType(CAPTURE_SUBMITTED.name()).toEntity();
+
+        transactionSummaryService.projectTransactionSummary(transactionEntity, paymentCreatedEvent,
+                List.of(paymentCreatedEvent, captureSubmittedEvent, captureConfirmedEvent));
+
+        verify(mockTransactionSummaryDao).insertDeltas(deltasArgumentCaptor.capture());
+        verify(mockTransactionSummaryDeltaFlusher).deltasRecorded(1);
+        verifyNoMoreInteractions(mockTransactionSummaryDao);
+
+        List<TransactionSummaryDeltaEntity> deltas = deltasArgumentCaptor.getValue();
+        assertThat(deltas.size(), is(1));
+        assertThat(deltas.get(0).getState(), is(SUCCESS));
+        assertThat(deltas.get(0).getNoOfTransactions(), is(1L));
+        assertThat(deltas.get(0).getAmountInPence(), is(1000L));
+        assertThat(deltas.get(0).getFeeInPence(), is(10L));
+        assertThat(deltas.get(0).getStripe(), is(TransactionSummaryDao.stripeFor(transactionEntity.getExternalId())));
+    }
+
+    @Test
+    public void shouldRecordADeltaDeductingThePreviousStateWhenWriteBehindIsEnabled() {
+        when(mockTransactionSummaryDeltaFlusher.isEnabled()).thenReturn(true);
+        TransactionEntity transactionEntity = aTransactionFixture()
+                .withState(ERROR_GATEWAY)
+                .withAmount(1000L)
+                .toEntity();
+        EventEntity paymentCreatedEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now())
+                .withEventType(PAYMENT_CREATED.name()).toEntity();
+        EventEntity authorisationSucceededEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now().plusSeconds(1))
+                .withEventType(AUTHORISATION_SUCCEEDED.name()).toEntity();
+        EventEntity captureSubmittedEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now().plusSeconds(2))
+                .withEventType(CAPTURE_SUBMITTED.name()).toEntity();
+        EventEntity captureErroredEvent = EventFixture.anEventFixture().withEventDate(ZonedDateTime.now().plusSeconds(3))
+                .withEventType(CAPTURE_ERRORED.name()).toEntity();
+
+        transactionSummaryService.projectTransactionSummary(transactionEntity, captureErroredEvent,
+                List.of(paymentCreatedEvent, authorisationSucceededEvent, captureSubmittedEvent, captureErroredEvent));
+
+        verify(mockTransactionSummaryDao).insertDeltas(deltasArgumentCaptor.capture());
+        verify(mockTransactionSummaryDeltaFlusher).deltasRecorded(2);
+        verifyNoMoreInteractions(mockTransactionSummaryDao);
+
+        List<TransactionSummaryDeltaEntity> deltas = deltasArgumentCaptor.getValue();
+        assertThat(deltas.size(), is(2));
+        assertThat(deltas.get(0).getState(), is(SUCCESS));
+        assertThat(deltas.get(0).getNoOfTransactions(), is(-1L));
+        assertThat(deltas.get(0).getAmountInPence(), is(-1000L));
+        assertThat(deltas.get(1).getState(), is(ERROR_GATEWAY));
+        assertThat(deltas.get(1).getNoOfTransactions(), is(1L));
+        assertThat(deltas.get(1).getAmountInPence(), is(1000L));
+        assertThat(deltas.get(1).getStripe(), is(deltas.get(0).getStripe()));
+    }
+
     @Test
     public void shouldNotUpdateTransactionSummaryForFeeIfFeeIsNotAvailableOnTransaction() {
         TransactionEntity transactionEntity = aTransactionFixture()
@@ -184,7 +260,7 @@ public class TransactionSummaryServiceTest {
 
         transactionSummaryService.projectTransactionSummary(transactionEntity, paymentCreatedEvent, events);
 
-        verify(mockTransactionSummaryDao).upsert(transactionEntity.getGatewayAccountId(),
+        verify(mockTransactionSummaryDao).upsert(transactionEntity.getExternalId(), transactionEntity.getGatewayAccountId(),
                 transactionEntity.getTransactionType(), LocalDate.ofInstant(transactionEntity.getCreatedDate().toInstant(), UTC),
                 transactionEntity.getState(), transactionEntity.isLive(),
                 transactionEntity.isMoto(), transactionEntity.getAmount());
@@ -7,9 +7,20 @@ import uk.gov.pay.ledger.transaction.state.TransactionState;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 public class DatabaseTestHelper {
 
+    private static final String SELECT_TRANSACTION_SUMMARY_OVER_STRIPES = "SELECT gateway_account_id, type," +
+            " transaction_date, state, live, moto," +
+            " SUM(total_amount_in_pence)::bigint AS total_amount_in_pence," +
+            " SUM(no_of_transactions)::bigint AS no_of_transactions," +
+            " SUM(total_fee_in_pence)::bigint AS total_fee_in_pence" +
+            " FROM transaction_summary";
+
+    private static final String GROUP_TRANSACTION_SUMMARY_STRIPES =
+            " GROUP BY gateway_account_id, type, transaction_date, state, live, moto";
+
     private Jdbi jdbi;
 
     private DatabaseTestHelper(Jdbi jdbi) {
@@ -38,19 +49,30 @@ public class DatabaseTestHelper {
         jdbi.withHandle(h -> h.createScript(
                 "TRUNCATE TABLE event CASCADE; " +
                         "TRUNCATE TABLE transaction CASCADE;" +
+                        "TRUNCATE TABLE transaction_external_id CASCADE;" +
                         "TRUNCATE TABLE gateway_account_metadata CASCADE;" +
                         "TRUNCATE TABLE agreement CASCADE;" +
                         "TRUNCATE TABLE payment_instrument CASCADE;" +
-                        "TRUNCATE TABLE transaction_redaction_info"
+                        "TRUNCATE TABLE transaction_redaction_info;" +
+                        "TRUNCATE TABLE event_digest_snapshot;" +
+                        "TRUNCATE TABLE transaction_export"
         ).execute());
     }
 
+    public Optional<Map<String, Object>> getEventDigestSnapshot(String resourceExternalId) {
+        return jdbi.withHandle(handle ->
+                handle.createQuery("SELECT * FROM event_digest_snapshot WHERE resource_external_id = :resourceExternalId")
+                        .bind("resourceExternalId", resourceExternalId)
+                        .mapToMap()
+                        .findOne());
+    }
+
     public void truncateAllPayoutData() {
         jdbi.withHandle(handle -> handle.createScript("TRUNCATE TABLE payout CASCADE").execute());
     }
 
     public void truncateTransactionSummaryData() {
-        jdbi.withHandle(handle -> handle.createScript("TRUNCATE TABLE transaction_summary").execute());
+        jdbi.withHandle(handle -> handle.createScript("TRUNCATE TABLE transaction_summary, transaction_summary_delta").execute());
     }
 
     public int getEventsCountByExternalId(String externalId) {
@@ -107,16 +129,20 @@ public class DatabaseTestHelper {
                         .list());
     }
 
+    /**
+     * The summary rows of a key, with the stripes of each row added up in the same way as the reports do.
+     */
     public List<Map<String, Object>> getTransactionSummary(String gatewayAccountId, TransactionType type,
                                                            TransactionState state, LocalDate transactionDate,
                                                            boolean live, boolean moto) {
         return jdbi.withHandle(handle ->
-                handle.createQuery("SELECT * FROM transaction_summary where gateway_account_id = :gatewayAccountId" +
+                handle.createQuery(SELECT_TRANSACTION_SUMMARY_OVER_STRIPES + " where gateway_account_id = :gatewayAccountId" +
                                 " and transaction_date = :transactionDate" +
                                 " and type = :type" +
                                 " and state = :state" +
                                 " and live = :live" +
-                                " and moto = :moto"
+                                " and moto = :moto" +
+                                GROUP_TRANSACTION_SUMMARY_STRIPES
                         )
                         .bind("gatewayAccountId", gatewayAccountId)
                         .bind("transactionDate", transactionDate)
@@ -129,6 +155,15 @@ public class DatabaseTestHelper {
     }
 
     public List<Map<String, Object>> getTransactionSummary(String gatewayAccountId) {
+        return jdbi.withHandle(handle ->
+                handle.createQuery(SELECT_TRANSACTION_SUMMARY_OVER_STRIPES + " where gateway_account_id = :gatewayAccountId" +
+                                GROUP_TRANSACTION_SUMMARY_STRIPES)
+                        .bind("gatewayAccountId", gatewayAccountId)
+                        .mapToMap()
+                        .list());
+    }
+
+    public List<Map<String, Object>> getTransactionSummaryStripes(String gatewayAccountId) {
         return jdbi.withHandle(handle ->
                 handle.createQuery("SELECT * FROM transaction_summary where gateway_account_id = :gatewayAccountId")
                         .bind("gatewayAccountId", gatewayAccountId)
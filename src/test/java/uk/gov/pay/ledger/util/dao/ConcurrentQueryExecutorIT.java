@@ -0,0 +1,77 @@
+package uk.gov.pay.ledger.util.dao;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConcurrentQueryExecutorIT {
+
+    @RegisterExtension
+    public static AppWithPostgresAndSqsExtension rule = new AppWithPostgresAndSqsExtension();
+
+    private final Jdbi jdbi = rule.getJdbi();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final ExecutorService executorService = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(2));
+    private final ConcurrentQueryExecutor concurrentQueryExecutor = new ConcurrentQueryExecutor(new ReadReplicaRouter(jdbi),
+            executorService, metricRegistry, "test-executor");
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void shouldRunBothQueriesAtTheSameTime() {
+        long startedAt = System.nanoTime();
+
+        int sum = concurrentQueryExecutor.runConcurrently(
+                () -> sleepAndSelect(1, 1),
+                () -> sleepAndSelect(1, 2),
+                Integer::sum);
+
+        assertThat(sum, is(3));
+        assertThat(Duration.ofNanos(System.nanoTime() - startedAt).toMillis(), is(lessThan(1900L)));
+        assertThat(metricRegistry.timer("test-executor.queue-wait").getCount(), is(2L));
+    }
+
+    @Test
+    void shouldCancelTheOtherQueryWhenOneFails() {
+        long startedAt = System.nanoTime();
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () ->
+                concurrentQueryExecutor.runConcurrently(
+                        () -> sleepAndSelect(30, 1),
+                        () -> {
+                            sleepAndSelect(1, 2);
+                            throw new IllegalStateException("count failed");
+                        },
+                        (page, total) -> page));
+
+        assertThat(exception.getMessage(), is("count failed"));
+        assertThat(Duration.ofNanos(System.nanoTime() - startedAt).toSeconds(), is(lessThan(10L)));
+        assertThat(metricRegistry.counter("test-executor.cancelled-queries").getCount(), is(1L));
+    }
+
+    private Integer sleepAndSelect(int seconds, int value) {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT :value FROM pg_sleep(:seconds)")
+                .bind("value", value)
+                .bind("seconds", seconds)
+                .mapTo(Integer.class)
+                .one());
+    }
+}
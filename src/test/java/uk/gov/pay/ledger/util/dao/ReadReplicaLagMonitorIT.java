@@ -0,0 +1,49 @@
+package uk.gov.pay.ledger.util.dao;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+class ReadReplicaLagMonitorIT {
+
+    @RegisterExtension
+    public static AppWithPostgresAndSqsExtension rule = new AppWithPostgresAndSqsExtension();
+
+    private final ReadReplicaRouter readReplicaRouter = new ReadReplicaRouter(rule.getJdbi(), rule.getJdbi());
+
+    @Test
+    void shouldReadFromTheReplicaWhileItIsNotBehind() {
+        ReadReplicaLagMonitor readReplicaLagMonitor = aReadReplicaLagMonitor(rule.getJdbi());
+        readReplicaRouter.setReplicaBehind(true);
+
+        readReplicaLagMonitor.checkLag();
+
+        assertThat(readReplicaRouter.isReplicaBehind(), is(false));
+        assertThat(readReplicaLagMonitor.getLagInSeconds(), is(0.0));
+        assertThat(readReplicaLagMonitor.getCheckFailure().isPresent(), is(false));
+    }
+
+    @Test
+    void shouldReadFromThePrimaryWhenTheLagOfTheReplicaCannotBeChecked() {
+        ReadReplicaLagMonitor readReplicaLagMonitor = aReadReplicaLagMonitor(Jdbi.create("jdbc:postgresql://localhost:1/ledger"));
+
+        readReplicaLagMonitor.checkLag();
+
+        assertThat(readReplicaRouter.isReplicaBehind(), is(true));
+        assertThat(readReplicaLagMonitor.getCheckFailure().isPresent(), is(true));
+    }
+
+    private ReadReplicaLagMonitor aReadReplicaLagMonitor(Jdbi replicaJdbi) {
+        return new ReadReplicaLagMonitor(readReplicaRouter, replicaJdbi, mock(ScheduledExecutorService.class),
+                new MetricRegistry(), Duration.ofSeconds(30), Duration.ofSeconds(5));
+    }
+}
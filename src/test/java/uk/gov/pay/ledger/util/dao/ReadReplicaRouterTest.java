@@ -0,0 +1,54 @@
+package uk.gov.pay.ledger.util.dao;
+
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+
+class ReadReplicaRouterTest {
+
+    private final Jdbi primaryJdbi = mock(Jdbi.class);
+    private final Jdbi replicaJdbi = mock(Jdbi.class);
+    private final ReadReplicaRouter readReplicaRouter = new ReadReplicaRouter(primaryJdbi, replicaJdbi);
+
+    @AfterEach
+    void tearDown() {
+        ReadReplicaRouter.allowReplicaReads(false);
+    }
+
+    @Test
+    void shouldReadFromThePrimaryUnlessReplicaReadsAreAllowed() {
+        assertThat(readReplicaRouter.getJdbiForReads(), is(sameInstance(primaryJdbi)));
+
+        ReadReplicaRouter.allowReplicaReads(true);
+
+        assertThat(readReplicaRouter.getJdbiForReads(), is(sameInstance(replicaJdbi)));
+    }
+
+    @Test
+    void shouldReadFromThePrimaryWhileTheReplicaIsBehind() {
+        ReadReplicaRouter.allowReplicaReads(true);
+        readReplicaRouter.setReplicaBehind(true);
+
+        assertThat(readReplicaRouter.getJdbiForReads(), is(sameInstance(primaryJdbi)));
+    }
+
+    @Test
+    void shouldReadFromThePrimaryWhenThereIsNoReplica() {
+        ReadReplicaRouter.allowReplicaReads(true);
+
+        assertThat(new ReadReplicaRouter(primaryJdbi).getJdbiForReads(), is(sameInstance(primaryJdbi)));
+    }
+
+    @Test
+    void shouldRestoreWhereTheThreadReadsFromAfterReadingOnBehalfOfAnotherThread() {
+        Jdbi jdbi = ReadReplicaRouter.withReplicaReads(true, readReplicaRouter::getJdbiForReads);
+
+        assertThat(jdbi, is(sameInstance(replicaJdbi)));
+        assertThat(ReadReplicaRouter.areReplicaReadsAllowed(), is(false));
+    }
+}
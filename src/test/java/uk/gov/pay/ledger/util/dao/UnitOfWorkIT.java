@@ -0,0 +1,66 @@
+package uk.gov.pay.ledger.util.dao;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import uk.gov.pay.ledger.app.LedgerConfig;
+import uk.gov.pay.ledger.event.dao.EventDao;
+import uk.gov.pay.ledger.event.entity.EventEntity;
+import uk.gov.pay.ledger.extension.AppWithPostgresAndSqsExtension;
+import uk.gov.pay.ledger.transaction.dao.TransactionDao;
+import uk.gov.pay.ledger.transaction.entity.TransactionEntity;
+import uk.gov.pay.ledger.util.DatabaseTestHelper;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static uk.gov.pay.ledger.util.DatabaseTestHelper.aDatabaseTestHelper;
+import static uk.gov.pay.ledger.util.fixture.EventFixture.anEventFixture;
+import static uk.gov.pay.ledger.util.fixture.TransactionFixture.aTransactionFixture;
+
+class UnitOfWorkIT {
+
+    @RegisterExtension
+    public static AppWithPostgresAndSqsExtension rule = new AppWithPostgresAndSqsExtension();
+
+    private final UnitOfWork unitOfWork = new UnitOfWork(rule.getJdbi());
+    private final TransactionDao transactionDao = new TransactionDao(rule.getJdbi(), mock(LedgerConfig.class));
+    private final EventDao eventDao = rule.getJdbi().onDemand(EventDao.class);
+    private final DatabaseTestHelper databaseTestHelper = aDatabaseTestHelper(rule.getJdbi());
+
+    @BeforeEach
+    void setUp() {
+        databaseTestHelper.truncateAllData();
+    }
+
+    @Test
+    void shouldRollBackTheWritesOfAllDaosWhenTheWorkFails() {
+        TransactionEntity transaction = aTransactionFixture().toEntity();
+        EventEntity event = anEventFixture().withResourceExternalId(transaction.getExternalId()).toEntity();
+
+        assertThrows(IllegalStateException.class, () -> unitOfWork.useTransaction(() -> {
+            transactionDao.upsert(transaction);
+            eventDao.insertEventIfDoesNotExistWithResourceTypeId(event);
+            throw new IllegalStateException("projection failed");
+        }));
+
+        assertThat(transactionDao.findTransactionByExternalId(transaction.getExternalId()).isPresent(), is(false));
+        assertThat(eventDao.getEventsByResourceExternalId(transaction.getExternalId()), hasSize(0));
+    }
+
+    @Test
+    void shouldCommitTheWritesOfAllDaosWhenTheWorkCompletes() {
+        TransactionEntity transaction = aTransactionFixture().toEntity();
+        EventEntity event = anEventFixture().withResourceExternalId(transaction.getExternalId()).toEntity();
+
+        unitOfWork.useHandle(() -> unitOfWork.useTransaction(() -> {
+            transactionDao.upsert(transaction);
+            eventDao.insertEventIfDoesNotExistWithResourceTypeId(event);
+        }));
+
+        assertThat(transactionDao.findTransactionByExternalId(transaction.getExternalId()).isPresent(), is(true));
+        assertThat(eventDao.getEventsByResourceExternalId(transaction.getExternalId()), hasSize(1));
+    }
+}
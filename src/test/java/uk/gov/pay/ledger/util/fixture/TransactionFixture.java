@@ -393,6 +393,13 @@ public class TransactionFixture implements DbFixture<TransactionFixture, Transac
 
     @Override
     public TransactionFixture insert(Jdbi jdbi) {
+        if (externalId != null) {
+            jdbi.withHandle(h ->
+                    h.execute("INSERT INTO transaction_external_id(external_id, created_date) VALUES(?, ?) " +
+                                    "ON CONFLICT (external_id) DO NOTHING",
+                            externalId,
+                            createdDate));
+        }
         jdbi.withHandle(h ->
                 h.execute(
                         "INSERT INTO" +
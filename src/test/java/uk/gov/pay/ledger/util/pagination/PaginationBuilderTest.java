@@ -138,4 +138,32 @@ public class PaginationBuilderTest {
         builder = builder.buildResponse();
         assertThat(builder.getNextLink(), is(nullValue()));
     }
+
+    @Test
+    public void shouldBuildCursorLinksWithoutLastLink_whenPageIsRequestedByCursor() {
+        transactionSearchParams.setCursor("current-cursor");
+        transactionSearchParams.setDisplaySize(10L);
+        PaginationBuilder builder = new PaginationBuilder(transactionSearchParams, mockedUriInfo)
+                .withTotalCount(120L)
+                .withCount(10L)
+                .withCursors("next-cursor", null);
+        builder = builder.buildResponse();
+        assertThat(builder.getSelfLink().getHref().contains("cursor=current-cursor&display_size=10"), is(true));
+        assertThat(builder.getFirstLink().getHref().contains("page=1&display_size=10"), is(true));
+        assertThat(builder.getNextLink().getHref().contains("cursor=next-cursor&display_size=10"), is(true));
+        assertThat(builder.getPrevLink(), is(nullValue()));
+        assertThat(builder.getLastLink(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldBuildPageLinks_whenASearchThatCannotBePagedByCursorIsGivenCursors() {
+        payoutSearchParams.setPageNumber(1L);
+        payoutSearchParams.setDisplaySize(10L);
+        PaginationBuilder builder = new PaginationBuilder(payoutSearchParams, mockedUriInfo)
+                .withTotalCount(5L)
+                .withCursors("next-cursor", null);
+        builder = builder.buildResponse();
+        assertThat(builder.getSelfLink().getHref().contains("page=1&display_size=10"), is(true));
+        assertThat(builder.getNextLink(), is(nullValue()));
+    }
 }